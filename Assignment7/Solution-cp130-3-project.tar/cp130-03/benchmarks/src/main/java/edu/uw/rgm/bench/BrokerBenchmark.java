@@ -0,0 +1,117 @@
+package edu.uw.rgm.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.SimpleBroker;
+
+/**
+ * Measures SimpleBroker.placeOrder with several client threads placing orders
+ * concurrently, using in-memory exchange and account stand-ins, for the
+ * default configuration, sharded order managers, and sharded order managers
+ * with triggered order handoff and pipelined trade execution.
+ *
+ * @author Russ Moul
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BrokerBenchmark {
+    /** Ticker symbols traded on the exchange */
+    private static final String[] TICKERS = {"BA", "F", "GE", "IBM", "MSFT", "ORCL", "T", "XOM"};
+
+    /** Account used for all orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** The initial price of every stock */
+    private static final int INITIAL_PRICE = 10_000;
+
+    /** Capacity of the handoff ring and of each trade pipeline stage */
+    private static final int STAGE_CAPACITY = 1_024;
+
+    /** The broker configuration being measured */
+    @Param({"default", "sharded", "staged"})
+    private String configuration;
+
+    /** The exchange stand-in */
+    private InMemoryExchange exchange;
+
+    /** The broker being measured */
+    private SimpleBroker broker;
+
+    /**
+     * Creates the exchange and broker, a new broker each iteration keeps the
+     * stop order books from growing without bound.
+     *
+     * @throws BrokerException if the account can't be created
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws BrokerException {
+        exchange = new InMemoryExchange(TICKERS, INITIAL_PRICE);
+        final BrokerConfig.Builder config = BrokerConfig.builder();
+        if (!"default".equals(configuration)) {
+            config.shardCount(Runtime.getRuntime().availableProcessors());
+        }
+        if ("staged".equals(configuration)) {
+            config.handOffTriggeredOrders(STAGE_CAPACITY).pipelineTradeExecution(STAGE_CAPACITY);
+        }
+        broker = new SimpleBroker("bench", new InMemoryAccountManager(), exchange, config.build());
+        broker.createAccount(ACCOUNT_ID, "password", 1_000_000_000);
+    }
+
+    /**
+     * Releases the broker.
+     *
+     * @throws BrokerException if the broker can't be closed
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws BrokerException {
+        broker.close();
+    }
+
+    /**
+     * Places a market order, which executes immediately.
+     *
+     * @throws BrokerException if the order is refused
+     */
+    @Benchmark
+    public void placeMarketOrder() throws BrokerException {
+        final String ticker = TICKERS[ThreadLocalRandom.current().nextInt(TICKERS.length)];
+        broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 1, ticker));
+    }
+
+    /**
+     * Places a stop order which rests in the order book.
+     *
+     * @throws BrokerException if the order is refused
+     */
+    @Benchmark
+    public void placeStopOrder() throws BrokerException {
+        final ThreadLocalRandom rand = ThreadLocalRandom.current();
+        final String ticker = TICKERS[rand.nextInt(TICKERS.length)];
+        broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 1, ticker, INITIAL_PRICE + 1 + rand.nextInt(1_000)));
+    }
+}
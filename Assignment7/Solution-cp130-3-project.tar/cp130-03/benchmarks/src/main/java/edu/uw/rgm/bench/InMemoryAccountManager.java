@@ -0,0 +1,53 @@
+package edu.uw.rgm.bench;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.account.AccountException;
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.rgm.account.SimpleAccount;
+
+/**
+ * An AccountManager stand-in for benchmarking, accounts are held in memory and
+ * persisting is a no-op.
+ *
+ * @author Russ Moul
+ */
+public final class InMemoryAccountManager implements AccountManager {
+    /** The accounts, by name */
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    @Override
+    public void persist(final Account account) {
+    }
+
+    @Override
+    public Account getAccount(final String accountName) {
+        return accounts.get(accountName);
+    }
+
+    @Override
+    public void deleteAccount(final String accountName) {
+        accounts.remove(accountName);
+    }
+
+    @Override
+    public Account createAccount(final String accountName, final String password,
+                                 final int balance) throws AccountException {
+        final Account acct = new SimpleAccount(accountName, password.getBytes(), balance);
+        acct.registerAccountManager(this);
+        accounts.put(accountName, acct);
+        return acct;
+    }
+
+    @Override
+    public boolean validateLogin(final String accountName, final String password) {
+        return accounts.containsKey(accountName);
+    }
+
+    @Override
+    public void close() {
+        accounts.clear();
+    }
+}
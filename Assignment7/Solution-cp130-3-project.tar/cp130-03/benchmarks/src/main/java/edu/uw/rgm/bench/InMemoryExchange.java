@@ -0,0 +1,108 @@
+package edu.uw.rgm.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * An in-memory StockExchange stand-in for benchmarking, trades execute
+ * immediately at the current price and price changes are only made when
+ * requested.
+ *
+ * @author Russ Moul
+ */
+public final class InMemoryExchange implements StockExchange {
+    /** The ticker symbols traded on the exchange */
+    private final String[] tickers;
+
+    /** The current prices, by ticker */
+    private final Map<String, Integer> prices = new ConcurrentHashMap<>();
+
+    /** The registered listeners */
+    private final List<ExchangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** The exchange state */
+    private volatile boolean open = true;
+
+    /**
+     * Constructor.
+     *
+     * @param tickers the ticker symbols to be traded
+     * @param initialPrice the initial price of every stock
+     */
+    public InMemoryExchange(final String[] tickers, final int initialPrice) {
+        this.tickers = tickers.clone();
+        for (final String ticker : tickers) {
+            prices.put(ticker, initialPrice);
+        }
+    }
+
+    /**
+     * Sets the price of a stock and notifies the listeners.
+     *
+     * @param ticker the ticker symbol of the stock
+     * @param price the new price
+     */
+    public void setPrice(final String ticker, final int price) {
+        prices.put(ticker, price);
+        final ExchangeEvent event = ExchangeEvent.newPriceChangedEvent(this, ticker, price);
+        for (final ExchangeListener listener : listeners) {
+            listener.priceChanged(event);
+        }
+    }
+
+    /**
+     * Opens or closes the exchange and notifies the listeners.
+     *
+     * @param state true to open the exchange, false to close it
+     */
+    public void setOpen(final boolean state) {
+        open = state;
+        for (final ExchangeListener listener : listeners) {
+            if (state) {
+                listener.exchangeOpened(ExchangeEvent.newOpenedEvent(this));
+            } else {
+                listener.exchangeClosed(ExchangeEvent.newClosedEvent(this));
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public String[] getTickers() {
+        return tickers.clone();
+    }
+
+    @Override
+    public StockQuote getQuote(final String ticker) {
+        final Integer price = prices.get(ticker);
+        return (price == null) ? null : new StockQuote(ticker, price);
+    }
+
+    @Override
+    public void addExchangeListener(final ExchangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeExchangeListener(final ExchangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public int executeTrade(final Order order) {
+        final Integer price = prices.get(order.getStockTicker());
+        return (price == null) ? 0 : price;
+    }
+}
@@ -0,0 +1,154 @@
+package edu.uw.rgm.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.SimpleBroker;
+
+/**
+ * Measures the time taken to drain the market order backlog when the exchange
+ * opens, serially and in parallel, with each trade taking a fixed time on the
+ * exchange as a remote exchange's would.  The in-memory account manager
+ * persists nothing, standing in for a write behind account manager.
+ *
+ * @author Russ Moul
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenDrainBenchmark {
+    /** Ticker symbols traded on the exchange */
+    private static final String[] TICKERS = {"BA", "F", "GE", "IBM"};
+
+    /** The initial price of every stock */
+    private static final int INITIAL_PRICE = 10_000;
+
+    /** Number of market orders queued while the exchange is closed */
+    private static final int BACKLOG = 2_000;
+
+    /** Number of accounts placing the orders */
+    private static final int ACCOUNTS = 64;
+
+    /** Time each trade takes on the exchange, in nanoseconds */
+    private static final long TRADE_NANOS = 50_000L;
+
+    /** Number of threads draining the backlog, 0 to drain it serially */
+    @Param({"0", "4", "16"})
+    private int parallelism;
+
+    /** The exchange */
+    private SlowExchange exchange;
+
+    /** The broker being measured */
+    private SimpleBroker broker;
+
+    /**
+     * An exchange taking a fixed time to execute each trade, safe to trade on
+     * concurrently.
+     */
+    private static final class SlowExchange implements StockExchange {
+        /** The exchange delegated to */
+        private final InMemoryExchange exchange = new InMemoryExchange(TICKERS, INITIAL_PRICE);
+
+        @Override
+        public boolean isOpen() {
+            return exchange.isOpen();
+        }
+
+        @Override
+        public String[] getTickers() {
+            return exchange.getTickers();
+        }
+
+        @Override
+        public StockQuote getQuote(final String ticker) {
+            return exchange.getQuote(ticker);
+        }
+
+        @Override
+        public void addExchangeListener(final ExchangeListener listener) {
+            exchange.addExchangeListener(listener);
+        }
+
+        @Override
+        public void removeExchangeListener(final ExchangeListener listener) {
+            exchange.removeExchangeListener(listener);
+        }
+
+        @Override
+        public int executeTrade(final Order order) {
+            final long deadline = System.nanoTime() + TRADE_NANOS;
+            long remaining = TRADE_NANOS;
+            while (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            return exchange.executeTrade(order);
+        }
+    }
+
+    /**
+     * Creates the broker with the exchange closed and queues the backlog.
+     *
+     * @throws BrokerException if the broker can't be created, or an order is
+     *         refused
+     */
+    @Setup(Level.Invocation)
+    public void setUp() throws BrokerException {
+        exchange = new SlowExchange();
+        exchange.exchange.setOpen(false);
+        broker = new SimpleBroker("bench", new InMemoryAccountManager(), exchange,
+                                  BrokerConfig.builder().drainBacklogOnOpen(parallelism).build());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            broker.createAccount("account" + i, "password", Integer.MAX_VALUE);
+        }
+        for (int i = 0; i < BACKLOG; i++) {
+            broker.placeOrder(new MarketBuyOrder("account" + (i % ACCOUNTS), 1, TICKERS[i % TICKERS.length]));
+        }
+    }
+
+    /**
+     * Releases the broker.
+     *
+     * @throws BrokerException if the broker can't be closed
+     */
+    @TearDown(Level.Invocation)
+    public void tearDown() throws BrokerException {
+        broker.close();
+    }
+
+    /**
+     * Opens the exchange, which executes the backlog before returning.
+     *
+     * @return the number of orders still pending, 0
+     */
+    @Benchmark
+    public int openExchange() {
+        exchange.exchange.setOpen(true);
+        return broker.getMetrics().getPendingOrders();
+    }
+}
@@ -0,0 +1,115 @@
+package edu.uw.rgm.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.SimpleOrderManager;
+
+/**
+ * Measures SimpleOrderManager.adjustPrice as the price takes a random walk
+ * through a book of stop orders.  The book is rebuilt for each iteration so
+ * every iteration sees the same mix of ticks which trigger orders and ticks
+ * which don't.
+ *
+ * @author Russ Moul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderManagerBenchmark {
+    /** Ticker symbol used for all orders */
+    private static final String TICKER = "F";
+
+    /** Account used for all orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** The initial price */
+    private static final int MID_PRICE = 10_000;
+
+    /** Stop orders are placed up to this far from the initial price */
+    private static final int BOOK_SPREAD = 5_000;
+
+    /** The largest single price move */
+    private static final int MAX_STEP = 5;
+
+    /** Number of precomputed ticks, a power of two */
+    private static final int TICKS = 65_536;
+
+    /** Number of resting stop orders on each side */
+    @Param({"10000", "100000"})
+    private int depth;
+
+    /** The order manager being measured */
+    private SimpleOrderManager orderMgr;
+
+    /** The random walk */
+    private int[] ticks;
+
+    /** Index of the next tick */
+    private int next;
+
+    /** Count of triggered orders */
+    private long triggered;
+
+    /**
+     * Computes the random walk, the same walk is used for every iteration.
+     */
+    @Setup(Level.Trial)
+    public void setUpWalk() {
+        final Random rand = new Random(42L);
+        ticks = new int[TICKS];
+        int price = MID_PRICE;
+        for (int i = 0; i < TICKS; i++) {
+            price += rand.nextInt(2 * MAX_STEP + 1) - MAX_STEP;
+            price = Math.max(MID_PRICE - BOOK_SPREAD, Math.min(MID_PRICE + BOOK_SPREAD, price));
+            ticks[i] = price;
+        }
+    }
+
+    /**
+     * Builds the book.
+     */
+    @Setup(Level.Iteration)
+    public void setUpBook() {
+        final Random rand = new Random(7L);
+        orderMgr = new SimpleOrderManager(TICKER, MID_PRICE);
+        orderMgr.setBuyOrderProcessor(order -> triggered++);
+        orderMgr.setSellOrderProcessor(order -> triggered++);
+        for (int i = 0; i < depth; i++) {
+            orderMgr.queueOrder(new StopBuyOrder(ACCOUNT_ID, 100, TICKER,
+                                                 MID_PRICE + 1 + rand.nextInt(BOOK_SPREAD)));
+            orderMgr.queueOrder(new StopSellOrder(ACCOUNT_ID, 100, TICKER,
+                                                  MID_PRICE - 1 - rand.nextInt(BOOK_SPREAD)));
+        }
+        next = 0;
+    }
+
+    /**
+     * Applies the next tick of the random walk.
+     *
+     * @return the triggered order count
+     */
+    @Benchmark
+    public long adjustPrice() {
+        orderMgr.adjustPrice(ticks[next++ & (TICKS - 1)]);
+        return triggered;
+    }
+}
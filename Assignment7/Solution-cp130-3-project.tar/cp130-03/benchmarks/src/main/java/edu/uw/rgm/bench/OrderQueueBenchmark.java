@@ -0,0 +1,123 @@
+package edu.uw.rgm.bench;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.PriceLevelOrderQueue;
+import edu.uw.rgm.broker.SimpleOrderQueue;
+
+/**
+ * Measures enqueue and dispatch against stop buy order queues holding a deep
+ * book of resting orders.
+ *
+ * @author Russ Moul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderQueueBenchmark {
+    /** Ticker symbol used for all orders */
+    private static final String TICKER = "F";
+
+    /** Account used for all orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Lowest price of the resting orders */
+    private static final int BOOK_PRICE = 1_000;
+
+    /** Number of distinct prices the resting orders are spread across */
+    private static final int BOOK_LEVELS = 1_000;
+
+    /** Price of the orders enqueued by the benchmark, below the book */
+    private static final int TRIGGER_PRICE = 1;
+
+    /** Number of preallocated incoming orders, a power of two */
+    private static final int INCOMING = 1_024;
+
+    /** Number of resting orders */
+    @Param({"10000", "100000", "1000000"})
+    private int depth;
+
+    /** The queue implementation being measured */
+    @Param({"SimpleOrderQueue", "PriceLevelOrderQueue"})
+    private String queueType;
+
+    /** The queue being measured */
+    private OrderQueue<Integer, StopBuyOrder> queue;
+
+    /** Orders enqueued by the benchmark, reused round robin */
+    private StopBuyOrder[] incoming;
+
+    /** Index of the next incoming order */
+    private int next;
+
+    /** Count of dispatched orders */
+    private long dispatched;
+
+    /**
+     * Creates the queue and fills the book.
+     */
+    @Setup
+    public void setUp() {
+        if ("SimpleOrderQueue".equals(queueType)) {
+            queue = new SimpleOrderQueue<>(0, (t, o) -> o.getPrice() <= t,
+                                           Comparator.comparing(StopBuyOrder::getPrice)
+                                                     .thenComparing(StopBuyOrder::compareTo));
+        } else {
+            queue = new PriceLevelOrderQueue<>(0, (t, o) -> o.getPrice() <= t, false);
+        }
+        queue.setOrderProcessor(order -> dispatched++);
+
+        for (int i = 0; i < depth; i++) {
+            queue.enqueue(new StopBuyOrder(ACCOUNT_ID, 100, TICKER, BOOK_PRICE + i % BOOK_LEVELS));
+        }
+
+        incoming = new StopBuyOrder[INCOMING];
+        for (int i = 0; i < INCOMING; i++) {
+            incoming[i] = new StopBuyOrder(ACCOUNT_ID, 100, TICKER, TRIGGER_PRICE);
+        }
+    }
+
+    /**
+     * Enqueues an order which does not trigger.  The order is then triggered
+     * and dispatched so the depth of the book remains constant.
+     *
+     * @return the dispatch count
+     */
+    @Benchmark
+    public long enqueueAndDispatch() {
+        queue.enqueue(incoming[next++ & (INCOMING - 1)]);
+        queue.setThreshold(TRIGGER_PRICE);
+        queue.setThreshold(0);
+        return dispatched;
+    }
+
+    /**
+     * Dispatches from the deep book when nothing is dispatchable, the common
+     * case on a price tick.
+     *
+     * @return the dispatch count
+     */
+    @Benchmark
+    public long dispatchNothing() {
+        queue.dispatchOrders();
+        return dispatched;
+    }
+}
@@ -0,0 +1,113 @@
+package edu.uw.rgm.bench;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.IntOrderQueue;
+import edu.uw.rgm.broker.SimpleOrderQueue;
+import edu.uw.rgm.broker.SortKeyOrderQueue;
+
+/**
+ * Compares ordering stop sell orders with a comparator chain against ordering
+ * them on a precomputed sort key.  Each operation inserts an order into a
+ * deep book of resting orders, the inserted order is priced above the
+ * threshold so it is immediately dispatched and the book depth remains
+ * constant.  Each insertion descends the full height of the tree.
+ *
+ * @author Russ Moul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortKeyBenchmark {
+    /** Ticker symbol used for all orders */
+    private static final String TICKER = "F";
+
+    /** Account used for all orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Number of distinct prices in the book */
+    private static final int PRICES = 10_000;
+
+    /** The threshold, above every resting order's price */
+    private static final int THRESHOLD = PRICES + 1;
+
+    /** Number of preallocated incoming orders, a power of two */
+    private static final int INCOMING = 65_536;
+
+    /** Number of resting orders */
+    @Param({"10000", "100000", "1000000"})
+    private int depth;
+
+    /** The queue ordered by a comparator chain */
+    private OrderQueue<Integer, StopSellOrder> comparatorQueue;
+
+    /** The queue ordered by a precomputed sort key */
+    private IntOrderQueue<StopSellOrder> sortKeyQueue;
+
+    /** Orders inserted by the benchmark */
+    private StopSellOrder[] incoming;
+
+    /** Index of the next incoming order */
+    private int next;
+
+    /**
+     * Fills both books with the same orders, none of which are dispatchable.
+     * The incoming orders are all dispatchable.
+     */
+    @Setup
+    public void setUp() {
+        final Comparator<StopSellOrder> descending =
+                Comparator.comparing(StopSellOrder::getPrice)
+                          .reversed()
+                          .thenComparing(StopSellOrder::compareTo);
+        comparatorQueue = new SimpleOrderQueue<>(THRESHOLD, (t, o) -> o.getPrice() >= t, descending);
+        sortKeyQueue = new SortKeyOrderQueue<>(THRESHOLD, (t, o) -> o.getPrice() >= t, true);
+
+        final Random rand = new Random(42L);
+        for (int i = 0; i < depth; i++) {
+            final StopSellOrder order = new StopSellOrder(ACCOUNT_ID, 100, TICKER, 1 + rand.nextInt(PRICES));
+            comparatorQueue.enqueue(order);
+            sortKeyQueue.enqueue(order);
+        }
+
+        incoming = new StopSellOrder[INCOMING];
+        for (int i = 0; i < INCOMING; i++) {
+            incoming[i] = new StopSellOrder(ACCOUNT_ID, 100, TICKER, THRESHOLD + rand.nextInt(PRICES));
+        }
+    }
+
+    /**
+     * Inserts into, and dispatches from, the comparator ordered book.
+     */
+    @Benchmark
+    public void comparatorChain() {
+        comparatorQueue.enqueue(incoming[next++ & (INCOMING - 1)]);
+    }
+
+    /**
+     * Inserts into, and dispatches from, the sort key ordered book.
+     */
+    @Benchmark
+    public void sortKey() {
+        sortKeyQueue.enqueue(incoming[next++ & (INCOMING - 1)]);
+    }
+}
@@ -3,6 +3,14 @@ package edu.uw.rgm.account;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,6 +26,13 @@ import edu.uw.ext.framework.dao.AccountDao;
 
 /**
  * A simple account manager that has no persistence, and accepts every login.
+ * <p>
+ * In write-behind mode persisted accounts are only marked dirty, repeated
+ * persists of an account coalesce into a single write, and dirty accounts are
+ * written to the DAO in batches by a flusher thread, when the number of dirty
+ * accounts reaches the batch size or the flush interval elapses, and on close.
+ * Dirty accounts are returned by getAccount in preference to the DAO's copy,
+ * an account persisted but not yet flushed is lost if the process dies.
  *
  * @author Russ Moul
  */
@@ -32,12 +47,33 @@ public final class SimpleAccountManager implements AccountManager {
     /** The hashing algorithm */
     private static final String ALGORITHM = "SHA1";
 
+    /** How long close waits for an in progress flush, in seconds */
+    private static final long FLUSH_SHUTDOWN_SECONDS = 30L;
+
     /** The account DAO to use */
     private AccountDao dao;
 
     /** The factory to use for creating accounts */
     private AccountFactory accountFactory;
 
+    /** Number of dirty accounts which triggers a flush, 0 if writing through */
+    private final int flushBatchSize;
+
+    /** Writes the dirty accounts, null if writing through */
+    private final ScheduledExecutorService flusher;
+
+    /** Serializes flushes, and deletes with flushes, acquired before this */
+    private final Object flushLock = new Object();
+
+    /** Accounts persisted and not yet flushed, by name */
+    private Map<String, Account> dirty = new LinkedHashMap<>();
+
+    /** Accounts being flushed, by name */
+    private Map<String, Account> flushing = Collections.emptyMap();
+
+    /** True if a size triggered flush has been requested and not yet started */
+    private boolean flushRequested;
+
     /**
      * Creates a new Simple account manager using the specified AccountDao for
      * persistence.
@@ -45,7 +81,39 @@ public final class SimpleAccountManager implements AccountManager {
      * @param dao the DAO to use for persistence
      */
     public SimpleAccountManager(final AccountDao dao) {
+        this(dao, 0, 0L);
+    }
+
+    /**
+     * Creates a new Simple account manager using the specified AccountDao for
+     * persistence.  If a flush batch size is provided persistence is write
+     * behind.
+     *
+     * @param dao the DAO to use for persistence
+     * @param flushBatchSize the number of dirty accounts which triggers a
+     *                       flush, 0 to write accounts through to the DAO
+     * @param flushIntervalMillis the longest an account remains dirty, in
+     *                            milliseconds, must be positive if write
+     *                            behind
+     */
+    public SimpleAccountManager(final AccountDao dao, final int flushBatchSize,
+                                final long flushIntervalMillis) {
         this.dao = dao;
+        this.flushBatchSize = flushBatchSize;
+        if (flushBatchSize > 0) {
+            if (flushIntervalMillis <= 0) {
+                throw new IllegalArgumentException("Flush interval must be positive");
+            }
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "account-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis,
+                                           flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
         try (ClassPathXmlApplicationContext 
             appContext = new ClassPathXmlApplicationContext("context.xml")) {
             accountFactory = appContext.getBean(AccountFactory.class);
@@ -62,7 +130,82 @@ public final class SimpleAccountManager implements AccountManager {
      * @exception AccountException if operation fails
      */
     public synchronized void persist(final Account account) throws AccountException {
-        dao.setAccount(account);
+        if (flusher == null) {
+            dao.setAccount(account);
+            return;
+        }
+        dirty.put(account.getName(), account);
+        if (dirty.size() >= flushBatchSize && !flushRequested) {
+            flushRequested = true;
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Writes the dirty accounts to the DAO.  Accounts persisted while the
+     * flush is in progress are left for the next flush, accounts which fail to
+     * be written are returned to the dirty accounts unless persisted again.
+     *
+     * @exception AccountException if an account can't be written
+     */
+    public void flush() throws AccountException {
+        synchronized (flushLock) {
+            final Map<String, Account> batch;
+            synchronized (this) {
+                batch = dirty;
+                if (batch.isEmpty()) {
+                    return;
+                }
+                dirty = new LinkedHashMap<>();
+                flushing = batch;
+                flushRequested = false;
+            }
+
+            final Iterator<Account> pending = batch.values().iterator();
+            try {
+                while (pending.hasNext()) {
+                    dao.setAccount(pending.next());
+                    pending.remove();
+                }
+            } finally {
+                synchronized (this) {
+                    for (final Account account : batch.values()) {
+                        dirty.putIfAbsent(account.getName(), account);
+                    }
+                    flushing = Collections.emptyMap();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the dirty accounts, logging rather than throwing any failure.
+     * Used by the flusher thread.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final AccountException | RuntimeException ex) {
+            log.error("Unable to flush dirty accounts.", ex);
+        }
+    }
+
+    /**
+     * Gets an account, from the dirty or being flushed accounts if it has not
+     * yet been written, otherwise from the DAO.
+     *
+     * @param accountName the name of the account
+     *
+     * @return the account, or null if there is no such account
+     *
+     * @exception AccountException if operation fails
+     */
+    private Account lookup(final String accountName) throws AccountException {
+        Account acct = dirty.get(accountName);
+        if (acct == null) {
+            acct = flushing.get(accountName);
+        }
+        return (acct != null) ? acct : dao.getAccount(accountName);
     }
 
     /**
@@ -75,7 +218,7 @@ public final class SimpleAccountManager implements AccountManager {
      * @exception AccountException if operation fails
      */
     public synchronized Account getAccount(final String accountName) throws AccountException {
-        final Account acct = dao.getAccount(accountName);
+        final Account acct = lookup(accountName);
         if (acct != null) {
             acct.registerAccountManager(this);
         }
@@ -89,11 +232,17 @@ public final class SimpleAccountManager implements AccountManager {
      *
      * @exception AccountException if operation fails
      */
-    public synchronized void deleteAccount(final String accountName) throws AccountException {
-        final Account acct = dao.getAccount(accountName);
+    public void deleteAccount(final String accountName) throws AccountException {
+        // exclude flushes, so the account can't be rewritten once deleted
+        synchronized (flushLock) {
+            synchronized (this) {
+                final Account acct = lookup(accountName);
+                dirty.remove(accountName);
 
-        if (acct != null) {
-            dao.deleteAccount(accountName);
+                if (acct != null) {
+                    dao.deleteAccount(accountName);
+                }
+            }
         }
     }
 
@@ -113,13 +262,14 @@ public final class SimpleAccountManager implements AccountManager {
                                               final String password,
                                               final int balance)
         throws AccountException {
-        if (dao.getAccount(accountName) == null) {
+        if (lookup(accountName) == null) {
             final byte[] passwordHash = hashPassword(password);
 
             final Account acct = accountFactory.newAccount(accountName,
                                  passwordHash, balance);
             acct.registerAccountManager(this);
-            persist(acct);
+            // new accounts are always written through
+            dao.setAccount(acct);
 
             return acct;
         } else {
@@ -175,13 +325,27 @@ public final class SimpleAccountManager implements AccountManager {
     }
 
     /**
-     * Closes the account manager.
+     * Closes the account manager, flushing any dirty accounts.  The DAO is
+     * closed even if the flush fails.
      *
-     * @exception AccountException if the DAO can't be closed
+     * @exception AccountException if the dirty accounts can't be flushed, or
+     *            the DAO can't be closed
      */
     public void close() throws AccountException {
-        dao.close();
-        dao = null;
+        try {
+            if (flusher != null) {
+                flusher.shutdown();
+                try {
+                    flusher.awaitTermination(FLUSH_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                flush();
+            }
+        } finally {
+            dao.close();
+            dao = null;
+        }
     }
 }
 
@@ -7,12 +7,51 @@ import edu.uw.ext.framework.dao.AccountDao;
 
 /**
  * A simple implementation of the AccountManagerFactory that instantiates the
- * SimpleAccountManager.
+ * SimpleAccountManager, writing accounts through to the DAO unless the
+ * factory is configured for write-behind.
  *
  * @author Russ Moul
  */
 public final class SimpleAccountManagerFactory implements AccountManagerFactory
 {
+    /** Number of dirty accounts which triggers a flush, 0 if writing through */
+    private final int flushBatchSize;
+
+    /** The longest an account remains dirty, in milliseconds */
+    private final long flushIntervalMillis;
+
+    /**
+     * Creates a factory for account managers which write accounts through to
+     * the DAO.
+     */
+    public SimpleAccountManagerFactory() {
+        this(0, 0L);
+    }
+
+    /**
+     * Creates a factory for account managers which write accounts behind, if
+     * a flush batch size is provided.
+     *
+     * @param flushBatchSize the number of dirty accounts which triggers a
+     *                       flush, 0 to write accounts through to the DAO
+     * @param flushIntervalMillis the longest an account remains dirty, in
+     *                            milliseconds, must be positive if write
+     *                            behind
+     *
+     * @throws IllegalArgumentException if the batch size is negative, or the
+     *         interval isn't positive for write behind
+     */
+    public SimpleAccountManagerFactory(final int flushBatchSize, final long flushIntervalMillis) {
+        if (flushBatchSize < 0) {
+            throw new IllegalArgumentException("Flush batch size must not be negative");
+        }
+        if (flushBatchSize > 0 && flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.flushBatchSize = flushBatchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
     /**
      * Instantiates a new SimpleAccountManager instance.
      *
@@ -21,7 +60,7 @@ public final class SimpleAccountManagerFactory implements AccountManagerFactory
      * @return a newly instantiated SimpleAccountManager
      */
     public AccountManager newAccountManager(final AccountDao dao) {
-        return new SimpleAccountManager(dao);
+        return new SimpleAccountManager(dao, flushBatchSize, flushIntervalMillis);
     }
 }
 
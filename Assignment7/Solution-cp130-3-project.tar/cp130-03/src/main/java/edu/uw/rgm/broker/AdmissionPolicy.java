@@ -0,0 +1,23 @@
+package edu.uw.rgm.broker;
+
+/**
+ * How a bounded order queue responds to an order offered while it is full.
+ *
+ * @author Russ Moul
+ */
+public enum AdmissionPolicy {
+    /** The offered order is rejected immediately */
+    REJECT,
+
+    /** The offer waits, up to a timeout, for space to become available */
+    BLOCK,
+
+    /**
+     * The lowest priority queued order is shed to make room, unless the
+     * offered order is itself the lowest priority in which case it is
+     * rejected.  Priority is ranked by a comparator supplied with the policy,
+     * orders it ranks equally are ranked by queue order so the newest is the
+     * lowest priority.
+     */
+    SHED_LOWEST
+}
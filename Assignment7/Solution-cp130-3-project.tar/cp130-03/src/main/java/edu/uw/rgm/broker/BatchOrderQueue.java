@@ -0,0 +1,28 @@
+package edu.uw.rgm.broker;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * An OrderQueue able to dispatch all of the currently dispatchable orders in a
+ * single batch.  When a batch processor is registered it is used in place of
+ * the per order processor; dispatching removes the full triggered range from
+ * the queue before passing it, in dispatch order, to the batch processor.
+ *
+ * @param <T> the dispatch threshold type
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public interface BatchOrderQueue<T, E extends Order> extends OrderQueue<T, E> {
+    /**
+     * Registers the callback to be used for batch order processing, null
+     * reverts to per order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    void setBatchOrderProcessor(Consumer<List<E>> proc);
+}
@@ -0,0 +1,422 @@
+package edu.uw.rgm.broker;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * The configuration of a SimpleBroker, fixed for the broker's lifetime.
+ * Configurations are created with a Builder, which validates the
+ * configuration as it is built.
+ *
+ * @author Russ Moul
+ */
+public final class BrokerConfig {
+    /** The default configuration, every order is processed on the calling thread */
+    public static final BrokerConfig DEFAULT = builder().build();
+
+    /** Executor used to execute market orders, null to execute them on the calling thread */
+    private final Executor marketDispatcher;
+
+    /** Capacity limits applied to orders placed with the broker */
+    private final OrderLimits limits;
+
+    /** Directory holding the order journals, null if orders aren't journaled */
+    private final Path journalDirectory;
+
+    /** Number of order manager workers, 0 to use the order lock */
+    private final int shardCount;
+
+    /** Executor conflated price changes are processed on, null if they aren't conflated */
+    private final Executor priceChangeDrainer;
+
+    /** Minimum capacity of the triggered order handoff ring, 0 if they aren't handed off */
+    private final int handoffCapacity;
+
+    /** Capacity of each trade pipeline stage's queue, 0 if there is no pipeline */
+    private final int pipelineCapacity;
+
+    /** Number of threads draining the backlog on market open, 0 to drain it serially */
+    private final int openDrainParallelism;
+
+    /** True if the broker's metrics are registered as MBeans */
+    private final boolean registerMBeans;
+
+    /** How the order managers store resting stop orders */
+    private final OrderStorage orderStorage;
+
+    /**
+     * Constructor.
+     *
+     * @param builder the builder holding the configuration
+     */
+    private BrokerConfig(final Builder builder) {
+        marketDispatcher = builder.marketDispatcher;
+        limits = builder.limits;
+        journalDirectory = builder.journalDirectory;
+        shardCount = builder.shardCount;
+        priceChangeDrainer = builder.priceChangeDrainer;
+        handoffCapacity = builder.handoffCapacity;
+        pipelineCapacity = builder.pipelineCapacity;
+        openDrainParallelism = builder.openDrainParallelism;
+        registerMBeans = builder.registerMBeans;
+        orderStorage = builder.orderStorage;
+    }
+
+    /**
+     * Creates a builder, initialized to the default configuration.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the executor used to execute market orders.
+     *
+     * @return the executor, null if market orders are executed on the calling
+     *         thread
+     */
+    public Executor getMarketDispatcher() {
+        return marketDispatcher;
+    }
+
+    /**
+     * Gets the capacity limits applied to orders placed with the broker.
+     *
+     * @return the limits
+     */
+    public OrderLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Gets the directory holding the order journals.
+     *
+     * @return the directory, null if orders aren't journaled
+     */
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * Gets the number of order manager workers.
+     *
+     * @return the shard count, 0 if the order managers are guarded by the
+     *         order lock
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Gets the executor conflated price changes are processed on.
+     *
+     * @return the executor, null if price changes aren't conflated
+     */
+    public Executor getPriceChangeDrainer() {
+        return priceChangeDrainer;
+    }
+
+    /**
+     * Gets the minimum capacity of the triggered order handoff ring.
+     *
+     * @return the capacity, 0 if triggered orders aren't handed off
+     */
+    public int getHandoffCapacity() {
+        return handoffCapacity;
+    }
+
+    /**
+     * Gets the capacity of each trade pipeline stage's queue.
+     *
+     * @return the capacity, 0 if trades aren't pipelined
+     */
+    public int getPipelineCapacity() {
+        return pipelineCapacity;
+    }
+
+    /**
+     * Gets the number of threads draining the market order backlog when the
+     * exchange opens.
+     *
+     * @return the parallelism, 0 if the backlog is drained serially
+     */
+    public int getOpenDrainParallelism() {
+        return openDrainParallelism;
+    }
+
+    /**
+     * Determines if the broker's metrics are registered as MBeans.
+     *
+     * @return true if the MBeans are registered
+     */
+    public boolean isRegisterMBeans() {
+        return registerMBeans;
+    }
+
+    /**
+     * Gets how the order managers store resting stop orders.
+     *
+     * @return the order storage
+     */
+    public OrderStorage getOrderStorage() {
+        return orderStorage;
+    }
+
+    /**
+     * Builds a BrokerConfig, each setting is validated as it is set and
+     * conflicting settings are refused when the configuration is built.
+     */
+    public static final class Builder {
+        /** Executor used to execute market orders */
+        private Executor marketDispatcher;
+
+        /** Capacity limits */
+        private OrderLimits limits = OrderLimits.UNLIMITED;
+
+        /** Directory holding the order journals */
+        private Path journalDirectory;
+
+        /** Number of order manager workers */
+        private int shardCount;
+
+        /** Executor conflated price changes are processed on */
+        private Executor priceChangeDrainer;
+
+        /** Minimum capacity of the triggered order handoff ring */
+        private int handoffCapacity;
+
+        /** Capacity of each trade pipeline stage's queue */
+        private int pipelineCapacity;
+
+        /** Number of threads draining the backlog on market open */
+        private int openDrainParallelism;
+
+        /** True if the broker's metrics are registered as MBeans */
+        private boolean registerMBeans;
+
+        /** How the order managers store resting stop orders */
+        private OrderStorage orderStorage = OrderStorage.HEAP;
+
+        /**
+         * Constructor.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Executes market orders asynchronously on an executor, placing an
+         * order or processing an exchange event never waits on trade
+         * execution.
+         *
+         * @param dispatcher executor used to execute market orders, null to
+         *                   execute them on the calling thread
+         *
+         * @return this builder
+         */
+        public Builder marketDispatcher(final Executor dispatcher) {
+            marketDispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * Applies capacity limits, orders placed once the broker, or its
+         * market order queue, is at capacity are refused with a
+         * BrokerSaturatedException.
+         *
+         * @param orderLimits the capacity limits to apply
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the limits are null
+         */
+        public Builder limits(final OrderLimits orderLimits) {
+            if (orderLimits == null) {
+                throw new IllegalArgumentException("Limits required, use OrderLimits.UNLIMITED for none");
+            }
+            limits = orderLimits;
+            return this;
+        }
+
+        /**
+         * Journals the market and stop order queues to a directory, any
+         * orders journaled by a previous broker are recovered.  Recovered
+         * orders keep their time in force, and may still be cancelled by the
+         * ids they were placed with.  Trailing stop orders are not journaled,
+         * so are lost on a restart.
+         *
+         * @param directory directory holding the order journals, null if
+         *                  orders aren't to be journaled
+         *
+         * @return this builder
+         */
+        public Builder journalDirectory(final Path directory) {
+            journalDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Distributes the order managers across worker threads by ticker,
+         * price changes and stop orders are handed to the worker owning the
+         * ticker's order manager rather than being processed under the order
+         * lock.  Price changes are applied asynchronously, placing a stop
+         * order waits for the worker to queue it.
+         *
+         * @param count the number of order manager workers, 0 to process
+         *              order manager operations under the order lock
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the count is negative
+         */
+        public Builder shardCount(final int count) {
+            shardCount = requireNonNegative(count, "Shard count");
+            return this;
+        }
+
+        /**
+         * Conflates the exchange's price changes, during bursts only the
+         * latest, high and low price of each stock are processed.  The
+         * conflated price changes are processed on the specified executor,
+         * and are flushed before a stop order is queued so it can't trigger
+         * on earlier prices.  The price changes of stocks with trailing stop
+         * orders are processed in arrival order, rather than conflated.
+         *
+         * @param drainer the executor conflated price changes are processed
+         *                on, null if price changes aren't to be conflated
+         *
+         * @return this builder
+         */
+        public Builder conflatePriceChanges(final Executor drainer) {
+            priceChangeDrainer = drainer;
+            return this;
+        }
+
+        /**
+         * Hands triggered stop orders off to the market order queue through a
+         * ring buffer, rather than enqueueing them on the thread processing
+         * the price change.  A dedicated thread moves the triggered orders to
+         * the market order queue in batches, so price changes don't wait on
+         * market order queue insertion or trade execution.  An order whose
+         * expiry falls due while it is being handed off isn't expired, it
+         * triggered before its expiry and is executed once handed off.
+         *
+         * @param capacity the minimum capacity of the ring buffer, 0 if
+         *                 triggered orders aren't to be handed off
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the capacity is negative
+         */
+        public Builder handOffTriggeredOrders(final int capacity) {
+            handoffCapacity = requireNonNegative(capacity, "Handoff capacity");
+            return this;
+        }
+
+        /**
+         * Executes market orders in a pipeline of execute, account update
+         * and persist stages, each on its own thread and connected by bounded
+         * queues, rather than on the thread dispatching the market orders.
+         *
+         * @param capacity the capacity of each stage's queue, 0 if trades
+         *                 aren't to be pipelined
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the capacity is negative
+         */
+        public Builder pipelineTradeExecution(final int capacity) {
+            pipelineCapacity = requireNonNegative(capacity, "Pipeline capacity");
+            return this;
+        }
+
+        /**
+         * Drains the backlog of market orders queued while the exchange was
+         * closed in parallel when the exchange opens, rather than serially on
+         * the exchange listener thread.  The backlog is partitioned by
+         * account, each account's orders are executed in order.
+         * <p>
+         * Trades are executed on several threads at once, so the exchange's
+         * executeTrade and the account manager must be safe to call
+         * concurrently.  The account manager should write behind, otherwise
+         * the drain threads serialize on its persists and little is gained.
+         * May not be combined with pipelined trade execution, whose single
+         * execute stage would serialize the drain.
+         *
+         * @param parallelism the number of threads draining the backlog, 0 to
+         *                    drain it serially
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the parallelism is negative
+         */
+        public Builder drainBacklogOnOpen(final int parallelism) {
+            openDrainParallelism = requireNonNegative(parallelism, "Open drain parallelism");
+            return this;
+        }
+
+        /**
+         * Registers the broker's metrics, and those of each order manager,
+         * with the platform MBean server.
+         *
+         * @param register true if the MBeans are to be registered
+         *
+         * @return this builder
+         */
+        public Builder registerMBeans(final boolean register) {
+            registerMBeans = register;
+            return this;
+        }
+
+        /**
+         * Selects how the order managers created by the broker store their
+         * resting stop orders.
+         *
+         * @param storage the order storage
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the storage is null
+         */
+        public Builder orderStorage(final OrderStorage storage) {
+            if (storage == null) {
+                throw new IllegalArgumentException("Order storage required, use OrderStorage.HEAP for the default");
+            }
+            orderStorage = storage;
+            return this;
+        }
+
+        /**
+         * Builds the configuration.
+         *
+         * @return the configuration
+         *
+         * @throws IllegalStateException if the backlog is to be drained in
+         *         parallel and trades are pipelined
+         */
+        public BrokerConfig build() {
+            if (openDrainParallelism > 0 && pipelineCapacity > 0) {
+                throw new IllegalStateException("Parallel open drain can't be combined with a trade pipeline");
+            }
+            return new BrokerConfig(this);
+        }
+
+        /**
+         * Validates a count setting.
+         *
+         * @param value the value
+         * @param setting the name of the setting, for the exception message
+         *
+         * @return the value
+         *
+         * @throws IllegalArgumentException if the value is negative
+         */
+        private static int requireNonNegative(final int value, final String setting) {
+            if (value < 0) {
+                throw new IllegalArgumentException(String.format("%s must not be negative, %d", setting, value));
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package edu.uw.rgm.broker;
+
+import java.util.function.IntSupplier;
+
+/**
+ * The metrics of a broker.  Counts and latencies are recorded by the broker
+ * on its order and trade paths using striped counters, so they may be left
+ * enabled in production; gauges, such as the queue depths, are read from the
+ * broker's thread safe collaborators when requested.
+ *
+ * @author Russ Moul
+ */
+public final class BrokerMetrics implements BrokerMetricsMXBean {
+    /** Percentile reported as the median */
+    private static final double MEDIAN = 50.0;
+
+    /** The 99th percentile */
+    private static final double P99 = 99.0;
+
+    /** The 99.9th percentile */
+    private static final double P999 = 99.9;
+
+    /** Supplies the number of pending orders */
+    private final IntSupplier pendingOrders;
+
+    /** Supplies the market order queue depth */
+    private final IntSupplier marketQueueDepth;
+
+    /** Supplies the handoff backlog */
+    private final IntSupplier handoffBacklog;
+
+    /** Orders placed with the broker */
+    private final RateMeter placed = new RateMeter();
+
+    /** The market order queue */
+    private final QueueMetrics marketOrders = new QueueMetrics();
+
+    /** Trade execution latencies */
+    private final LatencyHistogram tradeLatency = new LatencyHistogram();
+
+    /** Account persist latencies */
+    private final LatencyHistogram persistLatency = new LatencyHistogram();
+
+    /** Exchange events received */
+    private final RateMeter exchangeEvents = new RateMeter();
+
+    /**
+     * Constructor.
+     *
+     * @param pendingOrders supplies the number of pending orders
+     * @param marketQueueDepth supplies the market order queue depth
+     * @param handoffBacklog supplies the handoff backlog
+     */
+    public BrokerMetrics(final IntSupplier pendingOrders,
+                         final IntSupplier marketQueueDepth,
+                         final IntSupplier handoffBacklog) {
+        this.pendingOrders = pendingOrders;
+        this.marketQueueDepth = marketQueueDepth;
+        this.handoffBacklog = handoffBacklog;
+    }
+
+    /**
+     * Gets the meter counting orders placed with the broker.
+     *
+     * @return the orders placed meter
+     */
+    public RateMeter placed() {
+        return placed;
+    }
+
+    /**
+     * Gets the market order queue's metrics, its depth is supplied rather
+     * than derived from these counts.
+     *
+     * @return the market order queue metrics
+     */
+    public QueueMetrics marketOrders() {
+        return marketOrders;
+    }
+
+    /**
+     * Gets the histogram of trade execution latencies.
+     *
+     * @return the trade latency histogram
+     */
+    public LatencyHistogram tradeLatency() {
+        return tradeLatency;
+    }
+
+    /**
+     * Gets the histogram of account persist latencies.
+     *
+     * @return the persist latency histogram
+     */
+    public LatencyHistogram persistLatency() {
+        return persistLatency;
+    }
+
+    /**
+     * Gets the meter counting exchange events.
+     *
+     * @return the exchange events meter
+     */
+    public RateMeter exchangeEvents() {
+        return exchangeEvents;
+    }
+
+    @Override
+    public int getPendingOrders() {
+        return pendingOrders.getAsInt();
+    }
+
+    @Override
+    public int getMarketQueueDepth() {
+        return marketQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getHandoffBacklog() {
+        return handoffBacklog.getAsInt();
+    }
+
+    @Override
+    public long getOrdersPlacedCount() {
+        return placed.getCount();
+    }
+
+    @Override
+    public double getOrderPlacementRate() {
+        return placed.getRate();
+    }
+
+    @Override
+    public long getMarketEnqueuedCount() {
+        return marketOrders.getEnqueuedCount();
+    }
+
+    @Override
+    public double getMarketEnqueueRate() {
+        return marketOrders.getEnqueueRate();
+    }
+
+    @Override
+    public long getMarketDispatchedCount() {
+        return marketOrders.getDispatchedCount();
+    }
+
+    @Override
+    public double getMarketDispatchRate() {
+        return marketOrders.getDispatchRate();
+    }
+
+    @Override
+    public long getTradeCount() {
+        return tradeLatency.getCount();
+    }
+
+    @Override
+    public double getTradeLatencyMedianMicros() {
+        return tradeLatency.getPercentileMicros(MEDIAN);
+    }
+
+    @Override
+    public double getTradeLatency99thMicros() {
+        return tradeLatency.getPercentileMicros(P99);
+    }
+
+    @Override
+    public double getTradeLatency999thMicros() {
+        return tradeLatency.getPercentileMicros(P999);
+    }
+
+    @Override
+    public double getTradeLatencyMaxMicros() {
+        return tradeLatency.getMaxMicros();
+    }
+
+    @Override
+    public long getPersistCount() {
+        return persistLatency.getCount();
+    }
+
+    @Override
+    public double getPersistLatencyMedianMicros() {
+        return persistLatency.getPercentileMicros(MEDIAN);
+    }
+
+    @Override
+    public double getPersistLatency99thMicros() {
+        return persistLatency.getPercentileMicros(P99);
+    }
+
+    @Override
+    public double getPersistLatency999thMicros() {
+        return persistLatency.getPercentileMicros(P999);
+    }
+
+    @Override
+    public double getPersistLatencyMaxMicros() {
+        return persistLatency.getMaxMicros();
+    }
+
+    @Override
+    public long getExchangeEventCount() {
+        return exchangeEvents.getCount();
+    }
+
+    @Override
+    public double getExchangeEventRate() {
+        return exchangeEvents.getRate();
+    }
+}
@@ -0,0 +1,158 @@
+package edu.uw.rgm.broker;
+
+/**
+ * Management interface exposing a broker's order flow and trade execution.
+ * Latencies are in microseconds, rates are per second.
+ *
+ * @author Russ Moul
+ */
+public interface BrokerMetricsMXBean {
+    /**
+     * Gets the number of orders placed and not yet executed, cancelled or
+     * expired.
+     *
+     * @return the number of pending orders
+     */
+    int getPendingOrders();
+
+    /**
+     * Gets the number of orders in the market order queue.
+     *
+     * @return the market order queue depth
+     */
+    int getMarketQueueDepth();
+
+    /**
+     * Gets the number of triggered orders awaiting handoff to the market
+     * order queue.
+     *
+     * @return the handoff backlog, 0 if triggered orders aren't handed off
+     */
+    int getHandoffBacklog();
+
+    /**
+     * Gets the number of orders placed with the broker.
+     *
+     * @return the number of orders placed
+     */
+    long getOrdersPlacedCount();
+
+    /**
+     * Gets the rate orders are placed with the broker.
+     *
+     * @return orders placed per second
+     */
+    double getOrderPlacementRate();
+
+    /**
+     * Gets the number of orders added to the market order queue.
+     *
+     * @return the number of market orders enqueued
+     */
+    long getMarketEnqueuedCount();
+
+    /**
+     * Gets the rate orders are added to the market order queue.
+     *
+     * @return market orders enqueued per second
+     */
+    double getMarketEnqueueRate();
+
+    /**
+     * Gets the number of orders dispatched from the market order queue.
+     *
+     * @return the number of market orders dispatched
+     */
+    long getMarketDispatchedCount();
+
+    /**
+     * Gets the rate orders are dispatched from the market order queue.
+     *
+     * @return market orders dispatched per second
+     */
+    double getMarketDispatchRate();
+
+    /**
+     * Gets the number of trades executed on the exchange.
+     *
+     * @return the number of trades
+     */
+    long getTradeCount();
+
+    /**
+     * Gets the median trade execution latency.
+     *
+     * @return the median latency
+     */
+    double getTradeLatencyMedianMicros();
+
+    /**
+     * Gets the 99th percentile trade execution latency.
+     *
+     * @return the 99th percentile latency
+     */
+    double getTradeLatency99thMicros();
+
+    /**
+     * Gets the 99.9th percentile trade execution latency.
+     *
+     * @return the 99.9th percentile latency
+     */
+    double getTradeLatency999thMicros();
+
+    /**
+     * Gets the longest trade execution latency.
+     *
+     * @return the longest latency
+     */
+    double getTradeLatencyMaxMicros();
+
+    /**
+     * Gets the number of accounts persisted after trades.
+     *
+     * @return the number of persists
+     */
+    long getPersistCount();
+
+    /**
+     * Gets the median account persist latency.
+     *
+     * @return the median latency
+     */
+    double getPersistLatencyMedianMicros();
+
+    /**
+     * Gets the 99th percentile account persist latency.
+     *
+     * @return the 99th percentile latency
+     */
+    double getPersistLatency99thMicros();
+
+    /**
+     * Gets the 99.9th percentile account persist latency.
+     *
+     * @return the 99.9th percentile latency
+     */
+    double getPersistLatency999thMicros();
+
+    /**
+     * Gets the longest account persist latency.
+     *
+     * @return the longest latency
+     */
+    double getPersistLatencyMaxMicros();
+
+    /**
+     * Gets the number of exchange events received.
+     *
+     * @return the number of exchange events
+     */
+    long getExchangeEventCount();
+
+    /**
+     * Gets the rate exchange events are received.
+     *
+     * @return exchange events per second
+     */
+    double getExchangeEventRate();
+}
@@ -0,0 +1,23 @@
+package edu.uw.rgm.broker;
+
+import edu.uw.ext.framework.broker.BrokerException;
+
+/**
+ * Signals an order was refused because the broker, or one of its queues, is
+ * at capacity.  The condition is transient, the order may be resubmitted.
+ *
+ * @author Russ Moul
+ */
+public final class BrokerSaturatedException extends BrokerException {
+    /** Version id */
+    private static final long serialVersionUID = -3409178624730592318L;
+
+    /**
+     * Constructor.
+     *
+     * @param msg the exception message
+     */
+    public BrokerSaturatedException(final String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,669 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * A thread safe OrderQueue implementation backed by a concurrent skip list.
+ * Any number of threads may enqueue orders and adjust the threshold
+ * concurrently without locking.  Dispatching is serialized without blocking,
+ * the first thread to request a dispatch drains the queue while requests made
+ * by other threads in the meantime are picked up by that same thread before
+ * it returns, so the order processor is never run concurrently and orders are
+ * processed in queue order.  An order the order processor fails on is
+ * logged and dropped, and dispatching continues with the next order.
+ * <p>
+ * If constructed with an executor the queue dispatches asynchronously, a
+ * dispatch request only schedules the queue's drain task on the executor (if
+ * it isn't already scheduled) and returns.  At most one drain task per queue
+ * is outstanding so ordering is preserved, and callers never run the order
+ * processor themselves.
+ * <p>
+ * The queue may be given a capacity, orders submitted through
+ * {@link #offer(Order, long, TimeUnit) offer} are then subject to the queue's
+ * admission policy.  Orders added through {@link #enqueue(Order) enqueue}, for
+ * example stop orders being moved to the market queue, are always accepted
+ * and may temporarily take the queue over capacity.  Under the SHED_LOWEST
+ * policy the queued orders are also indexed by their shed priority, so the
+ * lowest priority order can be found without scanning the queue.
+ *
+ * @param <T> the dispatch threshold type
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public final class ConcurrentOrderQueue<T, E extends Order>
+                                         implements OrderQueue<T, E> {
+    /** This class' logger */
+    private static final Logger logger =
+                         LoggerFactory.getLogger(ConcurrentOrderQueue.class);
+
+    /** The queue data structure, only the keys are significant */
+    private final ConcurrentSkipListMap<E, Boolean> queue;
+
+    /** The filter used to determine if an order is dispatchable */
+    private final BiPredicate<T, E> filter;
+
+    /** Order processor used to process dispatchable orders */
+    private volatile Consumer<E> orderProcessor;
+
+    /** The current threshold. */
+    private volatile T threshold;
+
+    /** Count of dispatch requests not yet serviced by the draining thread */
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
+
+    /** Executor used to run the drain task, null if dispatching inline */
+    private final Executor dispatcher;
+
+    /** True once dispatching has been stopped */
+    private volatile boolean stopped;
+
+    /** Number of orders in the queue, the skip list's size() is not constant time */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Maximum number of orders admitted through offer */
+    private final int capacity;
+
+    /** Policy applied to orders offered while the queue is full */
+    private final AdmissionPolicy policy;
+
+    /**
+     * The queued orders by shed priority, lowest priority last, null unless
+     * the policy is SHED_LOWEST.  An order is added before it is put in the
+     * queue and removed after it is taken from the queue.
+     */
+    private final ConcurrentSkipListSet<E> byPriority;
+
+    /** Processor notified of orders shed from the queue, may be null */
+    private volatile Consumer<E> shedProcessor;
+
+    /** Lock used only by offers blocked waiting for space */
+    private final ReentrantLock spaceLock = new ReentrantLock();
+
+    /** Signalled when space becomes available */
+    private final Condition spaceAvailable = spaceLock.newCondition();
+
+    /** Number of offers blocked waiting for space */
+    private final AtomicInteger spaceWaiters = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     */
+    public ConcurrentOrderQueue(final T threshold, final BiPredicate<T, E> filter) {
+        this(threshold, filter, null, null);
+    }
+
+    /**
+     * Constructor, for a queue that dispatches asynchronously.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param dispatcher the executor the drain task is to be run on
+     */
+    public ConcurrentOrderQueue(final T threshold,
+                                final BiPredicate<T, E> filter,
+                                final Executor dispatcher) {
+        this(threshold, filter, null, dispatcher);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param cmp Comparator to be used for ordering
+     */
+    public ConcurrentOrderQueue(final T threshold,
+                                final BiPredicate<T, E> filter,
+                                final Comparator<E> cmp) {
+        this(threshold, filter, cmp, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param cmp Comparator to be used for ordering, null for natural ordering
+     * @param dispatcher the executor the drain task is to be run on, null to
+     *                   dispatch on the requesting thread
+     */
+    public ConcurrentOrderQueue(final T threshold,
+                                final BiPredicate<T, E> filter,
+                                final Comparator<E> cmp,
+                                final Executor dispatcher) {
+        this(threshold, filter, cmp, dispatcher, Integer.MAX_VALUE, AdmissionPolicy.REJECT);
+    }
+
+    /**
+     * Constructor, for a bounded queue.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param cmp Comparator to be used for ordering, null for natural ordering
+     * @param dispatcher the executor the drain task is to be run on, null to
+     *                   dispatch on the requesting thread
+     * @param capacity the maximum number of orders admitted through offer
+     * @param policy the policy applied to orders offered while the queue is
+     *               full
+     */
+    public ConcurrentOrderQueue(final T threshold,
+                                final BiPredicate<T, E> filter,
+                                final Comparator<E> cmp,
+                                final Executor dispatcher,
+                                final int capacity,
+                                final AdmissionPolicy policy) {
+        this(threshold, filter, cmp, dispatcher, capacity, policy, null);
+    }
+
+    /**
+     * Constructor, for a bounded queue which may shed orders.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param cmp Comparator to be used for ordering, null for natural ordering
+     * @param dispatcher the executor the drain task is to be run on, null to
+     *                   dispatch on the requesting thread
+     * @param capacity the maximum number of orders admitted through offer
+     * @param policy the policy applied to orders offered while the queue is
+     *               full
+     * @param shedPriority ranks orders for shedding, the order ranked last is
+     *                     the lowest priority; orders it ranks equally are
+     *                     ranked by the queue's ordering.  Required by, and
+     *                     only used by, the SHED_LOWEST policy
+     *
+     * @throws IllegalArgumentException if the policy is SHED_LOWEST and no
+     *         shed priority is provided
+     */
+    public ConcurrentOrderQueue(final T threshold,
+                                final BiPredicate<T, E> filter,
+                                final Comparator<E> cmp,
+                                final Executor dispatcher,
+                                final int capacity,
+                                final AdmissionPolicy policy,
+                                final Comparator<? super E> shedPriority) {
+        queue = new ConcurrentSkipListMap<>(cmp);
+        this.threshold = threshold;
+        this.filter = filter;
+        this.dispatcher = dispatcher;
+        this.capacity = capacity;
+        this.policy = policy;
+        if (policy == AdmissionPolicy.SHED_LOWEST) {
+            if (shedPriority == null) {
+                throw new IllegalArgumentException("SHED_LOWEST requires a shed priority");
+            }
+            final Comparator<E> ranking = shedPriority::compare;
+            byPriority = new ConcurrentSkipListSet<>(ranking.thenComparing(this::compare));
+        } else {
+            byPriority = null;
+        }
+    }
+
+    /**
+     * Adds the specified order to the queue.  Subsequent to adding the order
+     * dispatches any dispatchable orders.
+     *
+     * @param order the order to be added to the queue
+     */
+    @Override
+    public void enqueue(final E order) {
+        if (put(order)) {
+            size.incrementAndGet();
+        }
+        dispatchOrders();
+    }
+
+    /**
+     * Adds the specified orders to the queue, like enqueue they are always
+     * accepted.  Subsequent to adding all of the orders dispatches any
+     * dispatchable orders, once.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    public void enqueueAll(final Collection<? extends E> orders) {
+        for (final E order : orders) {
+            if (put(order)) {
+                size.incrementAndGet();
+            }
+        }
+        dispatchOrders();
+    }
+
+    /**
+     * Adds the specified order to the queue, subject to the queue's capacity
+     * and admission policy.  Subsequent to adding the order dispatches any
+     * dispatchable orders.
+     *
+     * @param order the order to be added to the queue
+     * @param timeout how long to wait for space, only used by the BLOCK policy
+     * @param unit the unit of the timeout
+     *
+     * @return true if the order was added, false if it was refused
+     *
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    public boolean offer(final E order, final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        boolean admitted = reserve();
+        if (!admitted) {
+            switch (policy) {
+            case BLOCK:
+                admitted = awaitSpace(timeout, unit);
+                break;
+            case SHED_LOWEST:
+                return shedFor(order);
+            default:
+                break;
+            }
+        }
+
+        if (admitted) {
+            if (!put(order)) {
+                release();
+            }
+            dispatchOrders();
+        }
+        return admitted;
+    }
+
+    /**
+     * Adds the specified orders to the queue provided it has the capacity for
+     * all of them, either every order is added or none are.  The admission
+     * policy isn't applied, the orders are simply refused if the queue lacks
+     * the capacity.  Subsequent to adding the orders dispatches any
+     * dispatchable orders, once.
+     *
+     * @param orders the orders to be added to the queue
+     *
+     * @return true if the orders were added, false if they were refused
+     */
+    public boolean offerAll(final Collection<? extends E> orders) {
+        final int count = orders.size();
+        int current;
+        do {
+            current = size.get();
+            if (current > capacity - count) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + count));
+
+        for (final E order : orders) {
+            if (!put(order)) {
+                release();
+            }
+        }
+        dispatchOrders();
+        return true;
+    }
+
+    /**
+     * Puts an order in the queue, and the priority index if shedding.
+     *
+     * @param order the order
+     *
+     * @return true if the order was added, false if it was already queued
+     */
+    private boolean put(final E order) {
+        if (byPriority != null) {
+            byPriority.add(order);
+        }
+        return queue.put(order, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Removes an order from the queue, and the priority index if shedding.
+     *
+     * @param order the order
+     *
+     * @return true if this call removed the order
+     */
+    private boolean remove(final E order) {
+        final boolean removed = queue.remove(order) != null;
+        if (removed && byPriority != null) {
+            byPriority.remove(order);
+        }
+        return removed;
+    }
+
+    /**
+     * Reserves space for an order, if the queue is under capacity.
+     *
+     * @return true if space was reserved
+     */
+    private boolean reserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases the space held by a removed order, waking any blocked offers.
+     */
+    private void release() {
+        size.decrementAndGet();
+        if (spaceWaiters.get() > 0) {
+            spaceLock.lock();
+            try {
+                spaceAvailable.signalAll();
+            } finally {
+                spaceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits for space to become available and reserves it.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     *
+     * @return true if space was reserved, false if the wait timed out
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean awaitSpace(final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        spaceLock.lock();
+        spaceWaiters.incrementAndGet();
+        try {
+            while (!reserve()) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = spaceAvailable.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            spaceWaiters.decrementAndGet();
+            spaceLock.unlock();
+        }
+    }
+
+    /**
+     * Makes room for an order by shedding the lowest priority queued order,
+     * provided the offered order has a higher priority.  The shed order is
+     * passed to the shed processor.
+     *
+     * @param order the order being offered
+     *
+     * @return true if the order was added
+     */
+    private boolean shedFor(final E order) {
+        final Comparator<? super E> ranking = byPriority.comparator();
+        // an order may be indexed momentarily before it is queued or after it
+        // is dispatched, pass over any that can't be removed from the queue
+        for (final E lowest : byPriority.descendingSet()) {
+            if (ranking.compare(order, lowest) >= 0) {
+                break;
+            }
+            if (remove(lowest)) {
+                // the shed order's space is handed to the offered order
+                if (!put(order)) {
+                    release();
+                }
+                final Consumer<E> proc = shedProcessor;
+                if (proc != null) {
+                    proc.accept(lowest);
+                }
+                dispatchOrders();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares two orders using the queue's ordering.
+     *
+     * @param o1 the first order
+     * @param o2 the second order
+     *
+     * @return negative, zero or positive as o1 is ahead of, level with or
+     *         behind o2
+     */
+    private int compare(final E o1, final E o2) {
+        final Comparator<? super E> cmp = queue.comparator();
+        return (cmp == null) ? o1.compareTo(o2) : cmp.compare(o1, o2);
+    }
+
+    /**
+     * Registers the callback notified of orders shed to make room for higher
+     * priority orders.
+     *
+     * @param proc the callback to be registered
+     */
+    public void setShedOrderProcessor(final Consumer<E> proc) {
+        shedProcessor = proc;
+    }
+
+    /**
+     * Obtains the number of orders in the queue.
+     *
+     * @return the number of queued orders
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Removes a queued order without dispatching it.
+     *
+     * @param order the order to remove
+     *
+     * @return true if the order was queued and has been removed, false if it
+     *         is not in the queue or has already been dispatched
+     */
+    public boolean cancel(final E order) {
+        final boolean removed = remove(order);
+        if (removed) {
+            release();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every queued order without dispatching them, regardless of the
+     * threshold.
+     *
+     * @return the removed orders, in queue order
+     */
+    public List<E> removeAll() {
+        final List<E> removed = new ArrayList<>();
+        Map.Entry<E, Boolean> first;
+        while ((first = queue.pollFirstEntry()) != null) {
+            if (byPriority != null) {
+                byPriority.remove(first.getKey());
+            }
+            release();
+            removed.add(first.getKey());
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the highest dispatchable order in the queue. If there are orders
+     * in the queue but they do not meet the dispatch threshold order will not
+     * be removed and null will be returned.
+     *
+     * @return the first dispatchable order in the queue, or null if there are no
+     *         dispatchable orders in the queue
+     */
+    @Override
+    public E dequeue() {
+        Map.Entry<E, Boolean> first;
+
+        while ((first = queue.firstEntry()) != null) {
+            final E order = first.getKey();
+            if (!filter.test(threshold, order)) {
+                break;
+            }
+            // another thread may have removed it first, if so try the next
+            if (remove(order)) {
+                release();
+                return order;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Executes the callback for each dispatchable order.  If another thread is
+     * already dispatching, this request is handed off to that thread and the
+     * method returns immediately.  If the queue dispatches asynchronously the
+     * drain task is scheduled rather than run.
+     */
+    @Override
+    public void dispatchOrders() {
+        if (pendingDispatches.getAndIncrement() != 0) {
+            return;
+        }
+
+        if (dispatcher == null) {
+            drain();
+        } else {
+            try {
+                dispatcher.execute(this::drain);
+            } catch (final RejectedExecutionException ex) {
+                // the executor is shutting down, don't strand the orders
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Dispatches orders until all outstanding dispatch requests have been
+     * serviced.  Only ever run by one thread at a time.  The drain's claim is
+     * released on every exit, should an Error escape the order processor the
+     * requests made meanwhile are left to the next dispatch request rather
+     * than wedging the queue.
+     */
+    private void drain() {
+        int requests = 1;
+        boolean completed = false;
+        try {
+            do {
+                E order;
+                while (!stopped && (order = dequeue()) != null) {
+                    process(order);
+                }
+                requests = pendingDispatches.addAndGet(-requests);
+            } while (requests != 0);
+            completed = true;
+        } finally {
+            if (!completed) {
+                pendingDispatches.set(0);
+            }
+        }
+    }
+
+    /**
+     * Stops dispatching orders, queued orders remain queued.  Waits for a
+     * dispatch in progress, whether on the dispatcher or a calling thread, to
+     * finish with the order it is processing.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout argument
+     *
+     * @return true if dispatching has stopped, false if the wait timed out
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stopDispatching(final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        stopped = true;
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pendingDispatches.get() != 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Passes a dispatched order to the order processor, if one is registered.
+     * A RuntimeException thrown by the processor is logged rather than
+     * propagated, so the remaining orders are still dispatched and, when
+     * dispatching asynchronously, the failure isn't lost in the executor.
+     *
+     * @param order the dispatched order
+     */
+    private void process(final E order) {
+        final Consumer<E> proc = orderProcessor;
+        if (proc != null) {
+            try {
+                proc.accept(order);
+            } catch (final RuntimeException ex) {
+                logger.error(String.format("Unable to process order - %s", order), ex);
+            }
+        }
+    }
+
+    /**
+     * Registers the callback to be used during order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setOrderProcessor(final Consumer<E> proc) {
+        orderProcessor = proc;
+    }
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold - the new threshold
+     */
+    @Override
+    public void setThreshold(final T threshold) {
+        this.threshold = threshold;
+        dispatchOrders();
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    public T getThreshold() {
+        return threshold;
+    }
+}
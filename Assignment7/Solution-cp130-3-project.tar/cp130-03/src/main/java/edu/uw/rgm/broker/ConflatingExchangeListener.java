@@ -0,0 +1,315 @@
+package edu.uw.rgm.broker;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntPredicate;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+
+/**
+ * An ExchangeListener which conflates price changes before passing them on to
+ * a TickerListener.  The ticker of each price change is resolved to its id as
+ * the event is received, as by {@link TickerEventAdapter}, and price changes
+ * for symbols which aren't registered are dropped.  Price changes are
+ * accumulated in arrays indexed by ticker id, keeping the latest price and the
+ * high and low since the ticker was last drained, and a drain is scheduled on
+ * an executor.  The drain passes each changed ticker's high, low and latest
+ * price on to the listener, skipping the extremes when they equal the latest
+ * price, so a burst of price changes costs at most three adjustments per
+ * ticker.  Since the extremes are passed on every stop order the burst would
+ * have triggered is still triggered.  A stop order placed during a burst could
+ * also trigger on extremes reached before it was placed, so the accumulated
+ * price changes must be flushed before a stop order is queued.
+ * <p>
+ * Whether a trailing stop order triggers depends on the order the prices
+ * were reached in, not just their extremes, so the price changes of a ticker
+ * with trailing stop orders are not conflated.  They are accumulated in
+ * arrival order and passed on in that order, any conflated changes
+ * accumulated before the ticker needed ordering being passed on first.
+ * <p>
+ * Exchange open and close events are passed on immediately, after draining any
+ * accumulated price changes, so they remain ordered with respect to the price
+ * changes.
+ *
+ * @author Russ Moul
+ */
+public final class ConflatingExchangeListener implements ExchangeListener {
+    /** Resolves symbols to ids */
+    private final TickerRegistry registry;
+
+    /** The listener price changes are passed on to */
+    private final TickerListener listener;
+
+    /** The executor the drains are performed on */
+    private final Executor drainer;
+
+    /** Determines if a ticker's price changes must be passed on in arrival order */
+    private final IntPredicate ordered;
+
+    /** Guards the accumulated price changes */
+    private final Object stateLock = new Object();
+
+    /** Serializes drains, and the events passed on to the listener */
+    private final Object drainLock = new Object();
+
+    /** The latest price, by ticker id */
+    private final int[] latest;
+
+    /** The highest price since the last drain, by ticker id */
+    private final int[] high;
+
+    /** The lowest price since the last drain, by ticker id */
+    private final int[] low;
+
+    /** True if the price has changed since the last drain, by ticker id */
+    private final boolean[] dirty;
+
+    /** The prices since the last drain in arrival order, if not conflated, by ticker id */
+    private final int[][] arrivals;
+
+    /** The number of prices in arrivals, 0 if the prices are conflated, by ticker id */
+    private final int[] arrivalCounts;
+
+    /** The ids of the tickers changed since the last drain */
+    private final int[] dirtyIds;
+
+    /** The number of ids in dirtyIds */
+    private int dirtyCount;
+
+    /** Ids of the tickers being drained */
+    private final int[] drainIds;
+
+    /** The number of prices passed on for each ticker being drained */
+    private final int[] drainCounts;
+
+    /** The prices passed on for the tickers being drained, in order */
+    private int[] drainPrices;
+
+    /** True if a drain has been scheduled and not yet started */
+    private boolean scheduled;
+
+    /**
+     * Constructor, conflating the price changes of every ticker.
+     *
+     * @param registry resolves symbols to ids
+     * @param listener the listener price changes are passed on to
+     * @param drainer the executor the drains are performed on
+     */
+    public ConflatingExchangeListener(final TickerRegistry registry, final TickerListener listener,
+                                      final Executor drainer) {
+        this(registry, listener, drainer, tickerId -> false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param registry resolves symbols to ids
+     * @param listener the listener price changes are passed on to
+     * @param drainer the executor the drains are performed on
+     * @param ordered determines, by ticker id, if a ticker's price changes
+     *                must be passed on in arrival order, such as when it has
+     *                trailing stop orders, tested as each price change
+     *                arrives
+     */
+    public ConflatingExchangeListener(final TickerRegistry registry, final TickerListener listener,
+                                      final Executor drainer, final IntPredicate ordered) {
+        this.registry = registry;
+        this.listener = listener;
+        this.drainer = drainer;
+        this.ordered = ordered;
+        final int size = registry.size();
+        latest = new int[size];
+        high = new int[size];
+        low = new int[size];
+        dirty = new boolean[size];
+        arrivals = new int[size][];
+        arrivalCounts = new int[size];
+        dirtyIds = new int[size];
+        drainIds = new int[size];
+        drainCounts = new int[size];
+        drainPrices = new int[size * 3];
+    }
+
+    /**
+     * Accumulates a price change, scheduling a drain if one is not pending.
+     *
+     * @param event the price change event
+     */
+    @Override
+    public void priceChanged(final ExchangeEvent event) {
+        final int tickerId = registry.idOf(event.getTicker());
+        if (tickerId == TickerRegistry.NO_ID) {
+            return;
+        }
+        final int price = event.getPrice();
+        final boolean inOrder = ordered.test(tickerId);
+        final boolean schedule;
+        synchronized (stateLock) {
+            if (dirty[tickerId]) {
+                if (arrivalCounts[tickerId] == 0 && inOrder) {
+                    recordConflated(tickerId);
+                }
+                high[tickerId] = Math.max(high[tickerId], price);
+                low[tickerId] = Math.min(low[tickerId], price);
+            } else {
+                dirty[tickerId] = true;
+                high[tickerId] = price;
+                low[tickerId] = price;
+                dirtyIds[dirtyCount++] = tickerId;
+            }
+            if (arrivalCounts[tickerId] > 0 || inOrder) {
+                arrived(tickerId, price);
+            }
+            latest[tickerId] = price;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+
+        if (schedule) {
+            try {
+                drainer.execute(this::drain);
+            } catch (final RejectedExecutionException ex) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Records a price of a ticker in arrival order.  Must be called holding
+     * the state lock.
+     *
+     * @param tickerId the ticker id
+     * @param price the price
+     */
+    private void arrived(final int tickerId, final int price) {
+        int[] prices = arrivals[tickerId];
+        final int count = arrivalCounts[tickerId];
+        if (prices == null || count == prices.length) {
+            prices = (prices == null) ? new int[4] : Arrays.copyOf(prices, count * 2);
+            arrivals[tickerId] = prices;
+        }
+        prices[count] = price;
+        arrivalCounts[tickerId] = count + 1;
+    }
+
+    /**
+     * Switches a ticker to recording prices in arrival order, the prices
+     * conflated so far are recorded as they would be passed on.  Must be
+     * called holding the state lock.
+     *
+     * @param tickerId the ticker id
+     */
+    private void recordConflated(final int tickerId) {
+        if (high[tickerId] != latest[tickerId]) {
+            arrived(tickerId, high[tickerId]);
+        }
+        if (low[tickerId] != latest[tickerId]) {
+            arrived(tickerId, low[tickerId]);
+        }
+        arrived(tickerId, latest[tickerId]);
+    }
+
+    /**
+     * Copies the prices of a ticker to be passed on into the drain prices, in
+     * the order they are to be passed on.  Must be called holding the state
+     * lock.
+     *
+     * @param tickerId the ticker id
+     * @param offset the index of the first price
+     *
+     * @return the number of prices copied
+     */
+    private int copyPrices(final int tickerId, final int offset) {
+        final int arrivalCount = arrivalCounts[tickerId];
+        if (arrivalCount > 0) {
+            System.arraycopy(arrivals[tickerId], 0, drainPrices, offset, arrivalCount);
+            return arrivalCount;
+        }
+        int count = 0;
+        if (high[tickerId] != latest[tickerId]) {
+            drainPrices[offset + count++] = high[tickerId];
+        }
+        if (low[tickerId] != latest[tickerId]) {
+            drainPrices[offset + count++] = low[tickerId];
+        }
+        drainPrices[offset + count++] = latest[tickerId];
+        return count;
+    }
+
+    /**
+     * Drains the accumulated price changes, then passes the open event on.
+     *
+     * @param event the exchange (open) event
+     */
+    @Override
+    public void exchangeOpened(final ExchangeEvent event) {
+        synchronized (drainLock) {
+            drain();
+            listener.exchangeOpened(event);
+        }
+    }
+
+    /**
+     * Drains the accumulated price changes, then passes the close event on.
+     *
+     * @param event the exchange (closed) event
+     */
+    @Override
+    public void exchangeClosed(final ExchangeEvent event) {
+        synchronized (drainLock) {
+            drain();
+            listener.exchangeClosed(event);
+        }
+    }
+
+    /**
+     * Passes the accumulated price changes on to the listener on the calling
+     * thread, waiting for any drain in progress to finish first.  Must not be
+     * called while holding a lock the listener acquires.
+     */
+    public void flush() {
+        drain();
+    }
+
+    /**
+     * Passes the accumulated price changes on to the listener.  The changes are
+     * copied out under the state lock so price changes continue to accumulate
+     * while the listener runs.
+     */
+    private void drain() {
+        synchronized (drainLock) {
+            final int count;
+            synchronized (stateLock) {
+                scheduled = false;
+                count = dirtyCount;
+                int priceCount = 0;
+                for (int i = 0; i < count; i++) {
+                    priceCount += Math.max(arrivalCounts[dirtyIds[i]], 3);
+                }
+                if (drainPrices.length < priceCount) {
+                    drainPrices = new int[priceCount];
+                }
+                int offset = 0;
+                for (int i = 0; i < count; i++) {
+                    final int tickerId = dirtyIds[i];
+                    drainIds[i] = tickerId;
+                    drainCounts[i] = copyPrices(tickerId, offset);
+                    offset += drainCounts[i];
+                    dirty[tickerId] = false;
+                    arrivalCounts[tickerId] = 0;
+                }
+                dirtyCount = 0;
+            }
+
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                final int tickerId = drainIds[i];
+                for (int end = offset + drainCounts[i]; offset < end; offset++) {
+                    listener.priceChanged(tickerId, drainPrices[offset]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel used to expire queued orders.  Each slot of the wheel
+ * covers one tick, an item is placed in the slot its deadline hashes to and
+ * advancing the wheel only visits the slots for the ticks that have elapsed,
+ * so the cost of expiring is proportional to the number of items expiring
+ * rather than the number of items queued.  Items expiring at the close of the
+ * trading day are held separately and expired together.  Items expire within
+ * one tick of their deadline.
+ * <p>
+ * Each slot, and the day items, is an intrusive doubly linked list of
+ * timeouts, and the timeouts are indexed by item identity, so an item
+ * dispatched or cancelled before it expires is removed from the wheel in
+ * constant time and the wheel only holds items which are still to expire.
+ * The expiry handler is invoked without the wheel's monitor held, so it may
+ * take locks under which items are cancelled.  It may still be passed an item
+ * removed from its queue concurrently, and is expected to ignore items that
+ * are no longer queued.
+ *
+ * @param <E> the type of item being expired
+ *
+ * @author Russ Moul
+ */
+public final class ExpiryWheel<E> {
+    /** An item and its deadline, linked into a slot or the day items */
+    private static final class Timeout<E> {
+        /** The item to expire, null for the head of a list */
+        private final E item;
+
+        /** The expiration time, in milliseconds */
+        private final long deadline;
+
+        /** The previous timeout in the list */
+        private Timeout<E> prev = this;
+
+        /** The next timeout in the list */
+        private Timeout<E> next = this;
+
+        /**
+         * Constructor.
+         *
+         * @param item the item to expire
+         * @param deadline the expiration time, in milliseconds
+         */
+        private Timeout(final E item, final long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Links this timeout in at the end of a list.
+         *
+         * @param head the head of the list
+         */
+        private void linkBefore(final Timeout<E> head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        /**
+         * Unlinks this timeout from its list.
+         */
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+    }
+
+    /** The duration of a tick, in milliseconds */
+    private final long tickMillis;
+
+    /** Mask used to map a tick to its slot, the slot count is a power of two */
+    private final int mask;
+
+    /** The heads of the slots of the wheel */
+    private final ArrayList<Timeout<E>> slots;
+
+    /** The head of the items expiring at the end of the trading day */
+    private final Timeout<E> dayItems = new Timeout<>(null, Long.MAX_VALUE);
+
+    /** The timeouts of the scheduled items, by item identity */
+    private final IdentityHashMap<E, Timeout<E>> scheduled = new IdentityHashMap<>();
+
+    /** Handler for expired items */
+    private final Consumer<E> expiryHandler;
+
+    /** The last tick processed */
+    private long currentTick;
+
+    /**
+     * Constructor.
+     *
+     * @param tickMillis the duration of a tick, in milliseconds
+     * @param slotCount the number of slots in the wheel, rounded up to a power
+     *                  of two
+     * @param now the current time, in milliseconds
+     * @param expiryHandler handler invoked for each expired item
+     */
+    public ExpiryWheel(final long tickMillis, final int slotCount, final long now,
+                       final Consumer<E> expiryHandler) {
+        final int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.expiryHandler = expiryHandler;
+        mask = size - 1;
+        slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new Timeout<>(null, Long.MAX_VALUE));
+        }
+        currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules an item to expire at the specified time, replacing any expiry
+     * already scheduled for it.
+     *
+     * @param item the item to expire
+     * @param deadline the expiration time, in milliseconds
+     */
+    public synchronized void schedule(final E item, final long deadline) {
+        link(item, deadline, slotFor(deadline));
+    }
+
+    /**
+     * Schedules an item to expire at the end of the trading day, replacing any
+     * expiry already scheduled for it.
+     *
+     * @param item the item to expire
+     */
+    public synchronized void scheduleDay(final E item) {
+        link(item, Long.MAX_VALUE, dayItems);
+    }
+
+    /**
+     * Links a new timeout for an item into a list, and indexes it.
+     *
+     * @param item the item to expire
+     * @param deadline the expiration time, in milliseconds
+     * @param head the head of the list
+     */
+    private void link(final E item, final long deadline, final Timeout<E> head) {
+        final Timeout<E> timeout = new Timeout<>(item, deadline);
+        final Timeout<E> previous = scheduled.put(item, timeout);
+        if (previous != null) {
+            previous.unlink();
+        }
+        timeout.linkBefore(head);
+    }
+
+    /**
+     * Cancels the expiry of an item, whether scheduled for a time or the end
+     * of the trading day.
+     *
+     * @param item the item
+     *
+     * @return true if the item was scheduled and has been removed, false if it
+     *         has already expired or was never scheduled
+     */
+    public synchronized boolean cancel(final E item) {
+        final Timeout<E> timeout = scheduled.remove(item);
+        if (timeout == null) {
+            return false;
+        }
+        timeout.unlink();
+        return true;
+    }
+
+    /**
+     * Gets the number of items scheduled to expire.
+     *
+     * @return the number of scheduled items
+     */
+    public synchronized int size() {
+        return scheduled.size();
+    }
+
+    /**
+     * Obtains the head of the slot an item with the specified deadline is
+     * held in.
+     *
+     * @param deadline the expiration time, in milliseconds
+     *
+     * @return the head of the slot
+     */
+    private Timeout<E> slotFor(final long deadline) {
+        // round up so the slot isn't visited before the deadline has passed, an
+        // item already past its deadline expires on the next advance
+        final long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        return slots.get((int) (tick & mask));
+    }
+
+    /**
+     * Expires all items whose deadline has passed.  Only the slots for ticks
+     * elapsed since the last advance are visited, and never more than one
+     * revolution's worth.  The expired items are removed under the wheel's
+     * monitor, and passed to the handler once it has been released.
+     *
+     * @param now the current time, in milliseconds
+     */
+    public void advance(final long now) {
+        final List<E> expiring = new ArrayList<>();
+        synchronized (this) {
+            final long targetTick = now / tickMillis;
+            final long lastTick = Math.min(targetTick, currentTick + mask + 1);
+            for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+                removeExpired(slots.get((int) (tick & mask)), now, expiring);
+            }
+            if (targetTick > currentTick) {
+                currentTick = targetTick;
+            }
+        }
+        expiring.forEach(expiryHandler);
+    }
+
+    /**
+     * Removes the items in a list whose deadline has passed, items for later
+     * revolutions of the wheel are retained.
+     *
+     * @param head the head of the list
+     * @param now the current time, in milliseconds
+     * @param expiring receives the removed items
+     */
+    private void removeExpired(final Timeout<E> head, final long now, final List<E> expiring) {
+        Timeout<E> timeout = head.next;
+        while (timeout != head) {
+            final Timeout<E> next = timeout.next;
+            if (timeout.deadline <= now) {
+                scheduled.remove(timeout.item);
+                timeout.unlink();
+                expiring.add(timeout.item);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Expires all of the items scheduled to expire at the end of the day, in
+     * the order they were scheduled.  The items are passed to the handler
+     * once the wheel's monitor has been released.
+     */
+    public void expireDay() {
+        final List<E> expiring = new ArrayList<>();
+        synchronized (this) {
+            removeExpired(dayItems, Long.MAX_VALUE, expiring);
+        }
+        expiring.forEach(expiryHandler);
+    }
+}
@@ -0,0 +1,222 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pre-allocated, bounded, multiple producer single consumer ring buffer.
+ * Producers claim a sequence number with a single atomic increment, store
+ * their item in the sequence's slot and then publish the sequence number in
+ * the slot's published array entry; publishing never blocks unless the ring
+ * is full, in which case the producer waits for the consumer to free the slot.
+ * <p>
+ * A dedicated consumer thread collects every item published since its last
+ * pass, in sequence order, and hands them to the batch consumer in a single
+ * call.  The consumer spins briefly when the ring is empty and then parks,
+ * producers unpark it when it is parked.
+ * <p>
+ * A batch consumer throwing a RuntimeException is logged and the consumer
+ * carries on with the next batch.  Any other failure stops the consumer
+ * thread, after which publishing fails rather than waiting for a slot that
+ * will never be freed.
+ *
+ * @param <E> the type of item handed off
+ *
+ * @author Russ Moul
+ */
+public final class HandoffRing<E> implements AutoCloseable {
+    /** This class' logger */
+    private static final Logger logger =
+                         LoggerFactory.getLogger(HandoffRing.class);
+
+    /** Number of times the consumer yields before parking */
+    private static final int SPIN_TRIES = 100;
+
+    /** Longest time the consumer parks for, in nanoseconds */
+    private static final long PARK_NANOS = 1_000_000L;
+
+    /** The slots */
+    private final Object[] slots;
+
+    /** The sequence number published in each slot */
+    private final AtomicLongArray published;
+
+    /** Mask used to map a sequence number to its slot */
+    private final int mask;
+
+    /** The last sequence number claimed by a producer */
+    private final AtomicLong claimed = new AtomicLong(-1L);
+
+    /** The last sequence number taken by the consumer */
+    private volatile long consumed = -1L;
+
+    /** True if the consumer is, or is about to be, parked */
+    private volatile boolean consumerParked;
+
+    /** False once the ring has been closed */
+    private volatile boolean running = true;
+
+    /** The failure which stopped the consumer thread, null while it runs */
+    private volatile Throwable consumerFailure;
+
+    /** Receives the batches of items */
+    private final Consumer<List<E>> batchConsumer;
+
+    /** The consumer thread */
+    private final Thread consumer;
+
+    /**
+     * Constructor, starts the consumer thread.
+     *
+     * @param capacity the minimum number of slots, rounded up to a power of two
+     * @param threadName the name of the consumer thread
+     * @param batchConsumer receives the batches of items, the batch list is
+     *                      reused and must not be retained
+     */
+    public HandoffRing(final int capacity, final String threadName,
+                       final Consumer<List<E>> batchConsumer) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        slots = new Object[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1L);
+        }
+        mask = size - 1;
+        this.batchConsumer = batchConsumer;
+        consumer = new Thread(this::consume, threadName);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Hands off an item, waiting for a slot if the ring is full.
+     *
+     * @param item the item
+     *
+     * @throws IllegalStateException if the consumer thread has stopped, the
+     *         item is not handed off
+     */
+    public void publish(final E item) {
+        checkConsumer();
+        final long seq = claimed.incrementAndGet();
+        final int index = (int) seq & mask;
+        while (seq - consumed > slots.length) {
+            if (!consumer.isAlive()) {
+                checkConsumer();
+                throw new IllegalStateException("Handoff consumer has stopped");
+            }
+            LockSupport.unpark(consumer);
+            Thread.yield();
+        }
+        slots[index] = item;
+        published.lazySet(index, seq);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Fails if the consumer thread has been stopped by a failure.
+     *
+     * @throws IllegalStateException if the consumer thread has failed
+     */
+    private void checkConsumer() {
+        final Throwable failure = consumerFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Handoff consumer has stopped", failure);
+        }
+    }
+
+    /**
+     * Gets the number of items published, or being published, and not yet
+     * taken by the consumer.
+     *
+     * @return the backlog
+     */
+    public int backlog() {
+        return (int) (claimed.get() - consumed);
+    }
+
+    /**
+     * Runs the consumer, recording any failure which stops it so producers
+     * fail instead of waiting on it.
+     */
+    private void consume() {
+        try {
+            consumeBatches();
+        } catch (final Throwable ex) {
+            consumerFailure = ex;
+            logger.error("Handoff consumer stopped", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Collects published items and passes them on, until the ring is closed
+     * and every claimed sequence has been consumed.
+     */
+    @SuppressWarnings("unchecked")
+    private void consumeBatches() {
+        final ArrayList<E> batch = new ArrayList<>(slots.length);
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            long last = next - 1;
+            while (last - next < mask && published.get((int) (last + 1) & mask) == last + 1) {
+                last++;
+            }
+
+            if (last >= next) {
+                for (long seq = next; seq <= last; seq++) {
+                    final int index = (int) seq & mask;
+                    batch.add((E) slots[index]);
+                    slots[index] = null;
+                }
+                consumed = last;
+                next = last + 1;
+                idle = 0;
+                try {
+                    batchConsumer.accept(batch);
+                } catch (final RuntimeException ex) {
+                    logger.error("Handoff batch consumer failed", ex);
+                } finally {
+                    batch.clear();
+                }
+            } else if (!running && claimed.get() < next) {
+                return;
+            } else if (++idle < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                consumerParked = true;
+                if (published.get((int) next & mask) != next && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    /**
+     * Closes the ring, the consumer passes on any items already claimed and
+     * then exits.  Items must not be published once the ring is closed.  If
+     * interrupted while waiting for the consumer the interrupt is restored
+     * and the consumer is left to finish on its own.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
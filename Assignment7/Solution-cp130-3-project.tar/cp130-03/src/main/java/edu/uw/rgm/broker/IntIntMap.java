@@ -0,0 +1,159 @@
+package edu.uw.rgm.broker;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open addressing hash map from int keys to non-negative int
+ * values.  Keys and values are held in primitive arrays, so the map holds a
+ * fixed number of objects regardless of its size.
+ *
+ * @author Russ Moul
+ */
+final class IntIntMap {
+    /** Value returned for absent keys, and marking empty slots */
+    static final int NO_VALUE = -1;
+
+    /** Initial number of slots, a power of two */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The keys */
+    private int[] keys;
+
+    /** The values, NO_VALUE for empty slots */
+    private int[] values;
+
+    /** Mask applied to hashes to obtain a slot index */
+    private int mask;
+
+    /** The number of entries */
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    IntIntMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key the key
+     *
+     * @return the value, or NO_VALUE if the key is absent
+     */
+    int get(final int key) {
+        for (int i = slot(key); values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key the key
+     * @param value the value, must be non-negative
+     */
+    void put(final int key, final int value) {
+        int i = slot(key);
+        while (values[i] != NO_VALUE) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (values.length >>> 1)) {
+            rehash(values.length << 1);
+        }
+    }
+
+    /**
+     * Removes a key.  The entries following the removed one in its probe
+     * sequence are shifted back so no tombstone is needed.
+     *
+     * @param key the key
+     *
+     * @return the value removed, or NO_VALUE if the key was absent
+     */
+    int remove(final int key) {
+        int i = slot(key);
+        while (values[i] != NO_VALUE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        final int removed = values[i];
+        if (removed == NO_VALUE) {
+            return NO_VALUE;
+        }
+
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != NO_VALUE; j = (j + 1) & mask) {
+            final int home = slot(keys[j]);
+            // move the entry into the hole unless its home lies cyclically
+            // between the hole and its current slot
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = NO_VALUE;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Computes the home slot of a key.
+     *
+     * @param key the key
+     *
+     * @return the slot index
+     */
+    private int slot(final int key) {
+        final int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Allocates empty tables.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(final int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Moves the entries to larger tables.
+     *
+     * @param capacity the new number of slots, a power of two
+     */
+    private void rehash(final int capacity) {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package edu.uw.rgm.broker;
+
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Dispatch filter for queues having a primitive int threshold.  Serves the
+ * same purpose as a BiPredicate&lt;Integer, E&gt; but avoids boxing the
+ * threshold on each test.
+ *
+ * @param <E> the type of order being tested
+ *
+ * @author Russ Moul
+ */
+@FunctionalInterface
+public interface IntOrderPredicate<E extends Order> {
+    /**
+     * Tests if the order is dispatchable at the threshold.
+     *
+     * @param threshold the current threshold
+     * @param order the order to test
+     *
+     * @return true if the order is dispatchable
+     */
+    boolean test(int threshold, E order);
+}
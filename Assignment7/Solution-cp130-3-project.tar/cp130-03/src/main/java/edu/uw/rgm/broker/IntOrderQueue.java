@@ -0,0 +1,87 @@
+package edu.uw.rgm.broker;
+
+import java.util.Collection;
+
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * An OrderQueue having a primitive int threshold.  Callers holding an int
+ * price should use the int overloads, the Integer forms inherited from
+ * OrderQueue are retained for compatibility.
+ *
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public interface IntOrderQueue<E extends Order> extends BatchOrderQueue<Integer, E> {
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold the new threshold
+     */
+    void setThreshold(int threshold);
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    int getIntThreshold();
+
+    /**
+     * Adds the specified orders to the queue.  Subsequent to adding all of the
+     * orders dispatches any dispatchable orders, once.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    void enqueueAll(Collection<? extends E> orders);
+
+    /**
+     * Cancels a resting order.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return the cancelled order, or null if no such order is resting in the
+     *         queue
+     */
+    E cancel(int orderId);
+
+    /**
+     * Gets a resting order without removing it.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if no such order is resting in the queue
+     */
+    E get(int orderId);
+
+    /**
+     * Obtains the price of the order at the front of the queue, the next order
+     * to be dispatched.
+     *
+     * @param ifEmpty the value to return if the queue is empty
+     *
+     * @return the price of the front order, or ifEmpty if the queue is empty
+     */
+    int peekPrice(int ifEmpty);
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold the new threshold
+     */
+    @Override
+    default void setThreshold(final Integer threshold) {
+        setThreshold(threshold.intValue());
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    default Integer getThreshold() {
+        return getIntThreshold();
+    }
+}
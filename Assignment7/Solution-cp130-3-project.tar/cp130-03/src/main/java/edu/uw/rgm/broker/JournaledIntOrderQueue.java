@@ -0,0 +1,131 @@
+package edu.uw.rgm.broker;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * A JournaledOrderQueue for IntOrderQueues, cancellations and batch dispatches
+ * are journaled as removals.  The decorated queue must dispatch the order
+ * instances it was given.
+ *
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public final class JournaledIntOrderQueue<E extends PricedOrder>
+               extends JournaledOrderQueue<Integer, E> implements IntOrderQueue<E> {
+    /** The decorated queue */
+    private final IntOrderQueue<E> queue;
+
+    /**
+     * Constructor.
+     *
+     * @param queue the queue to decorate
+     * @param journal the journal to record the queue's orders in
+     */
+    public JournaledIntOrderQueue(final IntOrderQueue<E> queue, final OrderJournal journal) {
+        super(queue, journal);
+        this.queue = queue;
+    }
+
+    /**
+     * Journals and enqueues the specified orders, the decorated queue
+     * dispatches once all have been added.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    @Override
+    public void enqueueAll(final Collection<? extends E> orders) {
+        for (final E order : orders) {
+            journal.enqueued(order);
+        }
+        queue.enqueueAll(orders);
+    }
+
+    /**
+     * Cancels a resting order and journals its removal.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return the cancelled order, or null if no such order is resting in the
+     *         queue
+     */
+    @Override
+    public E cancel(final int orderId) {
+        final E order = queue.cancel(orderId);
+        if (order != null) {
+            journal.removed(orderId);
+        }
+        return order;
+    }
+
+    /**
+     * Gets a resting order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if no such order is resting in the queue
+     */
+    @Override
+    public E get(final int orderId) {
+        return queue.get(orderId);
+    }
+
+    /**
+     * Obtains the price of the order at the front of the queue.
+     *
+     * @param ifEmpty the value to return if the queue is empty
+     *
+     * @return the price of the front order, or ifEmpty if the queue is empty
+     */
+    @Override
+    public int peekPrice(final int ifEmpty) {
+        return queue.peekPrice(ifEmpty);
+    }
+
+    /**
+     * Registers the callback to be used for batch order processing, the
+     * removal of each order in a batch is journaled once the callback returns.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setBatchOrderProcessor(final Consumer<List<E>> proc) {
+        if (proc == null) {
+            queue.setBatchOrderProcessor(null);
+        } else {
+            queue.setBatchOrderProcessor(batch -> {
+                try {
+                    proc.accept(batch);
+                } finally {
+                    for (final E order : batch) {
+                        journal.removed(order.getOrderId());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold - the new threshold
+     */
+    @Override
+    public void setThreshold(final int threshold) {
+        queue.setThreshold(threshold);
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    public int getIntThreshold() {
+        return queue.getIntThreshold();
+    }
+}
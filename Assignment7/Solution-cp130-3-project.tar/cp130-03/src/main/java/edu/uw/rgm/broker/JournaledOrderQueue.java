@@ -0,0 +1,163 @@
+package edu.uw.rgm.broker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * An OrderQueue decorator which records the orders entering and leaving the
+ * decorated queue in an OrderJournal, so the queue's contents can be
+ * recovered after a crash.  Orders are journaled before they are enqueued, and
+ * after they have been passed to the order processor.
+ * <p>
+ * The decorator takes over the decorated queue's order processor, callbacks
+ * must be registered with the decorator.
+ *
+ * @param <T> the dispatch threshold type
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public class JournaledOrderQueue<T, E extends Order> implements OrderQueue<T, E>, Closeable {
+    /** The decorated queue */
+    private final OrderQueue<T, E> queue;
+
+    /** The journal */
+    protected final OrderJournal journal;
+
+    /** Order processor used to process dispatchable orders */
+    private Consumer<E> orderProcessor;
+
+    /**
+     * Constructor.
+     *
+     * @param queue the queue to decorate
+     * @param journal the journal to record the queue's orders in
+     */
+    public JournaledOrderQueue(final OrderQueue<T, E> queue, final OrderJournal journal) {
+        this.queue = queue;
+        this.journal = journal;
+        queue.setOrderProcessor(this::dispatched);
+    }
+
+    /**
+     * Recovers the orders journaled before a restart, the orders are enqueued
+     * and dispatched if dispatchable.  Recovered orders are recreated, so have
+     * new order ids, the listener is passed each recovered order and the
+     * details it was journaled with before the order is enqueued.  Should be
+     * called once, after the order processor is registered.  Only orders
+     * enqueued through a journaled queue are recovered, resting trailing stop
+     * orders are held in a TrailingStopBook, which is not journaled.
+     *
+     * @param listener receives each recovered order before it is enqueued
+     *
+     * @return the number of orders recovered
+     *
+     * @throws IOException if the journal can't be compacted
+     */
+    @SuppressWarnings("unchecked")
+    public final int recover(final Consumer<? super OrderJournal.Recovered> listener)
+        throws IOException {
+        final List<OrderJournal.Recovered> orders = journal.recover();
+        for (final OrderJournal.Recovered recovered : orders) {
+            listener.accept(recovered);
+            // the journal only ever holds orders enqueued in this queue
+            queue.enqueue((E) recovered.getOrder());
+        }
+        return orders.size();
+    }
+
+    /**
+     * Passes a dispatched order to the order processor and journals its removal.
+     *
+     * @param order the dispatched order
+     */
+    private void dispatched(final E order) {
+        try {
+            if (orderProcessor != null) {
+                orderProcessor.accept(order);
+            }
+        } finally {
+            journal.removed(order.getOrderId());
+        }
+    }
+
+    /**
+     * Journals and enqueues the specified order.
+     *
+     * @param order the order to be added to the queue
+     */
+    @Override
+    public void enqueue(final E order) {
+        journal.enqueued(order);
+        queue.enqueue(order);
+    }
+
+    /**
+     * Removes the highest dispatchable order in the queue and journals its
+     * removal.
+     *
+     * @return the first dispatchable order in the queue, or null if there are no
+     *         dispatchable orders in the queue
+     */
+    @Override
+    public E dequeue() {
+        final E order = queue.dequeue();
+        if (order != null) {
+            journal.removed(order.getOrderId());
+        }
+        return order;
+    }
+
+    /**
+     * Executes the callback for each dispatchable order.
+     */
+    @Override
+    public void dispatchOrders() {
+        queue.dispatchOrders();
+    }
+
+    /**
+     * Registers the callback to be used during order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setOrderProcessor(final Consumer<E> proc) {
+        orderProcessor = proc;
+    }
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold - the new threshold
+     */
+    @Override
+    public void setThreshold(final T threshold) {
+        queue.setThreshold(threshold);
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    public T getThreshold() {
+        return queue.getThreshold();
+    }
+
+    /**
+     * Flushes and closes the journal.
+     *
+     * @throws IOException if the journal can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
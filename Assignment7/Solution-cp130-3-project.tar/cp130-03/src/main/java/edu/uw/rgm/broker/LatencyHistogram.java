@@ -0,0 +1,149 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies from which percentiles are estimated.  Latencies
+ * are counted in log-linear buckets, each power of two range of nanoseconds
+ * being split into eight equal buckets, so a percentile is reported within
+ * 12.5% of the recorded latency.  Each bucket is a striped LongAdder, so
+ * recording a latency takes no lock; percentiles are computed from a snapshot
+ * of the buckets when read, and may not reflect latencies being recorded
+ * concurrently.
+ *
+ * @author Russ Moul
+ */
+public final class LatencyHistogram {
+    /** The number of bits used to select a bucket within a power of two range */
+    private static final int SUB_BITS = 3;
+
+    /** The number of buckets per power of two range */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** The total number of buckets, enough for any non-negative long */
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    /** The buckets */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /** The largest latency recorded, in nanoseconds */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative latencies are
+     *              recorded as zero
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        buckets[bucketOf(value)].increment();
+        max.accumulate(value);
+    }
+
+    /**
+     * Gets the bucket a latency is counted in.
+     *
+     * @param value the latency, non-negative
+     *
+     * @return the bucket index
+     */
+    private static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the largest latency counted in a bucket.
+     *
+     * @param bucket the bucket index
+     *
+     * @return the bucket's upper bound, in nanoseconds
+     */
+    private static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     *
+     * @return the number of latencies
+     */
+    public long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Estimates a latency percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the estimated latency in microseconds, 0 if nothing has been
+     *         recorded
+     */
+    public double getPercentileMicros(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return toMicros(Math.min(upperBoundOf(i), max.get()));
+            }
+        }
+        return toMicros(max.get());
+    }
+
+    /**
+     * Gets the largest latency recorded.
+     *
+     * @return the largest latency in microseconds
+     */
+    public double getMaxMicros() {
+        return toMicros(max.get());
+    }
+
+    /**
+     * Converts nanoseconds to microseconds.
+     *
+     * @param nanos the duration in nanoseconds
+     *
+     * @return the duration in microseconds
+     */
+    private static double toMicros(final long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,186 @@
+package edu.uw.rgm.broker;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Adapts the market order queue of a SimpleBroker to the operations the
+ * broker performs beyond the OrderQueue interface.  A ConcurrentOrderQueue
+ * supports all of them and is used without locking.  Any other queue, such
+ * as one provided by a sub class, is used under its own monitor, has no
+ * capacity so every order is admitted, and its orders can't be removed so
+ * they don't expire and aren't drained in parallel when the exchange opens.
+ * Once dispatching is stopped orders are no longer added to such a queue,
+ * nor is its threshold changed, so nothing further is dispatched.
+ *
+ * @author Russ Moul
+ */
+final class MarketQueueAdapter {
+    /** The adapted queue */
+    private final OrderQueue<Boolean, Order> queue;
+
+    /** The adapted queue if it is a ConcurrentOrderQueue, otherwise null */
+    private final ConcurrentOrderQueue<Boolean, Order> concurrent;
+
+    /** Set once dispatching is stopped, guarded by the queue's monitor */
+    private boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param queue the market order queue to adapt
+     */
+    MarketQueueAdapter(final OrderQueue<Boolean, Order> queue) {
+        this.queue = queue;
+        concurrent = (queue instanceof ConcurrentOrderQueue)
+                   ? (ConcurrentOrderQueue<Boolean, Order>) queue : null;
+    }
+
+    /**
+     * Adds an order to the queue, dispatching any dispatchable orders.
+     *
+     * @param order the order to be added to the queue
+     */
+    void enqueue(final Order order) {
+        if (concurrent != null) {
+            concurrent.enqueue(order);
+        } else {
+            synchronized (queue) {
+                if (!stopped) {
+                    queue.enqueue(order);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds orders to the queue, they are always accepted.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    void enqueueAll(final Collection<? extends Order> orders) {
+        if (concurrent != null) {
+            concurrent.enqueueAll(orders);
+        } else {
+            synchronized (queue) {
+                if (!stopped) {
+                    orders.forEach(queue::enqueue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an order to the queue, subject to the queue's capacity and
+     * admission policy.
+     *
+     * @param order the order to be added to the queue
+     * @param timeout how long to wait for space, only used by the BLOCK policy
+     * @param unit the unit of the timeout
+     *
+     * @return true if the order was added, false if it was refused
+     *
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    boolean offer(final Order order, final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        if (concurrent != null) {
+            return concurrent.offer(order, timeout, unit);
+        }
+        enqueue(order);
+        return true;
+    }
+
+    /**
+     * Adds orders to the queue provided it has the capacity for all of them.
+     *
+     * @param orders the orders to be added to the queue
+     *
+     * @return true if the orders were added, false if they were refused
+     */
+    boolean offerAll(final Collection<? extends Order> orders) {
+        if (concurrent != null) {
+            return concurrent.offerAll(orders);
+        }
+        enqueueAll(orders);
+        return true;
+    }
+
+    /**
+     * Sets the queue's threshold, dispatching any dispatchable orders.
+     *
+     * @param open true if the exchange is open
+     */
+    void setThreshold(final boolean open) {
+        if (concurrent != null) {
+            concurrent.setThreshold(open);
+        } else {
+            synchronized (queue) {
+                if (!stopped) {
+                    queue.setThreshold(open);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a queued order without dispatching it.
+     *
+     * @param order the order to remove
+     *
+     * @return true if the order was queued and has been removed, false if it
+     *         is not in the queue, has already been dispatched or the queue
+     *         isn't a ConcurrentOrderQueue
+     */
+    boolean cancel(final Order order) {
+        return concurrent != null && concurrent.cancel(order);
+    }
+
+    /**
+     * Removes every queued order without dispatching them.
+     *
+     * @return the removed orders, in queue order, none if the queue isn't a
+     *         ConcurrentOrderQueue
+     */
+    List<Order> removeAll() {
+        return (concurrent == null) ? Collections.<Order>emptyList() : concurrent.removeAll();
+    }
+
+    /**
+     * Obtains the number of orders in the queue.
+     *
+     * @return the number of queued orders, 0 if the queue isn't a
+     *         ConcurrentOrderQueue
+     */
+    int size() {
+        return (concurrent == null) ? 0 : concurrent.size();
+    }
+
+    /**
+     * Stops dispatching orders, waiting for a dispatch in progress to finish.
+     * A queue which isn't a ConcurrentOrderQueue only dispatches under its
+     * monitor, so waiting for the monitor suffices.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout argument
+     *
+     * @return true if dispatching has stopped, false if the wait timed out
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean stopDispatching(final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        if (concurrent != null) {
+            return concurrent.stopDispatching(timeout, unit);
+        }
+        synchronized (queue) {
+            stopped = true;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,138 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Details of placed orders which the framework's order classes don't carry,
+ * the order's time in force and, for an order recreated from a journal, the
+ * id the order was originally placed with.  Only orders with such details are
+ * held, a GTC order placed in this run has none.  Thread safe.
+ *
+ * @author Russ Moul
+ */
+public final class OrderDetails {
+    /** The details of an order */
+    private static final class Detail {
+        /** The id the order was placed with */
+        private final int placedId;
+
+        /** How long the order remains eligible for execution */
+        private final TimeInForce timeInForce;
+
+        /** The expiration time of a GTD order, in milliseconds */
+        private final long goodTill;
+
+        /**
+         * Constructor.
+         *
+         * @param placedId the id the order was placed with
+         * @param timeInForce how long the order remains eligible for execution
+         * @param goodTill the expiration time of a GTD order, in milliseconds
+         */
+        private Detail(final int placedId, final TimeInForce timeInForce, final long goodTill) {
+            this.placedId = placedId;
+            this.timeInForce = timeInForce;
+            this.goodTill = goodTill;
+        }
+    }
+
+    /** The details, by current order id */
+    private final ConcurrentHashMap<Integer, Detail> details = new ConcurrentHashMap<>();
+
+    /** The current ids of recreated orders, by the id they were placed with */
+    private final ConcurrentHashMap<Integer, Integer> currentIds = new ConcurrentHashMap<>();
+
+    /**
+     * Records the time in force of a newly placed order.  Nothing is recorded
+     * for GTC orders.
+     *
+     * @param orderId the id of the order
+     * @param timeInForce how long the order remains eligible for execution
+     * @param goodTill the expiration time in milliseconds, only used for GTD
+     *                 orders
+     */
+    public void placed(final int orderId, final TimeInForce timeInForce, final long goodTill) {
+        if (timeInForce != TimeInForce.GTC) {
+            details.put(orderId, new Detail(orderId, timeInForce, goodTill));
+        }
+    }
+
+    /**
+     * Records the details of an order recreated from a journal.
+     *
+     * @param orderId the id of the recreated order
+     * @param placedId the id the order was originally placed with
+     * @param timeInForce how long the order remains eligible for execution
+     * @param goodTill the expiration time in milliseconds, only used for GTD
+     *                 orders
+     */
+    public void recreated(final int orderId, final int placedId,
+                          final TimeInForce timeInForce, final long goodTill) {
+        details.put(orderId, new Detail(placedId, timeInForce, goodTill));
+        if (placedId != orderId) {
+            currentIds.put(placedId, orderId);
+        }
+    }
+
+    /**
+     * Forgets the details of an order which has left the broker.
+     *
+     * @param orderId the id of the order
+     */
+    public void removed(final int orderId) {
+        final Detail detail = details.remove(orderId);
+        if (detail != null && detail.placedId != orderId) {
+            currentIds.remove(detail.placedId, orderId);
+        }
+    }
+
+    /**
+     * Gets the id an order was placed with.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the id the order was placed with, orderId unless the order was
+     *         recreated from a journal
+     */
+    public int placedId(final int orderId) {
+        final Detail detail = details.get(orderId);
+        return (detail == null) ? orderId : detail.placedId;
+    }
+
+    /**
+     * Gets the current id of an order.
+     *
+     * @param placedId the id the order was placed with
+     *
+     * @return the id of the order, placedId unless the order was recreated
+     *         from a journal
+     */
+    public int currentId(final int placedId) {
+        final Integer orderId = currentIds.get(placedId);
+        return (orderId == null) ? placedId : orderId;
+    }
+
+    /**
+     * Gets the time in force of an order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return how long the order remains eligible for execution
+     */
+    public TimeInForce timeInForce(final int orderId) {
+        final Detail detail = details.get(orderId);
+        return (detail == null) ? TimeInForce.GTC : detail.timeInForce;
+    }
+
+    /**
+     * Gets the expiration time of a GTD order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the expiration time in milliseconds, 0 unless the order is GTD
+     */
+    public long goodTill(final int orderId) {
+        final Detail detail = details.get(orderId);
+        return (detail == null) ? 0L : detail.goodTill;
+    }
+}
@@ -0,0 +1,772 @@
+package edu.uw.rgm.broker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+
+/**
+ * A crash safe journal of the orders held in an order queue, kept as an
+ * append only log of fixed size, memory mapped segment files.  Enqueueing an
+ * order appends an enqueue record, the order leaving the queue appends a
+ * remove record.  An enqueue record carries the order's time in force and the
+ * id the order was placed with, from the broker's OrderDetails.
+ * <p>
+ * Appending only writes to the mapping, so records survive the JVM dying as
+ * soon as they are appended.  Records are forced to the device by a
+ * background flusher every flush interval, a group commit, so the cost of the
+ * fsync is shared by all the records appended in the interval and is never
+ * paid on the order path.  A record's type is written last, so a partially
+ * appended record reads as the end of its segment.
+ * <p>
+ * When the active segment fills, appending moves on to a standby segment the
+ * flusher has already created and mapped, so the order path never creates,
+ * copies or forces a file.  The flusher then compacts the full segments: the
+ * live enqueue records of the previous snapshot and the full segments are
+ * written to a new snapshot file which atomically replaces the old one, and
+ * the full segments are deleted.  The journal is also compacted on recovery,
+ * so restarting costs time in proportion to the number of live orders and the
+ * size of a segment rather than the number of orders ever queued.
+ *
+ * @author Russ Moul
+ */
+public final class OrderJournal implements Closeable {
+    /**
+     * An order recreated from the journal, and the details of the order it
+     * was recreated from.
+     */
+    public static final class Recovered {
+        /** The recreated order */
+        private final Order order;
+
+        /** The id the order was placed with */
+        private final int placedId;
+
+        /** How long the order remains eligible for execution */
+        private final TimeInForce timeInForce;
+
+        /** The expiration time of a GTD order, in milliseconds */
+        private final long goodTill;
+
+        /**
+         * Constructor.
+         *
+         * @param order the recreated order
+         * @param placedId the id the order was placed with
+         * @param timeInForce how long the order remains eligible for execution
+         * @param goodTill the expiration time of a GTD order, in milliseconds
+         */
+        private Recovered(final Order order, final int placedId,
+                          final TimeInForce timeInForce, final long goodTill) {
+            this.order = order;
+            this.placedId = placedId;
+            this.timeInForce = timeInForce;
+            this.goodTill = goodTill;
+        }
+
+        /**
+         * Gets the recreated order, it has a new order id.
+         *
+         * @return the order
+         */
+        public Order getOrder() {
+            return order;
+        }
+
+        /**
+         * Gets the id the order was placed with, the id its owner knows it by.
+         *
+         * @return the placed id
+         */
+        public int getPlacedId() {
+            return placedId;
+        }
+
+        /**
+         * Gets the order's time in force.
+         *
+         * @return how long the order remains eligible for execution
+         */
+        public TimeInForce getTimeInForce() {
+            return timeInForce;
+        }
+
+        /**
+         * Gets the expiration time of a GTD order.
+         *
+         * @return the expiration time in milliseconds, 0 unless the order is
+         *         GTD
+         */
+        public long getGoodTill() {
+            return goodTill;
+        }
+    }
+
+    /** This class' logger */
+    private static final Logger logger =
+                         LoggerFactory.getLogger(OrderJournal.class);
+
+    /** Identifies a journal snapshot */
+    private static final int SNAPSHOT_MAGIC = 0x4F524A53;
+
+    /** Identifies a journal segment */
+    private static final int SEGMENT_MAGIC = 0x4F524A32;
+
+    /** Size of a segment header */
+    private static final int SEGMENT_HEADER_SIZE = 4;
+
+    /** Size of a snapshot header, magic and the first segment not included */
+    private static final int SNAPSHOT_HEADER_SIZE = 12;
+
+    /** Default segment size */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /** Record type marking the end of a segment or snapshot */
+    private static final byte END = 0;
+
+    /** Record type of an enqueued order */
+    private static final byte ENQUEUE = 1;
+
+    /** Record type of an order leaving the queue */
+    private static final byte REMOVE = 2;
+
+    /** Size of a remove record, type and order id */
+    private static final int REMOVE_SIZE = 5;
+
+    /** Size of the fixed part of an enqueue record, up to the account id */
+    private static final int ENQUEUE_FIXED_SIZE = 29;
+
+    /** Offset of the account id's length within an enqueue record */
+    private static final int ACCOUNT_LENGTH_AT = 27;
+
+    /** Order kind of a market buy order */
+    private static final byte MARKET_BUY = 1;
+
+    /** Order kind of a market sell order */
+    private static final byte MARKET_SELL = 2;
+
+    /** Order kind of a stop buy order */
+    private static final byte STOP_BUY = 3;
+
+    /** Order kind of a stop sell order */
+    private static final byte STOP_SELL = 4;
+
+    /** Forces the journals to the device, shared by all journals */
+    private static final ScheduledExecutorService flusher =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "order-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** A mapped segment file */
+    private static final class Segment {
+        /** The segment's sequence number */
+        private final long sequence;
+
+        /** The channel the segment is mapped through */
+        private final FileChannel channel;
+
+        /** The mapping of the segment */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence the segment's sequence number
+         * @param channel the channel the segment is mapped through
+         * @param buffer the mapping of the segment
+         */
+        private Segment(final long sequence, final FileChannel channel,
+                        final MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /** The snapshot file, segment files are named after it */
+    private final Path path;
+
+    /** Size of a segment file */
+    private final int segmentSize;
+
+    /** Supplies the time in force and placed id of journaled orders */
+    private final OrderDetails details;
+
+    /** The segment records are appended to */
+    private Segment active;
+
+    /** The next segment, created by the flusher, null if not yet created */
+    private Segment standby;
+
+    /** Full segments awaiting compaction */
+    private final List<Segment> full = new ArrayList<>();
+
+    /** Offset at which the next record will be appended */
+    private int position;
+
+    /** True if records have been appended since the last flush */
+    private boolean dirty;
+
+    /** True once the journal has been closed */
+    private boolean closed;
+
+    /** Serializes compaction and recovery */
+    private final Object compactionLock = new Object();
+
+    /** The scheduled flush */
+    private final ScheduledFuture<?> flush;
+
+    /**
+     * Constructor, opens or creates the journal.  Existing records are
+     * retained but not read until recover is called.
+     *
+     * @param path the journal's snapshot file, segment files are created
+     *             alongside it
+     * @param flushMillis the interval between group commits, in milliseconds
+     *
+     * @throws IOException if the journal can't be opened or is not a journal
+     */
+    public OrderJournal(final Path path, final long flushMillis) throws IOException {
+        this(path, flushMillis, DEFAULT_SEGMENT_SIZE, new OrderDetails());
+    }
+
+    /**
+     * Constructor, opens or creates the journal.  Existing records are
+     * retained but not read until recover is called.
+     *
+     * @param path the journal's snapshot file, segment files are created
+     *             alongside it
+     * @param flushMillis the interval between group commits, in milliseconds
+     * @param segmentSize the size of a segment file, in bytes
+     * @param details supplies the time in force and placed id of journaled
+     *                orders
+     *
+     * @throws IOException if the journal can't be opened or is not a journal
+     */
+    public OrderJournal(final Path path, final long flushMillis, final int segmentSize,
+                        final OrderDetails details) throws IOException {
+        this.path = path;
+        this.segmentSize = segmentSize;
+        this.details = details;
+        long sequence = Files.exists(path) ? readSnapshot(new LinkedHashMap<>()) : 1L;
+        final TreeMap<Long, Path> segments = segments();
+        if (!segments.isEmpty()) {
+            sequence = Math.max(sequence, segments.lastKey() + 1);
+        }
+        active = createSegment(sequence);
+        position = SEGMENT_HEADER_SIZE;
+        flush = flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis,
+                                               TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the orders which were live when the journal was last written.  The
+     * orders are recreated, and so have new ids, and the journal is compacted
+     * to hold just the recreated orders.  The time in force and placed id of
+     * each order are carried over to its recreation.  The journal only holds
+     * the orders of the queue it is attached to, so resting trailing stop
+     * orders, which are not queued, are never recovered.
+     *
+     * @return the live orders, in the order they were enqueued
+     *
+     * @throws IOException if the journal can't be read or compacted
+     */
+    public List<Recovered> recover() throws IOException {
+        synchronized (compactionLock) {
+            final long first;
+            synchronized (this) {
+                first = active.sequence;
+            }
+            final LinkedHashMap<Integer, byte[]> live = readLive(first);
+            final List<Recovered> orders = new ArrayList<>(live.size());
+            final List<byte[]> records = new ArrayList<>(live.size());
+            for (final byte[] record : live.values()) {
+                final Recovered recovered = decode(ByteBuffer.wrap(record));
+                orders.add(recovered);
+                records.add(encode(recovered.order, recovered.placedId,
+                                   recovered.timeInForce, recovered.goodTill));
+            }
+            writeSnapshot(records, first);
+            return orders;
+        }
+    }
+
+    /**
+     * Appends an enqueue record for an order.
+     *
+     * @param order the order being enqueued
+     */
+    public synchronized void enqueued(final Order order) {
+        if (closed) {
+            return;
+        }
+        final int orderId = order.getOrderId();
+        final byte[] record = encode(order, details.placedId(orderId),
+                                     details.timeInForce(orderId), details.goodTill(orderId));
+        reserve(record.length);
+        final MappedByteBuffer buffer = active.buffer;
+        for (int i = 1; i < record.length; i++) {
+            buffer.put(position + i, record[i]);
+        }
+        publish(ENQUEUE, record.length);
+    }
+
+    /**
+     * Appends a remove record for an order.
+     *
+     * @param orderId the id of the order leaving the queue
+     */
+    public synchronized void removed(final int orderId) {
+        if (closed) {
+            return;
+        }
+        reserve(REMOVE_SIZE);
+        active.buffer.putInt(position + 1, orderId);
+        publish(REMOVE, REMOVE_SIZE);
+    }
+
+    /**
+     * Forces any records appended since the last flush to the device, then
+     * creates the standby segment and compacts the full segments if
+     * necessary.  Run periodically by the flusher.
+     */
+    public void flush() {
+        final MappedByteBuffer toForce;
+        final List<Segment> toCompact;
+        final boolean needStandby;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            toForce = dirty ? active.buffer : null;
+            dirty = false;
+            toCompact = full.isEmpty() ? null : new ArrayList<>(full);
+            needStandby = standby == null;
+        }
+        if (toForce != null) {
+            toForce.force();
+        }
+        try {
+            if (needStandby) {
+                prepareStandby();
+            }
+            if (toCompact != null) {
+                compact(toCompact);
+            }
+        } catch (final IOException ex) {
+            logger.error(String.format("Unable to maintain order journal '%s'", path), ex);
+        }
+    }
+
+    /**
+     * Flushes the journal and closes the segment files.
+     *
+     * @throws IOException if the files can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            flush.cancel(false);
+            closed = true;
+            for (final Segment segment : full) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            active.buffer.force();
+            active.channel.close();
+            if (standby != null) {
+                standby.channel.close();
+                Files.deleteIfExists(segmentPath(standby.sequence));
+            }
+        }
+    }
+
+    /**
+     * Writes the type of an appended record, making it visible to recovery,
+     * and terminates the segment after it.
+     *
+     * @param type the record type
+     * @param length the record length
+     */
+    private void publish(final byte type, final int length) {
+        final MappedByteBuffer buffer = active.buffer;
+        buffer.put(position + length, END);
+        buffer.put(position, type);
+        position += length;
+        dirty = true;
+    }
+
+    /**
+     * Insures there is room in the active segment to append a record and the
+     * end marker following it, moving on to the standby segment if there is
+     * not.  The standby segment is only created here if the flusher hasn't
+     * created it yet.
+     *
+     * @param length the length of the record
+     */
+    private void reserve(final int length) {
+        if (position + length + 1 > segmentSize) {
+            full.add(active);
+            if (standby == null) {
+                try {
+                    standby = createSegment(active.sequence + 1);
+                } catch (final IOException ex) {
+                    throw new IllegalStateException(
+                        String.format("Unable to extend order journal '%s'", path), ex);
+                }
+            }
+            active = standby;
+            standby = null;
+            position = SEGMENT_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Creates the standby segment, off the order path.
+     *
+     * @throws IOException if the segment can't be created
+     */
+    private void prepareStandby() throws IOException {
+        final long sequence;
+        synchronized (this) {
+            if (closed || standby != null) {
+                return;
+            }
+            sequence = active.sequence + 1;
+        }
+        final Segment segment = createSegment(sequence);
+        synchronized (this) {
+            if (!closed && standby == null && active.sequence + 1 == sequence) {
+                standby = segment;
+                return;
+            }
+        }
+        // the order path got there first
+        segment.channel.close();
+    }
+
+    /**
+     * Compacts full segments into the snapshot, then deletes them.
+     *
+     * @param segments the full segments, oldest first
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    private void compact(final List<Segment> segments) throws IOException {
+        synchronized (compactionLock) {
+            for (final Segment segment : segments) {
+                segment.buffer.force();
+            }
+            final long next = segments.get(segments.size() - 1).sequence + 1;
+            final LinkedHashMap<Integer, byte[]> live = readLive(next);
+            writeSnapshot(new ArrayList<>(live.values()), next);
+            synchronized (this) {
+                full.removeAll(segments);
+            }
+            for (final Segment segment : segments) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the live enqueue records from the snapshot and the segments
+     * preceding the specified segment, and deletes any earlier segments the
+     * snapshot already includes.
+     *
+     * @param before the first segment not to read
+     *
+     * @return the live enqueue records, types unset, by order id in the order
+     *         they were appended
+     *
+     * @throws IOException if the journal can't be read
+     */
+    private LinkedHashMap<Integer, byte[]> readLive(final long before) throws IOException {
+        final LinkedHashMap<Integer, byte[]> live = new LinkedHashMap<>();
+        final long first = Files.exists(path) ? readSnapshot(live) : 0L;
+        for (final Path segment : segments().headMap(before).tailMap(first).values()) {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+            if (buffer.limit() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException(String.format("Not an order journal segment, '%s'", segment));
+            }
+            readRecords(buffer, SEGMENT_HEADER_SIZE, live);
+        }
+        return live;
+    }
+
+    /**
+     * Reads the snapshot's records.
+     *
+     * @param live receives the snapshot's enqueue records
+     *
+     * @return the first segment not included in the snapshot
+     *
+     * @throws IOException if the snapshot can't be read or is not a snapshot
+     */
+    private long readSnapshot(final LinkedHashMap<Integer, byte[]> live) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.limit() < SNAPSHOT_HEADER_SIZE || buffer.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new IOException(String.format("Not an order journal, '%s'", path));
+        }
+        readRecords(buffer, SNAPSHOT_HEADER_SIZE, live);
+        return buffer.getLong(4);
+    }
+
+    /**
+     * Applies the records in a buffer to a set of live enqueue records.
+     *
+     * @param buffer the records
+     * @param start the offset of the first record
+     * @param live the live enqueue records, by order id
+     */
+    private static void readRecords(final ByteBuffer buffer, final int start,
+                                    final LinkedHashMap<Integer, byte[]> live) {
+        int offset = start;
+        byte type;
+        while (offset < buffer.limit() && (type = buffer.get(offset)) != END) {
+            final int orderId = buffer.getInt(offset + 1);
+            final int length = recordLength(buffer, offset);
+            if (type == ENQUEUE) {
+                final byte[] record = new byte[length];
+                buffer.position(offset);
+                buffer.get(record);
+                record[0] = END;
+                live.put(orderId, record);
+            } else {
+                live.remove(orderId);
+            }
+            offset += length;
+        }
+    }
+
+    /**
+     * Lists the segment files.
+     *
+     * @return the segment files, by sequence number
+     *
+     * @throws IOException if the directory can't be read
+     */
+    private TreeMap<Long, Path> segments() throws IOException {
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        final String prefix = path.getFileName() + ".";
+        final Path dir = path.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (final Path file : files) {
+                final String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    segments.put(Long.parseLong(suffix), file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Gets the path of a segment file.
+     *
+     * @param sequence the segment's sequence number
+     *
+     * @return the segment file
+     */
+    private Path segmentPath(final long sequence) {
+        return path.resolveSibling(String.format("%s.%012d", path.getFileName(), sequence));
+    }
+
+    /**
+     * Creates and maps a new segment file.
+     *
+     * @param sequence the segment's sequence number
+     *
+     * @return the segment
+     *
+     * @throws IOException if the file can't be created
+     */
+    private Segment createSegment(final long sequence) throws IOException {
+        final FileChannel channel = FileChannel.open(segmentPath(sequence),
+                                                     StandardOpenOption.CREATE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING,
+                                                     StandardOpenOption.READ,
+                                                     StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(0, SEGMENT_MAGIC);
+        return new Segment(sequence, channel, buffer);
+    }
+
+    /**
+     * Replaces the snapshot with one holding just the specified enqueue
+     * records, then deletes the segments it includes.  The snapshot is
+     * written and forced to a temporary file which is then atomically moved
+     * over the snapshot file.
+     *
+     * @param records the records to retain, their types unset
+     * @param next the first segment not included in the snapshot
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    private void writeSnapshot(final List<byte[]> records, final long next) throws IOException {
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                                       StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            header.putInt(SNAPSHOT_MAGIC).putLong(next).flip();
+            tmpChannel.write(header);
+            for (final byte[] record : records) {
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+                buffer.put(0, ENQUEUE);
+                tmpChannel.write(buffer);
+            }
+            tmpChannel.write(ByteBuffer.wrap(new byte[] {END}));
+            tmpChannel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (final Path segment : segments().headMap(next).values()) {
+            Files.deleteIfExists(segment);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info(String.format("Compacted order journal '%s', %d live orders",
+                                      path, records.size()));
+        }
+    }
+
+    /**
+     * Determines the length of a record.
+     *
+     * @param buffer the buffer holding the record
+     * @param offset the offset of the record
+     *
+     * @return the length of the record
+     */
+    private static int recordLength(final ByteBuffer buffer, final int offset) {
+        if (buffer.get(offset) == REMOVE) {
+            return REMOVE_SIZE;
+        }
+        final int tickerAt = offset + ENQUEUE_FIXED_SIZE + buffer.getShort(offset + ACCOUNT_LENGTH_AT);
+        return tickerAt + 2 + buffer.getShort(tickerAt) - offset;
+    }
+
+    /**
+     * Encodes an enqueue record, the type is left unset.
+     *
+     * @param order the order to encode
+     * @param placedId the id the order was placed with
+     * @param timeInForce how long the order remains eligible for execution
+     * @param goodTill the expiration time of a GTD order, in milliseconds
+     *
+     * @return the record
+     */
+    private static byte[] encode(final Order order, final int placedId,
+                                 final TimeInForce timeInForce, final long goodTill) {
+        final byte kind;
+        int price = 0;
+        if (order instanceof StopBuyOrder) {
+            kind = STOP_BUY;
+            price = ((StopBuyOrder) order).getPrice();
+        } else if (order instanceof StopSellOrder) {
+            kind = STOP_SELL;
+            price = ((StopSellOrder) order).getPrice();
+        } else if (order instanceof MarketBuyOrder) {
+            kind = MARKET_BUY;
+        } else if (order instanceof MarketSellOrder) {
+            kind = MARKET_SELL;
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported order type, %s", order));
+        }
+
+        final byte[] account = order.getAccountId().getBytes(StandardCharsets.UTF_8);
+        final byte[] ticker = order.getStockTicker().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record =
+            ByteBuffer.allocate(ENQUEUE_FIXED_SIZE + account.length + 2 + ticker.length);
+        record.put(ENQUEUE)
+              .putInt(order.getOrderId())
+              .put(kind)
+              .putInt(order.getNumberOfShares())
+              .putInt(price)
+              .putInt(placedId)
+              .put((byte) timeInForce.ordinal())
+              .putLong(goodTill)
+              .putShort((short) account.length)
+              .put(account)
+              .putShort((short) ticker.length)
+              .put(ticker);
+        record.put(0, END);
+        return record.array();
+    }
+
+    /**
+     * Recreates the order held in an enqueue record.
+     *
+     * @param record the record
+     *
+     * @return the recreated order and its details
+     */
+    private static Recovered decode(final ByteBuffer record) {
+        final byte kind = record.get(5);
+        final int shares = record.getInt(6);
+        final int price = record.getInt(10);
+        final int placedId = record.getInt(14);
+        final TimeInForce timeInForce = TimeInForce.values()[record.get(18)];
+        final long goodTill = record.getLong(19);
+        final int accountLength = record.getShort(ACCOUNT_LENGTH_AT);
+        final String account = readString(record, ENQUEUE_FIXED_SIZE, accountLength);
+        final int tickerAt = ENQUEUE_FIXED_SIZE + accountLength;
+        final String ticker = readString(record, tickerAt + 2, record.getShort(tickerAt));
+        final Order order;
+        switch (kind) {
+        case STOP_BUY:
+            order = new StopBuyOrder(account, shares, ticker, price);
+            break;
+        case STOP_SELL:
+            order = new StopSellOrder(account, shares, ticker, price);
+            break;
+        case MARKET_BUY:
+            order = new MarketBuyOrder(account, shares, ticker);
+            break;
+        default:
+            order = new MarketSellOrder(account, shares, ticker);
+            break;
+        }
+        return new Recovered(order, placedId, timeInForce, goodTill);
+    }
+
+    /**
+     * Reads a UTF-8 string from a record.
+     *
+     * @param record the record
+     * @param offset the offset of the string
+     * @param length the length of the string in bytes
+     *
+     * @return the string
+     */
+    private static String readString(final ByteBuffer record, final int offset, final int length) {
+        return new String(record.array(), record.arrayOffset() + offset, length,
+                          StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package edu.uw.rgm.broker;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Capacity limits applied by a broker to the orders it holds.
+ *
+ * @author Russ Moul
+ */
+public final class OrderLimits {
+    /** No limits, orders are always accepted */
+    public static final OrderLimits UNLIMITED =
+        new OrderLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, AdmissionPolicy.REJECT, 0L);
+
+    /** Maximum number of orders, of any type, held by the broker */
+    private final int maxPendingOrders;
+
+    /** Maximum number of orders held in the market order queue */
+    private final int marketQueueCapacity;
+
+    /** Policy applied when the market order queue is full */
+    private final AdmissionPolicy marketQueuePolicy;
+
+    /** Time to wait for space under the BLOCK policy, in milliseconds */
+    private final long blockTimeoutMillis;
+
+    /** Ranks market orders for shedding, null unless the policy is SHED_LOWEST */
+    private final Comparator<Order> marketShedPriority;
+
+    /**
+     * Constructor.
+     *
+     * @param maxPendingOrders maximum number of orders, of any type, held by
+     *                         the broker
+     * @param marketQueueCapacity maximum number of orders held in the market
+     *                            order queue
+     * @param marketQueuePolicy policy applied when the market order queue is
+     *                          full
+     * @param blockTimeoutMillis time to wait for space under the BLOCK policy,
+     *                           in milliseconds
+     */
+    public OrderLimits(final int maxPendingOrders, final int marketQueueCapacity,
+                       final AdmissionPolicy marketQueuePolicy,
+                       final long blockTimeoutMillis) {
+        this(maxPendingOrders, marketQueueCapacity, marketQueuePolicy, blockTimeoutMillis, null);
+    }
+
+    /**
+     * Constructor, for limits which may shed market orders.
+     *
+     * @param maxPendingOrders maximum number of orders, of any type, held by
+     *                         the broker
+     * @param marketQueueCapacity maximum number of orders held in the market
+     *                            order queue
+     * @param marketQueuePolicy policy applied when the market order queue is
+     *                          full
+     * @param blockTimeoutMillis time to wait for space under the BLOCK policy,
+     *                           in milliseconds
+     * @param marketShedPriority ranks market orders for shedding, the order
+     *                           ranked last is shed first; required by the
+     *                           SHED_LOWEST policy
+     *
+     * @throws IllegalArgumentException if the policy is SHED_LOWEST and no
+     *         shed priority is provided
+     */
+    public OrderLimits(final int maxPendingOrders, final int marketQueueCapacity,
+                       final AdmissionPolicy marketQueuePolicy,
+                       final long blockTimeoutMillis,
+                       final Comparator<Order> marketShedPriority) {
+        if (marketQueuePolicy == AdmissionPolicy.SHED_LOWEST && marketShedPriority == null) {
+            throw new IllegalArgumentException("SHED_LOWEST requires a shed priority");
+        }
+        this.maxPendingOrders = maxPendingOrders;
+        this.marketQueueCapacity = marketQueueCapacity;
+        this.marketQueuePolicy = marketQueuePolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.marketShedPriority = marketShedPriority;
+    }
+
+    /**
+     * Gets the maximum number of orders held by the broker.
+     *
+     * @return the maximum number of orders
+     */
+    public int getMaxPendingOrders() {
+        return maxPendingOrders;
+    }
+
+    /**
+     * Gets the maximum number of orders held in the market order queue.
+     *
+     * @return the market order queue capacity
+     */
+    public int getMarketQueueCapacity() {
+        return marketQueueCapacity;
+    }
+
+    /**
+     * Gets the policy applied when the market order queue is full.
+     *
+     * @return the admission policy
+     */
+    public AdmissionPolicy getMarketQueuePolicy() {
+        return marketQueuePolicy;
+    }
+
+    /**
+     * Gets the ranking of market orders for shedding.
+     *
+     * @return the shed priority, null unless the policy is SHED_LOWEST
+     */
+    public Comparator<Order> getMarketShedPriority() {
+        return marketShedPriority;
+    }
+
+    /**
+     * Gets the time to wait for space under the BLOCK policy.
+     *
+     * @param unit the unit of the returned value
+     *
+     * @return the timeout
+     */
+    public long getBlockTimeout(final TimeUnit unit) {
+        return unit.convert(blockTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,299 @@
+package edu.uw.rgm.broker;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderManager;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+
+/**
+ * Adapts an order manager created by SimpleBroker.createOrderManager to the
+ * operations the broker performs beyond the OrderManager interface.  A
+ * SimpleOrderManager supports all of them.  Any other order manager supports
+ * only the OrderManager operations, its stop orders can't be cancelled,
+ * replaced or expired, aren't journaled, basket orders are queued one at a
+ * time and trailing stop orders can't be queued.
+ *
+ * @author Russ Moul
+ */
+final class OrderManagerAdapter {
+    /** The adapted order manager */
+    private final OrderManager orderManager;
+
+    /** The adapted order manager if it is a SimpleOrderManager, otherwise null */
+    private final SimpleOrderManager extended;
+
+    /** The order manager's metrics, counting nothing unless it is a SimpleOrderManager */
+    private final OrderManagerMetrics metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param orderManager the order manager to adapt
+     */
+    OrderManagerAdapter(final OrderManager orderManager) {
+        this.orderManager = orderManager;
+        if (orderManager instanceof SimpleOrderManager) {
+            extended = (SimpleOrderManager) orderManager;
+            metrics = extended.getMetrics();
+        } else {
+            extended = null;
+            metrics = new OrderManagerMetrics(orderManager.getSymbol());
+        }
+    }
+
+    /**
+     * Determines if the order manager supports the operations beyond the
+     * OrderManager interface.
+     *
+     * @return true if the order manager is a SimpleOrderManager
+     */
+    boolean isExtended() {
+        return extended != null;
+    }
+
+    /**
+     * Gets the stock ticker symbol for the stock managed by the order manager.
+     *
+     * @return the stock ticker symbol
+     */
+    String getSymbol() {
+        return orderManager.getSymbol();
+    }
+
+    /**
+     * Gets the metrics of the order manager's queues.
+     *
+     * @return the order manager's metrics
+     */
+    OrderManagerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Journals the order manager's stop order queues, if it supports
+     * journaling.
+     *
+     * @param directory the directory holding the journal files
+     * @param flushMillis the interval between journal group commits, in
+     *                    milliseconds
+     * @param details supplies the time in force and placed id of journaled
+     *                orders
+     *
+     * @return true if the queues are journaled
+     *
+     * @throws IOException if the journals can't be opened
+     */
+    boolean enableJournal(final Path directory, final long flushMillis,
+                          final OrderDetails details)
+        throws IOException {
+        if (extended == null) {
+            return false;
+        }
+        extended.enableJournal(directory, flushMillis, details);
+        return true;
+    }
+
+    /**
+     * Recovers the stop orders journaled before a restart.
+     *
+     * @param listener receives each recovered order before it is enqueued
+     *
+     * @return the number of orders recovered
+     *
+     * @throws IOException if the journals can't be compacted
+     */
+    int recoverOrders(final Consumer<? super OrderJournal.Recovered> listener)
+        throws IOException {
+        return (extended == null) ? 0 : extended.recoverOrders(listener);
+    }
+
+    /**
+     * Flushes and closes the journals, if journaling is enabled.
+     *
+     * @throws IOException if the journals can't be closed
+     */
+    void closeJournal() throws IOException {
+        if (extended != null) {
+            extended.closeJournal();
+        }
+    }
+
+    /**
+     * Registers the processors triggered orders are passed to.
+     *
+     * @param buyProcessor the processor for triggered stop buy orders
+     * @param sellProcessor the processor for triggered stop sell orders
+     * @param trailingProcessor the processor for triggered trailing stop
+     *                          orders
+     */
+    void setOrderProcessors(final Consumer<StopBuyOrder> buyProcessor,
+                            final Consumer<StopSellOrder> sellProcessor,
+                            final Consumer<Order> trailingProcessor) {
+        orderManager.setBuyOrderProcessor(buyProcessor);
+        orderManager.setSellOrderProcessor(sellProcessor);
+        if (extended != null) {
+            extended.setTrailingOrderProcessor(trailingProcessor);
+        }
+    }
+
+    /**
+     * Adjusts the price of the stock, triggering any stop orders.
+     *
+     * @param price the new price
+     */
+    void adjustPrice(final int price) {
+        orderManager.adjustPrice(price);
+    }
+
+    /**
+     * Queue a stop buy order.
+     *
+     * @param order the order to be queued
+     */
+    void queueOrder(final StopBuyOrder order) {
+        orderManager.queueOrder(order);
+    }
+
+    /**
+     * Queue a stop sell order.
+     *
+     * @param order the order to be queued
+     */
+    void queueOrder(final StopSellOrder order) {
+        orderManager.queueOrder(order);
+    }
+
+    /**
+     * Queue a basket of stop buy orders, in one pass if the order manager
+     * supports it.
+     *
+     * @param orders the orders to be queued
+     */
+    void queueBuyOrders(final Collection<? extends StopBuyOrder> orders) {
+        if (extended != null) {
+            extended.queueBuyOrders(orders);
+        } else {
+            orders.forEach(orderManager::queueOrder);
+        }
+    }
+
+    /**
+     * Queue a basket of stop sell orders, in one pass if the order manager
+     * supports it.
+     *
+     * @param orders the orders to be queued
+     */
+    void queueSellOrders(final Collection<? extends StopSellOrder> orders) {
+        if (extended != null) {
+            extended.queueSellOrders(orders);
+        } else {
+            orders.forEach(orderManager::queueOrder);
+        }
+    }
+
+    /**
+     * Queue a trailing stop buy order.  Only to be used if the order manager
+     * is extended.
+     *
+     * @param order the order to be dispatched when triggered
+     * @param trail the trail, must be positive
+     */
+    void queueTrailingOrder(final MarketBuyOrder order, final int trail) {
+        extended.queueTrailingOrder(order, trail);
+    }
+
+    /**
+     * Queue a trailing stop sell order.  Only to be used if the order manager
+     * is extended.
+     *
+     * @param order the order to be dispatched when triggered
+     * @param trail the trail, must be positive
+     */
+    void queueTrailingOrder(final MarketSellOrder order, final int trail) {
+        extended.queueTrailingOrder(order, trail);
+    }
+
+    /**
+     * Determines if the order manager holds trailing stop orders.
+     *
+     * @return true if trailing stop orders are resting, false if none are or
+     *         the order manager isn't extended
+     */
+    boolean hasTrailingOrders() {
+        return extended != null && extended.hasTrailingOrders();
+    }
+
+    /**
+     * Finds a resting stop buy, stop sell or trailing stop order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if it is not resting or the order manager
+     *         isn't extended
+     */
+    Order getOrder(final int orderId) {
+        return (extended == null) ? null : extended.getOrder(orderId);
+    }
+
+    /**
+     * Cancels a resting stop buy, stop sell or trailing stop order.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return true if the order was resting and has been cancelled, false if
+     *         it is unknown, has already been dispatched or the order manager
+     *         isn't extended
+     */
+    boolean cancelOrder(final int orderId) {
+        return extended != null && extended.cancelOrder(orderId);
+    }
+
+    /**
+     * Cancels a resting order on behalf of an account.
+     *
+     * @param accountId the id of the account requesting the cancellation
+     * @param orderId the id of the order to cancel
+     *
+     * @return true if the order was resting and has been cancelled, false if
+     *         it is unknown, has already been dispatched, belongs to another
+     *         account or the order manager isn't extended
+     */
+    boolean cancelOrder(final String accountId, final int orderId) {
+        return extended != null && extended.cancelOrder(accountId, orderId);
+    }
+
+    /**
+     * Replaces a resting stop buy order.
+     *
+     * @param orderId the id of the order to replace
+     * @param replacement the order to queue in its place
+     *
+     * @return true if the order was replaced, false if the original is
+     *         unknown, has already been dispatched, belongs to another
+     *         account or the order manager isn't extended
+     */
+    boolean replaceOrder(final int orderId, final StopBuyOrder replacement) {
+        return extended != null && extended.replaceOrder(orderId, replacement);
+    }
+
+    /**
+     * Replaces a resting stop sell order.
+     *
+     * @param orderId the id of the order to replace
+     * @param replacement the order to queue in its place
+     *
+     * @return true if the order was replaced, false if the original is
+     *         unknown, has already been dispatched, belongs to another
+     *         account or the order manager isn't extended
+     */
+    boolean replaceOrder(final int orderId, final StopSellOrder replacement) {
+        return extended != null && extended.replaceOrder(orderId, replacement);
+    }
+}
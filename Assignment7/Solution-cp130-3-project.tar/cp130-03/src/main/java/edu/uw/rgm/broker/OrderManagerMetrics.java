@@ -0,0 +1,103 @@
+package edu.uw.rgm.broker;
+
+/**
+ * The metrics of an order manager, its stop buy, stop sell and trailing stop
+ * queues.  The order manager updates the counts as orders are queued,
+ * triggered and cancelled; monitoring threads read them without taking the
+ * order manager's lock.
+ *
+ * @author Russ Moul
+ */
+public final class OrderManagerMetrics implements OrderManagerMetricsMXBean {
+    /** The ticker symbol of the order manager's stock */
+    private final String ticker;
+
+    /** The stop buy queue */
+    private final QueueMetrics stopBuys = new QueueMetrics();
+
+    /** The stop sell queue */
+    private final QueueMetrics stopSells = new QueueMetrics();
+
+    /** The trailing stop orders */
+    private final QueueMetrics trailing = new QueueMetrics();
+
+    /**
+     * Constructor.
+     *
+     * @param ticker the ticker symbol of the order manager's stock
+     */
+    public OrderManagerMetrics(final String ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Gets the stop buy queue's metrics.
+     *
+     * @return the stop buy queue metrics
+     */
+    public QueueMetrics stopBuys() {
+        return stopBuys;
+    }
+
+    /**
+     * Gets the stop sell queue's metrics.
+     *
+     * @return the stop sell queue metrics
+     */
+    public QueueMetrics stopSells() {
+        return stopSells;
+    }
+
+    /**
+     * Gets the trailing stop orders' metrics.
+     *
+     * @return the trailing stop metrics
+     */
+    public QueueMetrics trailing() {
+        return trailing;
+    }
+
+    @Override
+    public String getTicker() {
+        return ticker;
+    }
+
+    @Override
+    public long getStopBuyDepth() {
+        return stopBuys.getDepth();
+    }
+
+    @Override
+    public long getStopSellDepth() {
+        return stopSells.getDepth();
+    }
+
+    @Override
+    public long getTrailingDepth() {
+        return trailing.getDepth();
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return stopBuys.getEnqueuedCount() + stopSells.getEnqueuedCount()
+             + trailing.getEnqueuedCount();
+    }
+
+    @Override
+    public double getEnqueueRate() {
+        return stopBuys.getEnqueueRate() + stopSells.getEnqueueRate()
+             + trailing.getEnqueueRate();
+    }
+
+    @Override
+    public long getDispatchedCount() {
+        return stopBuys.getDispatchedCount() + stopSells.getDispatchedCount()
+             + trailing.getDispatchedCount();
+    }
+
+    @Override
+    public double getDispatchRate() {
+        return stopBuys.getDispatchRate() + stopSells.getDispatchRate()
+             + trailing.getDispatchRate();
+    }
+}
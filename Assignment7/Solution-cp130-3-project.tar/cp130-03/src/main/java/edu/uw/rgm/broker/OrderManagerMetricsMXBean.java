@@ -0,0 +1,64 @@
+package edu.uw.rgm.broker;
+
+/**
+ * Management interface exposing an order manager's queues.
+ *
+ * @author Russ Moul
+ */
+public interface OrderManagerMetricsMXBean {
+    /**
+     * Gets the ticker symbol of the order manager's stock.
+     *
+     * @return the ticker symbol
+     */
+    String getTicker();
+
+    /**
+     * Gets the number of resting stop buy orders.
+     *
+     * @return the stop buy queue depth
+     */
+    long getStopBuyDepth();
+
+    /**
+     * Gets the number of resting stop sell orders.
+     *
+     * @return the stop sell queue depth
+     */
+    long getStopSellDepth();
+
+    /**
+     * Gets the number of resting trailing stop orders.
+     *
+     * @return the number of trailing stop orders
+     */
+    long getTrailingDepth();
+
+    /**
+     * Gets the number of orders queued with the order manager.
+     *
+     * @return the number of orders enqueued
+     */
+    long getEnqueuedCount();
+
+    /**
+     * Gets the rate orders are queued with the order manager.
+     *
+     * @return orders enqueued per second
+     */
+    double getEnqueueRate();
+
+    /**
+     * Gets the number of orders the order manager has triggered.
+     *
+     * @return the number of orders dispatched
+     */
+    long getDispatchedCount();
+
+    /**
+     * Gets the rate the order manager triggers orders.
+     *
+     * @return orders dispatched per second
+     */
+    double getDispatchRate();
+}
@@ -0,0 +1,155 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.uw.ext.framework.broker.BrokerException;
+
+/**
+ * A fixed set of single threaded workers, each ticker id is assigned to one of
+ * the workers and all work on that ticker's order manager is performed by that
+ * worker.  Each order manager therefore has a single writer and needs no
+ * locking, work for a ticker is performed in the order it was submitted, and
+ * work for tickers on different workers proceeds in parallel.
+ *
+ * @author Russ Moul
+ */
+public final class OrderManagerShards implements AutoCloseable {
+    /** How long close waits for queued work to complete by default, in milliseconds */
+    private static final long SHUTDOWN_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+
+    /** The workers */
+    private final ExecutorService[] workers;
+
+    /** How long close waits for queued work to complete, in milliseconds */
+    private final long shutdownMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param shardCount the number of workers
+     */
+    public OrderManagerShards(final int shardCount) {
+        this(shardCount, SHUTDOWN_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param shardCount the number of workers
+     * @param shutdownMillis how long close waits for queued work to complete,
+     *                       in milliseconds
+     */
+    public OrderManagerShards(final int shardCount, final long shutdownMillis) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shutdownMillis = shutdownMillis;
+        workers = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final String threadName = "order-shard-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Gets the number of workers.
+     *
+     * @return the number of workers
+     */
+    public int getShardCount() {
+        return workers.length;
+    }
+
+    /**
+     * Determines the worker responsible for a ticker.  Ticker ids are dense,
+     * so assigning them round robin spreads the tickers evenly.
+     *
+     * @param tickerId the ticker id
+     *
+     * @return the worker
+     */
+    private ExecutorService workerFor(final int tickerId) {
+        return workers[tickerId % workers.length];
+    }
+
+    /**
+     * Queues work on a ticker's worker, returning without waiting for it.
+     *
+     * @param tickerId the id of the ticker the work is for
+     * @param task the work
+     */
+    public void execute(final int tickerId, final Runnable task) {
+        workerFor(tickerId).execute(task);
+    }
+
+    /**
+     * Performs work on a ticker's worker and waits for its result.
+     *
+     * @param <V> the result type
+     * @param tickerId the id of the ticker the work is for
+     * @param task the work
+     *
+     * @return the result of the work
+     *
+     * @exception BrokerException if interrupted while waiting, or the work
+     *            throws a checked exception
+     */
+    public <V> V call(final int tickerId, final Callable<V> task) throws BrokerException {
+        final Future<V> result = workerFor(tickerId).submit(task);
+        try {
+            return result.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BrokerException("Interrupted while waiting on order manager.", ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof BrokerException) {
+                throw (BrokerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new BrokerException("Order manager operation failed.", cause);
+        }
+    }
+
+    /**
+     * Stops the workers once their queued work is complete.  The workers
+     * share a single deadline.  If interrupted while waiting for the workers
+     * to stop the interrupt is restored and the remaining workers are left to
+     * stop on their own.
+     *
+     * @throws BrokerException if a worker doesn't stop before the deadline,
+     *         or the wait is interrupted
+     */
+    @Override
+    public void close() throws BrokerException {
+        for (final ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownMillis);
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                final long remaining = deadline - System.nanoTime();
+                if (!workers[i].awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    throw new BrokerException(String.format("Timed out waiting for order shard %d to stop.", i));
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BrokerException("Interrupted while waiting for the order shards to stop.", ex);
+        }
+    }
+}
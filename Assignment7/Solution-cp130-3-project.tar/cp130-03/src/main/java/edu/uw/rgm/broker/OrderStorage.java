@@ -0,0 +1,17 @@
+package edu.uw.rgm.broker;
+
+/**
+ * How an order manager stores its resting stop orders.
+ *
+ * @author Russ Moul
+ */
+public enum OrderStorage {
+    /** Resting orders are kept as order objects on the heap, by price level. */
+    HEAP,
+
+    /**
+     * Resting orders are kept in a tree ordered on a precomputed primitive
+     * sort key of price then arrival.
+     */
+    SORT_KEY
+}
@@ -0,0 +1,543 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * An OrderQueue implementation that organizes priced orders into a price
+ * ladder.  Orders with the same price share a price level, and within a level
+ * orders are kept in arrival (FIFO) order.  The level at the front of the
+ * ladder is cached, so determining whether anything is dispatchable requires
+ * a single filter test, and once the front level passes the filter every order
+ * at that price is dispatched in one step.  The threshold is held as a
+ * primitive int so price adjustments don't box.
+ * <p>
+ * The ladder is a pair of parallel arrays sorted by price, the levels and
+ * their primitive sort keys, with the front level last so dispatching a level
+ * removes it from the end.  Levels are located by a binary search of the
+ * keys, so no price is boxed.  Adding or removing a level away from the front
+ * shifts the levels between it and the front, which is a short copy for
+ * ladders of the depth stop orders rest at.
+ * <p>
+ * Resting orders occupy slots in parallel arrays, each level being a doubly
+ * linked list of slots, and are indexed by order id in an IntIntMap.  A
+ * cancelled order is unlinked from its level and its slot reused, so orders
+ * may be cancelled and replaced at any position in a level indefinitely
+ * without the levels or the dispatch walks growing.
+ *
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public final class PriceLevelOrderQueue<E extends PricedOrder>
+                                         implements IntOrderQueue<E> {
+    /** Initial number of order slots */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Initial number of price levels */
+    private static final int INITIAL_LEVELS = 16;
+
+    /** Marks the absence of a slot */
+    private static final int NIL = -1;
+
+    /** A price level, a linked list of order slots in arrival order */
+    private static final class Level {
+        /** The price of the level's orders */
+        private final int price;
+
+        /** The oldest order's slot */
+        private int head = NIL;
+
+        /** The newest order's slot */
+        private int tail = NIL;
+
+        /**
+         * Constructor.
+         *
+         * @param price the price of the level's orders
+         */
+        private Level(final int price) {
+            this.price = price;
+        }
+    }
+
+    /** True if the highest price is at the front of the ladder, false for the lowest */
+    private final boolean descending;
+
+    /** The price levels, in reverse dispatch priority so the front level is last */
+    private Level[] ladder = new Level[INITIAL_LEVELS];
+
+    /** The sort key of each level in the ladder, ascending */
+    private int[] ladderKeys = new int[INITIAL_LEVELS];
+
+    /** The number of price levels */
+    private int levelCount;
+
+    /** The level at the front of the ladder, null if the queue is empty */
+    private Level firstLevel;
+
+    /** The order in each slot, null for free slots */
+    private Object[] orders = new Object[INITIAL_CAPACITY];
+
+    /** The next slot in each slot's level, or in the free list */
+    private int[] next = new int[INITIAL_CAPACITY];
+
+    /** The previous slot in each slot's level */
+    private int[] prev = new int[INITIAL_CAPACITY];
+
+    /** The first free slot below the high water mark, NIL if none */
+    private int freeSlot = NIL;
+
+    /** The number of slots ever used */
+    private int highWater;
+
+    /** The slots of the resting orders, by order id */
+    private final IntIntMap index = new IntIntMap();
+
+    /** The filter used to determine if an order is dispatchable */
+    private IntOrderPredicate<E> filter;
+
+    /** Order processor used to process dispatchable orders */
+    private Consumer<E> orderProcessor;
+
+    /** Batch processor used to process dispatchable orders, may be null */
+    private Consumer<List<E>> batchProcessor;
+
+    /** The current threshold. */
+    private int threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue, all orders at a given price are expected to
+     *               yield the same result
+     * @param descending true to dispatch the highest price level first, false
+     *                   for the lowest
+     */
+    public PriceLevelOrderQueue(final int threshold,
+                                final IntOrderPredicate<E> filter,
+                                final boolean descending) {
+        this.threshold = threshold;
+        this.filter = filter;
+        this.descending = descending;
+    }
+
+    /**
+     * Computes the sort key of a price, keys ascend towards the front of the
+     * ladder.  The complement reverses the order of every int, so unlike
+     * negation can't overflow.
+     *
+     * @param price the price
+     *
+     * @return the sort key
+     */
+    private int sortKey(final int price) {
+        return descending ? price : ~price;
+    }
+
+    /**
+     * Finds the ladder position of a price's level.
+     *
+     * @param price the price
+     *
+     * @return the level's position, or (-(insertion point) - 1) if there is
+     *         no level at the price
+     */
+    private int position(final int price) {
+        return Arrays.binarySearch(ladderKeys, 0, levelCount, sortKey(price));
+    }
+
+    /**
+     * Gets the level at a price.
+     *
+     * @param price the price
+     *
+     * @return the level, or null if there are no orders at the price
+     */
+    private Level levelAt(final int price) {
+        final int pos = position(price);
+        return (pos < 0) ? null : ladder[pos];
+    }
+
+    /**
+     * Adds an empty level to the ladder.
+     *
+     * @param price the price of the level, there must be no level at the price
+     *
+     * @return the new level
+     */
+    private Level addLevel(final int price) {
+        final int pos = -position(price) - 1;
+        if (levelCount == ladder.length) {
+            ladder = Arrays.copyOf(ladder, levelCount << 1);
+            ladderKeys = Arrays.copyOf(ladderKeys, levelCount << 1);
+        }
+        System.arraycopy(ladder, pos, ladder, pos + 1, levelCount - pos);
+        System.arraycopy(ladderKeys, pos, ladderKeys, pos + 1, levelCount - pos);
+        final Level level = new Level(price);
+        ladder[pos] = level;
+        ladderKeys[pos] = sortKey(price);
+        levelCount++;
+        firstLevel = ladder[levelCount - 1];
+        return level;
+    }
+
+    /**
+     * Removes an empty level from the ladder.
+     *
+     * @param level the level
+     */
+    private void removeLevel(final Level level) {
+        final int pos = position(level.price);
+        levelCount--;
+        System.arraycopy(ladder, pos + 1, ladder, pos, levelCount - pos);
+        System.arraycopy(ladderKeys, pos + 1, ladderKeys, pos, levelCount - pos);
+        ladder[levelCount] = null;
+        firstLevel = (levelCount == 0) ? null : ladder[levelCount - 1];
+    }
+
+    /**
+     * Adds the specified order to the end of its price level.  Subsequent to
+     * adding the order dispatches any dispatchable orders.
+     *
+     * @param order the order to be added to the queue
+     */
+    @Override
+    public void enqueue(final E order) {
+        insert(order);
+        dispatchOrders();
+    }
+
+    /**
+     * Adds the specified orders to the ends of their price levels.  Subsequent
+     * to adding all of the orders dispatches any dispatchable orders, once.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    @Override
+    public void enqueueAll(final Collection<? extends E> orders) {
+        for (final E order : orders) {
+            insert(order);
+        }
+        dispatchOrders();
+    }
+
+    /**
+     * Adds an order to the end of its price level without dispatching.
+     *
+     * @param order the order
+     */
+    private void insert(final E order) {
+        Level level = levelAt(order.getPrice());
+        if (level == null) {
+            level = addLevel(order.getPrice());
+        }
+
+        final int slot = allocateSlot();
+        orders[slot] = order;
+        next[slot] = NIL;
+        prev[slot] = level.tail;
+        if (level.tail == NIL) {
+            level.head = slot;
+        } else {
+            next[level.tail] = slot;
+        }
+        level.tail = slot;
+        index.put(order.getOrderId(), slot);
+    }
+
+    /**
+     * Takes a slot from the free list, or the next unused slot, growing the
+     * slot arrays if they are full.
+     *
+     * @return the slot
+     */
+    private int allocateSlot() {
+        if (freeSlot != NIL) {
+            final int slot = freeSlot;
+            freeSlot = next[slot];
+            return slot;
+        }
+        if (highWater == orders.length) {
+            final int capacity = orders.length << 1;
+            orders = Arrays.copyOf(orders, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+        }
+        return highWater++;
+    }
+
+    /**
+     * Returns a slot to the free list.
+     *
+     * @param slot the slot
+     */
+    private void releaseSlot(final int slot) {
+        orders[slot] = null;
+        next[slot] = freeSlot;
+        freeSlot = slot;
+    }
+
+    /**
+     * Gets the order in a slot.
+     *
+     * @param slot the slot
+     *
+     * @return the order
+     */
+    @SuppressWarnings("unchecked")
+    private E orderAt(final int slot) {
+        return (E) orders[slot];
+    }
+
+    /**
+     * Cancels a resting order, unlinking it from its level.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return the cancelled order, or null if no such order is resting in the
+     *         queue
+     */
+    @Override
+    public E cancel(final int orderId) {
+        final int slot = index.remove(orderId);
+        if (slot == IntIntMap.NO_VALUE) {
+            return null;
+        }
+
+        final E order = orderAt(slot);
+        final Level level = levelAt(order.getPrice());
+        final int before = prev[slot];
+        final int after = next[slot];
+        if (before == NIL) {
+            level.head = after;
+        } else {
+            next[before] = after;
+        }
+        if (after == NIL) {
+            level.tail = before;
+        } else {
+            prev[after] = before;
+        }
+        releaseSlot(slot);
+
+        if (level.head == NIL) {
+            removeLevel(level);
+        }
+        return order;
+    }
+
+    /**
+     * Gets a resting order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if no such order is resting in the queue
+     */
+    @Override
+    public E get(final int orderId) {
+        final int slot = index.get(orderId);
+        return (slot == IntIntMap.NO_VALUE) ? null : orderAt(slot);
+    }
+
+    /**
+     * Gets the number of resting orders.
+     *
+     * @return the number of orders in the queue
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Obtains the price of the front level.
+     *
+     * @param ifEmpty the value to return if the queue is empty
+     *
+     * @return the price of the front level, or ifEmpty if the queue is empty
+     */
+    @Override
+    public int peekPrice(final int ifEmpty) {
+        return (firstLevel == null) ? ifEmpty : firstLevel.price;
+    }
+
+    /**
+     * Determines if the front level meets the dispatch threshold.
+     *
+     * @return true if the front level is dispatchable
+     */
+    private boolean frontDispatchable() {
+        return firstLevel != null && filter.test(threshold, orderAt(firstLevel.head));
+    }
+
+    /**
+     * Removes the oldest order from the front price level, provided the level
+     * meets the dispatch threshold.
+     *
+     * @return the first dispatchable order in the queue, or null if there are no
+     *         dispatchable orders in the queue
+     */
+    @Override
+    public E dequeue() {
+        return frontDispatchable() ? cancel(orderAt(firstLevel.head).getOrderId()) : null;
+    }
+
+    /**
+     * Executes the callback for each dispatchable order.  Price levels are
+     * dispatched whole, the front level is detached from the ladder and each of
+     * its orders is passed to the callback in arrival order.  If no callback
+     * is registered the orders are simply removed from the queue.  If a batch
+     * processor is registered the dispatchable orders are instead passed to it
+     * as a single batch.  If the callback fails the orders of the level not
+     * yet passed to it are returned to the front of their level, the failure
+     * is propagated.
+     */
+    @Override
+    public void dispatchOrders() {
+        if (batchProcessor != null) {
+            dispatchBatch();
+            return;
+        }
+
+        while (frontDispatchable()) {
+            final Level level = detachFirstLevel();
+            int slot = level.head;
+            try {
+                while (slot != NIL) {
+                    final E order = orderAt(slot);
+                    final int following = next[slot];
+                    releaseSlot(slot);
+                    slot = following;
+                    if (orderProcessor != null) {
+                        orderProcessor.accept(order);
+                    }
+                }
+            } finally {
+                if (slot != NIL) {
+                    requeue(level.price, slot, level.tail);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the undispatched remainder of a detached level to the ladder,
+     * ahead of any orders queued at its price while it was being dispatched,
+     * and indexes its orders again.
+     *
+     * @param price the price of the level
+     * @param head the first undispatched slot
+     * @param tail the last slot of the detached level
+     */
+    private void requeue(final int price, final int head, final int tail) {
+        for (int slot = head; slot != NIL; slot = next[slot]) {
+            index.put(orderAt(slot).getOrderId(), slot);
+        }
+        prev[head] = NIL;
+        Level level = levelAt(price);
+        if (level == null) {
+            level = addLevel(price);
+            level.tail = tail;
+        } else {
+            next[tail] = level.head;
+            prev[level.head] = tail;
+        }
+        level.head = head;
+    }
+
+    /**
+     * Dispatches all dispatchable orders as a single batch.  Triggered levels
+     * are removed from the front of the ladder one at a time, as they are for
+     * per order dispatch, and their orders appended to the batch.  Nothing is
+     * allocated unless at least one level is triggered.
+     */
+    private void dispatchBatch() {
+        List<E> batch = null;
+        while (frontDispatchable()) {
+            final Level level = detachFirstLevel();
+            if (batch == null) {
+                batch = new ArrayList<>();
+            }
+            int slot = level.head;
+            while (slot != NIL) {
+                batch.add(orderAt(slot));
+                final int following = next[slot];
+                releaseSlot(slot);
+                slot = following;
+            }
+        }
+
+        if (batch != null) {
+            batchProcessor.accept(batch);
+        }
+    }
+
+    /**
+     * Removes the front level from the ladder, caching its successor, and
+     * removes its orders from the index.  The orders are no longer resting,
+     * so a processor cancelling one of them while the level is dispatched
+     * finds nothing to cancel; the level's slots remain linked until the
+     * caller releases them.
+     *
+     * @return the detached level
+     */
+    private Level detachFirstLevel() {
+        final Level level = firstLevel;
+        levelCount--;
+        ladder[levelCount] = null;
+        firstLevel = (levelCount == 0) ? null : ladder[levelCount - 1];
+        for (int slot = level.head; slot != NIL; slot = next[slot]) {
+            index.remove(orderAt(slot).getOrderId());
+        }
+        return level;
+    }
+
+    /**
+     * Registers the callback to be used for batch order processing, null
+     * reverts to per order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setBatchOrderProcessor(final Consumer<List<E>> proc) {
+        batchProcessor = proc;
+    }
+
+    /**
+     * Registers the callback to be used during order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setOrderProcessor(final Consumer<E> proc) {
+        orderProcessor = proc;
+    }
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold - the new threshold
+     */
+    @Override
+    public void setThreshold(final int threshold) {
+        this.threshold = threshold;
+        dispatchOrders();
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    public int getIntThreshold() {
+        return threshold;
+    }
+}
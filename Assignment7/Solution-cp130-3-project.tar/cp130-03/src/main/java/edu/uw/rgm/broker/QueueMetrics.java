@@ -0,0 +1,92 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the orders entering and leaving an order queue.  The queue's depth
+ * is derived from the counts, so it may be read by monitoring threads without
+ * touching the queue, which need not be thread safe.
+ *
+ * @author Russ Moul
+ */
+public final class QueueMetrics {
+    /** Orders added to the queue */
+    private final RateMeter enqueued = new RateMeter();
+
+    /** Orders dispatched from the queue */
+    private final RateMeter dispatched = new RateMeter();
+
+    /** Orders removed from the queue without being dispatched */
+    private final LongAdder removed = new LongAdder();
+
+    /**
+     * Records orders added to the queue.
+     *
+     * @param orders the number of orders
+     */
+    public void enqueued(final long orders) {
+        enqueued.mark(orders);
+    }
+
+    /**
+     * Records orders dispatched from the queue.
+     *
+     * @param orders the number of orders
+     */
+    public void dispatched(final long orders) {
+        dispatched.mark(orders);
+    }
+
+    /**
+     * Records an order removed from the queue without being dispatched,
+     * cancelled, replaced or expired.
+     */
+    public void removed() {
+        removed.increment();
+    }
+
+    /**
+     * Gets the number of orders in the queue.
+     *
+     * @return the number of queued orders
+     */
+    public long getDepth() {
+        return enqueued.getCount() - dispatched.getCount() - removed.sum();
+    }
+
+    /**
+     * Gets the number of orders added to the queue.
+     *
+     * @return the number of orders enqueued
+     */
+    public long getEnqueuedCount() {
+        return enqueued.getCount();
+    }
+
+    /**
+     * Gets the rate orders are added to the queue.
+     *
+     * @return orders enqueued per second
+     */
+    public double getEnqueueRate() {
+        return enqueued.getRate();
+    }
+
+    /**
+     * Gets the number of orders dispatched from the queue.
+     *
+     * @return the number of orders dispatched
+     */
+    public long getDispatchedCount() {
+        return dispatched.getCount();
+    }
+
+    /**
+     * Gets the rate orders are dispatched from the queue.
+     *
+     * @return orders dispatched per second
+     */
+    public double getDispatchRate() {
+        return dispatched.getRate();
+    }
+}
@@ -0,0 +1,65 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.uw.ext.framework.exchange.StockQuote;
+
+/**
+ * The latest quote for each of a fixed set of tickers, maintained from
+ * exchange price change events.  Each ticker's price is held in the slot of
+ * its ticker id, the registry is immutable, so prices are read and updated
+ * without locking; an update is a single volatile write of a primitive and
+ * allocates nothing, the StockQuote is only created when a quote is read.
+ *
+ * @author Russ Moul
+ */
+public final class QuoteCache {
+    /** The tickers quotes are cached for */
+    private final TickerRegistry registry;
+
+    /** Marks a slot whose ticker has no known price */
+    private static final int NO_PRICE = Integer.MIN_VALUE;
+
+    /** The latest price of each ticker, by id, NO_PRICE until the first price is known */
+    private final AtomicIntegerArray prices;
+
+    /**
+     * Constructor.
+     *
+     * @param registry the tickers to cache quotes for
+     */
+    public QuoteCache(final TickerRegistry registry) {
+        this.registry = registry;
+        prices = new AtomicIntegerArray(registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            prices.set(i, NO_PRICE);
+        }
+    }
+
+    /**
+     * Records a ticker's latest price.
+     *
+     * @param tickerId the ticker's id
+     * @param price the latest price
+     */
+    public void update(final int tickerId, final int price) {
+        prices.set(tickerId, price);
+    }
+
+    /**
+     * Gets a ticker's latest quote.
+     *
+     * @param ticker the ticker symbol
+     *
+     * @return the latest quote, or null if the ticker is not in the cache or
+     *         no price is known for it
+     */
+    public StockQuote get(final String ticker) {
+        final int tickerId = registry.idOf(ticker);
+        if (tickerId == TickerRegistry.NO_ID) {
+            return null;
+        }
+        final int price = prices.get(tickerId);
+        return (price == NO_PRICE) ? null : new StockQuote(registry.symbolOf(tickerId), price);
+    }
+}
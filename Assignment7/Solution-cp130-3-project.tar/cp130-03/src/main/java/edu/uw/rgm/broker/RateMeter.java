@@ -0,0 +1,72 @@
+package edu.uw.rgm.broker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and derives their rate.  Events are counted on a striped
+ * LongAdder, so marking an event takes no lock and contending threads rarely
+ * share a cache line.  The rate is computed when read, over the interval since
+ * the previous sample, a new sample being taken at most once a second, so
+ * concurrent monitoring clients see a consistent rate.
+ *
+ * @author Russ Moul
+ */
+public final class RateMeter {
+    /** The minimum interval between rate samples, in nanoseconds */
+    private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** The number of events */
+    private final LongAdder count = new LongAdder();
+
+    /** The time of the last sample, guarded by this */
+    private long sampleNanos = System.nanoTime();
+
+    /** The count at the last sample, guarded by this */
+    private long sampleCount;
+
+    /** The rate computed at the last sample, guarded by this */
+    private double rate;
+
+    /**
+     * Records an event.
+     */
+    public void mark() {
+        count.increment();
+    }
+
+    /**
+     * Records a number of events.
+     *
+     * @param events the number of events
+     */
+    public void mark(final long events) {
+        count.add(events);
+    }
+
+    /**
+     * Gets the number of events recorded.
+     *
+     * @return the number of events
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the rate of events.
+     *
+     * @return the events per second over the last sample interval
+     */
+    public synchronized double getRate() {
+        final long now = System.nanoTime();
+        final long elapsed = now - sampleNanos;
+        if (elapsed >= SAMPLE_NANOS) {
+            final long current = count.sum();
+            rate = (current - sampleCount) * (double) SAMPLE_NANOS / elapsed;
+            sampleCount = current;
+            sampleNanos = now;
+        }
+        return rate;
+    }
+}
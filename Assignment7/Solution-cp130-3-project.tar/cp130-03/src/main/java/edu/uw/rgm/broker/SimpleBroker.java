@@ -1,8 +1,28 @@
 package edu.uw.rgm.broker;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,14 +46,32 @@ import edu.uw.ext.framework.order.StopSellOrder;
 /**
  * An implementation of the Broker interface, provides a full
  * implementation less the creation of the order manager and market queue.
+ * <p>
+ * The broker has no broker wide lock.  Market data requests read an immutable
+ * snapshot of the broker's collaborators and take no lock, account operations
+ * are serialized only by the account manager, and order flow, the order
+ * managers when not sharded, is guarded by a dedicated order lock.  So quote
+ * requests and logins don't wait on order processing or trade execution.
  *
  * @author Russ Moul
  */
-public class SimpleBroker implements Broker, ExchangeListener {
+public class SimpleBroker implements Broker, ExchangeListener, TickerListener {
     /** This class' logger */
     private static final Logger logger =
                          LoggerFactory.getLogger(SimpleBroker.class);
 
+    /** Duration of an expiry wheel tick, in milliseconds */
+    private static final long EXPIRY_TICK_MILLIS = 1_000L;
+
+    /** Number of slots in the expiry wheel, about an hour's worth of ticks */
+    private static final int EXPIRY_SLOTS = 4_096;
+
+    /** Interval between journal group commits, in milliseconds */
+    private static final long JOURNAL_FLUSH_MILLIS = 10L;
+
+    /** How long close waits for each stage of the broker to stop, in seconds */
+    private static final long CLOSE_TIMEOUT_SECONDS = 30L;
+
     /** This broker's name */
     private String name;
 
@@ -43,14 +81,143 @@ public class SimpleBroker implements Broker, ExchangeListener {
     /** The exchange used by this broker */
     private StockExchange stockExchange;
 
-    /** The set of order managers used by the broker */
-    private HashMap<String, OrderManager> orderManagerMap;
+    /** Interns the exchange's ticker symbols to ids */
+    private TickerRegistry tickers;
+
+    /** The order managers used by the broker, by ticker id */
+    private OrderManagerAdapter[] orderManagers;
 
-    /** The market order queue. */
+    /** The market order queue, a ConcurrentOrderQueue unless provided by a sub class */
     protected OrderQueue<Boolean, Order> marketOrders;
 
+    /** Adapts the market order queue, used without the order lock */
+    private MarketQueueAdapter marketQueue;
+
+    /** Capacity limits applied to orders placed with the broker */
+    private OrderLimits limits = OrderLimits.UNLIMITED;
+
+    /** How the order managers created by the broker store resting stop orders */
+    private OrderStorage orderStorage = OrderStorage.HEAP;
+
+    /** Number of orders placed with the broker and not yet executed, cancelled or expired */
+    private final AtomicInteger pendingOrders = new AtomicInteger();
+
+    /** Directory holding the order journals, null if orders aren't journaled */
+    private Path journalDirectory;
+
+    /** Journal of the market order queue, null if orders aren't journaled */
+    private OrderJournal marketJournal;
+
+    /** Time in force and placed ids of pending orders, journaled with the orders */
+    private final OrderDetails details = new OrderDetails();
+
+    /** Workers owning the order managers, null if the order managers are guarded by the order lock */
+    private OrderManagerShards shards;
+
+    /** Hands triggered stop orders off to the market order queue, null to enqueue them directly */
+    private volatile HandoffRing<Order> triggeredOrders;
+
+    /** Executes market orders in stages, null to execute them on the dispatching thread */
+    private volatile TradePipeline tradePipeline;
+
+    /** Drains the market order backlog when the exchange opens, null to dispatch it serially */
+    private volatile ExecutorService openDrainPool;
+
+    /** Duration of the last market open backlog drain, in milliseconds */
+    private volatile long lastOpenDrainMillis;
+
+    /** The listener registered with the exchange, this broker, its ticker event adapter or a conflating listener */
+    private volatile ExchangeListener exchangeListener = this;
+
+    /** Guards the order managers when not sharded, and the MBean registrations */
+    private final Object orderLock = new Object();
+
+    /** Snapshot of the broker's collaborators, checked by every public operation */
+    private volatile State state = State.CLOSED;
+
+    /** Expires DAY and GTD orders */
+    private final ExpiryWheel<Order> expiryWheel =
+        new ExpiryWheel<>(EXPIRY_TICK_MILLIS, EXPIRY_SLOTS, System.currentTimeMillis(), this::expireOrder);
+
+    /** Advances the expiry wheel each tick, null until the broker is initialized */
+    private ScheduledExecutorService expiryTimer;
+
+    /** The broker's order flow and trade execution metrics */
+    private final BrokerMetrics metrics =
+        new BrokerMetrics(pendingOrders::get, this::marketQueueDepth, this::handoffBacklog);
+
+    /** The names of the MBeans registered for the broker, null if not registered */
+    private List<ObjectName> mbeanNames;
+
     /**
-     * Constructor for sub classes
+     * An immutable snapshot of the broker's collaborators, published once the
+     * broker is initialized and replaced by CLOSED when the broker is closed.
+     */
+    private static final class State {
+        /** The state of a broker which is uninitialized or closed */
+        private static final State CLOSED = new State(null, null, null, null, null, null);
+
+        /** The broker's name */
+        private final String name;
+
+        /** The account manager */
+        private final AccountManager accountManager;
+
+        /** The exchange */
+        private final StockExchange stockExchange;
+
+        /** The order managers, by ticker id */
+        private final OrderManagerAdapter[] orderManagers;
+
+        /** The market order queue */
+        private final MarketQueueAdapter marketOrders;
+
+        /** The latest quotes, maintained from price change events */
+        private final QuoteCache quotes;
+
+        /**
+         * Constructor.
+         *
+         * @param name the broker's name
+         * @param accountManager the account manager
+         * @param stockExchange the exchange
+         * @param orderManagers the order managers, by ticker id
+         * @param marketOrders the market order queue
+         * @param quotes the quote cache
+         */
+        private State(final String name, final AccountManager accountManager,
+                      final StockExchange stockExchange,
+                      final OrderManagerAdapter[] orderManagers,
+                      final MarketQueueAdapter marketOrders,
+                      final QuoteCache quotes) {
+            this.name = name;
+            this.accountManager = accountManager;
+            this.stockExchange = stockExchange;
+            this.orderManagers = orderManagers;
+            this.marketOrders = marketOrders;
+            this.quotes = quotes;
+        }
+
+        /**
+         * Determines if the broker is capable of performing operations.
+         *
+         * @return true if all of the collaborators are present
+         */
+        private boolean isValid() {
+            return name != null
+                && accountManager != null
+                && stockExchange != null
+                && orderManagers != null
+                && marketOrders != null
+                && quotes != null;
+        }
+    }
+
+    /**
+     * Constructor for sub classes, the sub class completes construction by
+     * invoking initialize or, as before configurations, by providing the
+     * market order queue, invoking initializeOrderManagers and registering
+     * with the exchange.
      *
      * @param brokerName name of the broker
      * @param exchg the stock exchange to be used by the broker
@@ -65,7 +232,7 @@ public class SimpleBroker implements Broker, ExchangeListener {
     }
 
     /**
-     *  Constructor.
+     *  Constructor, using the default configuration.
      *
      * @param brokerName name of the broker
      * @param acctMgr the account manager to be used by the broker
@@ -74,53 +241,320 @@ public class SimpleBroker implements Broker, ExchangeListener {
     public SimpleBroker(final String brokerName, final AccountManager acctMgr,
                         final StockExchange exchg) {
         this(brokerName, exchg, acctMgr);
+        initializeStages(BrokerConfig.DEFAULT);
+    }
 
-        // Create the market order queue, & order processor
-        marketOrders = new SimpleOrderQueue<>(exchg.isOpen(), (t, o)->t);
-        Consumer<Order> stockTrader = (order) -> {
-            logger.info(String.format("Executing - %s", order));
-            final int sharePrice = stockExchange.executeTrade(order);
-            try {
-                final Account acct = accountManager.getAccount(order.getAccountId());
-                acct.reflectOrder(order, sharePrice);
-                logger.info(String.format("New balance - %d", acct.getBalance()));
+    /**
+     *  Constructor.  If the configuration has a journal directory any orders
+     *  journaled to it by a previous broker are recovered.
+     *
+     * @param brokerName name of the broker
+     * @param acctMgr the account manager to be used by the broker
+     * @param exchg the stock exchange to be used by the broker
+     * @param config the broker's configuration
+     *
+     * @throws BrokerException if the broker's MBeans can't be registered, the
+     *         broker is closed
+     * @throws UncheckedIOException if the journals can't be opened or recovered
+     */
+    public SimpleBroker(final String brokerName, final AccountManager acctMgr,
+                        final StockExchange exchg, final BrokerConfig config)
+        throws BrokerException {
+        this(brokerName, exchg, acctMgr);
+        initialize(config);
+    }
 
-            } catch (final AccountException ex) {
-                logger.error(String.format("Unable to update account, %s", order.getAccountId()), ex);
+    /**
+     * Initializes the broker as configured, then registers its MBeans if
+     * configured to.  Invoked by the configured constructor, and by sub
+     * classes constructed with the sub class constructor.  A market order
+     * queue the sub class has already assigned to marketOrders is used in
+     * place of a ConcurrentOrderQueue, its order processor is replaced by the
+     * broker's and the configured market queue limits don't apply to it.
+     * Only to be used during construction.
+     *
+     * @param config the broker's configuration
+     *
+     * @throws BrokerException if the broker's MBeans can't be registered, the
+     *         broker is closed
+     * @throws UncheckedIOException if the journals can't be opened or recovered
+     */
+    protected final void initialize(final BrokerConfig config) throws BrokerException {
+        initializeStages(config);
+        if (config.isRegisterMBeans()) {
+            try {
+                registerMBeans();
+            } catch (final BrokerException ex) {
+                try {
+                    close();
+                } catch (final BrokerException closeEx) {
+                    ex.addSuppressed(closeEx);
+                }
+                throw ex;
             }
-        };
+        }
+    }
+
+    /**
+     * Creates the market order queue, unless a sub class has provided one,
+     * the order managers and the stages selected by the configuration,
+     * recovers any journaled orders and then registers the broker with the
+     * exchange.  Only to be used during construction.
+     *
+     * @param config the broker's configuration
+     *
+     * @throws UncheckedIOException if the journals can't be opened or recovered
+     */
+    private void initializeStages(final BrokerConfig config) {
+        limits = config.getLimits();
+        journalDirectory = config.getJournalDirectory();
+        orderStorage = config.getOrderStorage();
+
+        // Create the market order queue, & order processor
+        if (marketOrders == null) {
+            marketOrders = new ConcurrentOrderQueue<>(stockExchange.isOpen(), (t, o)->t, null,
+                                                      config.getMarketDispatcher(),
+                                                      limits.getMarketQueueCapacity(),
+                                                      limits.getMarketQueuePolicy(),
+                                                      limits.getMarketShedPriority());
+        }
+        marketOrders.setOrderProcessor(this::executeMarketOrder);
+        if (marketOrders instanceof ConcurrentOrderQueue) {
+            ((ConcurrentOrderQueue<Boolean, Order>) marketOrders).setShedOrderProcessor((order) -> {
+                pendingOrders.decrementAndGet();
+                journalRemoved(order);
+                orderRemoved(order);
+                logger.warn(String.format("Shed - %s", order));
+            });
+        }
 
-        marketOrders.setOrderProcessor(stockTrader);
+        // Create the execution stages before recovery, so recovered orders use them
+        if (config.getPipelineCapacity() > 0) {
+            tradePipeline = new TradePipeline(stockExchange, accountManager, config.getPipelineCapacity(),
+                                              order -> {
+                                                  pendingOrders.decrementAndGet();
+                                                  journalRemoved(order);
+                                                  orderRemoved(order);
+                                              }, metrics);
+        }
+        if (config.getHandoffCapacity() > 0) {
+            triggeredOrders = new HandoffRing<>(config.getHandoffCapacity(), "triggered-order-handoff",
+                                                orders -> marketQueue.enqueueAll(orders));
+        }
+        if (config.getOpenDrainParallelism() > 0) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            openDrainPool = Executors.newFixedThreadPool(config.getOpenDrainParallelism(), r -> {
+                final Thread thread = new Thread(r, "open-drain-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
         // Create the order managers
         initializeOrderManagers();
 
-        exchg.addExchangeListener(this);
+        if (journalDirectory != null) {
+            recoverOrders();
+        }
+
+        if (config.getShardCount() > 0) {
+            shards = new OrderManagerShards(config.getShardCount());
+        }
+
+        // Expire orders on a timer, rather than on every price change
+        expiryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "order-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryTimer.scheduleAtFixedRate(this::advanceExpiry, EXPIRY_TICK_MILLIS,
+                                        EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (config.getPriceChangeDrainer() == null) {
+            exchangeListener = new TickerEventAdapter(tickers, this);
+        } else {
+            exchangeListener = new ConflatingExchangeListener(tickers, this, config.getPriceChangeDrainer(),
+                                                              this::hasTrailingOrders);
+        }
+        stockExchange.addExchangeListener(exchangeListener);
     }
     
+    /**
+     * Executes a market order and reflects it in the order's account, or hands
+     * it to the trade pipeline if there is one.
+     *
+     * @param order the order
+     */
+    private void executeMarketOrder(final Order order) {
+        metrics.marketOrders().dispatched(1);
+        final TradePipeline pipeline = tradePipeline;
+        if (pipeline != null) {
+            pipeline.submit(order);
+            return;
+        }
+        logger.info(String.format("Executing - %s", order));
+        try {
+            final long start = System.nanoTime();
+            final int sharePrice = stockExchange.executeTrade(order);
+            final long executed = System.nanoTime();
+            metrics.tradeLatency().record(executed - start);
+            final Account acct = accountManager.getAccount(order.getAccountId());
+            // the account persists itself as it reflects the order
+            acct.reflectOrder(order, sharePrice);
+            metrics.persistLatency().record(System.nanoTime() - executed);
+            logger.info(String.format("New balance - %d", acct.getBalance()));
+
+        } catch (final AccountException ex) {
+            logger.error(String.format("Unable to update account, %s", order.getAccountId()), ex);
+        } finally {
+            pendingOrders.decrementAndGet();
+            journalRemoved(order);
+            orderRemoved(order);
+        }
+    }
+
+    /**
+     * Accounts for an order leaving the broker, whether executed, shed,
+     * cancelled, replaced or expired.  Its details are forgotten and any
+     * expiry scheduled for it is cancelled, so the expiry wheel only holds
+     * orders which are still queued.
+     *
+     * @param order the order
+     */
+    private void orderRemoved(final Order order) {
+        final int orderId = order.getOrderId();
+        final boolean expiring = details.timeInForce(orderId) != TimeInForce.GTC;
+        details.removed(orderId);
+        if (expiring) {
+            expiryWheel.cancel(order);
+        }
+    }
+
     /**
      * Fetch the stock list from the exchange and initialize an order manager
-     * for each stock.  Only to be used during construction.
+     * for each stock, then publishes the broker's state.  Only to be used
+     * during construction, once the market order queue has been created.
      */
     protected final void initializeOrderManagers() {
-        orderManagerMap = new HashMap<>();
-        final Consumer<StopBuyOrder> moveBuy2MarketProc = (StopBuyOrder order) -> marketOrders.enqueue(order);
-        final Consumer<StopSellOrder> moveSell2MarketProc = (StopSellOrder order) -> marketOrders.enqueue(order);
-        for (String ticker : stockExchange.getTickers()) {
+        tickers = new TickerRegistry(stockExchange.getTickers());
+        orderManagers = new OrderManagerAdapter[tickers.size()];
+        final QuoteCache quotes = new QuoteCache(tickers);
+        final Consumer<StopBuyOrder> moveBuy2MarketProc = (StopBuyOrder order) -> enqueueMarketOrder(order);
+        final Consumer<StopSellOrder> moveSell2MarketProc = (StopSellOrder order) -> enqueueMarketOrder(order);
+        for (int tickerId = 0; tickerId < orderManagers.length; tickerId++) {
+            final String ticker = tickers.symbolOf(tickerId);
             final int currPrice = stockExchange.getQuote(ticker).getPrice();
-            final OrderManager orderMgr = createOrderManager(ticker, currPrice);
-            orderMgr.setBuyOrderProcessor(moveBuy2MarketProc);
-            orderMgr.setSellOrderProcessor(moveSell2MarketProc);
-            orderManagerMap.put(ticker, orderMgr);
+            quotes.update(tickerId, currPrice);
+            final OrderManagerAdapter orderMgr = new OrderManagerAdapter(createOrderManager(ticker, currPrice));
+            if (journalDirectory != null) {
+                try {
+                    if (!orderMgr.enableJournal(journalDirectory, JOURNAL_FLUSH_MILLIS, details)) {
+                        logger.warn(String.format("Order manager for '%s' can't be journaled, its stop orders won't be recovered",
+                                                  ticker));
+                    }
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(String.format("Unable to open order journals for '%s'", ticker), ex);
+                }
+            }
+            orderMgr.setOrderProcessors(moveBuy2MarketProc, moveSell2MarketProc, this::enqueueMarketOrder);
+            orderManagers[tickerId] = orderMgr;
             if (logger.isInfoEnabled()) {
                 logger.info(String.format("Initialized order manager for '%s' @ %d",
                                           ticker, currPrice));
             }
         }
+        marketQueue = new MarketQueueAdapter(marketOrders);
+        state = new State(name, accountManager, stockExchange,
+                          orderManagers, marketQueue, quotes);
     }
     
     /**
-     * Create an appropriate order manager for this broker.  Only to be used during construction.
+     * Opens the market order journal and recovers the journaled orders, market
+     * orders first so stop orders triggered during recovery aren't recovered
+     * twice.  The recovered orders' expiries are rescheduled.  Only to be used
+     * during construction.
+     *
+     * @throws UncheckedIOException if the journals can't be opened or recovered
+     */
+    private void recoverOrders() {
+        try {
+            marketJournal = new OrderJournal(journalDirectory.resolve("market.journal"),
+                                             JOURNAL_FLUSH_MILLIS,
+                                             OrderJournal.DEFAULT_SEGMENT_SIZE, details);
+            for (final OrderJournal.Recovered recovered : marketJournal.recover()) {
+                recovered(recovered);
+                pendingOrders.incrementAndGet();
+                metrics.marketOrders().enqueued(1);
+                marketQueue.enqueue(recovered.getOrder());
+            }
+            for (final OrderManagerAdapter orderMgr : orderManagers) {
+                pendingOrders.addAndGet(orderMgr.recoverOrders(this::recovered));
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Unable to recover journaled orders", ex);
+        }
+    }
+
+    /**
+     * Records the details of an order recovered from a journal and reschedules
+     * its expiry, a GTD order whose expiration time passed while the broker
+     * was down expires on the next tick of the expiry wheel.
+     *
+     * @param recovered the recovered order
+     */
+    private void recovered(final OrderJournal.Recovered recovered) {
+        final Order order = recovered.getOrder();
+        details.recreated(order.getOrderId(), recovered.getPlacedId(),
+                          recovered.getTimeInForce(), recovered.getGoodTill());
+        scheduleExpiry(order, recovered.getTimeInForce(),
+                       Math.max(recovered.getGoodTill(),
+                                System.currentTimeMillis() + EXPIRY_TICK_MILLIS));
+    }
+
+    /**
+     * Journals and enqueues a triggered stop order on the market order queue,
+     * by way of the handoff ring if there is one.
+     *
+     * @param order the triggered order
+     */
+    private void enqueueMarketOrder(final Order order) {
+        journalEnqueued(order);
+        metrics.marketOrders().enqueued(1);
+        final HandoffRing<Order> ring = triggeredOrders;
+        if (ring == null) {
+            marketQueue.enqueue(order);
+        } else {
+            ring.publish(order);
+        }
+    }
+
+    /**
+     * Journals an order entering the market order queue, if journaling.
+     *
+     * @param order the order
+     */
+    private void journalEnqueued(final Order order) {
+        if (marketJournal != null) {
+            marketJournal.enqueued(order);
+        }
+    }
+
+    /**
+     * Journals an order leaving the market order queue, if journaling.
+     *
+     * @param order the order
+     */
+    private void journalRemoved(final Order order) {
+        if (marketJournal != null) {
+            marketJournal.removed(order.getOrderId());
+        }
+    }
+
+    /**
+     * Create an appropriate order manager for this broker, storing resting
+     * stop orders as configured.  Only to be used during construction.
+     * Cancellation, replacement, expiry, journaling and trailing stop orders
+     * are only supported by order managers which are SimpleOrderManagers.
      *
      * @param ticker the ticker symbol of the stock
      * @param initialPrice current price of the stock
@@ -128,38 +562,145 @@ public class SimpleBroker implements Broker, ExchangeListener {
      * @return a new OrderManager for the specified stock
      */
     protected OrderManager createOrderManager(final String ticker, final int initialPrice) {
-        return new SimpleOrderManager(ticker, initialPrice);
+        return new SimpleOrderManager(ticker, initialPrice, orderStorage);
     }
 
    /**
-    * Upon the exchange opening sets the market dispatch filter threshold
-    * and processes any available orders.
+    * Upon a price change resolves the stock's ticker id and processes the
+    * price change, price changes for unknown stocks are ignored.  The broker
+    * registers a TickerEventAdapter with the exchange, so exchange events
+    * normally arrive with the id already resolved.
     *
     * @param event the price change event
     */
-    public synchronized final void priceChanged(final ExchangeEvent event) {
+    public final void priceChanged(final ExchangeEvent event) {
         checkInvariants();
+        final int tickerId = tickers.idOf(event.getTicker());
+        if (tickerId != TickerRegistry.NO_ID) {
+            priceChanged(tickerId, event.getPrice());
+        }
+    }
+
+   /**
+    * Upon a price change updates the cached quote and adjusts the price of
+    * the stock's order manager, triggering any stop orders.  When sharded the
+    * adjustment is handed to the order manager's worker and the order lock is
+    * not taken.  Expired orders are not processed here, the expiry wheel is
+    * advanced by a timer.
+    *
+    * @param tickerId the stock's ticker id
+    * @param price the new price
+    */
+    public final void priceChanged(final int tickerId, final int price) {
+        checkInvariants().quotes.update(tickerId, price);
+        metrics.exchangeEvents().mark();
+        if (shards == null) {
+            synchronized (orderLock) {
+                adjustPrice(tickerId, price);
+            }
+        } else {
+            shards.execute(tickerId, () -> adjustPrice(tickerId, price));
+        }
+    }
+
+    /**
+     * Adjusts the price of a stock's order manager.  Must be invoked with the
+     * order lock held, or on the order manager's worker.
+     *
+     * @param tickerId the ticker id of the stock
+     * @param price the new price
+     */
+    private void adjustPrice(final int tickerId, final int price) {
         if (logger.isInfoEnabled()) {
             logger.info(String.format("Processing price change [%s:%d]",
-                                      event.getTicker(), event.getPrice()));
-        }
-        OrderManager orderMgr;
-        orderMgr = orderManagerMap.get(event.getTicker());
-        if (orderMgr != null) {
-            orderMgr.adjustPrice(event.getPrice());
+                                      tickers.symbolOf(tickerId), price));
         }
+        orderManagers[tickerId].adjustPrice(price);
     }
 
     /**
      * Upon the exchange opening sets the market dispatch filter threshold
-     * and processes any available orders.
+     * and processes any available orders.  If a market open drain pool is
+     * configured the backlog of market orders is first drained in parallel on
+     * it, orders placed during the drain are dispatched once it completes.
      *
      * @param event the exchange (open) event
      */
-    public synchronized final void exchangeOpened(final ExchangeEvent event) {
+    public final void exchangeOpened(final ExchangeEvent event) {
         checkInvariants();
+        metrics.exchangeEvents().mark();
         logger.info("### MARKET OPENED ###");
-        marketOrders.setThreshold(Boolean.TRUE);
+        expiryWheel.advance(System.currentTimeMillis());
+        final ExecutorService pool = openDrainPool;
+        if (pool != null) {
+            drainOpeningBacklog(pool);
+        }
+        marketQueue.setThreshold(true);
+    }
+
+    /**
+     * Executes the market orders queued while the exchange was closed,
+     * partitioned by account.  Each account's orders are executed in queue
+     * order by a single task, the accounts' tasks are run in parallel on the
+     * pool, and the caller waits for all of them to complete.  Relies on the
+     * prerequisites enforced and documented by BrokerConfig: no trade
+     * pipeline, an exchange whose executeTrade may be called concurrently and,
+     * for any gain, a write behind account manager.
+     *
+     * @param pool the pool the partitions are executed on
+     */
+    private void drainOpeningBacklog(final ExecutorService pool) {
+        final long start = System.nanoTime();
+        final List<Order> backlog = marketQueue.removeAll();
+        final Map<String, List<Order>> partitions = new LinkedHashMap<>();
+        for (final Order order : backlog) {
+            partitions.computeIfAbsent(order.getAccountId(), k -> new ArrayList<>()).add(order);
+        }
+
+        final List<Future<?>> tasks = new ArrayList<>(partitions.size());
+        for (final List<Order> partition : partitions.values()) {
+            tasks.add(pool.submit(() -> {
+                for (final Order order : partition) {
+                    try {
+                        executeMarketOrder(order);
+                    } catch (final RuntimeException ex) {
+                        logger.error(String.format("Unable to execute - %s", order), ex);
+                    }
+                }
+            }));
+        }
+        boolean interrupted = false;
+        for (final Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (final InterruptedException ex) {
+                    interrupted = true;
+                } catch (final ExecutionException ex) {
+                    logger.error("Market open drain partition failed", ex.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        lastOpenDrainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (logger.isInfoEnabled()) {
+            logger.info(String.format("Drained %d market orders for %d accounts in %d ms",
+                                      backlog.size(), partitions.size(), lastOpenDrainMillis));
+        }
+    }
+
+    /**
+     * Gets the duration of the last market open backlog drain.
+     *
+     * @return the duration in milliseconds, 0 if no drain has been performed
+     */
+    public final long getLastOpenDrainMillis() {
+        return lastOpenDrainMillis;
     }
 
     /**
@@ -167,10 +708,96 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @param event the exchange (closed) event
      */
-    public synchronized final void exchangeClosed(final ExchangeEvent event) {
+    public final void exchangeClosed(final ExchangeEvent event) {
         checkInvariants();
-        marketOrders.setThreshold(Boolean.FALSE);
+        metrics.exchangeEvents().mark();
+        marketQueue.setThreshold(false);
         logger.info("### MARKET CLOSED ###");
+        expiryWheel.expireDay();
+        expiryWheel.advance(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of orders in the market order queue.
+     *
+     * @return the market order queue depth
+     */
+    private int marketQueueDepth() {
+        final MarketQueueAdapter queue = marketQueue;
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    /**
+     * Gets the number of triggered orders awaiting handoff to the market
+     * order queue.
+     *
+     * @return the handoff backlog, 0 if triggered orders aren't handed off
+     */
+    private int handoffBacklog() {
+        final HandoffRing<Order> ring = triggeredOrders;
+        return (ring == null) ? 0 : ring.backlog();
+    }
+
+    /**
+     * Gets the broker's order flow and trade execution metrics.
+     *
+     * @return the broker's metrics
+     */
+    public final BrokerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the broker's metrics, and those of each order manager, with
+     * the platform MBean server, so they may be monitored with any JMX
+     * client.  The broker's MBean is named
+     * edu.uw.rgm.broker:type=Broker,name=<i>broker name</i> and each order
+     * manager's edu.uw.rgm.broker:type=OrderManager,broker=<i>broker
+     * name</i>,ticker=<i>ticker</i>.  The MBeans are unregistered when the
+     * broker is closed.  Only to be used during construction.
+     *
+     * @exception BrokerException if the MBeans can't be registered
+     */
+    private void registerMBeans() throws BrokerException {
+        final State current = checkInvariants();
+        synchronized (orderLock) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final List<ObjectName> names = new ArrayList<>(current.orderManagers.length + 1);
+            final String broker = ObjectName.quote(current.name);
+            try {
+                final ObjectName brokerName =
+                    new ObjectName(String.format("edu.uw.rgm.broker:type=Broker,name=%s", broker));
+                server.registerMBean(metrics, brokerName);
+                names.add(brokerName);
+                for (final OrderManagerAdapter orderMgr : current.orderManagers) {
+                    final ObjectName orderMgrName =
+                        new ObjectName(String.format("edu.uw.rgm.broker:type=OrderManager,broker=%s,ticker=%s",
+                                                     broker, ObjectName.quote(orderMgr.getSymbol())));
+                    server.registerMBean(orderMgr.getMetrics(), orderMgrName);
+                    names.add(orderMgrName);
+                }
+            } catch (final JMException ex) {
+                unregisterMBeans(names);
+                throw new BrokerException("Unable to register the broker's MBeans.", ex);
+            }
+            mbeanNames = names;
+        }
+    }
+
+    /**
+     * Unregisters MBeans from the platform MBean server, failures are logged.
+     *
+     * @param names the names of the MBeans
+     */
+    private static void unregisterMBeans(final List<ObjectName> names) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (final JMException ex) {
+                logger.warn(String.format("Unable to unregister MBean %s", name), ex);
+            }
+        }
     }
 
     /**
@@ -178,9 +805,8 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @return the name of the broker
      */
-    public synchronized final String getName() {
-        checkInvariants();
-        return name;
+    public final String getName() {
+        return checkInvariants().name;
     }
 
     /**
@@ -194,12 +820,12 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @exception BrokerException if unable to create account
      */
-    public synchronized final Account createAccount(final String username,
+    public final Account createAccount(final String username,
                                        final String password, final int balance)
         throws BrokerException {
-        checkInvariants();
+        final AccountManager acctMgr = checkInvariants().accountManager;
         try {
-            return accountManager.createAccount(username, password, balance);
+            return acctMgr.createAccount(username, password, balance);
         } catch (final AccountException ae) {
             throw new BrokerException("Unable to create account.", ae);
         }
@@ -212,11 +838,11 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @exception BrokerException if unable to delete account
      */
-    public synchronized final void deleteAccount(final String username)
+    public final void deleteAccount(final String username)
         throws BrokerException {
-        checkInvariants();
+        final AccountManager acctMgr = checkInvariants().accountManager;
         try {
-            accountManager.deleteAccount(username);
+            acctMgr.deleteAccount(username);
         } catch (final AccountException ae) {
             throw new BrokerException("Unable to delete account.", ae);
         }
@@ -233,15 +859,15 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @exception BrokerException username and password are invalid
      */
-    public synchronized final Account getAccount(final String username,
-                                                 final String password)
+    public final Account getAccount(final String username,
+                                    final String password)
         throws BrokerException {
-        checkInvariants();
+        final AccountManager acctMgr = checkInvariants().accountManager;
         try {
             // First we check the password
-            if (accountManager.validateLogin(username, password)) {
+            if (acctMgr.validateLogin(username, password)) {
                 // It's valid, so we'll return the account
-                return accountManager.getAccount(username);
+                return acctMgr.getAccount(username);
             } else {
                 throw new BrokerException("Invalid username/password.");
             }
@@ -255,9 +881,9 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @param order the order being placed with the broker
      */
-    public synchronized final void placeOrder(final MarketBuyOrder order) {
+    public final void placeOrder(final MarketBuyOrder order) throws BrokerException {
         checkInvariants();
-        marketOrders.enqueue(order);
+        admitMarketOrder(order);
     }
 
     /**
@@ -265,59 +891,716 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @param order the order being placed with the broker
      */
-    public synchronized final void placeOrder(final MarketSellOrder order) {
+    public final void placeOrder(final MarketSellOrder order) throws BrokerException {
         checkInvariants();
-        marketOrders.enqueue(order);
+        admitMarketOrder(order);
     }
 
     /**
-     * Lookup the order manager for this stock.
+     * Offers a market order to the market order queue, subject to the broker
+     * and queue capacity limits.
+     *
+     * @param order the order being placed with the broker
+     *
+     * @exception BrokerSaturatedException if the broker or queue is at capacity
+     * @exception BrokerException if interrupted while waiting for space
+     */
+    private void admitMarketOrder(final Order order) throws BrokerException {
+        reservePending(order);
+        journalEnqueued(order);
+        final boolean admitted;
+        try {
+            admitted = marketQueue.offer(order, limits.getBlockTimeout(TimeUnit.MILLISECONDS),
+                                         TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ex) {
+            pendingOrders.decrementAndGet();
+            journalRemoved(order);
+            Thread.currentThread().interrupt();
+            throw new BrokerException("Interrupted while placing order.", ex);
+        }
+
+        if (!admitted) {
+            pendingOrders.decrementAndGet();
+            journalRemoved(order);
+            throw new BrokerSaturatedException(String.format("Market order queue is full, order refused - %s", order));
+        }
+        metrics.marketOrders().enqueued(1);
+    }
+
+    /**
+     * Accounts for a newly placed order, provided the broker is under capacity.
+     *
+     * @param order the order being placed with the broker
+     *
+     * @exception BrokerSaturatedException if the broker is at capacity
+     */
+    private void reservePending(final Order order) throws BrokerSaturatedException {
+        if (!tryReservePending(1)) {
+            throw new BrokerSaturatedException(String.format("Broker is at capacity, order refused - %s", order));
+        }
+    }
+
+    /**
+     * Accounts for a number of newly placed orders, provided the broker has
+     * capacity for all of them.
+     *
+     * @param count the number of orders
+     *
+     * @return true if the orders were accounted for, false if the broker lacks
+     *         the capacity
+     */
+    private boolean tryReservePending(final int count) {
+        final int max = limits.getMaxPendingOrders();
+        int current;
+        do {
+            current = pendingOrders.get();
+            if (current > max - count) {
+                return false;
+            }
+        } while (!pendingOrders.compareAndSet(current, current + count));
+        metrics.placed().mark(count);
+        return true;
+    }
+
+    /**
+     * Lookup the ticker id of this stock, the id indexes the stock's order
+     * manager.
      *
      * @param ticker the stocks ticker symbol
      *
-     * @return the order manager for the stock
+     * @return the ticker id of the stock
      *
-     * @exception BrokerException if unable to obtain the order manager
+     * @exception BrokerException if the stock does not exist
      */
-    private synchronized OrderManager orderManagerLookup(final String ticker)
+    private int tickerIdLookup(final String ticker)
         throws BrokerException {
-        final OrderManager orderMgr = orderManagerMap.get(ticker);
+        // the registry is never modified after construction
+        final int tickerId = tickers.idOf(ticker);
 
-        if (orderMgr == null) {
+        if (tickerId == TickerRegistry.NO_ID) {
             throw new BrokerException(String.format("Requested stock, '%s' does not exist", ticker));
         }
 
-        return orderMgr;
+        return tickerId;
     }
 
     /**
-     * Place an order with the broker.
+     * Place an order with the broker.  When sharded the order is queued by the
+     * order manager's worker, and the call returns once it has been queued.
      *
      * @param order the order being placed with the broker
      *
      * @exception BrokerException if unable to place order
      */
-    public synchronized final void placeOrder(final StopBuyOrder order)
+    public final void placeOrder(final StopBuyOrder order)
         throws BrokerException {
         checkInvariants();
-        orderManagerLookup(order.getStockTicker()).queueOrder(order);
+        final int tickerId = tickerIdLookup(order.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        queueStopOrder(tickerId, order, () -> orderMgr.queueOrder(order));
     }
 
     /**
-     * Place an order with the broker.
+     * Place an order with the broker.  When sharded the order is queued by the
+     * order manager's worker, and the call returns once it has been queued.
      *
      * @param order the order being placed with the broker
      *
      * @exception BrokerException if unable to place order
      */
-    public synchronized final void placeOrder(final StopSellOrder order)
+    public final void placeOrder(final StopSellOrder order)
+        throws BrokerException {
+        checkInvariants();
+        final int tickerId = tickerIdLookup(order.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        queueStopOrder(tickerId, order, () -> orderMgr.queueOrder(order));
+    }
+
+    /**
+     * Place a trailing stop buy order with the broker, the market order is
+     * placed once the price rises the trail above the lowest price seen since
+     * it was placed.  Trailing stop orders are not journaled.
+     *
+     * @param order the order to be placed when triggered
+     * @param trail the trail, must be positive
+     *
+     * @exception BrokerException if unable to place order, or the stock's order
+     *            manager doesn't support trailing stop orders
+     */
+    public final void placeTrailingOrder(final MarketBuyOrder order, final int trail)
+        throws BrokerException {
+        checkInvariants();
+        checkTrail(trail);
+        final int tickerId = tickerIdLookup(order.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        checkExtended(orderMgr, "Trailing stop orders");
+        queueStopOrder(tickerId, order, () -> orderMgr.queueTrailingOrder(order, trail));
+    }
+
+    /**
+     * Place a trailing stop sell order with the broker, the market order is
+     * placed once the price falls the trail below the highest price seen since
+     * it was placed.  Trailing stop orders are not journaled.
+     *
+     * @param order the order to be placed when triggered
+     * @param trail the trail, must be positive
+     *
+     * @exception BrokerException if unable to place order, or the stock's order
+     *            manager doesn't support trailing stop orders
+     */
+    public final void placeTrailingOrder(final MarketSellOrder order, final int trail)
+        throws BrokerException {
+        checkInvariants();
+        checkTrail(trail);
+        final int tickerId = tickerIdLookup(order.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        checkExtended(orderMgr, "Trailing stop orders");
+        queueStopOrder(tickerId, order, () -> orderMgr.queueTrailingOrder(order, trail));
+    }
+
+    /**
+     * Accounts for a stop order and queues it with its order manager, under
+     * the order lock or, when sharded, on the order manager's worker, once
+     * any conflated price changes have been flushed.  The order is no longer
+     * accounted for if it can't be queued.
+     *
+     * @param tickerId the ticker id of the order's stock
+     * @param order the order being placed
+     * @param queue queues the order with its order manager
+     *
+     * @exception BrokerException if the broker is at capacity, or the order
+     *            can't be queued
+     */
+    private void queueStopOrder(final int tickerId, final Order order, final Runnable queue)
+        throws BrokerException {
+        reservePending(order);
+        flushPriceChanges();
+        boolean queued = false;
+        try {
+            if (shards == null) {
+                synchronized (orderLock) {
+                    queue.run();
+                }
+            } else {
+                shards.call(tickerId, () -> {
+                    queue.run();
+                    return null;
+                });
+            }
+            queued = true;
+        } finally {
+            if (!queued) {
+                pendingOrders.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Determines if a stock has resting trailing stop orders, whose price
+     * changes must therefore not be conflated.
+     *
+     * @param tickerId the stock's ticker id
+     *
+     * @return true if the stock has trailing stop orders
+     */
+    private boolean hasTrailingOrders(final int tickerId) {
+        final OrderManagerAdapter[] current = state.orderManagers;
+        return current != null && current[tickerId].hasTrailingOrders();
+    }
+
+    /**
+     * Passes any price changes accumulated by a conflating listener on to the
+     * order managers, so a stop order being placed can't trigger on prices
+     * reached before it was placed.  Must not be called holding the order
+     * lock, the price changes are applied under it.
+     */
+    private void flushPriceChanges() {
+        final ExchangeListener listener = exchangeListener;
+        if (listener instanceof ConflatingExchangeListener) {
+            ((ConflatingExchangeListener) listener).flush();
+        }
+    }
+
+    /**
+     * Validates that a stock's order manager supports an operation beyond the
+     * OrderManager interface.
+     *
+     * @param orderMgr the order manager
+     * @param operation the operation, for the exception message
+     *
+     * @exception BrokerException if the order manager isn't a
+     *            SimpleOrderManager
+     */
+    private static void checkExtended(final OrderManagerAdapter orderMgr, final String operation)
+        throws BrokerException {
+        if (!orderMgr.isExtended()) {
+            throw new BrokerException(String.format("%s aren't supported for '%s'", operation,
+                                                    orderMgr.getSymbol()));
+        }
+    }
+
+    /**
+     * Validates a trailing stop order's trail.
+     *
+     * @param trail the trail
+     *
+     * @exception BrokerException if the trail is not positive
+     */
+    private static void checkTrail(final int trail) throws BrokerException {
+        if (trail <= 0) {
+            throw new BrokerException(String.format("Trail must be positive, %d", trail));
+        }
+    }
+
+    /**
+     * The stop orders of a basket for a single stock.
+     */
+    private static final class TickerBasket {
+        /** The ticker id of the stock */
+        private final int tickerId;
+
+        /** The stop buy orders */
+        private final List<StopBuyOrder> buys = new ArrayList<>();
+
+        /** The stop sell orders */
+        private final List<StopSellOrder> sells = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param tickerId the ticker id of the stock
+         */
+        private TickerBasket(final int tickerId) {
+            this.tickerId = tickerId;
+        }
+    }
+
+    /**
+     * Place a basket of orders with the broker, either every order is placed
+     * or none are.  Capacity for the whole basket, in the broker and in the
+     * market order queue, is reserved before any order is placed; the market
+     * order queue's admission policy isn't applied to baskets.  The stop
+     * orders are grouped by stock and each stock's orders are queued in one
+     * pass, dispatching each queue once, all under a single acquisition of
+     * the order lock or, when sharded, as a single task per stock.
+     *
+     * @param orders the orders being placed with the broker
+     *
+     * @exception BrokerSaturatedException if the broker or market order queue
+     *            lacks the capacity for the basket, no order is placed
+     * @exception BrokerException if a stock does not exist, or an order is of
+     *            an unsupported type, no order is placed
+     */
+    public final void placeOrders(final Collection<? extends Order> orders)
         throws BrokerException {
         checkInvariants();
-        orderManagerLookup(order.getStockTicker()).queueOrder(order);
+        final Map<Integer, TickerBasket> baskets = new LinkedHashMap<>();
+        final List<Order> marketOrderList = new ArrayList<>();
+        int stopCount = 0;
+        for (final Order order : orders) {
+            if (order instanceof MarketBuyOrder || order instanceof MarketSellOrder) {
+                marketOrderList.add(order);
+                continue;
+            }
+            final TickerBasket basket = baskets.computeIfAbsent(tickerIdLookup(order.getStockTicker()),
+                                                                TickerBasket::new);
+            if (order instanceof StopBuyOrder) {
+                basket.buys.add((StopBuyOrder) order);
+            } else if (order instanceof StopSellOrder) {
+                basket.sells.add((StopSellOrder) order);
+            } else {
+                throw new BrokerException(String.format("Unsupported order type, %s", order));
+            }
+            stopCount++;
+        }
+
+        final int orderCount = stopCount + marketOrderList.size();
+        if (orderCount == 0) {
+            return;
+        }
+        if (!tryReservePending(orderCount)) {
+            throw new BrokerSaturatedException(String.format("Broker is at capacity, basket of %d orders refused",
+                                                             orderCount));
+        }
+        if (!marketOrderList.isEmpty()) {
+            marketOrderList.forEach(this::journalEnqueued);
+            if (!marketQueue.offerAll(marketOrderList)) {
+                marketOrderList.forEach(this::journalRemoved);
+                pendingOrders.addAndGet(-orderCount);
+                throw new BrokerSaturatedException(String.format("Market order queue is full, basket of %d orders refused",
+                                                                 orderCount));
+            }
+            metrics.marketOrders().enqueued(marketOrderList.size());
+        }
+
+        if (stopCount > 0) {
+            flushPriceChanges();
+            int queued = 0;
+            try {
+                if (shards == null) {
+                    synchronized (orderLock) {
+                        for (final TickerBasket basket : baskets.values()) {
+                            queueBasket(orderManagers[basket.tickerId], basket);
+                            queued += basket.buys.size() + basket.sells.size();
+                        }
+                    }
+                } else {
+                    for (final TickerBasket basket : baskets.values()) {
+                        final OrderManagerAdapter orderMgr = orderManagers[basket.tickerId];
+                        shards.call(basket.tickerId, () -> {
+                            queueBasket(orderMgr, basket);
+                            return null;
+                        });
+                        queued += basket.buys.size() + basket.sells.size();
+                    }
+                }
+            } finally {
+                if (queued < stopCount) {
+                    pendingOrders.addAndGet(queued - stopCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a stock's stop orders with its order manager.
+     *
+     * @param orderMgr the order manager
+     * @param basket the stock's stop orders
+     */
+    private static void queueBasket(final OrderManagerAdapter orderMgr, final TickerBasket basket) {
+        if (!basket.buys.isEmpty()) {
+            orderMgr.queueBuyOrders(basket.buys);
+        }
+        if (!basket.sells.isEmpty()) {
+            orderMgr.queueSellOrders(basket.sells);
+        }
     }
 
     /**
-     * Get a price quote for a stock.
+     * Place an order with the broker, the order remains queued only until it
+     * expires.  DAY orders expire when the exchange closes, GTD orders expire
+     * at the specified time.  The expiry is scheduled before the order is
+     * placed, so an order can't be queued without its expiry, and is
+     * cancelled if the order can't be placed.
+     *
+     * @param order the order being placed with the broker
+     * @param timeInForce how long the order remains eligible for execution
+     * @param goodTill the expiration time in milliseconds, only used for GTD
+     *                 orders
+     *
+     * @exception BrokerException if unable to place order, a GTD order's
+     *            expiration time has already passed, or a stop order's order
+     *            manager can't expire orders
+     */
+    public final void placeOrder(final Order order,
+                                 final TimeInForce timeInForce,
+                                 final long goodTill)
+        throws BrokerException {
+        checkInvariants();
+        if (timeInForce == TimeInForce.GTD && goodTill <= System.currentTimeMillis()) {
+            throw new BrokerException(String.format("Expiration time has passed, order refused - %s", order));
+        }
+        if (timeInForce != TimeInForce.GTC
+            && (order instanceof StopBuyOrder || order instanceof StopSellOrder)) {
+            checkExtended(orderManagers[tickerIdLookup(order.getStockTicker())], "Expiring stop orders");
+        }
+
+        details.placed(order.getOrderId(), timeInForce, goodTill);
+        scheduleExpiry(order, timeInForce, goodTill);
+        boolean placed = false;
+        try {
+            if (order instanceof StopBuyOrder) {
+                placeOrder((StopBuyOrder) order);
+            } else if (order instanceof StopSellOrder) {
+                placeOrder((StopSellOrder) order);
+            } else if (order instanceof MarketBuyOrder) {
+                placeOrder((MarketBuyOrder) order);
+            } else if (order instanceof MarketSellOrder) {
+                placeOrder((MarketSellOrder) order);
+            } else {
+                throw new BrokerException(String.format("Unsupported order type, %s", order));
+            }
+            placed = true;
+        } finally {
+            if (!placed) {
+                orderRemoved(order);
+            }
+        }
+    }
+
+    /**
+     * Schedules the expiry of an order.
+     *
+     * @param order the order
+     * @param timeInForce how long the order remains eligible for execution
+     * @param goodTill the expiration time in milliseconds, only used for GTD
+     *                 orders
+     */
+    private void scheduleExpiry(final Order order, final TimeInForce timeInForce,
+                                final long goodTill) {
+        switch (timeInForce) {
+        case DAY:
+            expiryWheel.scheduleDay(order);
+            break;
+        case GTD:
+            expiryWheel.schedule(order, goodTill);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Advances the expiry wheel to the current time, expiring the orders
+     * whose deadlines have passed.  Invoked by the expiry timer, failures are
+     * logged so the timer keeps running.
+     */
+    private void advanceExpiry() {
+        try {
+            expiryWheel.advance(System.currentTimeMillis());
+        } catch (final RuntimeException ex) {
+            logger.error("Unable to expire orders", ex);
+        }
+    }
+
+    /**
+     * Removes an expired order from whichever queue it resides in, orders
+     * which have already been executed are ignored.  Invoked by the expiry
+     * wheel, stop orders are expired under the order lock or, when sharded,
+     * on the order manager's worker.  A stop order which has already
+     * triggered is expired from the market order queue if it is still
+     * awaiting execution.
+     *
+     * @param order the expired order
+     */
+    private void expireOrder(final Order order) {
+        if (order instanceof StopBuyOrder || order instanceof StopSellOrder) {
+            final int tickerId = tickers.idOf(order.getStockTicker());
+            if (tickerId != TickerRegistry.NO_ID) {
+                final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+                if (shards == null) {
+                    synchronized (orderLock) {
+                        expireStopOrder(orderMgr, order);
+                    }
+                } else {
+                    shards.execute(tickerId, () -> expireStopOrder(orderMgr, order));
+                }
+            }
+        } else {
+            recordExpiry(order, expireMarketOrder(order));
+        }
+    }
+
+    /**
+     * Expires a stop order from its order manager or, if it has triggered,
+     * from the market order queue.  A triggered order still being handed off
+     * to the market order queue is in neither, it triggered before its expiry
+     * so it isn't expired and is executed once handed off.
+     *
+     * @param orderMgr the stock's order manager
+     * @param order the expired order
+     */
+    private void expireStopOrder(final OrderManagerAdapter orderMgr, final Order order) {
+        recordExpiry(order, orderMgr.cancelOrder(order.getOrderId()) || expireMarketOrder(order));
+    }
+
+    /**
+     * Removes an expired order from the market order queue.
+     *
+     * @param order the expired order
+     *
+     * @return true if the order was queued and has been removed
+     */
+    private boolean expireMarketOrder(final Order order) {
+        final boolean expired = marketQueue.cancel(order);
+        if (expired) {
+            metrics.marketOrders().removed();
+            journalRemoved(order);
+        }
+        return expired;
+    }
+
+    /**
+     * Accounts for an expired order.
+     *
+     * @param order the order
+     * @param removed true if the order was removed from its queue, false if it
+     *                had already been executed or cancelled
+     */
+    private void recordExpiry(final Order order, final boolean removed) {
+        if (removed) {
+            pendingOrders.decrementAndGet();
+            orderRemoved(order);
+            if (logger.isInfoEnabled()) {
+                logger.info(String.format("Expired - %s", order));
+            }
+        }
+    }
+
+    /**
+     * Cancel a resting stop or trailing stop order, an account may only cancel
+     * its own orders.  An order recovered from a journal may be cancelled by
+     * the id it was placed with.
+     *
+     * @param accountId the id of the account requesting the cancellation
+     * @param ticker the ticker symbol of the stock the order is for
+     * @param orderId the id the order was placed with
+     *
+     * @return true if the order was cancelled, false if it is unknown, has
+     *         already been triggered or was placed by another account
+     *
+     * @exception BrokerException if the stock does not exist
+     */
+    public final boolean cancelOrder(final String accountId, final String ticker,
+                                     final int orderId)
+        throws BrokerException {
+        checkInvariants();
+        final int tickerId = tickerIdLookup(ticker);
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        final int currentId = details.currentId(orderId);
+        final Order cancelled;
+        if (shards == null) {
+            synchronized (orderLock) {
+                cancelled = removeResting(orderMgr, currentId, () -> orderMgr.cancelOrder(accountId, currentId));
+            }
+        } else {
+            cancelled = shards.call(tickerId,
+                () -> removeResting(orderMgr, currentId, () -> orderMgr.cancelOrder(accountId, currentId)));
+        }
+        if (cancelled == null) {
+            return false;
+        }
+        pendingOrders.decrementAndGet();
+        orderRemoved(cancelled);
+        return true;
+    }
+
+    /**
+     * Removes a resting order from its order manager, by cancelling or
+     * replacing it.  Must be invoked with the order lock held, or on the
+     * order manager's worker.
+     *
+     * @param orderMgr the order manager
+     * @param orderId the id of the order to remove
+     * @param removal cancels or replaces the order, true if it did
+     *
+     * @return the removed order, null if it is unknown, has already been
+     *         triggered or wasn't removed
+     */
+    private static Order removeResting(final OrderManagerAdapter orderMgr, final int orderId,
+                                       final BooleanSupplier removal) {
+        final Order order = orderMgr.getOrder(orderId);
+        return (order != null && removal.getAsBoolean()) ? order : null;
+    }
+
+    /**
+     * Replace a resting stop buy order, the replacement is only placed if it
+     * is for the account that placed the original order and the original
+     * order is successfully cancelled.  The replacement has the original's
+     * time in force, and expires when the original would have.  An order
+     * recovered from a journal may be replaced by the id it was placed with.
+     *
+     * @param orderId the id the order to replace was placed with
+     * @param replacement the order to place in its stead
+     *
+     * @return true if the order was replaced, false if the original is
+     *         unknown, has already been triggered or was placed by another
+     *         account
+     *
+     * @exception BrokerException if the stock does not exist
+     */
+    public final boolean replaceOrder(final int orderId,
+                                      final StopBuyOrder replacement)
+        throws BrokerException {
+        checkInvariants();
+        final int tickerId = tickerIdLookup(replacement.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        final int currentId = details.currentId(orderId);
+        return replaceResting(tickerId, currentId, replacement,
+                              () -> orderMgr.replaceOrder(currentId, replacement));
+    }
+
+    /**
+     * Replace a resting stop sell order, the replacement is only placed if it
+     * is for the account that placed the original order and the original
+     * order is successfully cancelled.  The replacement has the original's
+     * time in force, and expires when the original would have.  An order
+     * recovered from a journal may be replaced by the id it was placed with.
+     *
+     * @param orderId the id the order to replace was placed with
+     * @param replacement the order to place in its stead
+     *
+     * @return true if the order was replaced, false if the original is
+     *         unknown, has already been triggered or was placed by another
+     *         account
+     *
+     * @exception BrokerException if the stock does not exist
+     */
+    public final boolean replaceOrder(final int orderId,
+                                      final StopSellOrder replacement)
+        throws BrokerException {
+        checkInvariants();
+        final int tickerId = tickerIdLookup(replacement.getStockTicker());
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        final int currentId = details.currentId(orderId);
+        return replaceResting(tickerId, currentId, replacement,
+                              () -> orderMgr.replaceOrder(currentId, replacement));
+    }
+
+    /**
+     * Replaces a resting order under the order lock or, when sharded, on the
+     * order manager's worker.  The replacement takes on the original's time
+     * in force, recorded and scheduled before it is queued, so it can't be
+     * queued without them, and forgotten again if the original isn't
+     * replaced.  The original's expiry is cancelled once it is replaced.
+     * Price changes accumulated by a conflating listener are passed on
+     * first, so the replacement can't trigger on prices reached before it
+     * was placed.
+     *
+     * @param tickerId the ticker id of the orders' stock
+     * @param orderId the id of the order to replace
+     * @param replacement the order to place in its stead
+     * @param replace replaces the order with its order manager, true if it did
+     *
+     * @return true if the order was replaced
+     *
+     * @exception BrokerException if interrupted waiting for the order manager's
+     *            worker
+     */
+    private boolean replaceResting(final int tickerId, final int orderId, final Order replacement,
+                                   final BooleanSupplier replace)
+        throws BrokerException {
+        flushPriceChanges();
+        final OrderManagerAdapter orderMgr = orderManagers[tickerId];
+        final TimeInForce timeInForce = details.timeInForce(orderId);
+        final long goodTill = details.goodTill(orderId);
+        details.placed(replacement.getOrderId(), timeInForce, goodTill);
+        scheduleExpiry(replacement, timeInForce, goodTill);
+        Order replaced = null;
+        try {
+            if (shards == null) {
+                synchronized (orderLock) {
+                    replaced = removeResting(orderMgr, orderId, replace);
+                }
+            } else {
+                replaced = shards.call(tickerId, () -> removeResting(orderMgr, orderId, replace));
+            }
+        } finally {
+            if (replaced == null) {
+                orderRemoved(replacement);
+            }
+        }
+        if (replaced == null) {
+            return false;
+        }
+        orderRemoved(replaced);
+        return true;
+    }
+
+    /**
+     * Get a price quote for a stock.  Quotes are answered from the quote
+     * cache, the exchange is only consulted for symbols it doesn't hold.
      *
      * @param symbol the stocks ticker symbol
      *
@@ -325,10 +1608,13 @@ public class SimpleBroker implements Broker, ExchangeListener {
      *
      * @exception BrokerException if unable to obtain quote
      */
-    public synchronized final StockQuote requestQuote(final String symbol)
+    public final StockQuote requestQuote(final String symbol)
         throws BrokerException {
-        checkInvariants();
-        final StockQuote quote = stockExchange.getQuote(symbol);
+        final State current = checkInvariants();
+        StockQuote quote = current.quotes.get(symbol);
+        if (quote == null) {
+            quote = current.stockExchange.getQuote(symbol);
+        }
 
         if (quote == null) {
             throw new BrokerException(String.format("Quote not available for '%s'.",symbol));
@@ -338,36 +1624,125 @@ public class SimpleBroker implements Broker, ExchangeListener {
     }
 
     /**
-     * Release broker resources.
+     * Release broker resources.  The broker stops expiring orders, listening
+     * to the exchange and dispatching market orders before the workers
+     * executing orders are stopped, then the account manager and the journals
+     * are closed.
+     * Each resource is closed even if closing an earlier one fails.
      *
-     * @exception BrokerException if the operation fails
+     * @exception BrokerException if the operation fails, the first failure is
+     *            the cause and any later failures are suppressed by it
      */
-    public synchronized void close() throws BrokerException {
+    public void close() throws BrokerException {
+        state = State.CLOSED;
+        // expiring a stop order takes the order lock, so the timer is stopped before it is taken
+        Exception failure = closeStage(() -> {
+            if (expiryTimer != null) {
+                expiryTimer.shutdown();
+                if (!expiryTimer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new BrokerException("Timed out waiting for order expiry to stop.");
+                }
+            }
+        }, null);
+        synchronized (orderLock) {
+            failure = closeStage(() -> stockExchange.removeExchangeListener(exchangeListener), failure);
+            failure = closeStage(() -> {
+                if (mbeanNames != null) {
+                    unregisterMBeans(mbeanNames);
+                    mbeanNames = null;
+                }
+            }, failure);
+            // no trade may start once the market order dispatcher has stopped
+            failure = closeStage(() -> {
+                if (marketQueue != null
+                    && !marketQueue.stopDispatching(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new BrokerException("Timed out waiting for market order dispatch to stop.");
+                }
+            }, failure);
+            failure = closeStage(() -> {
+                if (openDrainPool != null) {
+                    openDrainPool.shutdown();
+                    if (!openDrainPool.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        throw new BrokerException("Timed out waiting for the market open drain to stop.");
+                    }
+                }
+            }, failure);
+            failure = closeStage(() -> {
+                if (shards != null) {
+                    shards.close();
+                }
+            }, failure);
+            failure = closeStage(() -> {
+                if (triggeredOrders != null) {
+                    triggeredOrders.close();
+                }
+            }, failure);
+            failure = closeStage(() -> {
+                if (tradePipeline != null) {
+                    tradePipeline.close();
+                }
+            }, failure);
+            failure = closeStage(accountManager::close, failure);
+            failure = closeStage(() -> {
+                if (marketJournal != null) {
+                    marketJournal.close();
+                }
+            }, failure);
+            if (orderManagers != null) {
+                for (final OrderManagerAdapter orderMgr : orderManagers) {
+                    failure = closeStage(orderMgr::closeJournal, failure);
+                }
+                orderManagers = null;
+            }
+            if (failure != null) {
+                throw new BrokerException("Attempt to close the broker failed.", failure);
+            }
+        }
+    }
+
+    /**
+     * Performs a stage of closing the broker, a failed stage doesn't prevent
+     * the later stages from being performed.  If interrupted the interrupt is
+     * restored, and the remaining stages performed.
+     *
+     * @param stage the stage
+     * @param failure the first failure of an earlier stage, null if none failed
+     *
+     * @return the first failure, with the failures of later stages suppressed
+     *         by it, or null if none failed
+     */
+    private static Exception closeStage(final AutoCloseable stage, final Exception failure) {
         try {
-            stockExchange.removeExchangeListener(this);
-            accountManager.close();
-            orderManagerMap = null;
-        } catch (final AccountException ex) {
-            throw new BrokerException(
-                      "Attempt to close the broker failed.", ex);
+            stage.close();
+            return failure;
+        } catch (final Exception ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure == null) {
+                return ex;
+            }
+            failure.addSuppressed(ex);
+            return failure;
         }
     }
     
     /**
      * Every public operation invokes this method to insure the broker is 
      * capable of performing operations.  If the broker is not in a valid
-     * state an IllegalStateException is thrown.
+     * state an IllegalStateException is thrown.  Only the state snapshot is
+     * read, so the check takes no lock.
      * 
+     * @return the broker's state snapshot
+     *
      * @throws IllegalStateException if broker is n an invalid state
      */
-    private void checkInvariants() {
-        if (name == null ||
-            accountManager == null ||
-            stockExchange == null ||
-            orderManagerMap == null ||
-            marketOrders == null) {
+    private State checkInvariants() {
+        final State current = state;
+        if (!current.isValid()) {
             throw new IllegalStateException("Broker is not properly initialized, or has been closed.");
         }
+        return current;
     }
 }
 
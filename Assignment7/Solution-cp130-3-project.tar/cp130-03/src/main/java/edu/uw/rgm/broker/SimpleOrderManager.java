@@ -1,10 +1,15 @@
 package edu.uw.rgm.broker;
 
-import java.util.Comparator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 
 import edu.uw.ext.framework.broker.OrderManager;
-import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
 import edu.uw.ext.framework.order.StopBuyOrder;
 import edu.uw.ext.framework.order.StopSellOrder;
 
@@ -19,10 +24,37 @@ public class SimpleOrderManager implements OrderManager {
     private String stockTickerSymbol;
 
     /** Queue for stop buy orders */
-    protected OrderQueue<Integer, StopBuyOrder> stopBuyOrderQueue;
+    protected IntOrderQueue<StopBuyOrder> stopBuyOrderQueue;
 
     /** Queue for stop sell orders */
-    protected OrderQueue<Integer, StopSellOrder> stopSellOrderQueue;
+    protected IntOrderQueue<StopSellOrder> stopSellOrderQueue;
+
+    /** The current price of the stock */
+    private int price;
+
+    /** The price at or above which a stop buy triggers, the front stop buy price */
+    private int buyTrigger = Integer.MAX_VALUE;
+
+    /** The price at or below which a stop sell triggers, the front stop sell price */
+    private int sellTrigger = Integer.MIN_VALUE;
+
+    /** Trailing stop buy orders, created when the first is queued */
+    private TrailingStopBook<MarketBuyOrder> trailingBuys;
+
+    /** Trailing stop sell orders, created when the first is queued */
+    private TrailingStopBook<MarketSellOrder> trailingSells;
+
+    /** Processor for triggered trailing stop orders */
+    private Consumer<Order> trailingOrderProcessor;
+
+    /** The stop buy order queue journal, null if not journaled */
+    private JournaledIntOrderQueue<StopBuyOrder> buyJournal;
+
+    /** The stop sell order queue journal, null if not journaled */
+    private JournaledIntOrderQueue<StopSellOrder> sellJournal;
+
+    /** Counts the orders passing through the queues */
+    private final OrderManagerMetrics metrics;
 
 
     /**
@@ -33,6 +65,7 @@ public class SimpleOrderManager implements OrderManager {
      */
     protected SimpleOrderManager(final String stockTickerSymbol) {
         this.stockTickerSymbol = stockTickerSymbol;
+        metrics = new OrderManagerMetrics(stockTickerSymbol);
     }
 
     
@@ -44,20 +77,108 @@ public class SimpleOrderManager implements OrderManager {
      * @param price the current price of stock to be managed
      */
     public SimpleOrderManager(final String stockTickerSymbol, final int price) {
+        this(stockTickerSymbol, price, OrderStorage.HEAP);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stockTickerSymbol the ticker symbol of the stock this instance is
+     *                          manage orders for
+     * @param price the current price of stock to be managed
+     * @param storage how resting stop orders are to be stored
+     */
+    public SimpleOrderManager(final String stockTickerSymbol, final int price,
+                              final OrderStorage storage) {
         this(stockTickerSymbol);
-        // Create the stop buy order queue and associated pieces
-        stopBuyOrderQueue = 
-                new SimpleOrderQueue<>(price,
-                                       (t, o) -> o.getPrice() <= t,
-                                       Comparator.comparing(StopBuyOrder::getPrice)
-                                                 .thenComparing(StopBuyOrder::compareTo));
-        // Create the stop sell order queue ...
-        stopSellOrderQueue =
-            new SimpleOrderQueue<>(price,
-                                   (t, o) -> o.getPrice() >= t,
-                                   Comparator.comparing(StopSellOrder::getPrice)
-                                             .reversed()
-                                             .thenComparing(StopSellOrder::compareTo));
+        this.price = price;
+        if (storage == OrderStorage.SORT_KEY) {
+            stopBuyOrderQueue =
+                    new SortKeyOrderQueue<>(price,
+                                            (t, o) -> o.getPrice() <= t,
+                                            false);
+            stopSellOrderQueue =
+                    new SortKeyOrderQueue<>(price,
+                                            (t, o) -> o.getPrice() >= t,
+                                            true);
+        } else {
+            // Create the stop buy order queue, lowest trigger price first
+            stopBuyOrderQueue =
+                    new PriceLevelOrderQueue<>(price,
+                                               (t, o) -> o.getPrice() <= t,
+                                               false);
+            // Create the stop sell order queue, highest trigger price first
+            stopSellOrderQueue =
+                    new PriceLevelOrderQueue<>(price,
+                                               (t, o) -> o.getPrice() >= t,
+                                               true);
+        }
+    }
+
+    /**
+     * Journals the stop order queues to files in the specified directory, so
+     * resting orders survive a restart.  Must be called before the order
+     * processors are registered.
+     *
+     * @param directory the directory holding the journal files
+     * @param flushMillis the interval between journal group commits, in
+     *                    milliseconds
+     * @param details supplies the time in force and placed id of journaled
+     *                orders
+     *
+     * @throws IOException if the journals can't be opened
+     */
+    public final void enableJournal(final Path directory, final long flushMillis,
+                                    final OrderDetails details)
+        throws IOException {
+        buyJournal = new JournaledIntOrderQueue<>(stopBuyOrderQueue,
+                new OrderJournal(directory.resolve(stockTickerSymbol + "-buy.journal"), flushMillis,
+                                 OrderJournal.DEFAULT_SEGMENT_SIZE, details));
+        sellJournal = new JournaledIntOrderQueue<>(stopSellOrderQueue,
+                new OrderJournal(directory.resolve(stockTickerSymbol + "-sell.journal"), flushMillis,
+                                 OrderJournal.DEFAULT_SEGMENT_SIZE, details));
+        stopBuyOrderQueue = buyJournal;
+        stopSellOrderQueue = sellJournal;
+    }
+
+    /**
+     * Recovers the stop orders journaled before a restart, recovered orders
+     * are dispatched if their stop price has been reached.  Trailing stop
+     * orders are not journaled, so are not recovered.
+     *
+     * @param listener receives each recovered order before it is enqueued
+     *
+     * @return the number of orders recovered
+     *
+     * @throws IOException if the journals can't be compacted
+     */
+    public final int recoverOrders(final Consumer<? super OrderJournal.Recovered> listener)
+        throws IOException {
+        if (buyJournal == null) {
+            return 0;
+        }
+        syncThresholds();
+        final int recoveredBuys = buyJournal.recover(listener);
+        metrics.stopBuys().enqueued(recoveredBuys);
+        final int recoveredSells = sellJournal.recover(listener);
+        metrics.stopSells().enqueued(recoveredSells);
+        refreshTriggers();
+        return recoveredBuys + recoveredSells;
+    }
+
+    /**
+     * Flushes and closes the journals, if journaling is enabled.
+     *
+     * @throws IOException if the journals can't be closed
+     */
+    public final void closeJournal() throws IOException {
+        if (buyJournal != null) {
+            try {
+                buyJournal.close();
+            } finally {
+                sellJournal.close();
+            }
+        }
     }
 
     /**
@@ -69,15 +190,61 @@ public class SimpleOrderManager implements OrderManager {
         return stockTickerSymbol;
     }
 
+    /**
+     * Gets the metrics of this order manager's queues.
+     *
+     * @return the order manager's metrics
+     */
+    public final OrderManagerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Respond to a stock price adjustment by setting threshold on dispatch
-     * filters.
+     * filters.  The queues are only consulted if the price reaches the front
+     * stop buy or stop sell price, otherwise nothing can trigger and the
+     * adjustment is just recorded, the queues' thresholds are brought up to
+     * date before orders are next queued.  Trailing stop orders only have
+     * their watermarks raised or lowered, see {@link TrailingStopBook}.
      *
      * @param price the new price
      */
     public final void adjustPrice(final int price) {
-        stopBuyOrderQueue.setThreshold(price);
-        stopSellOrderQueue.setThreshold(price);
+        this.price = price;
+        if (price >= buyTrigger) {
+            stopBuyOrderQueue.setThreshold(price);
+            buyTrigger = stopBuyOrderQueue.peekPrice(Integer.MAX_VALUE);
+        }
+        if (price <= sellTrigger) {
+            stopSellOrderQueue.setThreshold(price);
+            sellTrigger = stopSellOrderQueue.peekPrice(Integer.MIN_VALUE);
+        }
+        if (trailingBuys != null) {
+            trailingBuys.adjustPrice(price);
+        }
+        if (trailingSells != null) {
+            trailingSells.adjustPrice(price);
+        }
+    }
+
+    /**
+     * Brings the queues' thresholds up to date with the current price.
+     */
+    private void syncThresholds() {
+        if (stopBuyOrderQueue.getIntThreshold() != price) {
+            stopBuyOrderQueue.setThreshold(price);
+        }
+        if (stopSellOrderQueue.getIntThreshold() != price) {
+            stopSellOrderQueue.setThreshold(price);
+        }
+    }
+
+    /**
+     * Caches the front stop buy and stop sell prices.
+     */
+    private void refreshTriggers() {
+        buyTrigger = stopBuyOrderQueue.peekPrice(Integer.MAX_VALUE);
+        sellTrigger = stopSellOrderQueue.peekPrice(Integer.MIN_VALUE);
     }
 
     /**
@@ -86,7 +253,10 @@ public class SimpleOrderManager implements OrderManager {
      * @param order the order to be queued
      */
     public final void queueOrder(final StopBuyOrder order) {
+        syncThresholds();
+        metrics.stopBuys().enqueued(1);
         stopBuyOrderQueue.enqueue(order);
+        buyTrigger = stopBuyOrderQueue.peekPrice(Integer.MAX_VALUE);
     }
 
     /**
@@ -95,27 +265,307 @@ public class SimpleOrderManager implements OrderManager {
      * @param order the order to be queued
      */
     public final void queueOrder(final StopSellOrder order) {
+        syncThresholds();
+        metrics.stopSells().enqueued(1);
         stopSellOrderQueue.enqueue(order);
+        sellTrigger = stopSellOrderQueue.peekPrice(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Queue a basket of stop buy orders, the orders are all added before the
+     * queue is dispatched.
+     *
+     * @param orders the orders to be queued
+     */
+    public final void queueBuyOrders(final Collection<? extends StopBuyOrder> orders) {
+        syncThresholds();
+        metrics.stopBuys().enqueued(orders.size());
+        stopBuyOrderQueue.enqueueAll(orders);
+        buyTrigger = stopBuyOrderQueue.peekPrice(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Queue a basket of stop sell orders, the orders are all added before the
+     * queue is dispatched.
+     *
+     * @param orders the orders to be queued
+     */
+    public final void queueSellOrders(final Collection<? extends StopSellOrder> orders) {
+        syncThresholds();
+        metrics.stopSells().enqueued(orders.size());
+        stopSellOrderQueue.enqueueAll(orders);
+        sellTrigger = stopSellOrderQueue.peekPrice(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Determines if the order manager holds trailing stop orders.  The
+     * trailing queue's depth is read, so it may be called from any thread.
+     *
+     * @return true if trailing stop orders are resting
+     */
+    public final boolean hasTrailingOrders() {
+        return metrics.getTrailingDepth() > 0;
+    }
+
+    /**
+     * Queue a trailing stop buy order, the market order is dispatched once the
+     * price rises the trail above the lowest price seen since it was queued.
+     *
+     * @param order the order to be dispatched when triggered
+     * @param trail the trail, must be positive
+     */
+    public final void queueTrailingOrder(final MarketBuyOrder order, final int trail) {
+        if (trailingBuys == null) {
+            trailingBuys = new TrailingStopBook<>(false, price);
+            trailingBuys.setOrderProcessor(this::dispatchTrailing);
+        }
+        trailingBuys.add(order, trail);
+        metrics.trailing().enqueued(1);
+    }
+
+    /**
+     * Queue a trailing stop sell order, the market order is dispatched once
+     * the price falls the trail below the highest price seen since it was
+     * queued.
+     *
+     * @param order the order to be dispatched when triggered
+     * @param trail the trail, must be positive
+     */
+    public final void queueTrailingOrder(final MarketSellOrder order, final int trail) {
+        if (trailingSells == null) {
+            trailingSells = new TrailingStopBook<>(true, price);
+            trailingSells.setOrderProcessor(this::dispatchTrailing);
+        }
+        trailingSells.add(order, trail);
+        metrics.trailing().enqueued(1);
+    }
+
+    /**
+     * Cancels a resting stop buy, stop sell or trailing stop order.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return true if the order was resting and has been cancelled, false if
+     *         it is unknown or has already been dispatched
+     */
+    public final boolean cancelOrder(final int orderId) {
+        final QueueMetrics from;
+        if (stopBuyOrderQueue.cancel(orderId) != null) {
+            from = metrics.stopBuys();
+        } else if (stopSellOrderQueue.cancel(orderId) != null) {
+            from = metrics.stopSells();
+        } else if ((trailingBuys != null && trailingBuys.cancel(orderId) != null)
+                || (trailingSells != null && trailingSells.cancel(orderId) != null)) {
+            from = metrics.trailing();
+        } else {
+            from = null;
+        }
+        if (from != null) {
+            from.removed();
+        }
+        refreshTriggers();
+        return from != null;
+    }
+
+    /**
+     * Cancels a resting stop buy, stop sell or trailing stop order on behalf
+     * of an account, the order is only cancelled if the account placed it.
+     *
+     * @param accountId the id of the account requesting the cancellation
+     * @param orderId the id of the order to cancel
+     *
+     * @return true if the order was resting and has been cancelled, false if
+     *         it is unknown, has already been dispatched or belongs to
+     *         another account
+     */
+    public final boolean cancelOrder(final String accountId, final int orderId) {
+        return isOwner(accountId, getOrder(orderId)) && cancelOrder(orderId);
+    }
+
+    /**
+     * Finds a resting stop buy, stop sell or trailing stop order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if it is not resting
+     */
+    public final Order getOrder(final int orderId) {
+        Order order = stopBuyOrderQueue.get(orderId);
+        if (order == null) {
+            order = stopSellOrderQueue.get(orderId);
+        }
+        if (order == null && trailingBuys != null) {
+            order = trailingBuys.get(orderId);
+        }
+        if (order == null && trailingSells != null) {
+            order = trailingSells.get(orderId);
+        }
+        return order;
+    }
+
+    /**
+     * Determines if an account placed an order.
+     *
+     * @param accountId the id of the account
+     * @param order the order, may be null
+     *
+     * @return true if the order is not null and was placed by the account
+     */
+    private static boolean isOwner(final String accountId, final Order order) {
+        return order != null && order.getAccountId().equals(accountId);
+    }
+
+    /**
+     * Replaces a resting stop buy order.  The replacement is only queued if
+     * it is for the account that placed the original order and the original
+     * order was successfully cancelled.
+     *
+     * @param orderId the id of the order to replace
+     * @param replacement the order to queue in its place
+     *
+     * @return true if the order was replaced, false if the original is unknown,
+     *         has already been dispatched or belongs to another account
+     */
+    public final boolean replaceOrder(final int orderId, final StopBuyOrder replacement) {
+        if (!isOwner(replacement.getAccountId(), stopBuyOrderQueue.get(orderId))) {
+            return false;
+        }
+        final boolean cancelled = stopBuyOrderQueue.cancel(orderId) != null;
+        if (cancelled) {
+            metrics.stopBuys().removed();
+            queueOrder(replacement);
+        }
+        refreshTriggers();
+        return cancelled;
+    }
+
+    /**
+     * Replaces a resting stop sell order.  The replacement is only queued if
+     * it is for the account that placed the original order and the original
+     * order was successfully cancelled.
+     *
+     * @param orderId the id of the order to replace
+     * @param replacement the order to queue in its place
+     *
+     * @return true if the order was replaced, false if the original is unknown,
+     *         has already been dispatched or belongs to another account
+     */
+    public final boolean replaceOrder(final int orderId, final StopSellOrder replacement) {
+        if (!isOwner(replacement.getAccountId(), stopSellOrderQueue.get(orderId))) {
+            return false;
+        }
+        final boolean cancelled = stopSellOrderQueue.cancel(orderId) != null;
+        if (cancelled) {
+            metrics.stopSells().removed();
+            queueOrder(replacement);
+        }
+        refreshTriggers();
+        return cancelled;
     }
 
     /**
      * Registers the processor to be used during buy order processing.  This will be
-     * passed on to the order queues as the dispatch callback.
+     * passed on to the order queues as the dispatch callback, wrapped to count
+     * the dispatched orders.
      *
      * @param processor the callback to be registered
      */
     public final void setBuyOrderProcessor(final Consumer<StopBuyOrder> processor) {
-        stopBuyOrderQueue.setOrderProcessor(processor);
+        stopBuyOrderQueue.setOrderProcessor(counting(metrics.stopBuys(), processor));
     }
 
     /**
      * Registers the processor to be used during sell order processing.  This will be
-     * passed on to the order queues as the dispatch callback.
+     * passed on to the order queues as the dispatch callback, wrapped to count
+     * the dispatched orders.
      *
      * @param processor the callback to be registered
      */
     public final void setSellOrderProcessor(final Consumer<StopSellOrder> processor) {
-        stopSellOrderQueue.setOrderProcessor(processor);
+        stopSellOrderQueue.setOrderProcessor(counting(metrics.stopSells(), processor));
+    }
+
+    /**
+     * Wraps an order processor to count the orders dispatched to it.
+     *
+     * @param <E> the type of order processed
+     * @param queue the metrics of the queue the orders are dispatched from
+     * @param processor the processor, may be null
+     *
+     * @return the counting processor
+     */
+    private static <E> Consumer<E> counting(final QueueMetrics queue, final Consumer<E> processor) {
+        return (order) -> {
+            queue.dispatched(1);
+            if (processor != null) {
+                processor.accept(order);
+            }
+        };
+    }
+
+    /**
+     * Counts and dispatches a triggered trailing stop order.
+     *
+     * @param order the triggered order
+     */
+    private void dispatchTrailing(final Order order) {
+        metrics.trailing().dispatched(1);
+        if (trailingOrderProcessor != null) {
+            trailingOrderProcessor.accept(order);
+        }
+    }
+
+    /**
+     * Registers the processor triggered trailing stop orders are passed to.
+     *
+     * @param processor the callback to be registered
+     */
+    public final void setTrailingOrderProcessor(final Consumer<Order> processor) {
+        trailingOrderProcessor = processor;
+    }
+
+    /**
+     * Registers the processor to be used for batch buy order processing.  When
+     * set, all of the stop buy orders triggered by a price adjustment are
+     * passed to it in a single call.
+     *
+     * @param processor the callback to be registered, null reverts to per
+     *                  order processing
+     */
+    public final void setBuyOrderBatchProcessor(final Consumer<List<StopBuyOrder>> processor) {
+        stopBuyOrderQueue.setBatchOrderProcessor(countingBatch(metrics.stopBuys(), processor));
+    }
+
+    /**
+     * Registers the processor to be used for batch sell order processing.  When
+     * set, all of the stop sell orders triggered by a price adjustment are
+     * passed to it in a single call.
+     *
+     * @param processor the callback to be registered, null reverts to per
+     *                  order processing
+     */
+    public final void setSellOrderBatchProcessor(final Consumer<List<StopSellOrder>> processor) {
+        stopSellOrderQueue.setBatchOrderProcessor(countingBatch(metrics.stopSells(), processor));
     }
-}
 
+    /**
+     * Wraps a batch processor to count the orders dispatched to it.
+     *
+     * @param <E> the type of order processed
+     * @param queue the metrics of the queue the orders are dispatched from
+     * @param processor the batch processor, null to revert to per order
+     *                  processing
+     *
+     * @return the counting batch processor, or null
+     */
+    private static <E> Consumer<List<E>> countingBatch(final QueueMetrics queue,
+                                                       final Consumer<List<E>> processor) {
+        if (processor == null) {
+            return null;
+        }
+        return (batch) -> {
+            queue.dispatched(batch.size());
+            processor.accept(batch);
+        };
+    }
+}
@@ -1,11 +1,12 @@
 package edu.uw.rgm.broker;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
-import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.Order;
 
 /**
@@ -17,7 +18,7 @@ import edu.uw.ext.framework.order.Order;
  * @author Russ Moul
  */
 public final class SimpleOrderQueue<T, E extends Order>
-                                         implements OrderQueue<T, E> {
+                                         implements BatchOrderQueue<T, E> {
     /** The queue data structure */
     private TreeSet<E> queue;
 
@@ -27,6 +28,9 @@ public final class SimpleOrderQueue<T, E extends Order>
 
     /** Order processor used to process dispatchable orders */
     private Consumer<E> orderProcessor;
+
+    /** Batch processor used to process dispatchable orders, may be null */
+    private Consumer<List<E>> batchProcessor;
     
     /** The current threshold. */
     private T threshold;
@@ -101,9 +105,16 @@ public final class SimpleOrderQueue<T, E extends Order>
      * Executes the callback for each dispatchable order.  Each dispatchable
      * order is in turn removed from the queue and passed to the callback.  If
      * no callback is registered the order is simply removed from the queue.
+     * If a batch processor is registered the dispatchable orders are instead
+     * passed to it as a single batch.
      */
     @Override
     public void dispatchOrders() {
+        if (batchProcessor != null) {
+            dispatchBatch();
+            return;
+        }
+
         E order;
 
         while ((order = dequeue()) != null) {
@@ -113,6 +124,37 @@ public final class SimpleOrderQueue<T, E extends Order>
         }
     }
 
+    /**
+     * Dispatches all dispatchable orders as a single batch.  The triggered
+     * orders are polled from the front of the tree into the batch, so the
+     * triggered range is walked once, and the batch is only allocated if at
+     * least one order is triggered.
+     */
+    private void dispatchBatch() {
+        List<E> batch = null;
+        while (!queue.isEmpty() && filter.test(threshold, queue.first())) {
+            if (batch == null) {
+                batch = new ArrayList<>();
+            }
+            batch.add(queue.pollFirst());
+        }
+
+        if (batch != null) {
+            batchProcessor.accept(batch);
+        }
+    }
+
+    /**
+     * Registers the callback to be used for batch order processing, null
+     * reverts to per order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setBatchOrderProcessor(final Consumer<List<E>> proc) {
+        batchProcessor = proc;
+    }
+
     /**
      * Registers the callback to be used during order processing.
      *
@@ -0,0 +1,347 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * An OrderQueue implementation backed by a TreeSet ordered on a precomputed
+ * sort key.  When an order is enqueued it is assigned a primitive long key,
+ * the order's price in the high 32 bits (negated for descending queues) and
+ * an enqueue sequence number in the low 32 bits, so orders are ordered by
+ * price then arrival.  Tree comparisons are a single long comparison rather
+ * than a chain of comparators extracting and boxing the price of each order.
+ * <p>
+ * Before the sequence number outgrows the low 32 bits the queued orders are
+ * renumbered from zero in queue order, so arrival order is preserved and no
+ * two queued orders ever share a key.
+ *
+ * @param <E> the type of order contained in the queue
+ *
+ * @author Russ Moul
+ */
+public final class SortKeyOrderQueue<E extends PricedOrder>
+                                      implements IntOrderQueue<E> {
+    /** The largest sequence number which fits in the low 32 bits of a sort key */
+    public static final long MAX_SEQUENCE = 0xFFFFFFFFL;
+
+    /**
+     * A queued order and its sort key.
+     *
+     * @param <E> the type of order
+     */
+    private static final class Entry<E> implements Comparable<Entry<E>> {
+        /** The sort key, only changed while the entry is out of the tree */
+        private long key;
+
+        /** The order */
+        private final E order;
+
+        /**
+         * Constructor.
+         *
+         * @param key the sort key
+         * @param order the order
+         */
+        private Entry(final long key, final E order) {
+            this.key = key;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(final Entry<E> other) {
+            return Long.compare(key, other.key);
+        }
+    }
+
+    /** The queue data structure */
+    private final TreeSet<Entry<E>> queue = new TreeSet<>();
+
+    /** The queued orders, by order id */
+    private final HashMap<Integer, Entry<E>> entries = new HashMap<>();
+
+    /** True if orders are ordered by descending price */
+    private final boolean descending;
+
+    /** The filter used to determine if an order is dispatchable */
+    private final IntOrderPredicate<E> filter;
+
+    /** Order processor used to process dispatchable orders */
+    private Consumer<E> orderProcessor;
+
+    /** Batch processor used to process dispatchable orders, may be null */
+    private Consumer<List<E>> batchProcessor;
+
+    /** The largest sequence number, the queue is renumbered before it is exceeded */
+    private final long sequenceLimit;
+
+    /** The next sequence number */
+    private long sequence;
+
+    /** The current threshold. */
+    private int threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param descending true to order by descending price, false for
+     *                   ascending
+     */
+    public SortKeyOrderQueue(final int threshold,
+                             final IntOrderPredicate<E> filter,
+                             final boolean descending) {
+        this(threshold, filter, descending, MAX_SEQUENCE);
+    }
+
+    /**
+     * Constructor, renumbering the queue once a smaller number of sequence
+     * numbers has been used.
+     *
+     * @param threshold the initial threshold
+     * @param filter the dispatch filter used to control dispatching from this
+     *               queue
+     * @param descending true to order by descending price, false for
+     *                   ascending
+     * @param sequenceLimit the largest sequence number, at most MAX_SEQUENCE
+     *
+     * @throws IllegalArgumentException if the limit is not positive or
+     *         exceeds MAX_SEQUENCE
+     */
+    public SortKeyOrderQueue(final int threshold,
+                             final IntOrderPredicate<E> filter,
+                             final boolean descending,
+                             final long sequenceLimit) {
+        if (sequenceLimit <= 0 || sequenceLimit > MAX_SEQUENCE) {
+            throw new IllegalArgumentException(String.format("Sequence limit out of range, %d", sequenceLimit));
+        }
+        this.threshold = threshold;
+        this.filter = filter;
+        this.descending = descending;
+        this.sequenceLimit = sequenceLimit;
+    }
+
+    /**
+     * Computes the sort key of an order.
+     *
+     * @param order the order
+     * @param seq the order's sequence number
+     *
+     * @return the sort key
+     */
+    private long sortKey(final E order, final long seq) {
+        final long price = descending ? -(long) order.getPrice() : order.getPrice();
+        return (price << 32) | seq;
+    }
+
+    /**
+     * Takes the next sequence number, renumbering the queued orders first if
+     * the sequence numbers have run out.
+     *
+     * @return the sequence number
+     *
+     * @throws IllegalStateException if the queue holds more orders than there
+     *         are sequence numbers
+     */
+    private long nextSequence() {
+        if (sequence > sequenceLimit) {
+            renumber();
+            if (sequence > sequenceLimit) {
+                throw new IllegalStateException(String.format("Queue holds %d orders, no sequence numbers remain",
+                                                              queue.size()));
+            }
+        }
+        return sequence++;
+    }
+
+    /**
+     * Assigns the queued orders new sequence numbers from zero, in queue
+     * order, so their order is unchanged.
+     */
+    private void renumber() {
+        final List<Entry<E>> ordered = new ArrayList<>(queue);
+        queue.clear();
+        sequence = 0;
+        for (final Entry<E> entry : ordered) {
+            entry.key = sortKey(entry.order, sequence++);
+            queue.add(entry);
+        }
+    }
+
+    /**
+     * Adds the specified order to the queue.  Subsequent to adding the order
+     * dispatches any dispatchable orders.
+     *
+     * @param order the order to be added to the queue
+     */
+    @Override
+    public void enqueue(final E order) {
+        insert(order);
+        dispatchOrders();
+    }
+
+    /**
+     * Adds the specified orders to the queue.  Subsequent to adding all of the
+     * orders dispatches any dispatchable orders, once.
+     *
+     * @param orders the orders to be added to the queue
+     */
+    @Override
+    public void enqueueAll(final Collection<? extends E> orders) {
+        for (final E order : orders) {
+            insert(order);
+        }
+        dispatchOrders();
+    }
+
+    /**
+     * Adds an order to the queue without dispatching.
+     *
+     * @param order the order
+     */
+    private void insert(final E order) {
+        final Entry<E> entry = new Entry<>(sortKey(order, nextSequence()), order);
+        if (!queue.add(entry)) {
+            throw new IllegalStateException(String.format("Sort key collision, order not queued - %s", order));
+        }
+        entries.put(order.getOrderId(), entry);
+    }
+
+    /**
+     * Cancels a queued order.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return the cancelled order, or null if no such order is queued
+     */
+    @Override
+    public E cancel(final int orderId) {
+        final Entry<E> entry = entries.remove(orderId);
+        if (entry == null) {
+            return null;
+        }
+        queue.remove(entry);
+        return entry.order;
+    }
+
+    /**
+     * Gets a queued order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if no such order is queued
+     */
+    @Override
+    public E get(final int orderId) {
+        final Entry<E> entry = entries.get(orderId);
+        return (entry == null) ? null : entry.order;
+    }
+
+    /**
+     * Obtains the price of the order at the front of the queue.
+     *
+     * @param ifEmpty the value to return if the queue is empty
+     *
+     * @return the price of the front order, or ifEmpty if the queue is empty
+     */
+    @Override
+    public int peekPrice(final int ifEmpty) {
+        return queue.isEmpty() ? ifEmpty : queue.first().order.getPrice();
+    }
+
+    /**
+     * Removes the highest dispatchable order in the queue. If there are orders
+     * in the queue but they do not meet the dispatch threshold order will not
+     * be removed and null will be returned.
+     *
+     * @return the first dispatchable order in the queue, or null if there are no
+     *         dispatchable orders in the queue
+     */
+    @Override
+    public E dequeue() {
+        if (queue.isEmpty() || !filter.test(threshold, queue.first().order)) {
+            return null;
+        }
+        final E order = queue.pollFirst().order;
+        entries.remove(order.getOrderId());
+        return order;
+    }
+
+    /**
+     * Executes the callback for each dispatchable order.  Each dispatchable
+     * order is in turn removed from the queue and passed to the callback.  If
+     * no callback is registered the order is simply removed from the queue.
+     * If a batch processor is registered the dispatchable orders are instead
+     * passed to it as a single batch.
+     */
+    @Override
+    public void dispatchOrders() {
+        if (batchProcessor != null) {
+            if (!queue.isEmpty() && filter.test(threshold, queue.first().order)) {
+                final List<E> batch = new ArrayList<>();
+                E order;
+                while ((order = dequeue()) != null) {
+                    batch.add(order);
+                }
+                batchProcessor.accept(batch);
+            }
+            return;
+        }
+
+        E order;
+        while ((order = dequeue()) != null) {
+            if (orderProcessor != null) {
+                orderProcessor.accept(order);
+            }
+        }
+    }
+
+    /**
+     * Registers the callback to be used for batch order processing, null
+     * reverts to per order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setBatchOrderProcessor(final Consumer<List<E>> proc) {
+        batchProcessor = proc;
+    }
+
+    /**
+     * Registers the callback to be used during order processing.
+     *
+     * @param proc the callback to be registered
+     */
+    @Override
+    public void setOrderProcessor(final Consumer<E> proc) {
+        orderProcessor = proc;
+    }
+
+    /**
+     * Adjusts the threshold and dispatches orders.
+     *
+     * @param threshold - the new threshold
+     */
+    @Override
+    public void setThreshold(final int threshold) {
+        this.threshold = threshold;
+        dispatchOrders();
+    }
+
+    /**
+     * Obtains the current threshold value.
+     *
+     * @return the current threshold
+     */
+    @Override
+    public int getIntThreshold() {
+        return threshold;
+    }
+}
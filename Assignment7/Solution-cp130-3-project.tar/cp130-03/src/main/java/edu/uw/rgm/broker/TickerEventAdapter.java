@@ -0,0 +1,65 @@
+package edu.uw.rgm.broker;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+
+/**
+ * An ExchangeListener which resolves the ticker of each price change to its
+ * id once, as the event is received, and passes the id and price on to a
+ * TickerListener.  Downstream per tick processing then indexes arrays by id
+ * rather than hashing and comparing symbols.  Price changes for symbols which
+ * aren't registered are dropped.
+ *
+ * @author Russ Moul
+ */
+public final class TickerEventAdapter implements ExchangeListener {
+    /** Resolves symbols to ids */
+    private final TickerRegistry registry;
+
+    /** The listener events are passed on to */
+    private final TickerListener listener;
+
+    /**
+     * Constructor.
+     *
+     * @param registry resolves symbols to ids
+     * @param listener the listener events are passed on to
+     */
+    public TickerEventAdapter(final TickerRegistry registry, final TickerListener listener) {
+        this.registry = registry;
+        this.listener = listener;
+    }
+
+    /**
+     * Resolves the ticker id and passes the price change on.
+     *
+     * @param event the price change event
+     */
+    @Override
+    public void priceChanged(final ExchangeEvent event) {
+        final int tickerId = registry.idOf(event.getTicker());
+        if (tickerId != TickerRegistry.NO_ID) {
+            listener.priceChanged(tickerId, event.getPrice());
+        }
+    }
+
+    /**
+     * Passes the open event on.
+     *
+     * @param event the exchange (open) event
+     */
+    @Override
+    public void exchangeOpened(final ExchangeEvent event) {
+        listener.exchangeOpened(event);
+    }
+
+    /**
+     * Passes the close event on.
+     *
+     * @param event the exchange (closed) event
+     */
+    @Override
+    public void exchangeClosed(final ExchangeEvent event) {
+        listener.exchangeClosed(event);
+    }
+}
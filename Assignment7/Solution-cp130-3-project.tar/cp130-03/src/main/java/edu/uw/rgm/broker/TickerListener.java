@@ -0,0 +1,33 @@
+package edu.uw.rgm.broker;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+
+/**
+ * Receives exchange events with price changes identified by ticker id rather
+ * than symbol, see {@link TickerEventAdapter}.
+ *
+ * @author Russ Moul
+ */
+public interface TickerListener {
+    /**
+     * Invoked when the price of a registered stock changes.
+     *
+     * @param tickerId the stock's ticker id
+     * @param price the new price
+     */
+    void priceChanged(int tickerId, int price);
+
+    /**
+     * Invoked when the exchange opens.
+     *
+     * @param event the exchange (open) event
+     */
+    void exchangeOpened(ExchangeEvent event);
+
+    /**
+     * Invoked when the exchange closes.
+     *
+     * @param event the exchange (closed) event
+     */
+    void exchangeClosed(ExchangeEvent event);
+}
@@ -0,0 +1,111 @@
+package edu.uw.rgm.broker;
+
+import java.util.Arrays;
+
+/**
+ * Interns a fixed set of ticker symbols to dense int ids, 0 to size - 1, so
+ * per ticker state may be held in plain arrays indexed by id.  The registry
+ * is immutable once constructed.
+ * <p>
+ * Symbols are held in an open addressing table probed with the symbol's
+ * cached hash code; a probe first compares references, so resolving the
+ * registered String instance itself, as the exchange typically supplies,
+ * costs no character comparison.
+ *
+ * @author Russ Moul
+ */
+public final class TickerRegistry {
+    /** The id returned for symbols which aren't registered */
+    public static final int NO_ID = -1;
+
+    /** The symbols, by id */
+    private final String[] symbols;
+
+    /** The table of symbols, null slots are empty */
+    private final String[] keys;
+
+    /** The id of the symbol in the corresponding keys slot */
+    private final int[] ids;
+
+    /** Mask used to map a hash to a table slot */
+    private final int mask;
+
+    /**
+     * Constructor.  Duplicate symbols are registered once, ids are assigned
+     * in order of first appearance.
+     *
+     * @param tickers the ticker symbols to register
+     */
+    public TickerRegistry(final String[] tickers) {
+        final int tableSize = Integer.highestOneBit(Math.max(2, tickers.length) * 2 - 1) << 1;
+        keys = new String[tableSize];
+        ids = new int[tableSize];
+        mask = tableSize - 1;
+
+        final String[] registered = new String[tickers.length];
+        int count = 0;
+        for (final String ticker : tickers) {
+            int slot = spread(ticker.hashCode()) & mask;
+            while (keys[slot] != null && !keys[slot].equals(ticker)) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) {
+                keys[slot] = ticker;
+                ids[slot] = count;
+                registered[count++] = ticker;
+            }
+        }
+        symbols = Arrays.copyOf(registered, count);
+    }
+
+    /**
+     * Scrambles a hash code, so similar symbols spread across the table.
+     *
+     * @param hash the hash code
+     *
+     * @return the scrambled hash
+     */
+    private static int spread(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Resolves a ticker symbol to its id.
+     *
+     * @param ticker the ticker symbol
+     *
+     * @return the symbol's id, or NO_ID if it isn't registered
+     */
+    public int idOf(final String ticker) {
+        int slot = spread(ticker.hashCode()) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key == ticker || key.equals(ticker)) {
+                return ids[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Gets the ticker symbol of an id.
+     *
+     * @param id the id
+     *
+     * @return the ticker symbol
+     */
+    public String symbolOf(final int id) {
+        return symbols[id];
+    }
+
+    /**
+     * Gets the number of registered symbols.
+     *
+     * @return the number of symbols, one more than the highest id
+     */
+    public int size() {
+        return symbols.length;
+    }
+}
@@ -0,0 +1,17 @@
+package edu.uw.rgm.broker;
+
+/**
+ * How long a queued order remains eligible for execution.
+ *
+ * @author Russ Moul
+ */
+public enum TimeInForce {
+    /** Good until cancelled, the order never expires */
+    GTC,
+
+    /** Good for the day, the order expires when the exchange closes */
+    DAY,
+
+    /** Good until a date, the order expires at a specified time */
+    GTD
+}
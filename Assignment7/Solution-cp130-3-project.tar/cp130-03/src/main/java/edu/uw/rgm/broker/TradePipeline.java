@@ -0,0 +1,326 @@
+package edu.uw.rgm.broker;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.account.AccountException;
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Executes market orders in three stages, each on its own thread and
+ * connected by bounded queues: the execute stage trades the order on the
+ * exchange, the account stage adjusts the account's balance and the persist
+ * stage persists the account.  A slow account persist therefore only holds up
+ * the persist stage, until its queue fills, rather than the thread
+ * dispatching the market orders.  An order is complete once its account has
+ * been persisted, or once it has failed.
+ * <p>
+ * The account stage retains each account it has updated until the persist
+ * stage has persisted it, further trades for the account are applied to the
+ * retained account rather than one loaded from the account manager, so no
+ * update is lost to a persist still in progress.  Accounts loaded from the
+ * account manager by others may not yet reflect trades awaiting persistence.
+ *
+ * @author Russ Moul
+ */
+public final class TradePipeline implements AutoCloseable {
+    /** This class' logger */
+    private static final Logger logger =
+                         LoggerFactory.getLogger(TradePipeline.class);
+
+    /** Marks the end of a stage's input */
+    private static final Object END = new Object();
+
+    /**
+     * A single threaded stage, processing the items of its bounded queue in
+     * order.  On reaching the end of its input the stage passes the end on to
+     * the next stage, if any, and stops.
+     *
+     * @param <T> the type of item processed
+     */
+    private static final class Stage<T> {
+        /** The items awaiting processing, and finally END */
+        private final BlockingQueue<Object> queue;
+
+        /** The stage thread */
+        private final Thread thread;
+
+        /**
+         * Constructor, starts the stage thread.
+         *
+         * @param name the name of the stage thread
+         * @param capacity the capacity of the stage's queue
+         * @param handler processes each item
+         * @param next the stage the end of input is passed on to, null if
+         *             this is the last stage
+         */
+        @SuppressWarnings("unchecked")
+        private Stage(final String name, final int capacity, final Consumer<T> handler,
+                      final Stage<?> next) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(() -> {
+                while (true) {
+                    final Object item;
+                    try {
+                        item = queue.take();
+                    } catch (final InterruptedException ex) {
+                        continue;
+                    }
+                    if (item == END) {
+                        if (next != null) {
+                            next.put(END);
+                        }
+                        return;
+                    }
+                    try {
+                        handler.accept((T) item);
+                    } catch (final RuntimeException ex) {
+                        logger.error(String.format("Trade pipeline stage %s failed", name), ex);
+                    }
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Adds an item to the stage's queue, waiting for space if the queue is
+         * full.  Interrupts don't abandon the item, the interrupt status is
+         * restored once the item has been queued.
+         *
+         * @param item the item
+         */
+        private void put(final Object item) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(item);
+                    break;
+                } catch (final InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** An executed order awaiting its account update, and then its persist */
+    private static final class Execution {
+        /** The order */
+        private final Order order;
+
+        /** The price the order executed at */
+        private final int price;
+
+        /** The updated account, set by the account stage */
+        private PendingAccount account;
+
+        /**
+         * Constructor.
+         *
+         * @param order the order
+         * @param price the price the order executed at
+         */
+        private Execution(final Order order, final int price) {
+            this.order = order;
+            this.price = price;
+        }
+    }
+
+    /** An updated account awaiting persistence */
+    private static final class PendingAccount {
+        /** The account id */
+        private final String accountId;
+
+        /** The account, retained until all of its updates are persisted */
+        private final Account account;
+
+        /** The number of persists queued for the account and not yet complete */
+        private int persists;
+
+        /**
+         * Constructor.
+         *
+         * @param accountId the account id
+         * @param account the account
+         */
+        private PendingAccount(final String accountId, final Account account) {
+            this.accountId = accountId;
+            this.account = account;
+        }
+    }
+
+    /** The exchange orders are executed on */
+    private final StockExchange exchange;
+
+    /** The account manager accounts are loaded from and persisted by */
+    private final AccountManager accountManager;
+
+    /** Notified once each order's account has been persisted, or it has failed */
+    private final Consumer<Order> completion;
+
+    /** Records trade execution and account persist latencies */
+    private final BrokerMetrics metrics;
+
+    /** Accounts awaiting persistence, by account id, guarded by itself */
+    private final HashMap<String, PendingAccount> pendingAccounts = new HashMap<>();
+
+    /** The persist stage */
+    private final Stage<Execution> persistStage;
+
+    /** The account stage */
+    private final Stage<Execution> accountStage;
+
+    /** The execute stage */
+    private final Stage<Order> executeStage;
+
+    /**
+     * Constructor, starts the stage threads.
+     *
+     * @param exchange the exchange orders are executed on
+     * @param accountManager the account manager accounts are loaded from and
+     *                       persisted by
+     * @param capacity the capacity of each stage's queue
+     * @param completion notified once each order's account has been
+     *                   persisted, or it has failed
+     * @param metrics records trade execution and account persist latencies
+     */
+    public TradePipeline(final StockExchange exchange, final AccountManager accountManager,
+                         final int capacity, final Consumer<Order> completion,
+                         final BrokerMetrics metrics) {
+        this.exchange = exchange;
+        this.accountManager = accountManager;
+        this.completion = completion;
+        this.metrics = metrics;
+        persistStage = new Stage<>("trade-persist", capacity, this::persist, null);
+        accountStage = new Stage<>("trade-account", capacity, this::updateAccount, persistStage);
+        executeStage = new Stage<>("trade-execute", capacity, this::execute, accountStage);
+    }
+
+    /**
+     * Submits a market order for execution, waiting for space if the execute
+     * stage's queue is full.
+     *
+     * @param order the order
+     */
+    public void submit(final Order order) {
+        executeStage.put(order);
+    }
+
+    /**
+     * Executes an order on the exchange and passes it to the account stage.
+     *
+     * @param order the order
+     */
+    private void execute(final Order order) {
+        logger.info(String.format("Executing - %s", order));
+        final int sharePrice;
+        final long start = System.nanoTime();
+        try {
+            sharePrice = exchange.executeTrade(order);
+            metrics.tradeLatency().record(System.nanoTime() - start);
+        } catch (final RuntimeException ex) {
+            completion.accept(order);
+            throw ex;
+        }
+        accountStage.put(new Execution(order, sharePrice));
+    }
+
+    /**
+     * Adjusts the balance of an executed order's account and passes the
+     * order, with its account, to the persist stage.
+     *
+     * @param execution the executed order
+     */
+    private void updateAccount(final Execution execution) {
+        final Order order = execution.order;
+        final String accountId = order.getAccountId();
+        boolean persisting = false;
+        try {
+            PendingAccount pending;
+            synchronized (pendingAccounts) {
+                pending = pendingAccounts.get(accountId);
+                if (pending != null) {
+                    pending.persists++;
+                }
+            }
+            if (pending == null) {
+                // no persist is outstanding, so the stored account is current
+                final Account acct = accountManager.getAccount(accountId);
+                if (acct == null) {
+                    throw new AccountException(String.format("No such account, %s", accountId));
+                }
+                pending = new PendingAccount(accountId, acct);
+                pending.persists = 1;
+                synchronized (pendingAccounts) {
+                    pendingAccounts.put(accountId, pending);
+                }
+            }
+
+            final Account acct = pending.account;
+            acct.setBalance(acct.getBalance() + order.valueOfOrder(execution.price));
+            logger.info(String.format("New balance - %d", acct.getBalance()));
+            execution.account = pending;
+            persistStage.put(execution);
+            persisting = true;
+        } catch (final AccountException ex) {
+            logger.error(String.format("Unable to update account, %s", accountId), ex);
+        } finally {
+            if (!persisting) {
+                completion.accept(order);
+            }
+        }
+    }
+
+    /**
+     * Persists an executed order's updated account, releasing the account
+     * once its last outstanding update is persisted, and then completes the
+     * order.
+     *
+     * @param execution the executed order
+     */
+    private void persist(final Execution execution) {
+        final PendingAccount pending = execution.account;
+        final long start = System.nanoTime();
+        try {
+            accountManager.persist(pending.account);
+            metrics.persistLatency().record(System.nanoTime() - start);
+        } catch (final AccountException ex) {
+            logger.error(String.format("Failed to persist account %s after adjusting for order.",
+                                       pending.accountId), ex);
+        } finally {
+            synchronized (pendingAccounts) {
+                if (--pending.persists == 0) {
+                    pendingAccounts.remove(pending.accountId);
+                }
+            }
+            completion.accept(execution.order);
+        }
+    }
+
+    /**
+     * Stops the pipeline once every submitted order has been executed and its
+     * account persisted.  Orders must not be submitted once the pipeline is
+     * closed.  If interrupted while waiting for the stages the interrupt is
+     * restored and the stages are left to finish on their own.
+     */
+    @Override
+    public void close() {
+        executeStage.put(END);
+        try {
+            persistStage.thread.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package edu.uw.rgm.broker;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Holds trailing stop orders for a single stock.  A trailing stop sell
+ * triggers once the price falls a fixed trail below the highest price seen
+ * since the order was placed (its watermark), a trailing stop buy once the
+ * price rises the trail above the lowest price seen.  Buys are handled as
+ * sells of the negated price, so only sells are described here.
+ * <p>
+ * Orders are never re-sorted as the price moves.  Orders sharing a watermark
+ * form a group holding the orders in a leftist heap keyed on their trail, so
+ * the group's trigger price is its watermark less its smallest trail.  Groups
+ * are stacked in placement order, older groups having seen more prices have
+ * higher watermarks, so a new high merges the groups at the top of the stack
+ * whose watermarks it exceeds into a single group, each group being merged
+ * once.  The groups are also kept ordered by trigger price, so a tick which
+ * neither makes a new high nor reaches the highest trigger price costs two
+ * int comparisons.
+ * <p>
+ * Cancelled orders are marked and discarded as they reach the top of their
+ * heap, a group's trigger price may therefore briefly be that of a cancelled
+ * order, which only results in the group being checked.
+ *
+ * @param <E> the type of order held, dispatched as is when triggered
+ *
+ * @author Russ Moul
+ */
+public final class TrailingStopBook<E extends Order> {
+    /**
+     * An order in a group's heap.
+     *
+     * @param <E> the type of order
+     */
+    private static final class Node<E> {
+        /** The order */
+        private final E order;
+
+        /** The trail */
+        private final int trail;
+
+        /** Placement sequence, orders with equal trails trigger in placement order */
+        private final long seq;
+
+        /** Left child */
+        private Node<E> left;
+
+        /** Right child */
+        private Node<E> right;
+
+        /** Length of the right spine */
+        private int rank = 1;
+
+        /** True if the order has been cancelled */
+        private boolean cancelled;
+
+        /**
+         * Constructor.
+         *
+         * @param order the order
+         * @param trail the trail
+         * @param seq the placement sequence
+         */
+        private Node(final E order, final int trail, final long seq) {
+            this.order = order;
+            this.trail = trail;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Orders sharing a watermark.
+     *
+     * @param <E> the type of order
+     */
+    private static final class Group<E> {
+        /** Identifies the group, orders groups with equal trigger prices */
+        private final long id;
+
+        /** The watermark */
+        private final int watermark;
+
+        /** The orders, smallest trail first */
+        private Node<E> heap;
+
+        /** The trigger price, the watermark less the smallest trail */
+        private int trigger;
+
+        /**
+         * Constructor.
+         *
+         * @param id the group id
+         * @param watermark the watermark
+         * @param heap the orders
+         */
+        private Group(final long id, final int watermark, final Node<E> heap) {
+            this.id = id;
+            this.watermark = watermark;
+            this.heap = heap;
+        }
+    }
+
+    /** 1 for trailing sells, -1 for trailing buys, prices are multiplied by it */
+    private final int sign;
+
+    /** The groups, newest and lowest watermark first */
+    private final ArrayDeque<Group<E>> groups = new ArrayDeque<>();
+
+    /** The non-empty groups, highest trigger price first */
+    private final TreeSet<Group<E>> byTrigger = new TreeSet<>(
+        Comparator.<Group<E>>comparingInt(g -> -g.trigger).thenComparingLong(g -> g.id));
+
+    /** The live orders, by order id */
+    private final HashMap<Integer, Node<E>> live = new HashMap<>();
+
+    /** Processor for triggered orders */
+    private Consumer<? super E> orderProcessor;
+
+    /** The current price, multiplied by sign */
+    private int price;
+
+    /** The next placement sequence */
+    private long seq;
+
+    /** The next group id */
+    private long groupIds;
+
+    /**
+     * Constructor.
+     *
+     * @param trailBelow true for trailing sells, which trail below the high,
+     *                   false for trailing buys, which trail above the low
+     * @param price the current price
+     */
+    public TrailingStopBook(final boolean trailBelow, final int price) {
+        sign = trailBelow ? 1 : -1;
+        this.price = sign * price;
+    }
+
+    /**
+     * Registers the callback triggered orders are passed to.
+     *
+     * @param proc the callback to be registered
+     */
+    public void setOrderProcessor(final Consumer<? super E> proc) {
+        orderProcessor = proc;
+    }
+
+    /**
+     * Adds a trailing stop order, its watermark is the current price.
+     *
+     * @param order the order
+     * @param trail the distance the price must retreat from the watermark to
+     *              trigger the order, must be positive
+     */
+    public void add(final E order, final int trail) {
+        if (trail <= 0) {
+            throw new IllegalArgumentException("Trail must be positive");
+        }
+        final Node<E> node = new Node<>(order, trail, seq++);
+        live.put(order.getOrderId(), node);
+
+        final Group<E> top = groups.peekFirst();
+        if (top != null && top.watermark == price) {
+            if (top.heap != null) {
+                byTrigger.remove(top);
+            }
+            top.heap = merge(top.heap, node);
+            track(top);
+        } else {
+            final Group<E> group = new Group<>(groupIds++, price, node);
+            groups.addFirst(group);
+            track(group);
+        }
+    }
+
+    /**
+     * Cancels a trailing stop order.
+     *
+     * @param orderId the id of the order to cancel
+     *
+     * @return the cancelled order, or null if no such order is held
+     */
+    public E cancel(final int orderId) {
+        final Node<E> node = live.remove(orderId);
+        if (node == null) {
+            return null;
+        }
+        node.cancelled = true;
+        return node.order;
+    }
+
+    /**
+     * Gets a held trailing stop order.
+     *
+     * @param orderId the id of the order
+     *
+     * @return the order, or null if no such order is held
+     */
+    public E get(final int orderId) {
+        final Node<E> node = live.get(orderId);
+        return (node == null) ? null : node.order;
+    }
+
+    /**
+     * Gets the number of orders held.
+     *
+     * @return the number of live orders
+     */
+    public int size() {
+        return live.size();
+    }
+
+    /**
+     * Adjusts the price, raising the watermarks it exceeds and dispatching any
+     * orders it triggers.
+     *
+     * @param newPrice the new price
+     */
+    public void adjustPrice(final int newPrice) {
+        final int x = sign * newPrice;
+        price = x;
+
+        Group<E> top = groups.peekFirst();
+        if (top != null && top.watermark <= x) {
+            Node<E> merged = null;
+            while (top != null && top.watermark <= x) {
+                groups.pollFirst();
+                if (top.heap != null) {
+                    byTrigger.remove(top);
+                    merged = merge(merged, top.heap);
+                }
+                top = groups.peekFirst();
+            }
+            if (merged != null) {
+                final Group<E> group = new Group<>(groupIds++, x, merged);
+                groups.addFirst(group);
+                track(group);
+            }
+        }
+
+        while (!byTrigger.isEmpty() && byTrigger.first().trigger >= x) {
+            final Group<E> group = byTrigger.pollFirst();
+            final Node<E> node = group.heap;
+            group.heap = merge(node.left, node.right);
+            track(group);
+            if (!node.cancelled) {
+                live.remove(node.order.getOrderId());
+                if (orderProcessor != null) {
+                    orderProcessor.accept(node.order);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards cancelled orders from the top of a group's heap and, if the
+     * group still holds orders, adds it to the groups ordered by trigger price.
+     * The group must not currently be in that ordering.
+     *
+     * @param group the group
+     */
+    private void track(final Group<E> group) {
+        while (group.heap != null && group.heap.cancelled) {
+            group.heap = merge(group.heap.left, group.heap.right);
+        }
+        if (group.heap != null) {
+            group.trigger = group.watermark - group.heap.trail;
+            byTrigger.add(group);
+        }
+    }
+
+    /**
+     * Merges two leftist heaps.
+     *
+     * @param <E> the type of order
+     * @param a a heap, may be null
+     * @param b a heap, may be null
+     *
+     * @return the merged heap
+     */
+    private static <E> Node<E> merge(final Node<E> a, final Node<E> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        final Node<E> root;
+        final Node<E> other;
+        if (b.trail < a.trail || (b.trail == a.trail && b.seq < a.seq)) {
+            root = b;
+            other = a;
+        } else {
+            root = a;
+            other = b;
+        }
+        root.right = merge(root.right, other);
+        if (rank(root.left) < rank(root.right)) {
+            final Node<E> swap = root.left;
+            root.left = root.right;
+            root.right = swap;
+        }
+        root.rank = rank(root.right) + 1;
+        return root;
+    }
+
+    /**
+     * Gets the rank of a heap.
+     *
+     * @param node the heap, may be null
+     *
+     * @return the length of the heap's right spine
+     */
+    private static int rank(final Node<?> node) {
+        return (node == null) ? 0 : node.rank;
+    }
+}
@@ -0,0 +1,274 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.account.AccountException;
+import edu.uw.ext.framework.dao.AccountDao;
+import edu.uw.rgm.account.SimpleAccount;
+import edu.uw.rgm.account.SimpleAccountManager;
+import edu.uw.rgm.account.SimpleAccountManagerFactory;
+
+/**
+ * Verifies SimpleAccountManager's write-behind persistence, repeated persists
+ * coalesce into one write, dirty accounts are flushed by batch size and on
+ * close, accounts which fail to be written are retried, and the factory
+ * creates write-behind account managers when configured to.
+ */
+public class AccountWriteBehindTest {
+    /** Account used for the test */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** A second account */
+    private static final String OTHER_ACCOUNT_ID = "bmrubble";
+
+    /** Initial account balance */
+    private static final int BALANCE = 1_000_000;
+
+    /** A flush interval long enough that the timer never flushes during a test */
+    private static final long NEVER_MILLIS = 60_000L;
+
+    /** How long to wait for a flush, in milliseconds */
+    private static final long WAIT_MILLIS = 5_000L;
+
+    /**
+     * A DAO holding accounts in memory and recording the writes made to it.
+     */
+    private static final class RecordingDao implements AccountDao {
+        /** The stored accounts, by name */
+        private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+        /** The names of the accounts written, in order */
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+
+        /** Number of writes to fail */
+        private volatile int failures;
+
+        /** True once closed */
+        private volatile boolean closed;
+
+        @Override
+        public Account getAccount(final String accountName) {
+            return accounts.get(accountName);
+        }
+
+        @Override
+        public void setAccount(final Account account) throws AccountException {
+            if (failures > 0) {
+                failures--;
+                throw new AccountException("Write refused");
+            }
+            accounts.put(account.getName(), account);
+            writes.add(account.getName());
+        }
+
+        @Override
+        public void deleteAccount(final String accountName) {
+            accounts.remove(accountName);
+        }
+
+        @Override
+        public void reset() {
+            accounts.clear();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Creates an account, stored in the DAO without recording a write.
+     *
+     * @param dao the DAO
+     * @param accountName the account's name
+     *
+     * @return the account
+     *
+     * @throws AccountException if the account can't be created
+     */
+    private static Account storedAccount(final RecordingDao dao, final String accountName)
+        throws AccountException {
+        final Account acct = new SimpleAccount(accountName, "password".getBytes(), BALANCE);
+        dao.accounts.put(accountName, acct);
+        return acct;
+    }
+
+    /**
+     * Repeated persists of an account are written once, and until written the
+     * account manager returns the persisted account.
+     *
+     * @throws AccountException if an account operation fails
+     */
+    @Test
+    public void repeatedPersistsCoalesce() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao, 100, NEVER_MILLIS);
+        final Account acct = storedAccount(dao, ACCOUNT_ID);
+        final Account updated = new SimpleAccount(ACCOUNT_ID, "password".getBytes(), BALANCE - 1);
+        accountManager.persist(acct);
+        accountManager.persist(acct);
+        accountManager.persist(updated);
+        assertTrue(dao.writes.isEmpty());
+        assertSame(updated, accountManager.getAccount(ACCOUNT_ID));
+
+        accountManager.flush();
+        assertEquals(Collections.singletonList(ACCOUNT_ID), dao.writes);
+        assertEquals(BALANCE - 1, dao.getAccount(ACCOUNT_ID).getBalance());
+        accountManager.close();
+    }
+
+    /**
+     * Reaching the batch size flushes the dirty accounts without waiting for
+     * the flush interval.
+     *
+     * @throws Exception if an account operation fails or the wait is
+     *         interrupted
+     */
+    @Test
+    public void batchSizeTriggersFlush() throws Exception {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao, 2, NEVER_MILLIS);
+        accountManager.persist(storedAccount(dao, ACCOUNT_ID));
+        accountManager.persist(storedAccount(dao, OTHER_ACCOUNT_ID));
+
+        final long giveUp = System.currentTimeMillis() + WAIT_MILLIS;
+        while (dao.writes.size() < 2 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(1L);
+        }
+        assertEquals(2, dao.writes.size());
+        accountManager.close();
+    }
+
+    /**
+     * Closing the account manager writes the dirty accounts, then closes the
+     * DAO.
+     *
+     * @throws AccountException if an account operation fails
+     */
+    @Test
+    public void closeFlushesDirtyAccounts() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao, 100, NEVER_MILLIS);
+        accountManager.persist(storedAccount(dao, ACCOUNT_ID));
+        assertTrue(dao.writes.isEmpty());
+
+        accountManager.close();
+        assertEquals(Collections.singletonList(ACCOUNT_ID), dao.writes);
+        assertTrue(dao.closed);
+    }
+
+    /**
+     * The DAO is closed even if the final flush fails.
+     *
+     * @throws AccountException if an account operation unexpectedly fails
+     */
+    @Test
+    public void closeClosesDaoAfterFailedFlush() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao, 100, NEVER_MILLIS);
+        accountManager.persist(storedAccount(dao, ACCOUNT_ID));
+        dao.failures = 1;
+        try {
+            accountManager.close();
+            fail("Flush failure not reported");
+        } catch (final AccountException ex) {
+            assertTrue(dao.closed);
+        }
+    }
+
+    /**
+     * A factory configured with a batch size creates account managers which
+     * write behind, and by default ones which write through.
+     *
+     * @throws AccountException if an account operation fails
+     */
+    @Test
+    public void factoryConfiguresWriteBehind() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager writeBehind =
+            (SimpleAccountManager) new SimpleAccountManagerFactory(100, NEVER_MILLIS).newAccountManager(dao);
+        writeBehind.persist(storedAccount(dao, ACCOUNT_ID));
+        assertTrue(dao.writes.isEmpty());
+        writeBehind.close();
+        assertEquals(Collections.singletonList(ACCOUNT_ID), dao.writes);
+
+        final RecordingDao throughDao = new RecordingDao();
+        final SimpleAccountManager writeThrough =
+            (SimpleAccountManager) new SimpleAccountManagerFactory().newAccountManager(throughDao);
+        writeThrough.persist(storedAccount(throughDao, ACCOUNT_ID));
+        assertEquals(Collections.singletonList(ACCOUNT_ID), throughDao.writes);
+        writeThrough.close();
+    }
+
+    /**
+     * A negative batch size, or write behind without a flush interval, is
+     * refused by the factory.
+     */
+    @Test
+    public void factoryRefusesInvalidWriteBehind() {
+        try {
+            new SimpleAccountManagerFactory(-1, NEVER_MILLIS);
+            fail("Negative batch size accepted");
+        } catch (final IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            new SimpleAccountManagerFactory(100, 0L);
+            fail("Write behind without a flush interval accepted");
+        } catch (final IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * An account which fails to be written remains dirty, and is written by
+     * the next flush.
+     *
+     * @throws AccountException if an account operation unexpectedly fails
+     */
+    @Test
+    public void failedWriteIsRetried() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao, 100, NEVER_MILLIS);
+        accountManager.persist(storedAccount(dao, ACCOUNT_ID));
+        dao.failures = 1;
+        try {
+            accountManager.flush();
+            fail("Write failure not reported");
+        } catch (final AccountException ex) {
+            assertTrue(dao.writes.isEmpty());
+        }
+
+        accountManager.flush();
+        assertEquals(Collections.singletonList(ACCOUNT_ID), dao.writes);
+        accountManager.close();
+    }
+
+    /**
+     * Without a batch size accounts are written through as they are
+     * persisted.
+     *
+     * @throws AccountException if an account operation fails
+     */
+    @Test
+    public void writeThroughWithoutBatchSize() throws AccountException {
+        final RecordingDao dao = new RecordingDao();
+        final SimpleAccountManager accountManager = new SimpleAccountManager(dao);
+        accountManager.persist(storedAccount(dao, ACCOUNT_ID));
+        assertEquals(Collections.singletonList(ACCOUNT_ID), dao.writes);
+        accountManager.close();
+    }
+}
@@ -0,0 +1,128 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.AdmissionPolicy;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.BrokerSaturatedException;
+import edu.uw.rgm.broker.OrderLimits;
+import edu.uw.rgm.broker.SimpleBroker;
+
+/**
+ * Verifies SimpleBroker places a basket of orders all or nothing, a basket
+ * exceeding the broker's or the market order queue's capacity is refused
+ * without placing any of its orders.
+ */
+public class BasketPlacementTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** The broker under test */
+    private SimpleBroker broker;
+
+    /**
+     * Creates a broker, on a closed exchange so market orders stay queued.
+     *
+     * @param limits the broker's capacity limits
+     *
+     * @throws BrokerException if the broker can't be created
+     */
+    private void createBroker(final OrderLimits limits) throws BrokerException {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        exchange.setOpen(false);
+        broker = new SimpleBroker("test", accountManager, exchange,
+                                  BrokerConfig.builder().limits(limits).build());
+    }
+
+    /**
+     * Closes the broker.
+     *
+     * @throws Exception if the broker fails to close
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (broker != null) {
+            broker.close();
+        }
+    }
+
+    /**
+     * Creates a basket of two stop orders and the specified number of market
+     * orders.
+     *
+     * @param marketCount the number of market orders
+     *
+     * @return the basket
+     */
+    private static List<Order> basket(final int marketCount) {
+        final Order[] orders = new Order[marketCount + 2];
+        orders[0] = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100);
+        orders[1] = new StopSellOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE - 100);
+        for (int i = 2; i < orders.length; i++) {
+            orders[i] = (i % 2 == 0) ? new MarketBuyOrder(ACCOUNT_ID, i, TICKER)
+                                     : new MarketSellOrder(ACCOUNT_ID, i, TICKER);
+        }
+        return Arrays.asList(orders);
+    }
+
+    /**
+     * A basket with more market orders than the market order queue has room
+     * for is refused, stop orders included, and a basket which fits is then
+     * placed in full.
+     *
+     * @throws Exception if the fitting basket is refused
+     */
+    @Test
+    public void marketQueueCapacityRefusesWholeBasket() throws Exception {
+        createBroker(new OrderLimits(100, 3, AdmissionPolicy.BLOCK, 1_000L));
+        broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 1, TICKER));
+        try {
+            broker.placeOrders(basket(3));
+            fail("Basket exceeding the market order queue accepted");
+        } catch (final BrokerSaturatedException ex) {
+            assertEquals(1, broker.getMetrics().getPendingOrders());
+        }
+
+        broker.placeOrders(basket(2));
+        assertEquals(5, broker.getMetrics().getPendingOrders());
+    }
+
+    /**
+     * A basket with more orders than the broker may hold is refused.
+     *
+     * @throws Exception if the fitting basket is refused
+     */
+    @Test
+    public void pendingLimitRefusesWholeBasket() throws Exception {
+        createBroker(new OrderLimits(4, 100, AdmissionPolicy.REJECT, 0L));
+        try {
+            broker.placeOrders(basket(3));
+            fail("Basket exceeding the broker's capacity accepted");
+        } catch (final BrokerSaturatedException ex) {
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        }
+
+        broker.placeOrders(basket(2));
+        assertEquals(4, broker.getMetrics().getPendingOrders());
+    }
+}
@@ -0,0 +1,207 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.OrderStorage;
+import edu.uw.rgm.broker.SimpleBroker;
+
+/**
+ * Verifies BrokerConfig validates its settings, and SimpleBroker creates the
+ * stages a configuration selects.
+ */
+public class BrokerConfigTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Initial account balance */
+    private static final int BALANCE = 1_000_000;
+
+    /** How long to wait for the broker's stages, in milliseconds */
+    private static final long WAIT_MILLIS = 5_000L;
+
+    /**
+     * A negative shard count is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeShardCountIsRefused() {
+        BrokerConfig.builder().shardCount(-1);
+    }
+
+    /**
+     * A negative pipeline capacity is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePipelineCapacityIsRefused() {
+        BrokerConfig.builder().pipelineTradeExecution(-1);
+    }
+
+    /**
+     * Null limits are refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void nullLimitsAreRefused() {
+        BrokerConfig.builder().limits(null);
+    }
+
+    /**
+     * A null order storage is refused, and the default is HEAP.
+     */
+    @Test
+    public void nullOrderStorageIsRefused() {
+        assertEquals(OrderStorage.HEAP, BrokerConfig.DEFAULT.getOrderStorage());
+        try {
+            BrokerConfig.builder().orderStorage(null);
+            fail("Null order storage accepted");
+        } catch (final IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Draining the backlog in parallel can't be combined with a trade
+     * pipeline.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void openDrainWithPipelineIsRefused() {
+        BrokerConfig.builder().drainBacklogOnOpen(4).pipelineTradeExecution(16).build();
+    }
+
+    /**
+     * The backlog queued while the exchange was closed is executed in full
+     * by the parallel drain before the exchange open event returns.
+     *
+     * @throws Exception if the broker can't be created or an order placed
+     */
+    @Test
+    public void parallelOpenDrainExecutesBacklog() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        final String[] accountIds = {ACCOUNT_ID, "bmrubble", "wflintstone"};
+        for (final String accountId : accountIds) {
+            accountManager.createAccount(accountId, "password", BALANCE);
+        }
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        exchange.setOpen(false);
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange,
+                                                     BrokerConfig.builder().drainBacklogOnOpen(2).build());
+        try {
+            for (int i = 0; i < 30; i++) {
+                broker.placeOrder(new MarketBuyOrder(accountIds[i % accountIds.length], 1, TICKER));
+            }
+            assertEquals(30, broker.getMetrics().getPendingOrders());
+
+            exchange.setOpen(true);
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+            for (final String accountId : accountIds) {
+                assertEquals(BALANCE - 10 * INITIAL_PRICE, accountManager.getAccount(accountId).getBalance());
+            }
+        } finally {
+            broker.close();
+        }
+    }
+
+    /**
+     * A broker with every stage enabled executes market orders and triggered
+     * stop orders through them.
+     *
+     * @throws Exception if the broker can't be created or an order placed
+     */
+    @Test
+    public void stagedBrokerExecutesOrders() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        final Account account = accountManager.getAccount(ACCOUNT_ID);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final BrokerConfig config = BrokerConfig.builder()
+                                                .shardCount(2)
+                                                .handOffTriggeredOrders(16)
+                                                .pipelineTradeExecution(16)
+                                                .build();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange, config);
+        try {
+            broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER));
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+
+            final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (broker.getMetrics().getPendingOrders() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1L);
+            }
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        } finally {
+            broker.close();
+        }
+        assertEquals(BALANCE - 10 * INITIAL_PRICE - 10 * (INITIAL_PRICE + 100), account.getBalance());
+    }
+
+    /**
+     * A broker storing its stop orders by sort key triggers, cancels and
+     * executes them.
+     *
+     * @throws Exception if the broker can't be created or an order placed
+     */
+    @Test
+    public void sortKeyStorageTriggersStopOrders() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        final Account account = accountManager.getAccount(ACCOUNT_ID);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final SimpleBroker broker =
+            new SimpleBroker("test", accountManager, exchange,
+                             BrokerConfig.builder().orderStorage(OrderStorage.SORT_KEY).build());
+        try {
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+            final StopBuyOrder cancelled = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100);
+            broker.placeOrder(cancelled);
+            broker.placeOrder(new StopSellOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE - 100));
+            assertTrue(broker.cancelOrder(ACCOUNT_ID, TICKER, cancelled.getOrderId()));
+            assertEquals(2, broker.getMetrics().getPendingOrders());
+
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            assertEquals(1, broker.getMetrics().getPendingOrders());
+            exchange.setPrice(TICKER, INITIAL_PRICE - 100);
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        } finally {
+            broker.close();
+        }
+        assertEquals(BALANCE - 10 * (INITIAL_PRICE + 100) + 10 * (INITIAL_PRICE - 100), account.getBalance());
+    }
+
+    /**
+     * The broker's MBean is registered on construction when configured, and
+     * unregistered on close.
+     *
+     * @throws Exception if the broker can't be created or closed
+     */
+    @Test
+    public void mbeansRegisteredWhenConfigured() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("edu.uw.rgm.broker:type=Broker,name=\"config-test\"");
+        final SimpleBroker broker = new SimpleBroker("config-test", new InMemoryAccountManager(),
+                                                     new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE),
+                                                     BrokerConfig.builder().registerMBeans(true).build());
+        assertTrue(server.isRegistered(name));
+        broker.close();
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,298 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.OrderManagerShards;
+import edu.uw.rgm.broker.SimpleBroker;
+import edu.uw.rgm.broker.TimeInForce;
+
+/**
+ * Verifies sharded stop order placement completes before returning, and that
+ * SimpleBroker closes its resources in dependency order even when a stage
+ * fails or an order is being expired.
+ */
+public class BrokerShutdownTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Initial account balance */
+    private static final int BALANCE = 1_000_000;
+
+    /** How long to wait for a thread */
+    private static final long WAIT_SECONDS = 5L;
+
+    /** How long to wait for the expiry timer to reach an expired order, in milliseconds */
+    private static final long EXPIRY_WAIT_MILLIS = 2_200L;
+
+    /**
+     * An exchange which may refuse to remove listeners and may hold trades
+     * until released.
+     */
+    private static final class ControlledExchange implements StockExchange {
+        /** The exchange delegated to */
+        private final InMemoryExchange exchange =
+            new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+
+        /** Counted down once a trade is being executed */
+        private final CountDownLatch trading = new CountDownLatch(1);
+
+        /** Trades wait for this to be counted down, null if they don't wait */
+        private final CountDownLatch release;
+
+        /** True if removing a listener fails */
+        private final boolean failRemove;
+
+        /**
+         * Constructor.
+         *
+         * @param release trades wait for this, null if they don't wait
+         * @param failRemove true if removing a listener fails
+         */
+        private ControlledExchange(final CountDownLatch release, final boolean failRemove) {
+            this.release = release;
+            this.failRemove = failRemove;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return exchange.isOpen();
+        }
+
+        @Override
+        public String[] getTickers() {
+            return exchange.getTickers();
+        }
+
+        @Override
+        public StockQuote getQuote(final String ticker) {
+            return exchange.getQuote(ticker);
+        }
+
+        @Override
+        public void addExchangeListener(final ExchangeListener listener) {
+            exchange.addExchangeListener(listener);
+        }
+
+        @Override
+        public void removeExchangeListener(final ExchangeListener listener) {
+            if (failRemove) {
+                throw new IllegalStateException("Listener can't be removed");
+            }
+            exchange.removeExchangeListener(listener);
+        }
+
+        @Override
+        public int executeTrade(final Order order) {
+            trading.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return exchange.executeTrade(order);
+        }
+    }
+
+    /**
+     * Creates an account manager holding the test account.
+     *
+     * @return the account manager
+     *
+     * @throws Exception if the account can't be created
+     */
+    private static InMemoryAccountManager accounts() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        return accountManager;
+    }
+
+    /**
+     * A sharded stop order is queued, and here triggered and executed, by the
+     * time placing it returns.
+     *
+     * @throws Exception if the broker can't be created or the order placed
+     */
+    @Test
+    public void shardedStopOrderIsQueuedOnReturn() throws Exception {
+        final InMemoryAccountManager accountManager = accounts();
+        final Account account = accountManager.getAccount(ACCOUNT_ID);
+        final SimpleBroker broker = new SimpleBroker("test", accountManager,
+                                                     new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE),
+                                                     BrokerConfig.builder().shardCount(2).build());
+        try {
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE));
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+            assertEquals(BALANCE - 10 * INITIAL_PRICE, account.getBalance());
+        } finally {
+            broker.close();
+        }
+    }
+
+    /**
+     * Closing the order shards fails, naming the shard, if a shard's queued
+     * work doesn't complete in time.
+     *
+     * @throws Exception if the shards can't be created
+     */
+    @Test
+    public void shardCloseTimesOut() throws Exception {
+        final OrderManagerShards shards = new OrderManagerShards(2, 50L);
+        final CountDownLatch release = new CountDownLatch(1);
+        shards.execute(1, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            shards.close();
+            fail("Close returned with a shard still working");
+        } catch (final BrokerException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("shard 1"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * A failure closing an early resource is reported, and the later
+     * resources are still closed.
+     *
+     * @throws Exception if the broker can't be created
+     */
+    @Test
+    public void laterResourcesCloseAfterFailure() throws Exception {
+        final InMemoryAccountManager accountManager = accounts();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager,
+                                                     new ControlledExchange(null, true));
+        try {
+            broker.close();
+            fail("Close failure not reported");
+        } catch (final BrokerException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertNull(accountManager.getAccount(ACCOUNT_ID));
+    }
+
+    /**
+     * The account manager isn't closed until a market order being executed
+     * by the dispatcher has been reflected in its account.
+     *
+     * @throws Exception if the broker can't be created or the wait is
+     *         interrupted
+     */
+    @Test
+    public void marketDispatchStopsBeforeAccountsClose() throws Exception {
+        final InMemoryAccountManager accountManager = accounts();
+        final Account account = accountManager.getAccount(ACCOUNT_ID);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ControlledExchange exchange = new ControlledExchange(release, false);
+        final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange,
+                                                     BrokerConfig.builder().marketDispatcher(dispatcher).build());
+        try {
+            broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER));
+            assertTrue(exchange.trading.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+            final Thread closer = new Thread(() -> {
+                try {
+                    broker.close();
+                } catch (final BrokerException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            closer.start();
+            closer.join(100);
+            assertTrue(closer.isAlive());
+            assertNotNull(accountManager.getAccount(ACCOUNT_ID));
+
+            release.countDown();
+            closer.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+            assertEquals(BALANCE - 10 * INITIAL_PRICE, account.getBalance());
+            assertNull(accountManager.getAccount(ACCOUNT_ID));
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Closing the broker while the expiry timer is waiting for the order lock
+     * to expire a stop order lets the expiry complete, rather than holding the
+     * order lock while waiting for the timer to stop.
+     *
+     * @throws Exception if the broker can't be created or the wait is
+     *         interrupted
+     */
+    @Test
+    public void closeCompletesWhileExpiring() throws Exception {
+        final InMemoryAccountManager accountManager = accounts();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ControlledExchange exchange = new ControlledExchange(release, false);
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange);
+        final Thread trader = new Thread(() -> exchange.exchange.setPrice(TICKER, INITIAL_PRICE + 100));
+        try {
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 200),
+                              TimeInForce.GTD, System.currentTimeMillis() + 100L);
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+
+            // the triggered order's trade holds the order lock until released
+            trader.start();
+            assertTrue(exchange.trading.await(WAIT_SECONDS, TimeUnit.SECONDS));
+            // by now the timer is waiting for the order lock to expire the GTD order
+            Thread.sleep(EXPIRY_WAIT_MILLIS);
+
+            final AtomicReference<BrokerException> failure = new AtomicReference<>();
+            final Thread closer = new Thread(() -> {
+                try {
+                    broker.close();
+                } catch (final BrokerException ex) {
+                    failure.set(ex);
+                }
+            });
+            closer.start();
+            closer.join(100);
+            assertTrue(closer.isAlive());
+
+            release.countDown();
+            closer.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+            assertFalse(closer.isAlive());
+            assertNull(failure.get());
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        } finally {
+            release.countDown();
+            trader.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+import org.junit.Test;
+
+import test.AbstractOrderQueueTest;
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.AdmissionPolicy;
+import edu.uw.rgm.broker.ConcurrentOrderQueue;
+
+/**
+ * Runs the OrderQueue tests against ConcurrentOrderQueue, and adds a stress
+ * test in which several client threads enqueue orders while another thread
+ * adjusts the threshold.
+ */
+public class ConcurrentOrderQueueTest extends AbstractOrderQueueTest {
+    /** Number of enqueuing threads */
+    private static final int CLIENTS = 8;
+
+    /** Number of orders enqueued by each client thread */
+    private static final int ORDERS_PER_CLIENT = 10_000;
+
+    /** Number of threshold adjustments made during the test */
+    private static final int THRESHOLD_CHANGES = 10_000;
+
+    /**
+     * Creates a ConcurrentOrderQueue ordering StopBuyOrders by ascending price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopBuyOrder> createStopBuyOrderQueue(
+                        final BiPredicate<Integer, StopBuyOrder> filter) {
+        final Comparator<StopBuyOrder> ascending =
+                    Comparator.comparing(StopBuyOrder::getPrice)
+                              .thenComparing(StopBuyOrder::compareTo);
+        return new ConcurrentOrderQueue<>(0, (Integer t, StopBuyOrder o) -> o.getPrice() <= t, ascending);
+    }
+
+    /**
+     * Creates a ConcurrentOrderQueue ordering StopSellOrders by descending
+     * price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopSellOrder> createStopSellOrderQueue(
+                          final BiPredicate<Integer, StopSellOrder> filter) {
+        final Comparator<StopSellOrder> descending =
+                Comparator.comparing(StopSellOrder::getPrice)
+                      .reversed()
+                      .thenComparing(StopSellOrder::compareTo);
+        return new ConcurrentOrderQueue<>(0, (Integer t, StopSellOrder o) -> o.getPrice() >= t, descending);
+    }
+
+    /**
+     * Creates a ConcurrentOrderQueue ordering Orders according to their
+     * natural ordering.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Boolean,Order> createAnyOrderQueue(
+                            final BiPredicate<Boolean, Order> filter) {
+        return new ConcurrentOrderQueue<Boolean, Order>(true, (Boolean t, Order o)->t);
+    }
+
+    /**
+     * Enqueues orders from several threads while the threshold is toggled, then
+     * verifies every order was dispatched exactly once and that the order
+     * processor was never run concurrently.
+     *
+     * @throws Exception if any of the worker threads fail
+     */
+    @Test
+    public void concurrentEnqueueAndDispatch() throws Exception {
+        final OrderQueue<Boolean, Order> queue = createAnyOrderQueue(null);
+        queue.setThreshold(Boolean.FALSE);
+
+        final Set<Integer> dispatched = ConcurrentHashMap.newKeySet();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        queue.setOrderProcessor(order -> {
+            if (active.incrementAndGet() != 1) {
+                overlaps.incrementAndGet();
+            }
+            if (!dispatched.add(order.getOrderId())) {
+                duplicates.incrementAndGet();
+            }
+            active.decrementAndGet();
+        });
+
+        final ExecutorService pool = Executors.newFixedThreadPool(CLIENTS + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                tasks.add(pool.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < ORDERS_PER_CLIENT; j++) {
+                        queue.enqueue(new MarketBuyOrder("fflintstone", 1, "F"));
+                    }
+                    return null;
+                }));
+            }
+            tasks.add(pool.submit(() -> {
+                start.await();
+                for (int j = 0; j < THRESHOLD_CHANGES; j++) {
+                    queue.setThreshold(j % 2 == 0);
+                }
+                return null;
+            }));
+
+            start.countDown();
+            for (final Future<?> task : tasks) {
+                task.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        queue.setThreshold(Boolean.TRUE);
+
+        assertNull(queue.dequeue());
+        assertEquals(CLIENTS * ORDERS_PER_CLIENT, dispatched.size());
+        assertEquals(0, duplicates.get());
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * An order the processor throws on is dropped, the rest of the drain and
+     * later dispatches proceed normally.
+     */
+    @Test
+    public void failingProcessorDoesNotWedgeQueue() {
+        final ConcurrentOrderQueue<Boolean, Order> queue =
+            new ConcurrentOrderQueue<>(Boolean.FALSE, (Boolean t, Order o) -> t);
+        final Order poison = new MarketBuyOrder("fflintstone", 1, "F");
+        final Order first = new MarketBuyOrder("fflintstone", 1, "F");
+        final List<Order> processed = new ArrayList<>();
+        queue.setOrderProcessor(order -> {
+            if (order == poison) {
+                throw new IllegalStateException("trade failed");
+            }
+            processed.add(order);
+        });
+        queue.enqueue(poison);
+        queue.enqueue(first);
+        queue.setThreshold(Boolean.TRUE);
+        assertEquals(Arrays.asList(first), processed);
+
+        final Order later = new MarketBuyOrder("fflintstone", 1, "F");
+        queue.enqueue(later);
+        assertEquals(Arrays.asList(first, later), processed);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * An Error escaping the processor propagates, but releases the drain so
+     * the next dispatch request still dispatches.
+     */
+    @Test
+    public void errorInProcessorReleasesDrain() {
+        final ConcurrentOrderQueue<Boolean, Order> queue =
+            new ConcurrentOrderQueue<>(Boolean.TRUE, (Boolean t, Order o) -> t);
+        final Order poison = new MarketBuyOrder("fflintstone", 1, "F");
+        final List<Order> processed = new ArrayList<>();
+        queue.setOrderProcessor(order -> {
+            if (order == poison) {
+                throw new AssertionError("processor failed");
+            }
+            processed.add(order);
+        });
+        try {
+            queue.enqueue(poison);
+        } catch (final AssertionError ex) {
+            // expected
+        }
+
+        final Order later = new MarketBuyOrder("fflintstone", 1, "F");
+        queue.enqueue(later);
+        assertEquals(Arrays.asList(later), processed);
+    }
+
+    /**
+     * When dispatching asynchronously a failing order doesn't stop the drain
+     * task, the orders behind it and later orders are still dispatched.
+     *
+     * @throws Exception if the dispatcher fails to terminate
+     */
+    @Test
+    public void failingProcessorDoesNotWedgeAsyncQueue() throws Exception {
+        final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        try {
+            final ConcurrentOrderQueue<Boolean, Order> queue =
+                new ConcurrentOrderQueue<>(Boolean.FALSE, (Boolean t, Order o) -> t, dispatcher);
+            final Order poison = new MarketBuyOrder("fflintstone", 1, "F");
+            final List<Order> processed = new CopyOnWriteArrayList<>();
+            final CountDownLatch done = new CountDownLatch(2);
+            queue.setOrderProcessor(order -> {
+                if (order == poison) {
+                    throw new IllegalStateException("trade failed");
+                }
+                processed.add(order);
+                done.countDown();
+            });
+            final Order first = new MarketBuyOrder("fflintstone", 1, "F");
+            queue.enqueue(poison);
+            queue.enqueue(first);
+            queue.setThreshold(Boolean.TRUE);
+            final Order later = new MarketBuyOrder("fflintstone", 1, "F");
+            queue.enqueue(later);
+
+            assertTrue(done.await(1, TimeUnit.MINUTES));
+            assertEquals(Arrays.asList(first, later), processed);
+        } finally {
+            dispatcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Under SHED_LOWEST a full queue sheds its lowest priority order for a
+     * higher priority one, and refuses orders of equal or lower priority.
+     * Larger orders are given the higher priority.
+     *
+     * @throws InterruptedException not expected, the policy never waits
+     */
+    @Test
+    public void fullQueueShedsLowestPriorityOrder() throws InterruptedException {
+        final Comparator<Order> largestFirst =
+            Comparator.comparingInt((Order o) -> o.getNumberOfShares()).reversed();
+        final ConcurrentOrderQueue<Boolean, Order> queue =
+            new ConcurrentOrderQueue<>(false, (Boolean t, Order o) -> t, null, null,
+                                       2, AdmissionPolicy.SHED_LOWEST, largestFirst);
+        final List<Order> shed = new ArrayList<>();
+        queue.setShedOrderProcessor(shed::add);
+        final List<Order> dispatched = new ArrayList<>();
+        queue.setOrderProcessor(dispatched::add);
+
+        final Order medium = new MarketBuyOrder("fflintstone", 100, "F");
+        final Order small = new MarketBuyOrder("fflintstone", 50, "F");
+        final Order large = new MarketBuyOrder("fflintstone", 200, "F");
+        assertTrue(queue.offer(medium, 0L, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(small, 0L, TimeUnit.MILLISECONDS));
+
+        assertTrue(queue.offer(large, 0L, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(small), shed);
+        assertEquals(2, queue.size());
+
+        assertFalse(queue.offer(new MarketBuyOrder("fflintstone", 10, "F"),
+                                0L, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(new MarketBuyOrder("fflintstone", 100, "F"),
+                                0L, TimeUnit.MILLISECONDS));
+        assertEquals(1, shed.size());
+
+        // the remaining orders dispatch in queue order
+        queue.setThreshold(true);
+        assertEquals(Arrays.asList(large, medium), dispatched);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * A dispatched or cancelled order is no longer a candidate for shedding.
+     *
+     * @throws InterruptedException not expected, the policy never waits
+     */
+    @Test
+    public void removedOrdersAreNotShed() throws InterruptedException {
+        final Comparator<Order> largestFirst =
+            Comparator.comparingInt((Order o) -> o.getNumberOfShares()).reversed();
+        final ConcurrentOrderQueue<Boolean, Order> queue =
+            new ConcurrentOrderQueue<>(false, (Boolean t, Order o) -> t, null, null,
+                                       2, AdmissionPolicy.SHED_LOWEST, largestFirst);
+        final List<Order> shed = new ArrayList<>();
+        queue.setShedOrderProcessor(shed::add);
+
+        final Order small = new MarketBuyOrder("fflintstone", 10, "F");
+        final Order medium = new MarketBuyOrder("fflintstone", 100, "F");
+        queue.offer(small, 0L, TimeUnit.MILLISECONDS);
+        queue.offer(medium, 0L, TimeUnit.MILLISECONDS);
+        assertTrue(queue.cancel(small));
+        queue.offer(new MarketBuyOrder("fflintstone", 20, "F"), 0L, TimeUnit.MILLISECONDS);
+
+        assertTrue(queue.offer(new MarketBuyOrder("fflintstone", 500, "F"),
+                               0L, TimeUnit.MILLISECONDS));
+        assertEquals(1, shed.size());
+        assertEquals(20, shed.get(0).getNumberOfShares());
+    }
+
+    /**
+     * SHED_LOWEST can't be used without a priority to shed by.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void sheddingRequiresPriority() {
+        new ConcurrentOrderQueue<Boolean, Order>(false, (Boolean t, Order o) -> t, null, null,
+                                                 2, AdmissionPolicy.SHED_LOWEST);
+    }
+}
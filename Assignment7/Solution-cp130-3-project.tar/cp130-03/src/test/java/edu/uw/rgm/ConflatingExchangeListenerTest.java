@@ -0,0 +1,275 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.ConflatingExchangeListener;
+import edu.uw.rgm.broker.SimpleBroker;
+import edu.uw.rgm.broker.TickerListener;
+import edu.uw.rgm.broker.TickerRegistry;
+
+/**
+ * Verifies ConflatingExchangeListener passes on the extremes and latest price
+ * of a burst, or every price in arrival order when ordering is required, and
+ * that SimpleBroker doesn't trigger a stop order on extremes reached before it
+ * was placed or replaced, nor a trailing stop order on reordered prices.
+ */
+public class ConflatingExchangeListenerTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** The registry resolving the test ticker, as id 0 */
+    private final TickerRegistry registry = new TickerRegistry(new String[] {TICKER});
+
+    /**
+     * An executor which holds tasks until they are run.
+     */
+    private static final class ManualExecutor implements Executor {
+        /** The tasks not yet run */
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable task) {
+            tasks.add(task);
+        }
+
+        /**
+         * Runs the held tasks.
+         */
+        private void runAll() {
+            final List<Runnable> running = new ArrayList<>(tasks);
+            tasks.clear();
+            running.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * A listener recording the prices it is passed.
+     */
+    private static final class RecordingListener implements TickerListener {
+        /** The prices passed on */
+        private final List<Integer> prices = new ArrayList<>();
+
+        @Override
+        public void priceChanged(final int tickerId, final int price) {
+            assertEquals(0, tickerId);
+            prices.add(price);
+        }
+
+        @Override
+        public void exchangeOpened(final ExchangeEvent event) {
+        }
+
+        @Override
+        public void exchangeClosed(final ExchangeEvent event) {
+        }
+    }
+
+    /**
+     * Sends a price change to a listener.
+     *
+     * @param listener the listener
+     * @param price the price
+     */
+    private static void tick(final ExchangeListener listener, final int price) {
+        tick(listener, TICKER, price);
+    }
+
+    /**
+     * Sends a price change for a ticker to a listener.
+     *
+     * @param listener the listener
+     * @param ticker the ticker symbol
+     * @param price the price
+     */
+    private static void tick(final ExchangeListener listener, final String ticker, final int price) {
+        listener.priceChanged(ExchangeEvent.newPriceChangedEvent(new Object(), ticker, price));
+    }
+
+    /**
+     * A burst is passed on as its high, low and latest price, in one drain.
+     */
+    @Test
+    public void burstIsConflatedToExtremesAndLatest() {
+        final ManualExecutor drainer = new ManualExecutor();
+        final RecordingListener recorder = new RecordingListener();
+        final ConflatingExchangeListener listener = new ConflatingExchangeListener(registry, recorder, drainer);
+        for (final int price : new int[] {1_010, 1_050, 990, 1_020, 1_005}) {
+            tick(listener, price);
+        }
+        assertEquals(1, drainer.tasks.size());
+
+        drainer.runAll();
+        assertEquals(Arrays.asList(1_050, 990, 1_005), recorder.prices);
+    }
+
+    /**
+     * Price changes for symbols which aren't registered are dropped, without
+     * scheduling a drain.
+     */
+    @Test
+    public void unregisteredTickerIsDropped() {
+        final ManualExecutor drainer = new ManualExecutor();
+        final RecordingListener recorder = new RecordingListener();
+        final ConflatingExchangeListener listener = new ConflatingExchangeListener(registry, recorder, drainer);
+        tick(listener, "XYZ", 1_010);
+        assertEquals(0, drainer.tasks.size());
+
+        listener.flush();
+        assertEquals(0, recorder.prices.size());
+    }
+
+    /**
+     * A burst for a ticker requiring ordering is passed on in arrival order,
+     * after the conflated changes accumulated before ordering was required.
+     */
+    @Test
+    public void orderedTickerPassesPricesInArrivalOrder() {
+        final ManualExecutor drainer = new ManualExecutor();
+        final RecordingListener recorder = new RecordingListener();
+        final boolean[] ordered = new boolean[1];
+        final ConflatingExchangeListener listener =
+            new ConflatingExchangeListener(registry, recorder, drainer, tickerId -> ordered[0]);
+        for (final int price : new int[] {1_010, 1_050, 990, 1_020}) {
+            tick(listener, price);
+        }
+        ordered[0] = true;
+        for (final int price : new int[] {960, 1_100, 1_080}) {
+            tick(listener, price);
+        }
+
+        drainer.runAll();
+        assertEquals(Arrays.asList(1_050, 990, 1_020, 960, 1_100, 1_080), recorder.prices);
+
+        recorder.prices.clear();
+        for (final int price : new int[] {1_070, 1_090, 1_060}) {
+            tick(listener, price);
+        }
+        drainer.runAll();
+        assertEquals(Arrays.asList(1_070, 1_090, 1_060), recorder.prices);
+    }
+
+    /**
+     * Flushing passes the accumulated changes on immediately, leaving nothing
+     * for the scheduled drain.
+     */
+    @Test
+    public void flushPassesChangesOnImmediately() {
+        final ManualExecutor drainer = new ManualExecutor();
+        final RecordingListener recorder = new RecordingListener();
+        final ConflatingExchangeListener listener = new ConflatingExchangeListener(registry, recorder, drainer);
+        tick(listener, 1_010);
+        tick(listener, 1_020);
+
+        listener.flush();
+        assertEquals(Arrays.asList(1_010, 1_020), recorder.prices);
+        drainer.runAll();
+        assertEquals(2, recorder.prices.size());
+    }
+
+    /**
+     * A stop order placed after a spike, but before the spike was drained, is
+     * not triggered by the spike, only by a later price.
+     *
+     * @throws Exception if the broker can't be created or the order placed
+     */
+    @Test
+    public void stopOrderIgnoresExtremesBeforePlacement() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final ManualExecutor drainer = new ManualExecutor();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange,
+                                                     BrokerConfig.builder().conflatePriceChanges(drainer).build());
+        try {
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            exchange.setPrice(TICKER, INITIAL_PRICE);
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+            drainer.runAll();
+            assertEquals(1, broker.getMetrics().getPendingOrders());
+
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            drainer.runAll();
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        } finally {
+            broker.close();
+        }
+    }
+
+    /**
+     * A trailing stop order isn't triggered by a burst whose extremes span
+     * its trail when the prices, in arrival order, never fall the trail below
+     * the highest price, and is triggered once they do.
+     *
+     * @throws Exception if the broker can't be created or the order placed
+     */
+    @Test
+    public void trailingOrderSeesPricesInArrivalOrder() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final ManualExecutor drainer = new ManualExecutor();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange,
+                                                     BrokerConfig.builder().conflatePriceChanges(drainer).build());
+        try {
+            broker.placeTrailingOrder(new MarketSellOrder(ACCOUNT_ID, 10, TICKER), 50);
+            exchange.setPrice(TICKER, INITIAL_PRICE - 40);
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            exchange.setPrice(TICKER, INITIAL_PRICE + 80);
+            drainer.runAll();
+            assertEquals(1, broker.getMetrics().getPendingOrders());
+
+            exchange.setPrice(TICKER, INITIAL_PRICE + 40);
+            drainer.runAll();
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        } finally {
+            broker.close();
+        }
+    }
+
+    /**
+     * A stop order replaced after a spike, but before the spike was drained,
+     * is not triggered by the spike.
+     *
+     * @throws Exception if the broker can't be created or the order replaced
+     */
+    @Test
+    public void replacementIgnoresExtremesBeforeReplacing() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final ManualExecutor drainer = new ManualExecutor();
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange,
+                                                     BrokerConfig.builder().conflatePriceChanges(drainer).build());
+        try {
+            final StopBuyOrder original = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 200);
+            broker.placeOrder(original);
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            exchange.setPrice(TICKER, INITIAL_PRICE);
+            assertTrue(broker.replaceOrder(original.getOrderId(),
+                                           new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100)));
+            drainer.runAll();
+            assertEquals(1, broker.getMetrics().getPendingOrders());
+        } finally {
+            broker.close();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.broker.OrderManager;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.SimpleBroker;
+import edu.uw.rgm.broker.SimpleOrderManager;
+import edu.uw.rgm.broker.SimpleOrderQueue;
+import edu.uw.rgm.broker.TimeInForce;
+
+/**
+ * Verifies a SimpleBroker sub class may create order managers which aren't
+ * SimpleOrderManagers, stop orders are triggered through them and the
+ * operations they don't support are refused, and may provide its own market
+ * order queue and hook construction.
+ */
+public class CustomOrderManagerTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Initial account balance */
+    private static final int BALANCE = 1_000_000;
+
+    /** How long to wait for the broker's stages, in milliseconds */
+    private static final long WAIT_MILLIS = 5_000L;
+
+    /** The account manager */
+    private InMemoryAccountManager accountManager;
+
+    /** The exchange */
+    private InMemoryExchange exchange;
+
+    /** The broker under test */
+    private SimpleBroker broker;
+
+    /**
+     * An order manager which only implements the OrderManager interface.
+     */
+    private static final class PlainOrderManager implements OrderManager {
+        /** The order manager delegated to */
+        private final SimpleOrderManager delegate;
+
+        /**
+         * Constructor.
+         *
+         * @param ticker the ticker symbol of the stock
+         * @param price the current price of the stock
+         */
+        private PlainOrderManager(final String ticker, final int price) {
+            delegate = new SimpleOrderManager(ticker, price);
+        }
+
+        @Override
+        public String getSymbol() {
+            return delegate.getSymbol();
+        }
+
+        @Override
+        public void adjustPrice(final int price) {
+            delegate.adjustPrice(price);
+        }
+
+        @Override
+        public void queueOrder(final StopBuyOrder order) {
+            delegate.queueOrder(order);
+        }
+
+        @Override
+        public void queueOrder(final StopSellOrder order) {
+            delegate.queueOrder(order);
+        }
+
+        @Override
+        public void setBuyOrderProcessor(final Consumer<StopBuyOrder> processor) {
+            delegate.setBuyOrderProcessor(processor);
+        }
+
+        @Override
+        public void setSellOrderProcessor(final Consumer<StopSellOrder> processor) {
+            delegate.setSellOrderProcessor(processor);
+        }
+    }
+
+    /**
+     * A broker creating PlainOrderManagers.
+     */
+    private static final class PlainBroker extends SimpleBroker {
+        /**
+         * Constructor.
+         *
+         * @param accountManager the account manager
+         * @param exchange the exchange
+         */
+        private PlainBroker(final InMemoryAccountManager accountManager, final InMemoryExchange exchange) {
+            super("test", accountManager, exchange);
+        }
+
+        @Override
+        protected OrderManager createOrderManager(final String ticker, final int initialPrice) {
+            return new PlainOrderManager(ticker, initialPrice);
+        }
+    }
+
+    /**
+     * A broker providing its own market order queue, constructed the way sub
+     * classes have always been: the queue is created, the order managers
+     * initialized and the broker registered with the exchange.
+     */
+    private static final class QueueBroker extends SimpleBroker {
+        /** The orders dispatched from the market order queue */
+        private final List<Order> executed = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param accountManager the account manager
+         * @param exchange the exchange
+         */
+        private QueueBroker(final InMemoryAccountManager accountManager, final InMemoryExchange exchange) {
+            super("test", exchange, accountManager);
+            marketOrders = new SimpleOrderQueue<>(exchange.isOpen(), (t, o)->t);
+            marketOrders.setOrderProcessor(executed::add);
+            initializeOrderManagers();
+            exchange.addExchangeListener(this);
+        }
+    }
+
+    /**
+     * A broker providing its own market order queue, then completing
+     * construction with a configuration.
+     */
+    private static final class ConfiguredBroker extends SimpleBroker {
+        /**
+         * Constructor.
+         *
+         * @param accountManager the account manager
+         * @param exchange the exchange
+         * @param config the broker's configuration
+         *
+         * @throws BrokerException if the broker can't be initialized
+         */
+        private ConfiguredBroker(final InMemoryAccountManager accountManager, final InMemoryExchange exchange,
+                                 final BrokerConfig config)
+            throws BrokerException {
+            super("test", exchange, accountManager);
+            marketOrders = new SimpleOrderQueue<>(exchange.isOpen(), (t, o)->t);
+            initialize(config);
+        }
+    }
+
+    /**
+     * Creates the broker.
+     *
+     * @throws Exception if the account can't be created
+     */
+    @Before
+    public void setUp() throws Exception {
+        accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        broker = new PlainBroker(accountManager, exchange);
+    }
+
+    /**
+     * Closes the broker.
+     *
+     * @throws Exception if the broker can't be closed
+     */
+    @After
+    public void tearDown() throws Exception {
+        broker.close();
+    }
+
+    /**
+     * Stop orders are triggered through the custom order manager.
+     *
+     * @throws Exception if the order can't be placed
+     */
+    @Test
+    public void stopOrdersTrigger() throws Exception {
+        broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+        assertEquals(1, broker.getMetrics().getPendingOrders());
+
+        exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+        assertEquals(0, broker.getMetrics().getPendingOrders());
+        assertEquals(BALANCE - 10 * (INITIAL_PRICE + 100), accountManager.getAccount(ACCOUNT_ID).getBalance());
+    }
+
+    /**
+     * Stop orders can't be cancelled.
+     *
+     * @throws Exception if the order can't be placed
+     */
+    @Test
+    public void cancelFindsNothing() throws Exception {
+        final StopBuyOrder order = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100);
+        broker.placeOrder(order);
+        assertFalse(broker.cancelOrder(ACCOUNT_ID, TICKER, order.getOrderId()));
+        assertEquals(1, broker.getMetrics().getPendingOrders());
+    }
+
+    /**
+     * Trailing stop orders are refused.
+     *
+     * @throws Exception if the order is refused
+     */
+    @Test(expected = BrokerException.class)
+    public void trailingOrdersAreRefused() throws Exception {
+        broker.placeTrailingOrder(new MarketSellOrder(ACCOUNT_ID, 10, TICKER), 50);
+    }
+
+    /**
+     * Stop orders which would have to be expired are refused, and leave
+     * nothing pending.
+     *
+     * @throws Exception if the order is refused
+     */
+    @Test
+    public void expiringStopOrdersAreRefused() throws Exception {
+        try {
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100),
+                              TimeInForce.DAY, 0L);
+            fail("Expiring stop order placed");
+        } catch (final BrokerException ex) {
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        }
+    }
+
+    /**
+     * Market orders and triggered stop orders are dispatched from a market
+     * order queue provided by a sub class, and nothing is dispatched once the
+     * broker is closed.
+     *
+     * @throws Exception if an order can't be placed
+     */
+    @Test
+    public void subClassMarketQueueDispatches() throws Exception {
+        final QueueBroker queueBroker = new QueueBroker(accountManager, exchange);
+        try {
+            exchange.setOpen(false);
+            final MarketBuyOrder market = new MarketBuyOrder(ACCOUNT_ID, 10, TICKER);
+            queueBroker.placeOrder(market);
+            final StopBuyOrder stop = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100);
+            queueBroker.placeOrder(stop);
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+            assertEquals(0, queueBroker.executed.size());
+
+            exchange.setOpen(true);
+            assertEquals(2, queueBroker.executed.size());
+            assertTrue(queueBroker.executed.contains(market));
+            assertTrue(queueBroker.executed.contains(stop));
+        } finally {
+            queueBroker.close();
+        }
+    }
+
+    /**
+     * A sub class initializing the broker with a configuration has its market
+     * order queue's orders executed by the broker, through the configured
+     * stages.
+     *
+     * @throws Exception if the broker can't be created or an order placed
+     */
+    @Test
+    public void subClassInitializesWithConfiguration() throws Exception {
+        final Account account = accountManager.getAccount(ACCOUNT_ID);
+        final SimpleBroker configured =
+            new ConfiguredBroker(accountManager, exchange, BrokerConfig.builder().shardCount(2).build());
+        try {
+            configured.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER));
+            configured.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+
+            // the price change is applied on the order manager's worker
+            final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (configured.getMetrics().getPendingOrders() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1L);
+            }
+        } finally {
+            configured.close();
+        }
+        assertEquals(0, configured.getMetrics().getPendingOrders());
+        assertEquals(BALANCE - 10 * INITIAL_PRICE - 10 * (INITIAL_PRICE + 100), account.getBalance());
+    }
+}
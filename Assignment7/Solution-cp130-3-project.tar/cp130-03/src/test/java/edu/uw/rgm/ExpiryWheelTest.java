@@ -0,0 +1,190 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uw.rgm.broker.ExpiryWheel;
+
+/**
+ * Verifies ExpiryWheel expires items no earlier than their deadline, that
+ * cancelled items are never expired and are no longer held, and that the
+ * expiry handler runs without the wheel's monitor.
+ */
+public class ExpiryWheelTest {
+    /** Duration of a tick */
+    private static final long TICK = 100L;
+
+    /** Number of slots in the wheel */
+    private static final int SLOTS = 8;
+
+    /** The start time */
+    private static final long START = 10_000L;
+
+    /** The items expired */
+    private List<String> expired;
+
+    /** The wheel under test */
+    private ExpiryWheel<String> wheel;
+
+    /**
+     * Creates the wheel.
+     */
+    @Before
+    public void setUp() {
+        expired = new ArrayList<>();
+        wheel = new ExpiryWheel<>(TICK, SLOTS, START, expired::add);
+    }
+
+    /**
+     * Items expire once their deadline has passed, not before.
+     */
+    @Test
+    public void itemsExpireAtTheirDeadline() {
+        wheel.schedule("a", START + 150);
+        wheel.schedule("b", START + 350);
+
+        wheel.advance(START + 149);
+        assertTrue(expired.isEmpty());
+        wheel.advance(START + 200);
+        assertEquals(Collections.singletonList("a"), expired);
+        wheel.advance(START + 400);
+        assertEquals(Arrays.asList("a", "b"), expired);
+    }
+
+    /**
+     * Items scheduled more than a revolution ahead are retained until their
+     * deadline.
+     */
+    @Test
+    public void itemsBeyondOneRevolutionAreRetained() {
+        final long deadline = START + TICK * SLOTS * 2 + 50;
+        wheel.schedule("far", deadline);
+
+        wheel.advance(START + TICK * SLOTS + 100);
+        assertTrue(expired.isEmpty());
+        wheel.advance(deadline + TICK);
+        assertEquals(Collections.singletonList("far"), expired);
+    }
+
+    /**
+     * A cancelled item is not expired, and can only be cancelled once.
+     */
+    @Test
+    public void cancelledItemsDoNotExpire() {
+        final String item = new String("a");
+        wheel.schedule(item, START + 150);
+        wheel.schedule("b", START + 150);
+
+        assertTrue(wheel.cancel(item));
+        assertFalse(wheel.cancel(item));
+        assertEquals(1, wheel.size());
+        wheel.advance(START + 300);
+        assertEquals(Collections.singletonList("b"), expired);
+        assertFalse(wheel.cancel("b"));
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Day items expire together, less any cancelled.
+     */
+    @Test
+    public void dayItemsExpireTogether() {
+        wheel.scheduleDay("a");
+        wheel.scheduleDay("b");
+        wheel.scheduleDay("c");
+        assertTrue(wheel.cancel("b"));
+
+        wheel.advance(START + TICK * SLOTS * 4);
+        assertTrue(expired.isEmpty());
+        wheel.expireDay();
+        assertEquals(Arrays.asList("a", "c"), expired);
+        assertFalse(wheel.cancel("a"));
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Rescheduling an item replaces its earlier expiry, whether for a time or
+     * the end of the day.
+     */
+    @Test
+    public void reschedulingReplacesTheExpiry() {
+        wheel.schedule("a", START + 150);
+        wheel.schedule("a", START + 550);
+        wheel.scheduleDay("b");
+        wheel.schedule("b", START + 250);
+        assertEquals(2, wheel.size());
+
+        wheel.expireDay();
+        wheel.advance(START + 300);
+        assertEquals(Collections.singletonList("b"), expired);
+        wheel.advance(START + 600);
+        assertEquals(Arrays.asList("b", "a"), expired);
+    }
+
+    /**
+     * Many items, cancelled in any order, are each removed and the remainder
+     * all expire.
+     */
+    @Test
+    public void manyItemsCancelIndividually() {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            final String item = "item" + i;
+            items.add(item);
+            if (i % 2 == 0) {
+                wheel.scheduleDay(item);
+            } else {
+                wheel.schedule(item, START + TICK * (i % (SLOTS * 3)) + 1);
+            }
+        }
+        for (int i = 0; i < items.size(); i += 3) {
+            assertTrue(wheel.cancel(items.get(i)));
+        }
+        assertEquals(666, wheel.size());
+
+        wheel.expireDay();
+        wheel.advance(START + TICK * SLOTS * 4);
+        assertEquals(666, expired.size());
+        assertEquals(0, wheel.size());
+        for (final String item : expired) {
+            assertTrue(Integer.parseInt(item.substring(4)) % 3 != 0);
+        }
+    }
+
+    /**
+     * The handler runs without the wheel's monitor, so another thread may
+     * cancel items while an item is being expired.
+     *
+     * @throws InterruptedException if interrupted waiting for the other thread
+     */
+    @Test
+    public void handlerRunsWithoutTheMonitor() throws InterruptedException {
+        final List<Boolean> cancelled = new ArrayList<>();
+        final AtomicReference<ExpiryWheel<String>> holder = new AtomicReference<>();
+        holder.set(new ExpiryWheel<>(TICK, SLOTS, START, item -> {
+            final Thread canceller = new Thread(() -> cancelled.add(holder.get().cancel("b")));
+            canceller.start();
+            try {
+                canceller.join(5_000L);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.get().schedule("a", START + 150);
+        holder.get().scheduleDay("b");
+
+        holder.get().advance(START + 200);
+        assertEquals(Collections.singletonList(Boolean.TRUE), cancelled);
+        assertEquals(0, holder.get().size());
+    }
+}
@@ -0,0 +1,129 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import edu.uw.rgm.broker.HandoffRing;
+
+/**
+ * Verifies HandoffRing passes on every item published by concurrent
+ * producers, in each producer's order, drains on close, and refuses items
+ * once its consumer has stopped.
+ */
+public class HandoffRingTest {
+    /** Number of producer threads */
+    private static final int PRODUCERS = 4;
+
+    /** Number of items published by each producer */
+    private static final int ITEMS = 50_000;
+
+    /**
+     * Items published by concurrent producers through a small ring, so it
+     * wraps and fills, all arrive and each producer's items arrive in order.
+     *
+     * @throws InterruptedException if interrupted waiting for the producers
+     */
+    @Test
+    public void concurrentProducersArriveInOrder() throws InterruptedException {
+        final List<int[]> received = new ArrayList<>();
+        final HandoffRing<int[]> ring = new HandoffRing<>(16, "test-ring", received::addAll);
+        final Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < ITEMS; i++) {
+                    ring.publish(new int[] {producer, i});
+                }
+            });
+            producers[p].start();
+        }
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+        ring.close();
+
+        assertEquals(PRODUCERS * ITEMS, received.size());
+        assertEquals(0, ring.backlog());
+        final int[] next = new int[PRODUCERS];
+        for (final int[] item : received) {
+            assertEquals(next[item[0]]++, item[1]);
+        }
+    }
+
+    /**
+     * Close passes on the items published before it, and a failing batch
+     * doesn't stop later batches being passed on.
+     */
+    @Test
+    public void closeDrainsAfterConsumerFailure() {
+        final List<Integer> received = new ArrayList<>();
+        final AtomicInteger batches = new AtomicInteger();
+        final HandoffRing<Integer> ring = new HandoffRing<>(8, "test-ring", batch -> {
+            if (batches.incrementAndGet() == 1) {
+                throw new IllegalStateException("first batch refused");
+            }
+            received.addAll(batch);
+        });
+        ring.publish(1);
+        while (batches.get() == 0) {
+            Thread.yield();
+        }
+        ring.publish(2);
+        ring.publish(3);
+        ring.close();
+
+        assertEquals(Arrays.asList(2, 3), received);
+    }
+
+    /**
+     * Once the consumer thread is stopped by an error publishing fails,
+     * rather than waiting forever for a slot.
+     *
+     * @throws InterruptedException if interrupted waiting for the consumer
+     */
+    @Test
+    public void publishFailsOnceConsumerStops() throws InterruptedException {
+        final Error error = new Error("consumer stopped");
+        final AtomicReference<Thread> consumer = new AtomicReference<>();
+        final HandoffRing<Integer> ring = new HandoffRing<>(2, "test-ring", batch -> {
+            consumer.set(Thread.currentThread());
+            throw error;
+        });
+        ring.publish(1);
+        while (consumer.get() == null) {
+            Thread.yield();
+        }
+        consumer.get().join();
+
+        try {
+            for (int i = 0; i < 4; i++) {
+                ring.publish(i);
+            }
+            fail("Published with the consumer stopped");
+        } catch (final IllegalStateException ex) {
+            assertSame(error, ex.getCause());
+        }
+        ring.close();
+    }
+
+    /**
+     * An interrupted close restores the interrupt rather than throwing.
+     */
+    @Test
+    public void interruptedCloseRestoresInterrupt() {
+        final HandoffRing<Integer> ring = new HandoffRing<>(8, "test-ring", batch -> { });
+        Thread.currentThread().interrupt();
+        ring.close();
+        assertTrue(Thread.interrupted());
+    }
+}
@@ -0,0 +1,241 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.BrokerMetrics;
+import edu.uw.rgm.broker.LatencyHistogram;
+import edu.uw.rgm.broker.OrderManagerMetrics;
+import edu.uw.rgm.broker.QueueMetrics;
+import edu.uw.rgm.broker.RateMeter;
+import edu.uw.rgm.broker.SimpleBroker;
+
+/**
+ * Verifies LatencyHistogram, RateMeter, QueueMetrics, BrokerMetrics and
+ * OrderManagerMetrics, and that SimpleBroker records its order flow in them.
+ */
+public class MetricsTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Largest relative error of a histogram percentile, one sub-bucket */
+    private static final double PERCENTILE_ERROR = 1.0 / 8;
+
+    /** Tolerance used comparing exact double values */
+    private static final double EXACT = 1e-9;
+
+    /**
+     * Asserts a percentile is within one sub-bucket of the expected value.
+     *
+     * @param expected the expected value
+     * @param actual the percentile
+     */
+    private static void assertPercentile(final double expected, final double actual) {
+        assertEquals(expected, actual, expected * PERCENTILE_ERROR);
+    }
+
+    /**
+     * An empty histogram reports no count, and zero percentiles and maximum.
+     */
+    @Test
+    public void emptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getPercentileMicros(50.0), EXACT);
+        assertEquals(0.0, histogram.getMaxMicros(), EXACT);
+    }
+
+    /**
+     * Percentiles of a uniform spread of latencies are within a sub-bucket of
+     * the true percentile, are capped by the maximum, and the maximum is
+     * exact.
+     */
+    @Test
+    public void histogramPercentilesWithinBucketError() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1_000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(1_000, histogram.getCount());
+        assertPercentile(500.0, histogram.getPercentileMicros(50.0));
+        assertPercentile(990.0, histogram.getPercentileMicros(99.0));
+        assertEquals(1_000.0, histogram.getMaxMicros(), EXACT);
+        assertEquals(1_000.0, histogram.getPercentileMicros(100.0), EXACT);
+        assertTrue(histogram.getPercentileMicros(99.9) <= histogram.getMaxMicros());
+    }
+
+    /**
+     * Small latencies are recorded exactly, and negative latencies as zero.
+     */
+    @Test
+    public void histogramSmallAndNegativeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        histogram.record(3L);
+        histogram.record(3L);
+        assertEquals(3, histogram.getCount());
+        assertEquals(0.0, histogram.getPercentileMicros(10.0), EXACT);
+        assertEquals(0.003, histogram.getPercentileMicros(50.0), EXACT);
+        assertEquals(0.003, histogram.getMaxMicros(), EXACT);
+    }
+
+    /**
+     * Latencies recorded concurrently are all counted.
+     *
+     * @throws InterruptedException if interrupted waiting for the recorders
+     */
+    @Test
+    public void histogramCountsConcurrentRecords() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] recorders = new Thread[4];
+        for (int t = 0; t < recorders.length; t++) {
+            recorders[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            recorders[t].start();
+        }
+        for (final Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(9_999 / 1_000.0, histogram.getMaxMicros(), EXACT);
+    }
+
+    /**
+     * A meter counts its events, and reports their rate once a sample
+     * interval has elapsed.
+     *
+     * @throws InterruptedException if interrupted waiting for the interval
+     */
+    @Test
+    public void rateMeterCountsAndSamples() throws InterruptedException {
+        final RateMeter meter = new RateMeter();
+        meter.mark();
+        meter.mark(99L);
+        assertEquals(100, meter.getCount());
+        assertEquals(0.0, meter.getRate(), EXACT);
+
+        TimeUnit.MILLISECONDS.sleep(1_100L);
+        final double rate = meter.getRate();
+        assertTrue(String.valueOf(rate), rate > 0.0 && rate <= 100.0);
+        assertEquals(rate, meter.getRate(), EXACT);
+    }
+
+    /**
+     * A queue's depth is the orders enqueued less those dispatched and
+     * removed.
+     */
+    @Test
+    public void queueDepthFollowsCounts() {
+        final QueueMetrics queue = new QueueMetrics();
+        queue.enqueued(10L);
+        queue.dispatched(3L);
+        queue.removed();
+        queue.removed();
+        assertEquals(10, queue.getEnqueuedCount());
+        assertEquals(3, queue.getDispatchedCount());
+        assertEquals(5, queue.getDepth());
+    }
+
+    /**
+     * The broker metrics report the gauges' current values, and the counts
+     * and latencies recorded in their meters and histograms.
+     */
+    @Test
+    public void brokerMetricsReportRecordedValues() {
+        final AtomicInteger pending = new AtomicInteger(7);
+        final BrokerMetrics metrics = new BrokerMetrics(pending::get, () -> 3, () -> 2);
+        assertEquals(7, metrics.getPendingOrders());
+        pending.set(4);
+        assertEquals(4, metrics.getPendingOrders());
+        assertEquals(3, metrics.getMarketQueueDepth());
+        assertEquals(2, metrics.getHandoffBacklog());
+
+        metrics.placed().mark(5L);
+        metrics.marketOrders().enqueued(4L);
+        metrics.marketOrders().dispatched(1L);
+        metrics.exchangeEvents().mark();
+        metrics.tradeLatency().record(TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.tradeLatency().record(TimeUnit.MICROSECONDS.toNanos(200));
+        metrics.persistLatency().record(TimeUnit.MICROSECONDS.toNanos(40));
+
+        assertEquals(5, metrics.getOrdersPlacedCount());
+        assertEquals(4, metrics.getMarketEnqueuedCount());
+        assertEquals(1, metrics.getMarketDispatchedCount());
+        assertEquals(1, metrics.getExchangeEventCount());
+        assertEquals(2, metrics.getTradeCount());
+        assertPercentile(100.0, metrics.getTradeLatencyMedianMicros());
+        assertEquals(200.0, metrics.getTradeLatency99thMicros(), EXACT);
+        assertEquals(200.0, metrics.getTradeLatency999thMicros(), EXACT);
+        assertEquals(200.0, metrics.getTradeLatencyMaxMicros(), EXACT);
+        assertEquals(1, metrics.getPersistCount());
+        assertEquals(40.0, metrics.getPersistLatencyMedianMicros(), EXACT);
+        assertEquals(40.0, metrics.getPersistLatencyMaxMicros(), EXACT);
+    }
+
+    /**
+     * The order manager metrics total their queues.
+     */
+    @Test
+    public void orderManagerMetricsTotalQueues() {
+        final OrderManagerMetrics metrics = new OrderManagerMetrics(TICKER);
+        metrics.stopBuys().enqueued(3L);
+        metrics.stopSells().enqueued(2L);
+        metrics.trailing().enqueued(1L);
+        metrics.stopBuys().dispatched(1L);
+        metrics.stopSells().removed();
+
+        assertEquals(TICKER, metrics.getTicker());
+        assertEquals(2, metrics.getStopBuyDepth());
+        assertEquals(1, metrics.getStopSellDepth());
+        assertEquals(1, metrics.getTrailingDepth());
+        assertEquals(6, metrics.getEnqueuedCount());
+        assertEquals(1, metrics.getDispatchedCount());
+    }
+
+    /**
+     * The broker records placed orders, the market order flow, trades,
+     * persists and exchange events.
+     *
+     * @throws Exception if the broker can't be created or an order placed
+     */
+    @Test
+    public void brokerRecordsOrderFlow() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final SimpleBroker broker = new SimpleBroker("test", accountManager, exchange);
+        try {
+            broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER));
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100));
+            exchange.setPrice(TICKER, INITIAL_PRICE + 100);
+
+            final BrokerMetrics metrics = broker.getMetrics();
+            assertEquals(2, metrics.getOrdersPlacedCount());
+            assertEquals(2, metrics.getMarketEnqueuedCount());
+            assertEquals(2, metrics.getMarketDispatchedCount());
+            assertEquals(2, metrics.getTradeCount());
+            assertEquals(2, metrics.getPersistCount());
+            assertEquals(1, metrics.getExchangeEventCount());
+            assertEquals(0, metrics.getPendingOrders());
+            assertEquals(0, metrics.getMarketQueueDepth());
+        } finally {
+            broker.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.SimpleOrderManager;
+
+/**
+ * Verifies SimpleOrderManager only cancels and replaces orders on behalf of
+ * the account that placed them.
+ */
+public class OrderCancellationTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Another account */
+    private static final String OTHER_ACCOUNT_ID = "brubble";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** The order manager under test */
+    private SimpleOrderManager orderMgr;
+
+    /** The stop buy orders dispatched */
+    private List<StopBuyOrder> dispatched;
+
+    /**
+     * Creates the order manager.
+     */
+    @Before
+    public void setUp() {
+        orderMgr = new SimpleOrderManager(TICKER, INITIAL_PRICE);
+        dispatched = new ArrayList<>();
+        orderMgr.setBuyOrderProcessor(dispatched::add);
+    }
+
+    /**
+     * Only the placing account may cancel a stop order.
+     */
+    @Test
+    public void cancelRequiresOwningAccount() {
+        final StopBuyOrder order = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, 1_100);
+        orderMgr.queueOrder(order);
+
+        assertFalse(orderMgr.cancelOrder(OTHER_ACCOUNT_ID, order.getOrderId()));
+        assertTrue(orderMgr.cancelOrder(ACCOUNT_ID, order.getOrderId()));
+        assertFalse(orderMgr.cancelOrder(ACCOUNT_ID, order.getOrderId()));
+
+        orderMgr.adjustPrice(1_100);
+        assertTrue(dispatched.isEmpty());
+    }
+
+    /**
+     * Only the placing account may cancel a trailing stop order.
+     */
+    @Test
+    public void cancelTrailingRequiresOwningAccount() {
+        final MarketSellOrder order = new MarketSellOrder(ACCOUNT_ID, 10, TICKER);
+        orderMgr.queueTrailingOrder(order, 50);
+
+        assertFalse(orderMgr.cancelOrder(OTHER_ACCOUNT_ID, order.getOrderId()));
+        assertTrue(orderMgr.cancelOrder(ACCOUNT_ID, order.getOrderId()));
+    }
+
+    /**
+     * A replacement for another account's order is refused and the original
+     * is left resting.
+     */
+    @Test
+    public void replaceRequiresOwningAccount() {
+        final StopBuyOrder order = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, 1_100);
+        orderMgr.queueOrder(order);
+
+        final StopBuyOrder hijack = new StopBuyOrder(OTHER_ACCOUNT_ID, 10, TICKER, 1_050);
+        assertFalse(orderMgr.replaceOrder(order.getOrderId(), hijack));
+
+        final StopBuyOrder replacement = new StopBuyOrder(ACCOUNT_ID, 20, TICKER, 1_050);
+        assertTrue(orderMgr.replaceOrder(order.getOrderId(), replacement));
+
+        orderMgr.adjustPrice(1_100);
+        assertEquals(1, dispatched.size());
+        assertEquals(replacement, dispatched.get(0));
+    }
+
+    /**
+     * A stop sell may not be replaced through the stop buy queue.
+     */
+    @Test
+    public void replaceOnlyMatchesSameSide() {
+        final StopSellOrder order = new StopSellOrder(ACCOUNT_ID, 10, TICKER, 900);
+        orderMgr.queueOrder(order);
+
+        assertFalse(orderMgr.replaceOrder(order.getOrderId(),
+                                          new StopBuyOrder(ACCOUNT_ID, 10, TICKER, 1_100)));
+        assertTrue(orderMgr.cancelOrder(ACCOUNT_ID, order.getOrderId()));
+    }
+}
@@ -0,0 +1,212 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.BrokerConfig;
+import edu.uw.rgm.broker.OrderDetails;
+import edu.uw.rgm.broker.OrderJournal;
+import edu.uw.rgm.broker.SimpleBroker;
+import edu.uw.rgm.broker.TimeInForce;
+
+/**
+ * Verifies OrderJournal rolls and compacts its segments off the order path,
+ * and recovers orders with the details they were placed with.
+ */
+public class OrderJournalTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Interval between group commits */
+    private static final long FLUSH_MILLIS = 5L;
+
+    /** A segment size holding only a handful of records */
+    private static final int SMALL_SEGMENT = 256;
+
+    /** How long to wait for the flusher to compact */
+    private static final long COMPACTION_WAIT_MILLIS = 5_000L;
+
+    /** Holds the journal files */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Counts the journal's segment files.
+     *
+     * @param journal the journal's snapshot file
+     *
+     * @return the number of segment files
+     */
+    private static int segmentCount(final Path journal) {
+        final String prefix = journal.getFileName() + ".";
+        final File[] files = journal.getParent().toFile().listFiles(
+            (dir, name) -> name.startsWith(prefix) && !name.endsWith(".tmp"));
+        return files.length;
+    }
+
+    /**
+     * Filling many segments leaves only the active and standby segments once
+     * the flusher has compacted, and only the live orders are recovered.
+     *
+     * @throws Exception if the journal can't be written or the wait is
+     *         interrupted
+     */
+    @Test
+    public void fullSegmentsAreCompactedByTheFlusher() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("orders.journal");
+        final List<Order> live = new ArrayList<>();
+        try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT,
+                                                     new OrderDetails())) {
+            for (int i = 0; i < 200; i++) {
+                final Order order = new StopBuyOrder(ACCOUNT_ID, i + 1, TICKER, INITIAL_PRICE + i);
+                journal.enqueued(order);
+                if (i % 10 == 0) {
+                    live.add(order);
+                } else {
+                    journal.removed(order.getOrderId());
+                }
+            }
+            final long giveUp = System.currentTimeMillis() + COMPACTION_WAIT_MILLIS;
+            while (segmentCount(path) > 2 && System.currentTimeMillis() < giveUp) {
+                TimeUnit.MILLISECONDS.sleep(FLUSH_MILLIS);
+            }
+            assertTrue(segmentCount(path) <= 2);
+        }
+
+        try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT,
+                                                     new OrderDetails())) {
+            final List<OrderJournal.Recovered> recovered = journal.recover();
+            assertEquals(live.size(), recovered.size());
+            for (int i = 0; i < live.size(); i++) {
+                final StopBuyOrder order = (StopBuyOrder) recovered.get(i).getOrder();
+                assertEquals(live.get(i).getNumberOfShares(), order.getNumberOfShares());
+                assertEquals(((StopBuyOrder) live.get(i)).getPrice(), order.getPrice());
+                assertEquals(live.get(i).getOrderId(), recovered.get(i).getPlacedId());
+            }
+        }
+    }
+
+    /**
+     * A recovered order keeps its time in force, expiration time and the id
+     * it was placed with, across successive recoveries.
+     *
+     * @throws IOException if the journal can't be written
+     */
+    @Test
+    public void recoveryPreservesOrderDetails() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("orders.journal");
+        final OrderDetails details = new OrderDetails();
+        final Order gtd = new MarketSellOrder(ACCOUNT_ID, 10, TICKER);
+        final Order day = new StopBuyOrder(ACCOUNT_ID, 20, TICKER, INITIAL_PRICE);
+        final Order gtc = new StopBuyOrder(ACCOUNT_ID, 30, TICKER, INITIAL_PRICE);
+        final long goodTill = System.currentTimeMillis() + 60_000L;
+        details.placed(gtd.getOrderId(), TimeInForce.GTD, goodTill);
+        details.placed(day.getOrderId(), TimeInForce.DAY, 0L);
+        details.placed(gtc.getOrderId(), TimeInForce.GTC, 0L);
+        try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT, details)) {
+            journal.enqueued(gtd);
+            journal.enqueued(day);
+            journal.enqueued(gtc);
+        }
+
+        for (int restart = 0; restart < 2; restart++) {
+            try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT,
+                                                         new OrderDetails())) {
+                final List<OrderJournal.Recovered> recovered = journal.recover();
+                assertEquals(3, recovered.size());
+                assertEquals(TimeInForce.GTD, recovered.get(0).getTimeInForce());
+                assertEquals(goodTill, recovered.get(0).getGoodTill());
+                assertEquals(gtd.getOrderId(), recovered.get(0).getPlacedId());
+                assertNotEquals(gtd.getOrderId(), recovered.get(0).getOrder().getOrderId());
+                assertEquals(TimeInForce.DAY, recovered.get(1).getTimeInForce());
+                assertEquals(day.getOrderId(), recovered.get(1).getPlacedId());
+                assertEquals(TimeInForce.GTC, recovered.get(2).getTimeInForce());
+                assertEquals(gtc.getOrderId(), recovered.get(2).getPlacedId());
+            }
+        }
+    }
+
+    /**
+     * Removing an order whose enqueue record has been compacted into the
+     * snapshot removes it from the recovered orders.
+     *
+     * @throws Exception if the journal can't be written or the wait is
+     *         interrupted
+     */
+    @Test
+    public void removalsApplyToCompactedOrders() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("orders.journal");
+        final Order removed = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, INITIAL_PRICE);
+        try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT,
+                                                     new OrderDetails())) {
+            journal.enqueued(removed);
+            for (int i = 0; i < 20; i++) {
+                final Order order = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, INITIAL_PRICE);
+                journal.enqueued(order);
+                journal.removed(order.getOrderId());
+            }
+            final long giveUp = System.currentTimeMillis() + COMPACTION_WAIT_MILLIS;
+            while (segmentCount(path) > 2 && System.currentTimeMillis() < giveUp) {
+                TimeUnit.MILLISECONDS.sleep(FLUSH_MILLIS);
+            }
+            journal.removed(removed.getOrderId());
+        }
+
+        try (OrderJournal journal = new OrderJournal(path, FLUSH_MILLIS, SMALL_SEGMENT,
+                                                     new OrderDetails())) {
+            assertTrue(journal.recover().isEmpty());
+        }
+    }
+
+    /**
+     * A journaled GTD stop order recovered by a new broker may still be
+     * cancelled by the id it was placed with.
+     *
+     * @throws Exception if the broker can't be created or the order placed
+     */
+    @Test
+    public void recoveredOrderCanBeCancelledByPlacedId() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        final InMemoryExchange exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        final StopBuyOrder order = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 100);
+
+        final BrokerConfig config = BrokerConfig.builder().journalDirectory(directory).build();
+        final SimpleBroker first = new SimpleBroker("test", accountManager, exchange, config);
+        first.placeOrder(order, TimeInForce.GTD, System.currentTimeMillis() + 60_000L);
+        first.close();
+
+        final SimpleBroker second = new SimpleBroker("test", accountManager, exchange, config);
+        try {
+            assertEquals(1, second.getMetrics().getPendingOrders());
+            assertFalse(second.cancelOrder("bmrubble", TICKER, order.getOrderId()));
+            assertTrue(second.cancelOrder(ACCOUNT_ID, TICKER, order.getOrderId()));
+            assertEquals(0, second.getMetrics().getPendingOrders());
+        } finally {
+            second.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.IntOrderQueue;
+import edu.uw.rgm.broker.PriceLevelOrderQueue;
+import edu.uw.rgm.broker.SimpleOrderManager;
+import edu.uw.rgm.broker.SortKeyOrderQueue;
+
+/**
+ * Verifies the price adjustment path of SimpleOrderManager does not allocate,
+ * in particular that the price is not boxed on its way to the order queues.
+ * The order manager only passes a price on to a queue once it reaches the
+ * queue's front order, so the queues' threshold adjustment is also measured
+ * directly, with orders queued at every price level the ticks pass through.
+ */
+public class OrderManagerAllocationTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price, well outside the Integer cache */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Number of price adjustments measured */
+    private static final int TICKS = 100_000;
+
+    /**
+     * Adjusts the price repeatedly without triggering any orders and checks
+     * the thread allocated less than one byte per adjustment.  The stop
+     * orders are outside the price range, so this covers the trigger bounds
+     * check and the trailing stop books.
+     */
+    @Test
+    public void adjustPriceDoesNotAllocate() {
+        final ThreadMXBean threadBean = allocationBean();
+        final SimpleOrderManager orderMgr = new SimpleOrderManager(TICKER, INITIAL_PRICE);
+        orderMgr.queueOrder(new StopBuyOrder(ACCOUNT_ID, 100, TICKER, INITIAL_PRICE * 10));
+        orderMgr.queueOrder(new StopSellOrder(ACCOUNT_ID, 100, TICKER, INITIAL_PRICE / 10));
+        orderMgr.queueTrailingOrder(new MarketBuyOrder(ACCOUNT_ID, 100, TICKER), INITIAL_PRICE * 2);
+        orderMgr.queueTrailingOrder(new MarketSellOrder(ACCOUNT_ID, 100, TICKER), INITIAL_PRICE * 2);
+
+        assertAllocationFree(threadBean, orderMgr::adjustPrice);
+    }
+
+    /**
+     * Sets the threshold of a PriceLevelOrderQueue repeatedly, below orders
+     * queued at every price level, and checks the thread allocated less than
+     * one byte per adjustment.
+     */
+    @Test
+    public void priceLevelThresholdDoesNotAllocate() {
+        final ThreadMXBean threadBean = allocationBean();
+        final PriceLevelOrderQueue<StopBuyOrder> queue =
+            new PriceLevelOrderQueue<>(INITIAL_PRICE, (int t, StopBuyOrder o) -> o.getPrice() <= t, false);
+        assertThresholdAllocationFree(threadBean, queue);
+    }
+
+    /**
+     * Sets the threshold of a SortKeyOrderQueue repeatedly, below orders
+     * queued at every price level, and checks the thread allocated less than
+     * one byte per adjustment.
+     */
+    @Test
+    public void sortKeyThresholdDoesNotAllocate() {
+        final ThreadMXBean threadBean = allocationBean();
+        final SortKeyOrderQueue<StopBuyOrder> queue =
+            new SortKeyOrderQueue<>(INITIAL_PRICE, (int t, StopBuyOrder o) -> o.getPrice() <= t, false);
+        assertThresholdAllocationFree(threadBean, queue);
+    }
+
+    /**
+     * Obtains the thread MXBean with allocation measurement enabled, skipping
+     * the test if it isn't supported.
+     *
+     * @return the thread MXBean
+     */
+    private static ThreadMXBean allocationBean() {
+        final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+
+    /**
+     * Queues a stop buy order at each price level from twice the initial
+     * price, then checks setting the queue's threshold to the prices below
+     * them doesn't allocate.  Each threshold is tested against the front
+     * order, and none are dispatched.
+     *
+     * @param threadBean the thread MXBean
+     * @param queue the queue
+     */
+    private static void assertThresholdAllocationFree(final ThreadMXBean threadBean,
+                                                      final IntOrderQueue<StopBuyOrder> queue) {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        queue.setOrderProcessor(dispatched::add);
+        for (int price = INITIAL_PRICE * 2; price < INITIAL_PRICE * 3; price++) {
+            queue.enqueue(new StopBuyOrder(ACCOUNT_ID, 100, TICKER, price));
+        }
+
+        assertAllocationFree(threadBean, queue::setThreshold);
+        assertEquals(0, dispatched.size());
+        assertEquals(INITIAL_PRICE * 2, queue.peekPrice(-1));
+    }
+
+    /**
+     * Passes a range of prices to a consumer, once to warm up so the measured
+     * pass runs compiled code, and checks the measured pass allocated less
+     * than one byte per price.
+     *
+     * @param threadBean the thread MXBean
+     * @param priceConsumer receives the prices
+     */
+    private static void assertAllocationFree(final ThreadMXBean threadBean, final IntConsumer priceConsumer) {
+        tick(priceConsumer);
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        tick(priceConsumer);
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(String.format("%d bytes allocated over %d price adjustments", allocated, TICKS),
+                   allocated < TICKS);
+    }
+
+    /**
+     * Walks the price through the range from the initial price to just under
+     * twice the initial price.
+     *
+     * @param priceConsumer receives the prices
+     */
+    private static void tick(final IntConsumer priceConsumer) {
+        for (int i = 0; i < TICKS; i++) {
+            priceConsumer.accept(INITIAL_PRICE + i % INITIAL_PRICE);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.SimpleOrderManager;
+
+/**
+ * Verifies SimpleOrderManager's cached trigger bounds, price adjustments
+ * which reach neither bound dispatch nothing, and the bounds follow the
+ * queues as orders are queued, dispatched, cancelled and replaced.
+ */
+public class OrderManagerTriggerTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** The order manager under test */
+    private SimpleOrderManager orderMgr;
+
+    /** The stop buy orders dispatched */
+    private List<StopBuyOrder> buys;
+
+    /** The stop sell orders dispatched */
+    private List<StopSellOrder> sells;
+
+    /**
+     * Creates the order manager.
+     */
+    @Before
+    public void setUp() {
+        orderMgr = new SimpleOrderManager(TICKER, INITIAL_PRICE);
+        buys = new ArrayList<>();
+        sells = new ArrayList<>();
+        orderMgr.setBuyOrderProcessor(buys::add);
+        orderMgr.setSellOrderProcessor(sells::add);
+    }
+
+    /**
+     * Prices between the bounds dispatch nothing, reaching a bound dispatches
+     * just the orders at or beyond it, and the bound moves to the next order.
+     */
+    @Test
+    public void boundsFollowDispatch() {
+        final StopBuyOrder buyNear = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 1_100);
+        final StopBuyOrder buyFar = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 1_200);
+        final StopSellOrder sellNear = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 900);
+        final StopSellOrder sellFar = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 800);
+        orderMgr.queueOrder(buyFar);
+        orderMgr.queueOrder(buyNear);
+        orderMgr.queueOrder(sellFar);
+        orderMgr.queueOrder(sellNear);
+
+        for (int price = 901; price < 1_100; price += 7) {
+            orderMgr.adjustPrice(price);
+        }
+        assertTrue(buys.isEmpty());
+        assertTrue(sells.isEmpty());
+
+        orderMgr.adjustPrice(1_150);
+        assertEquals(Collections.singletonList(buyNear), buys);
+        orderMgr.adjustPrice(1_199);
+        assertEquals(1, buys.size());
+        orderMgr.adjustPrice(1_200);
+        assertEquals(Arrays.asList(buyNear, buyFar), buys);
+
+        orderMgr.adjustPrice(850);
+        assertEquals(Collections.singletonList(sellNear), sells);
+        orderMgr.adjustPrice(800);
+        assertEquals(Arrays.asList(sellNear, sellFar), sells);
+    }
+
+    /**
+     * Cancelling the front order moves the bound to the next order, so a
+     * price reaching the cancelled order's stop price dispatches nothing.
+     */
+    @Test
+    public void cancellingFrontOrderMovesBound() {
+        final StopBuyOrder front = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 1_100);
+        final StopBuyOrder next = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 1_200);
+        orderMgr.queueOrder(front);
+        orderMgr.queueOrder(next);
+
+        assertTrue(orderMgr.cancelOrder(front.getOrderId()));
+        orderMgr.adjustPrice(1_150);
+        assertTrue(buys.isEmpty());
+        orderMgr.adjustPrice(1_200);
+        assertEquals(Collections.singletonList(next), buys);
+    }
+
+    /**
+     * Replacing an order with one further from the price moves the bound out.
+     */
+    @Test
+    public void replacingOrderMovesBound() {
+        final StopSellOrder original = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 900);
+        final StopSellOrder replacement = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 700);
+        orderMgr.queueOrder(original);
+
+        assertTrue(orderMgr.replaceOrder(original.getOrderId(), replacement));
+        orderMgr.adjustPrice(800);
+        assertTrue(sells.isEmpty());
+        orderMgr.adjustPrice(700);
+        assertEquals(Collections.singletonList(replacement), sells);
+    }
+
+    /**
+     * An order queued beyond a price reached while the queues were skipped is
+     * dispatched as it is queued.
+     */
+    @Test
+    public void orderBeyondSkippedPriceDispatchesWhenQueued() {
+        orderMgr.queueOrder(new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 2_000));
+        orderMgr.adjustPrice(1_150);
+        assertTrue(buys.isEmpty());
+
+        final StopBuyOrder crossed = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 1_100);
+        orderMgr.queueOrder(crossed);
+        assertEquals(Collections.singletonList(crossed), buys);
+    }
+}
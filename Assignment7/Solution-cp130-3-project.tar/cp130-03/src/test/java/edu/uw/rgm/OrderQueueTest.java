@@ -1,11 +1,20 @@
 package edu.uw.rgm;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 import test.AbstractOrderQueueTest;
 import edu.uw.ext.framework.broker.OrderQueue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.function.BiPredicate;
 
+import org.junit.Test;
+
 import edu.uw.ext.framework.order.Order;
 import edu.uw.ext.framework.order.StopBuyOrder;
 import edu.uw.ext.framework.order.StopSellOrder;
@@ -82,4 +91,31 @@ public class OrderQueueTest extends AbstractOrderQueueTest {
         return new SimpleOrderQueue<Boolean, Order>(true, (Boolean t, Order o)->t);
     }
 
+    /**
+     * A batch processor receives the whole triggered range in a single call,
+     * in dispatch order, and the untriggered orders remain queued.
+     */
+    @Test
+    public void batchDispatchesTriggeredRange() {
+        final SimpleOrderQueue<Integer, StopBuyOrder> queue =
+            (SimpleOrderQueue<Integer, StopBuyOrder>) createStopBuyOrderQueue(null);
+        final List<List<StopBuyOrder>> batches = new ArrayList<>();
+        queue.setBatchOrderProcessor(batches::add);
+        final StopBuyOrder a = new StopBuyOrder("fflintstone", 1, "F", 10);
+        final StopBuyOrder b = new StopBuyOrder("fflintstone", 1, "F", 20);
+        final StopBuyOrder c = new StopBuyOrder("fflintstone", 1, "F", 30);
+        queue.enqueue(c);
+        queue.enqueue(a);
+        queue.enqueue(b);
+        assertEquals(0, batches.size());
+
+        queue.setThreshold(20);
+        assertEquals(Collections.singletonList(Arrays.asList(a, b)), batches);
+
+        queue.setBatchOrderProcessor(null);
+        assertNull(queue.dequeue());
+        queue.setThreshold(30);
+        assertEquals(1, batches.size());
+        assertNull(queue.dequeue());
+    }
 }
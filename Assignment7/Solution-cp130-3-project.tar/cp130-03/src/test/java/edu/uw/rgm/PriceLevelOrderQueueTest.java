@@ -0,0 +1,302 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import org.junit.Test;
+
+import test.AbstractOrderQueueTest;
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.ConcurrentOrderQueue;
+import edu.uw.rgm.broker.PriceLevelOrderQueue;
+
+/**
+ * Runs the OrderQueue tests against PriceLevelOrderQueue, and adds tests of
+ * the price ladder's level ordering.  PriceLevelOrderQueue only holds priced
+ * orders, so the any order tests are run against the broker's market order
+ * queue.
+ */
+public class PriceLevelOrderQueueTest extends AbstractOrderQueueTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /**
+     * Creates a PriceLevelOrderQueue ordering StopBuyOrders by ascending price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopBuyOrder> createStopBuyOrderQueue(
+                        final BiPredicate<Integer, StopBuyOrder> filter) {
+        return new PriceLevelOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t,
+                                          false);
+    }
+
+    /**
+     * Creates a PriceLevelOrderQueue ordering StopSellOrders by descending
+     * price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopSellOrder> createStopSellOrderQueue(
+                          final BiPredicate<Integer, StopSellOrder> filter) {
+        return new PriceLevelOrderQueue<>(0, (int t, StopSellOrder o) -> o.getPrice() >= t,
+                                          true);
+    }
+
+    /**
+     * Creates a ConcurrentOrderQueue ordering Orders according to their
+     * natural ordering.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Boolean,Order> createAnyOrderQueue(
+                            final BiPredicate<Boolean, Order> filter) {
+        return new ConcurrentOrderQueue<Boolean, Order>(true, (Boolean t, Order o)->t);
+    }
+
+    /**
+     * Creates an ascending stop buy queue which records the orders it
+     * dispatches.
+     *
+     * @param dispatched receives the dispatched orders
+     *
+     * @return the queue
+     */
+    private static PriceLevelOrderQueue<StopBuyOrder> buyQueue(final List<StopBuyOrder> dispatched) {
+        final PriceLevelOrderQueue<StopBuyOrder> queue =
+            new PriceLevelOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t,
+                                       false);
+        queue.setOrderProcessor(dispatched::add);
+        return queue;
+    }
+
+    /**
+     * Orders at the same price are dispatched in arrival order, levels in
+     * price order, and only the levels the threshold reaches are dispatched.
+     */
+    @Test
+    public void levelsDispatchInPriceThenArrivalOrder() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(dispatched);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder d = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        queue.enqueue(a);
+        queue.enqueue(b);
+        queue.enqueue(c);
+        queue.enqueue(d);
+        assertEquals(10, queue.peekPrice(-1));
+
+        queue.setThreshold(25);
+        assertEquals(Arrays.asList(b, a, c), dispatched);
+        assertEquals(30, queue.peekPrice(-1));
+        assertNull(queue.dequeue());
+
+        queue.setThreshold(30);
+        assertSame(d, dispatched.get(3));
+        assertEquals(-1, queue.peekPrice(-1));
+    }
+
+    /**
+     * A batch processor receives every triggered level in a single call.
+     */
+    @Test
+    public void batchDispatchesTriggeredLevelsTogether() {
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(new ArrayList<>());
+        final List<List<StopBuyOrder>> batches = new ArrayList<>();
+        queue.setBatchOrderProcessor(batches::add);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        queue.enqueueAll(Arrays.asList(c, a, b));
+        assertEquals(0, batches.size());
+
+        queue.setThreshold(20);
+        assertEquals(Collections.singletonList(Arrays.asList(a, b)), batches);
+        assertEquals(30, queue.peekPrice(-1));
+    }
+
+    /**
+     * Cancelling an order from the middle of a level unlinks it, the level's
+     * remaining orders dispatch in arrival order and nothing is left behind.
+     */
+    @Test
+    public void cancelUnlinksOrderFromMiddleOfLevel() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(dispatched);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        queue.enqueueAll(Arrays.asList(a, b, c));
+
+        assertSame(b, queue.get(b.getOrderId()));
+        assertSame(b, queue.cancel(b.getOrderId()));
+        assertNull(queue.get(b.getOrderId()));
+        assertNull(queue.cancel(b.getOrderId()));
+        assertEquals(2, queue.size());
+
+        queue.setThreshold(20);
+        assertEquals(Arrays.asList(a, c), dispatched);
+        assertEquals(0, queue.size());
+        assertEquals(-1, queue.peekPrice(-1));
+    }
+
+    /**
+     * Cancelling the only order at the front price removes the level, so the
+     * next level becomes the front.
+     */
+    @Test
+    public void cancellingLastOrderRemovesLevel() {
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(new ArrayList<>());
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        queue.enqueueAll(Arrays.asList(a, b));
+
+        queue.cancel(a.getOrderId());
+        assertEquals(30, queue.peekPrice(-1));
+        queue.cancel(b.getOrderId());
+        assertEquals(-1, queue.peekPrice(-1));
+    }
+
+    /**
+     * Repeatedly replacing an order that is not at the head of its level
+     * leaves the queue holding only the live orders.
+     */
+    @Test
+    public void replacingOrdersDoesNotAccumulate() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(dispatched);
+        final StopBuyOrder head = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        queue.enqueue(head);
+        StopBuyOrder current = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        queue.enqueue(current);
+        for (int i = 0; i < 10_000; i++) {
+            assertSame(current, queue.cancel(current.getOrderId()));
+            current = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+            queue.enqueue(current);
+            assertEquals(2, queue.size());
+        }
+
+        queue.setThreshold(20);
+        assertEquals(Arrays.asList(head, current), dispatched);
+    }
+
+    /**
+     * An order being dispatched is no longer resting, so cancelling it from
+     * the processor finds nothing, while orders in untriggered levels may
+     * still be cancelled.
+     */
+    @Test
+    public void ordersBeingDispatchedCannotBeCancelled() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopBuyOrder> queue =
+            new PriceLevelOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t,
+                                       false);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        final List<Object> cancelled = new ArrayList<>();
+        queue.setOrderProcessor(order -> {
+            dispatched.add(order);
+            cancelled.add(queue.cancel(b.getOrderId()));
+        });
+        queue.enqueueAll(Arrays.asList(a, b, c));
+
+        queue.setThreshold(10);
+        assertEquals(Arrays.asList(a, b), dispatched);
+        assertEquals(Arrays.asList(null, null), cancelled);
+        assertSame(c, queue.cancel(c.getOrderId()));
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * If the processor fails the orders of the level it hadn't been passed
+     * remain queued at the front of the ladder, in arrival order, and may
+     * still be cancelled.
+     */
+    @Test
+    public void failedDispatchRequeuesRemainderOfLevel() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopBuyOrder> queue = buyQueue(dispatched);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder d = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        queue.enqueueAll(Arrays.asList(a, b, c, d));
+        queue.setOrderProcessor(order -> {
+            dispatched.add(order);
+            if (order == a) {
+                throw new IllegalStateException("processor failed");
+            }
+        });
+
+        try {
+            queue.setThreshold(10);
+        } catch (final IllegalStateException ex) {
+            assertEquals("processor failed", ex.getMessage());
+        }
+        assertEquals(Collections.singletonList(a), dispatched);
+        assertEquals(3, queue.size());
+        assertEquals(10, queue.peekPrice(-1));
+        assertSame(b, queue.get(b.getOrderId()));
+
+        assertSame(c, queue.cancel(c.getOrderId()));
+        queue.setOrderProcessor(dispatched::add);
+        queue.setThreshold(30);
+        assertEquals(Arrays.asList(a, b, d), dispatched);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * A deep ladder, built out of price order, dispatches level by level in
+     * price order, highest first for a descending queue.
+     */
+    @Test
+    public void deepLadderDispatchesInPriceOrder() {
+        final List<StopSellOrder> dispatched = new ArrayList<>();
+        final PriceLevelOrderQueue<StopSellOrder> queue =
+            new PriceLevelOrderQueue<>(Integer.MAX_VALUE, (int t, StopSellOrder o) -> o.getPrice() >= t,
+                                       true);
+        queue.setOrderProcessor(dispatched::add);
+        final List<StopSellOrder> orders = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            orders.add(new StopSellOrder(ACCOUNT_ID, 1, TICKER, (i * 7919) % 500));
+        }
+        queue.enqueueAll(orders);
+        assertEquals(499, queue.peekPrice(-1));
+        for (int i = 0; i < 100; i++) {
+            queue.cancel(orders.get(i).getOrderId());
+        }
+
+        queue.setThreshold(0);
+        assertEquals(400, dispatched.size());
+        for (int i = 1; i < dispatched.size(); i++) {
+            assertTrue(dispatched.get(i - 1).getPrice() > dispatched.get(i).getPrice());
+        }
+        assertEquals(-1, queue.peekPrice(-1));
+    }
+}
@@ -0,0 +1,198 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import org.junit.Test;
+
+import test.AbstractOrderQueueTest;
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+import edu.uw.rgm.broker.ConcurrentOrderQueue;
+import edu.uw.rgm.broker.SortKeyOrderQueue;
+
+/**
+ * Runs the OrderQueue tests against SortKeyOrderQueue, and adds tests of the
+ * price then arrival ordering given by the sort keys.  SortKeyOrderQueue only
+ * holds priced orders, so the any order tests are run against the broker's
+ * market order queue.
+ */
+public class SortKeyOrderQueueTest extends AbstractOrderQueueTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /**
+     * Creates a SortKeyOrderQueue ordering StopBuyOrders by ascending price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopBuyOrder> createStopBuyOrderQueue(
+                        final BiPredicate<Integer, StopBuyOrder> filter) {
+        return new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false);
+    }
+
+    /**
+     * Creates a SortKeyOrderQueue ordering StopSellOrders by descending price.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Integer,StopSellOrder> createStopSellOrderQueue(
+                          final BiPredicate<Integer, StopSellOrder> filter) {
+        return new SortKeyOrderQueue<>(0, (int t, StopSellOrder o) -> o.getPrice() >= t, true);
+    }
+
+    /**
+     * Creates a ConcurrentOrderQueue ordering Orders according to their
+     * natural ordering.
+     *
+     * @param filter the OrderDispatch filter to be used
+     *
+     * @return a new OrderQueue instance
+     */
+    @Override
+    protected final OrderQueue<Boolean,Order> createAnyOrderQueue(
+                            final BiPredicate<Boolean, Order> filter) {
+        return new ConcurrentOrderQueue<Boolean, Order>(true, (Boolean t, Order o)->t);
+    }
+
+    /**
+     * Orders at the same price are dispatched in arrival order, whatever their
+     * size, and higher prices first from a descending queue.
+     */
+    @Test
+    public void descendingQueueDispatchesInPriceThenArrivalOrder() {
+        final List<StopSellOrder> dispatched = new ArrayList<>();
+        final SortKeyOrderQueue<StopSellOrder> queue =
+            new SortKeyOrderQueue<>(Integer.MAX_VALUE, (int t, StopSellOrder o) -> o.getPrice() >= t, true);
+        queue.setOrderProcessor(dispatched::add);
+        final StopSellOrder a = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopSellOrder b = new StopSellOrder(ACCOUNT_ID, 100, TICKER, 30);
+        final StopSellOrder c = new StopSellOrder(ACCOUNT_ID, 50, TICKER, 20);
+        final StopSellOrder d = new StopSellOrder(ACCOUNT_ID, 1, TICKER, 10);
+        queue.enqueueAll(Arrays.asList(a, b, c, d));
+        assertEquals(30, queue.peekPrice(-1));
+
+        queue.setThreshold(15);
+        assertEquals(Arrays.asList(b, a, c), dispatched);
+        assertEquals(10, queue.peekPrice(-1));
+    }
+
+    /**
+     * A cancelled order is no longer found or dispatched, the remaining
+     * orders keep their places.
+     */
+    @Test
+    public void cancelledOrdersAreNotDispatched() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final SortKeyOrderQueue<StopBuyOrder> queue =
+            new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false);
+        queue.setOrderProcessor(dispatched::add);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        queue.enqueueAll(Arrays.asList(a, b, c));
+
+        assertSame(b, queue.get(b.getOrderId()));
+        assertSame(b, queue.cancel(b.getOrderId()));
+        assertNull(queue.get(b.getOrderId()));
+        assertNull(queue.cancel(b.getOrderId()));
+
+        queue.setThreshold(20);
+        assertEquals(Arrays.asList(a, c), dispatched);
+        assertEquals(-1, queue.peekPrice(-1));
+    }
+
+    /**
+     * A batch processor receives every dispatchable order in a single call.
+     */
+    @Test
+    public void batchDispatchesTriggeredOrdersTogether() {
+        final SortKeyOrderQueue<StopBuyOrder> queue =
+            new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false);
+        final List<List<StopBuyOrder>> batches = new ArrayList<>();
+        queue.setBatchOrderProcessor(batches::add);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 30);
+        queue.enqueueAll(Arrays.asList(c, a, b));
+        assertEquals(0, batches.size());
+
+        queue.setThreshold(20);
+        assertEquals(Arrays.asList(Arrays.asList(a, b)), batches);
+        assertEquals(30, queue.peekPrice(-1));
+    }
+
+    /**
+     * Once the arrival sequence passes its limit the resting orders are
+     * renumbered, and keep their price then arrival order.
+     */
+    @Test
+    public void renumberingKeepsPriceThenArrivalOrder() {
+        final List<StopBuyOrder> dispatched = new ArrayList<>();
+        final SortKeyOrderQueue<StopBuyOrder> queue =
+            new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false, 4L);
+        queue.setOrderProcessor(dispatched::add);
+        final StopBuyOrder a = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder b = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        queue.enqueue(a);
+        queue.enqueue(b);
+        for (int i = 0; i < 10; i++) {
+            final StopBuyOrder passing = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+            queue.enqueue(passing);
+            assertSame(passing, queue.cancel(passing.getOrderId()));
+        }
+        final StopBuyOrder c = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20);
+        final StopBuyOrder d = new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 10);
+        queue.enqueue(c);
+        queue.enqueue(d);
+
+        queue.setThreshold(20);
+        assertEquals(Arrays.asList(b, d, a, c), dispatched);
+    }
+
+    /**
+     * More resting orders than the arrival sequence can number are refused,
+     * rather than colliding with the keys of queued orders.
+     */
+    @Test
+    public void exceedingSequenceCapacityIsRefused() {
+        final SortKeyOrderQueue<StopBuyOrder> queue =
+            new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false, 2L);
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue(new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20));
+        }
+        try {
+            queue.enqueue(new StopBuyOrder(ACCOUNT_ID, 1, TICKER, 20));
+            fail("Order queued beyond the sequence capacity");
+        } catch (final IllegalStateException ex) {
+            assertEquals(20, queue.peekPrice(-1));
+        }
+    }
+
+    /**
+     * A sequence limit outside the bits of the sort key is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void sequenceLimitBeyondKeyIsRefused() {
+        new SortKeyOrderQueue<>(0, (int t, StopBuyOrder o) -> o.getPrice() <= t, false,
+                                SortKeyOrderQueue.MAX_SEQUENCE + 1);
+    }
+}
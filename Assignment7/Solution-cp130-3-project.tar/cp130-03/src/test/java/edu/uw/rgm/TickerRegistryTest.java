@@ -0,0 +1,145 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.rgm.broker.QuoteCache;
+import edu.uw.rgm.broker.TickerEventAdapter;
+import edu.uw.rgm.broker.TickerListener;
+import edu.uw.rgm.broker.TickerRegistry;
+
+/**
+ * Verifies TickerRegistry interns symbols to dense ids, and that
+ * TickerEventAdapter and QuoteCache resolve events and quotes through it.
+ */
+public class TickerRegistryTest {
+    /** Ticker symbols used for the test */
+    private static final String[] TICKERS = {"BA", "F", "GE", "IBM", "MSFT"};
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /**
+     * A listener recording the events it is passed.
+     */
+    private static final class RecordingListener implements TickerListener {
+        /** The events passed on, as descriptions */
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void priceChanged(final int tickerId, final int price) {
+            events.add(tickerId + ":" + price);
+        }
+
+        @Override
+        public void exchangeOpened(final ExchangeEvent event) {
+            events.add("opened");
+        }
+
+        @Override
+        public void exchangeClosed(final ExchangeEvent event) {
+            events.add("closed");
+        }
+    }
+
+    /**
+     * Ids are dense and assigned in order of first appearance, duplicates are
+     * registered once, and each id maps back to its symbol.
+     */
+    @Test
+    public void idsAreDenseInOrderOfAppearance() {
+        final TickerRegistry registry = new TickerRegistry(new String[] {"F", "GE", "F", "BA", "GE"});
+        assertEquals(3, registry.size());
+        assertEquals(0, registry.idOf("F"));
+        assertEquals(1, registry.idOf("GE"));
+        assertEquals(2, registry.idOf("BA"));
+        for (int id = 0; id < registry.size(); id++) {
+            assertEquals(id, registry.idOf(registry.symbolOf(id)));
+        }
+    }
+
+    /**
+     * Equal symbols which aren't the registered instance resolve, and
+     * unregistered symbols don't.
+     */
+    @Test
+    public void equalSymbolsResolveAndUnknownSymbolsDont() {
+        final TickerRegistry registry = new TickerRegistry(TICKERS);
+        assertEquals(3, registry.idOf(new String("IBM")));
+        assertEquals(TickerRegistry.NO_ID, registry.idOf("ORCL"));
+        assertEquals(TickerRegistry.NO_ID, registry.idOf(""));
+        assertEquals(TickerRegistry.NO_ID, new TickerRegistry(new String[0]).idOf("F"));
+    }
+
+    /**
+     * Symbols with colliding hash codes, and a large number of symbols,
+     * each resolve to their own id.
+     */
+    @Test
+    public void collidingAndManySymbolsResolve() {
+        final TickerRegistry colliding = new TickerRegistry(new String[] {"Aa", "BB", "AaAa", "BBBB", "AaBB"});
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4),
+                     Arrays.asList(colliding.idOf("Aa"), colliding.idOf("BB"), colliding.idOf("AaAa"),
+                                   colliding.idOf("BBBB"), colliding.idOf("AaBB")));
+        assertEquals(TickerRegistry.NO_ID, colliding.idOf("BBAa"));
+
+        final String[] symbols = new String[5_000];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = "T" + i;
+        }
+        final TickerRegistry registry = new TickerRegistry(symbols);
+        assertEquals(symbols.length, registry.size());
+        for (int i = 0; i < symbols.length; i++) {
+            assertEquals(i, registry.idOf("T" + i));
+        }
+    }
+
+    /**
+     * The adapter passes price changes on by id, drops those for unknown
+     * symbols, and passes the open and close events on.
+     */
+    @Test
+    public void adapterResolvesPriceChanges() {
+        final RecordingListener listener = new RecordingListener();
+        final TickerEventAdapter adapter = new TickerEventAdapter(new TickerRegistry(TICKERS), listener);
+        final Object source = new Object();
+        adapter.exchangeOpened(ExchangeEvent.newOpenedEvent(source));
+        adapter.priceChanged(ExchangeEvent.newPriceChangedEvent(source, "GE", INITIAL_PRICE));
+        adapter.priceChanged(ExchangeEvent.newPriceChangedEvent(source, "ORCL", INITIAL_PRICE));
+        adapter.priceChanged(ExchangeEvent.newPriceChangedEvent(source, "MSFT", INITIAL_PRICE + 1));
+        adapter.exchangeClosed(ExchangeEvent.newClosedEvent(source));
+
+        assertEquals(Arrays.asList("opened", "2:1000", "4:1001", "closed"), listener.events);
+    }
+
+    /**
+     * The cache has no quote until a price is known, then the latest price,
+     * and none for unknown symbols.
+     */
+    @Test
+    public void quoteCacheHoldsLatestPrice() {
+        final TickerRegistry registry = new TickerRegistry(TICKERS);
+        final QuoteCache quotes = new QuoteCache(registry);
+        assertNull(quotes.get("F"));
+
+        quotes.update(registry.idOf("F"), INITIAL_PRICE);
+        quotes.update(registry.idOf("F"), INITIAL_PRICE + 5);
+        final StockQuote quote = quotes.get("F");
+        assertSame(registry.symbolOf(registry.idOf("F")), quote.getTicker());
+        assertEquals(INITIAL_PRICE + 5, quote.getPrice());
+        assertEquals(INITIAL_PRICE + 5, quotes.get(new String("F")).getPrice());
+
+        quotes.update(registry.idOf("GE"), 0);
+        assertEquals(0, quotes.get("GE").getPrice());
+        assertNull(quotes.get("ORCL"));
+    }
+}
@@ -0,0 +1,176 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.rgm.broker.SimpleBroker;
+import edu.uw.rgm.broker.TimeInForce;
+
+/**
+ * Verifies SimpleBroker expires DAY and GTD orders, including stop orders
+ * which triggered while the exchange was closed and orders which replaced
+ * them.
+ */
+public class TimeInForceTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** How long to wait for an order to expire, the wheel ticks each second */
+    private static final long EXPIRY_WAIT_MILLIS = 5_000L;
+
+    /** The exchange */
+    private InMemoryExchange exchange;
+
+    /** The broker under test */
+    private SimpleBroker broker;
+
+    /**
+     * Creates the broker, with the exchange closed.
+     *
+     * @throws Exception if the account can't be created
+     */
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryAccountManager accountManager = new InMemoryAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", 1_000_000);
+        exchange = new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE);
+        exchange.setOpen(false);
+        broker = new SimpleBroker("test", accountManager, exchange);
+    }
+
+    /**
+     * Closes the broker.
+     *
+     * @throws BrokerException if the broker can't be closed
+     */
+    @After
+    public void tearDown() throws BrokerException {
+        broker.close();
+    }
+
+    /**
+     * A GTD order whose expiration time has passed is refused.
+     *
+     * @throws BrokerException if the order is unexpectedly placed
+     */
+    @Test
+    public void pastGoodTillIsRefused() throws BrokerException {
+        try {
+            broker.placeOrder(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER), TimeInForce.GTD,
+                              System.currentTimeMillis() - 1);
+            fail("Expired order placed");
+        } catch (final BrokerException ex) {
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        }
+    }
+
+    /**
+     * An order which can't be placed isn't left pending.
+     */
+    @Test
+    public void unplacedOrderIsNotPending() {
+        try {
+            broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, "NONE", INITIAL_PRICE),
+                              TimeInForce.DAY, 0L);
+            fail("Order for an unknown stock placed");
+        } catch (final BrokerException ex) {
+            assertEquals(0, broker.getMetrics().getPendingOrders());
+        }
+    }
+
+    /**
+     * A GTD stop order which triggered while the exchange was closed is
+     * expired from the market order queue, by the expiry timer without any
+     * further price changes.
+     *
+     * @throws Exception if the order can't be placed or the wait is
+     *         interrupted
+     */
+    @Test
+    public void triggeredStopExpiresFromMarketQueue() throws Exception {
+        final StopBuyOrder order = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 10);
+        broker.placeOrder(order, TimeInForce.GTD, System.currentTimeMillis() + 100);
+        exchange.setPrice(TICKER, INITIAL_PRICE + 10);
+        assertEquals(1, broker.getMetrics().getMarketQueueDepth());
+
+        final long giveUp = System.currentTimeMillis() + EXPIRY_WAIT_MILLIS;
+        while (broker.getMetrics().getPendingOrders() > 0
+               && System.currentTimeMillis() < giveUp) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(0, broker.getMetrics().getPendingOrders());
+        assertEquals(0, broker.getMetrics().getMarketQueueDepth());
+    }
+
+    /**
+     * A DAY order is expired when the exchange closes.
+     *
+     * @throws BrokerException if the order can't be placed
+     */
+    @Test
+    public void dayOrderExpiresAtClose() throws BrokerException {
+        broker.placeOrder(new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 10),
+                          TimeInForce.DAY, 0L);
+        assertEquals(1, broker.getMetrics().getPendingOrders());
+        exchange.setOpen(true);
+        exchange.setOpen(false);
+        assertEquals(0, broker.getMetrics().getPendingOrders());
+    }
+
+    /**
+     * The replacement of a DAY order is expired when the exchange closes, and
+     * the original isn't expired again.
+     *
+     * @throws BrokerException if an order can't be placed
+     */
+    @Test
+    public void replacedDayOrderExpiresAtClose() throws BrokerException {
+        final StopBuyOrder original = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 10);
+        broker.placeOrder(original, TimeInForce.DAY, 0L);
+        assertTrue(broker.replaceOrder(original.getOrderId(),
+                                       new StopBuyOrder(ACCOUNT_ID, 20, TICKER, INITIAL_PRICE + 20)));
+        assertEquals(1, broker.getMetrics().getPendingOrders());
+
+        exchange.setOpen(true);
+        exchange.setOpen(false);
+        assertEquals(0, broker.getMetrics().getPendingOrders());
+    }
+
+    /**
+     * The replacement of a GTD order expires at the original's expiration
+     * time.
+     *
+     * @throws Exception if an order can't be placed or the wait is
+     *         interrupted
+     */
+    @Test
+    public void replacedGoodTillOrderExpires() throws Exception {
+        final StopBuyOrder original = new StopBuyOrder(ACCOUNT_ID, 10, TICKER, INITIAL_PRICE + 10);
+        broker.placeOrder(original, TimeInForce.GTD, System.currentTimeMillis() + 100);
+        assertTrue(broker.replaceOrder(original.getOrderId(),
+                                       new StopBuyOrder(ACCOUNT_ID, 20, TICKER, INITIAL_PRICE + 20)));
+
+        final long giveUp = System.currentTimeMillis() + EXPIRY_WAIT_MILLIS;
+        while (broker.getMetrics().getPendingOrders() > 0
+               && System.currentTimeMillis() < giveUp) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(0, broker.getMetrics().getPendingOrders());
+    }
+}
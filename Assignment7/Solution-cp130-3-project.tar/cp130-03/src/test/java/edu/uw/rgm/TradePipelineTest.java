@@ -0,0 +1,174 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.account.Account;
+import edu.uw.ext.framework.account.AccountException;
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.Order;
+import edu.uw.rgm.broker.BrokerMetrics;
+import edu.uw.rgm.broker.TradePipeline;
+
+/**
+ * Verifies TradePipeline completes an order only once its account has been
+ * persisted, completes failed orders, and closes on interrupt without
+ * abandoning submitted orders.
+ */
+public class TradePipelineTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /** Initial account balance */
+    private static final int BALANCE = 1_000_000;
+
+    /** Capacity of each stage's queue */
+    private static final int CAPACITY = 8;
+
+    /** How long to wait for a stage */
+    private static final long WAIT_SECONDS = 5L;
+
+    /**
+     * An account manager whose persists wait until released.
+     */
+    private static final class GatedAccountManager implements AccountManager {
+        /** The account manager delegated to */
+        private final InMemoryAccountManager accounts = new InMemoryAccountManager();
+
+        /** Counted down once a persist is waiting */
+        private final CountDownLatch persisting = new CountDownLatch(1);
+
+        /** Persists wait for this to be counted down */
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void persist(final Account account) throws AccountException {
+            persisting.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            accounts.persist(account);
+        }
+
+        @Override
+        public Account getAccount(final String accountName) {
+            return accounts.getAccount(accountName);
+        }
+
+        @Override
+        public void deleteAccount(final String accountName) {
+            accounts.deleteAccount(accountName);
+        }
+
+        @Override
+        public Account createAccount(final String accountName, final String password,
+                                     final int balance) throws AccountException {
+            return accounts.createAccount(accountName, password, balance);
+        }
+
+        @Override
+        public boolean validateLogin(final String accountName, final String password) {
+            return accounts.validateLogin(accountName, password);
+        }
+
+        @Override
+        public void close() {
+            accounts.close();
+        }
+    }
+
+    /**
+     * Creates broker metrics for the pipeline to record latencies in.
+     *
+     * @return the metrics
+     */
+    private static BrokerMetrics metrics() {
+        return new BrokerMetrics(() -> 0, () -> 0, () -> 0);
+    }
+
+    /**
+     * An order isn't complete while its account's persist is outstanding,
+     * and is complete once the persist finishes.
+     *
+     * @throws Exception if the account can't be created or a wait is
+     *         interrupted
+     */
+    @Test
+    public void orderCompletesAfterPersist() throws Exception {
+        final GatedAccountManager accountManager = new GatedAccountManager();
+        final Account account = accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        final List<Order> completed = new CopyOnWriteArrayList<>();
+        final TradePipeline pipeline =
+            new TradePipeline(new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE),
+                              accountManager, CAPACITY, completed::add, metrics());
+        final Order order = new MarketBuyOrder(ACCOUNT_ID, 10, TICKER);
+        pipeline.submit(order);
+
+        assertTrue(accountManager.persisting.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(BALANCE - 10 * INITIAL_PRICE, account.getBalance());
+        assertTrue(completed.isEmpty());
+
+        accountManager.release.countDown();
+        pipeline.close();
+        assertEquals(Collections.singletonList(order), completed);
+    }
+
+    /**
+     * An order for an unknown account is completed, without being persisted.
+     */
+    @Test
+    public void failedOrderCompletes() {
+        final List<Order> completed = new CopyOnWriteArrayList<>();
+        final TradePipeline pipeline =
+            new TradePipeline(new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE),
+                              new InMemoryAccountManager(), CAPACITY, completed::add, metrics());
+        final Order order = new MarketBuyOrder("bmrubble", 10, TICKER);
+        pipeline.submit(order);
+        pipeline.close();
+
+        assertEquals(Collections.singletonList(order), completed);
+    }
+
+    /**
+     * An interrupted close restores the interrupt rather than throwing, and
+     * the submitted orders are still completed.
+     *
+     * @throws Exception if the account can't be created or a wait is
+     *         interrupted
+     */
+    @Test
+    public void interruptedCloseRestoresInterrupt() throws Exception {
+        final GatedAccountManager accountManager = new GatedAccountManager();
+        accountManager.createAccount(ACCOUNT_ID, "password", BALANCE);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final TradePipeline pipeline =
+            new TradePipeline(new InMemoryExchange(new String[] {TICKER}, INITIAL_PRICE),
+                              accountManager, CAPACITY, order -> completed.countDown(), metrics());
+        pipeline.submit(new MarketBuyOrder(ACCOUNT_ID, 10, TICKER));
+        assertTrue(accountManager.persisting.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        Thread.currentThread().interrupt();
+        pipeline.close();
+        assertTrue(Thread.interrupted());
+
+        accountManager.release.countDown();
+        assertTrue(completed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+}
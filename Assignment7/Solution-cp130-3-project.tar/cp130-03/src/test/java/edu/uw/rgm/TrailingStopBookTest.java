@@ -0,0 +1,164 @@
+package edu.uw.rgm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.rgm.broker.TrailingStopBook;
+
+/**
+ * Verifies TrailingStopBook triggers trailing stop orders once the price
+ * retreats their trail from the watermark seen since they were added, against
+ * hand worked cases and a straightforward model.
+ */
+public class TrailingStopBookTest {
+    /** Ticker symbol used for the test */
+    private static final String TICKER = "F";
+
+    /** Account used for the test orders */
+    private static final String ACCOUNT_ID = "fflintstone";
+
+    /** Initial price */
+    private static final int INITIAL_PRICE = 1_000;
+
+    /**
+     * A trailing sell triggers once the price falls its trail below the high
+     * seen since it was added, not below the price it was added at.
+     */
+    @Test
+    public void sellTrailsTheHigh() {
+        final List<MarketSellOrder> dispatched = new ArrayList<>();
+        final TrailingStopBook<MarketSellOrder> book = new TrailingStopBook<>(true, INITIAL_PRICE);
+        book.setOrderProcessor(dispatched::add);
+        final MarketSellOrder order = new MarketSellOrder(ACCOUNT_ID, 10, TICKER);
+        book.add(order, 50);
+
+        book.adjustPrice(1_100);
+        book.adjustPrice(1_051);
+        assertTrue(dispatched.isEmpty());
+        book.adjustPrice(1_050);
+        assertEquals(Collections.singletonList(order), dispatched);
+        assertEquals(0, book.size());
+    }
+
+    /**
+     * A trailing buy triggers once the price rises its trail above the low
+     * seen since it was added.
+     */
+    @Test
+    public void buyTrailsTheLow() {
+        final List<MarketBuyOrder> dispatched = new ArrayList<>();
+        final TrailingStopBook<MarketBuyOrder> book = new TrailingStopBook<>(false, INITIAL_PRICE);
+        book.setOrderProcessor(dispatched::add);
+        final MarketBuyOrder order = new MarketBuyOrder(ACCOUNT_ID, 10, TICKER);
+        book.add(order, 50);
+
+        book.adjustPrice(900);
+        book.adjustPrice(949);
+        assertTrue(dispatched.isEmpty());
+        book.adjustPrice(950);
+        assertEquals(Collections.singletonList(order), dispatched);
+    }
+
+    /**
+     * Orders added at different prices keep their own watermarks until a new
+     * high merges them, and tighter trails trigger first.
+     */
+    @Test
+    public void ordersKeepTheirOwnWatermarks() {
+        final List<MarketSellOrder> dispatched = new ArrayList<>();
+        final TrailingStopBook<MarketSellOrder> book = new TrailingStopBook<>(true, INITIAL_PRICE);
+        book.setOrderProcessor(dispatched::add);
+        final MarketSellOrder early = new MarketSellOrder(ACCOUNT_ID, 1, TICKER);
+        book.add(early, 100);
+        book.adjustPrice(950);
+        final MarketSellOrder late = new MarketSellOrder(ACCOUNT_ID, 2, TICKER);
+        book.add(late, 20);
+
+        book.adjustPrice(930);
+        assertEquals(Collections.singletonList(late), dispatched);
+        book.adjustPrice(900);
+        assertEquals(Arrays.asList(late, early), dispatched);
+    }
+
+    /**
+     * A cancelled order is not dispatched, and is no longer held.
+     */
+    @Test
+    public void cancelledOrderIsNotDispatched() {
+        final List<MarketSellOrder> dispatched = new ArrayList<>();
+        final TrailingStopBook<MarketSellOrder> book = new TrailingStopBook<>(true, INITIAL_PRICE);
+        book.setOrderProcessor(dispatched::add);
+        final MarketSellOrder cancelled = new MarketSellOrder(ACCOUNT_ID, 1, TICKER);
+        final MarketSellOrder kept = new MarketSellOrder(ACCOUNT_ID, 2, TICKER);
+        book.add(cancelled, 10);
+        book.add(kept, 30);
+
+        assertSame(cancelled, book.cancel(cancelled.getOrderId()));
+        assertNull(book.get(cancelled.getOrderId()));
+        assertNull(book.cancel(cancelled.getOrderId()));
+        assertEquals(1, book.size());
+
+        book.adjustPrice(980);
+        assertTrue(dispatched.isEmpty());
+        book.adjustPrice(970);
+        assertEquals(Collections.singletonList(kept), dispatched);
+    }
+
+    /**
+     * A random walk with orders added and cancelled along the way triggers
+     * the same orders, on the same ticks, as tracking every order's watermark.
+     */
+    @Test
+    public void matchesWatermarkModel() {
+        final Random random = new Random(42);
+        final Set<MarketSellOrder> dispatched = new HashSet<>();
+        final TrailingStopBook<MarketSellOrder> book = new TrailingStopBook<>(true, INITIAL_PRICE);
+        book.setOrderProcessor(dispatched::add);
+        final Map<MarketSellOrder, int[]> model = new HashMap<>();
+        int price = INITIAL_PRICE;
+        for (int tick = 0; tick < 20_000; tick++) {
+            if (random.nextInt(4) == 0) {
+                final MarketSellOrder order = new MarketSellOrder(ACCOUNT_ID, 1, TICKER);
+                final int trail = 1 + random.nextInt(30);
+                book.add(order, trail);
+                model.put(order, new int[] {price, trail});
+            }
+            if (!model.isEmpty() && random.nextInt(10) == 0) {
+                final MarketSellOrder order = model.keySet().iterator().next();
+                assertSame(order, book.cancel(order.getOrderId()));
+                model.remove(order);
+            }
+
+            price = Math.max(1, price + random.nextInt(21) - 10);
+            book.adjustPrice(price);
+            final Set<MarketSellOrder> expected = new HashSet<>();
+            for (final Map.Entry<MarketSellOrder, int[]> entry : model.entrySet()) {
+                final int[] state = entry.getValue();
+                state[0] = Math.max(state[0], price);
+                if (state[0] - state[1] >= price) {
+                    expected.add(entry.getKey());
+                }
+            }
+            model.keySet().removeAll(expected);
+            assertEquals("tick " + tick, expected, dispatched);
+            dispatched.clear();
+            assertEquals(model.size(), book.size());
+        }
+    }
+}